@@ -0,0 +1,176 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import com.lloseng.ocsf.codec.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> BenchmarkSuite </code> class runs all the benchmarks of
+* the framework with the same <code>Harness</code> and prints their
+* results in one table:<p>
+* <ul>
+* <li> <code>serialization</code>: the cost of each message type with
+*      each codec, in <code>SerializationCost</code>;
+* <li> <code>roundTrip</code>: the round trip through an echo server,
+*      in <code>RoundTripLatency</code>;
+* <li> <code>fanout</code>: a broadcast to 10, 100 and 1000 clients,
+*      in <code>BroadcastFanout</code>;
+* <li> <code>pipeline</code>: requests answered with 1, 16 and 128 in
+*      flight, in <code>PipelineDepth</code>;
+* <li> <code>connectionSetup</code>: the opening and closing of a
+*      connection, in <code>ConnectionSetup</code>.
+* </ul><p>
+*
+* Each benchmark runs 3 warmup iterations then 5 measured iterations
+* of one second. Comparing the results before and after a change,
+* on the same machine, shows its effect on performance.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.BenchmarkSuite [quick]
+* [filter]</code> where <code>quick</code> runs shorter iterations,
+* to check that the benchmarks work rather than to measure, and
+* filter restricts the run to the benchmarks whose name contains it.
+* The fan-out to 1000 clients needs more than 2000 open files.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.bench.Harness
+*/
+public class BenchmarkSuite
+{
+  /**
+   * The codecs measured.
+   */
+  private static final String[] CODECS = {"object", "serialization", "binary"};
+
+  /**
+   * The server modes measured.
+   */
+  private static final String[] MODES = {"threads", "loops"};
+
+  /**
+   * The numbers of clients of the fan-out benchmarks.
+   */
+  private static final int[] FANOUT_CLIENTS = {10, 100, 1000};
+
+  /**
+   * The numbers of requests in flight of the pipeline benchmarks.
+   */
+  private static final int[] PIPELINE_DEPTHS = {1, 16, 128};
+
+  /**
+   * The length of the string messages exchanged over the network.
+   */
+  private static final int MESSAGE_SIZE = 32;
+
+  /**
+   * The port of the servers.
+   */
+  private static final int PORT = 12352;
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args <code>quick</code> and the filter, both optional.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    boolean quick = args.length > 0 && args[0].equals("quick");
+    String filter = args.length > (quick ? 1 : 0) ? args[quick ? 1 : 0] : "";
+    Harness harness = quick ? new Harness(1, 2, 200) : new Harness(3, 5, 1000);
+
+    for (int i=0; i<CODECS.length; i++)
+    {
+      for (int j=0; j<SerializationCost.TYPES.length; j++)
+      {
+        if (selected("serialization:" + CODECS[i] + ":"
+            + SerializationCost.TYPES[j], filter))
+          SerializationCost.run(harness, CODECS[i], SerializationCost.TYPES[j]);
+      }
+    }
+
+    for (int i=0; i<MODES.length; i++)
+    {
+      for (int j=0; j<CODECS.length; j++)
+      {
+        if (selected("roundTrip:" + MODES[i] + ":" + CODECS[j], filter))
+          RoundTripLatency.run(harness, MODES[i], CODECS[j],
+            MESSAGE_SIZE, PORT);
+      }
+    }
+
+    for (int i=0; i<MODES.length; i++)
+    {
+      for (int j=0; j<FANOUT_CLIENTS.length; j++)
+      {
+        if (selected("fanout:" + MODES[i] + ":" + FANOUT_CLIENTS[j], filter))
+          BroadcastFanout.run(harness, MODES[i], FANOUT_CLIENTS[j],
+            MESSAGE_SIZE, PORT);
+      }
+    }
+
+    for (int i=0; i<MODES.length; i++)
+    {
+      for (int j=0; j<PIPELINE_DEPTHS.length; j++)
+      {
+        if (selected("pipeline:" + MODES[i] + ":binary:" + PIPELINE_DEPTHS[j],
+            filter))
+          PipelineDepth.run(harness, MODES[i], "binary", PIPELINE_DEPTHS[j],
+            PORT);
+      }
+    }
+
+    for (int i=0; i<MODES.length; i++)
+    {
+      if (selected("connectionSetup:" + MODES[i], filter))
+        ConnectionSetup.run(harness, MODES[i], "object", PORT);
+    }
+  }
+
+  /**
+   * Returns the codec of the given name.
+   *
+   * @param name <code>object</code>, <code>serialization</code> or
+   *   <code>binary</code>.
+   * @return the codec, null for the object streams.
+   */
+  static MessageCodec codec(String name)
+  {
+    if (name.equals("object"))
+      return null;
+    if (name.equals("serialization"))
+      return new SerializationCodec();
+    if (name.equals("binary"))
+      return new BinaryCodec();
+
+    throw new IllegalArgumentException("Unknown codec: " + name);
+  }
+
+  /**
+   * Sets up a server in the given mode.
+   *
+   * @param server the server.
+   * @param mode <code>threads</code>, <code>virtual</code> or
+   *   <code>loops</code>.
+   */
+  static void configure(AbstractServer server, String mode)
+  {
+    if (mode.equals("loops"))
+      server.setEventLoops(Runtime.getRuntime().availableProcessors());
+    else if (mode.equals("virtual"))
+      server.setVirtualThreads(true);
+    else if (!mode.equals("threads"))
+      throw new IllegalArgumentException("Unknown mode: " + mode);
+  }
+
+  /**
+   * Indicates if a benchmark is selected by the filter.
+   */
+  private static boolean selected(String name, String filter)
+  {
+    return name.contains(filter);
+  }
+}
+// End of BenchmarkSuite class
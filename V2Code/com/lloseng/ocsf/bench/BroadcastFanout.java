@@ -0,0 +1,179 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import com.lloseng.ocsf.client.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> BroadcastFanout </code> class measures how fast a server
+* delivers a message sent with <code>sendToAllClients</code> to all its
+* clients. The given number of clients are connected over the loopback
+* interface in the same process. A broadcast is complete when the last
+* client has handled the message; the next one is only sent then, so
+* the duration reported is the time needed to reach every client, and
+* the number of deliveries per second is the rate multiplied by the
+* number of clients.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.BroadcastFanout mode clients
+* [size]</code> where mode is <code>threads</code>, <code>virtual</code>
+* or <code>loops</code>. The number of open files allowed to the
+* process must exceed twice the number of clients.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.bench.BenchmarkSuite
+*/
+public class BroadcastFanout
+{
+  /**
+   * A server ignoring the messages of its clients.
+   */
+  static class BroadcastServer extends AbstractServer
+  {
+    BroadcastServer(int port)
+    {
+      super(port);
+    }
+
+    protected void handleMessageFromClient(
+      Object msg, ConnectionToClient client) {}
+  }
+
+  /**
+   * Counts the messages received by all the clients and wakes up the
+   * broadcasting thread when the expected count is reached.
+   */
+  static class Deliveries
+  {
+    final AtomicLong received = new AtomicLong();
+    volatile long expected = 0;
+    volatile Thread waiter;
+
+    void delivered()
+    {
+      if (received.incrementAndGet() >= expected)
+        LockSupport.unpark(waiter);
+    }
+
+    void await(long count)
+    {
+      while (received.get() < count)
+      {
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  /**
+   * A client counting the messages it receives.
+   */
+  static class CountingClient extends AbstractClient
+  {
+    private final Deliveries deliveries;
+
+    CountingClient(String host, int port, Deliveries deliveries)
+    {
+      super(host, port);
+      this.deliveries = deliveries;
+    }
+
+    protected void handleMessageFromServer(Object msg)
+    {
+      deliveries.delivered();
+    }
+  }
+
+  /**
+   * Measures the broadcast of string messages.
+   *
+   * @param harness the harness running the measure.
+   * @param mode the mode of the server.
+   * @param clients the number of clients.
+   * @param size the length of the messages.
+   * @param port the port of the server.
+   * @return the result.
+   */
+  public static Harness.Result run(Harness harness, String mode,
+    final int clients, int size, int port) throws Exception
+  {
+    char[] chars = new char[size];
+    Arrays.fill(chars, 'x');
+    final String payload = new String(chars);
+
+    final BroadcastServer server = new BroadcastServer(port);
+    BenchmarkSuite.configure(server, mode);
+    server.setTcpNoDelay(true);
+    server.setBacklog(clients);
+    server.listen();
+
+    final Deliveries deliveries = new Deliveries();
+    List<CountingClient> connected = new ArrayList<CountingClient>();
+    try
+    {
+      for (int i=0; i<clients; i++)
+      {
+        CountingClient client =
+          new CountingClient("localhost", port, deliveries);
+        client.openConnection();
+        connected.add(client);
+      }
+      while (server.getNumberOfClients() < clients)
+      {
+        Thread.sleep(10);
+      }
+
+      deliveries.waiter = Thread.currentThread();
+      Harness.Result result = harness.measure(
+        "fanout:" + mode + ":" + clients + ":" + size,
+        new Harness.Operation()
+        {
+          public void execute()
+          {
+            long expected = deliveries.expected + clients;
+            deliveries.expected = expected;
+            server.sendToAllClients(payload);
+            deliveries.await(expected);
+          }
+        });
+
+      System.out.printf(Locale.ROOT, "%-44s      %.0f deliveries/s%n", "",
+        result.getRate() * clients);
+      return result;
+    }
+    finally
+    {
+      for (CountingClient client : connected)
+      {
+        client.closeConnection();
+      }
+      server.close();
+    }
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the mode, the number of clients and the size of the
+   *   messages.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 2)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench.BroadcastFanout"
+        + " threads|virtual|loops clients [size]");
+      return;
+    }
+
+    int size = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+    run(new Harness(3, 5, 1000), args[0], Integer.parseInt(args[1]),
+      size, 12350);
+  }
+}
+// End of BroadcastFanout class
@@ -0,0 +1,113 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import com.lloseng.ocsf.client.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> ConnectionSetup </code> class measures the number of
+* connections per second that a client can open and close with a
+* server. Each operation creates a client, opens its connection,
+* which returns once the handshake with the server is complete, and
+* closes it. Unlike <code>ReconnectStorm</code>, the connections are
+* opened one at a time, so that the duration reported is the one of a
+* single setup.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.ConnectionSetup mode
+* [codec]</code> where mode is <code>threads</code>,
+* <code>virtual</code> or <code>loops</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.bench.BenchmarkSuite
+* @see com.lloseng.ocsf.bench.ReconnectStorm
+*/
+public class ConnectionSetup
+{
+  /**
+   * A server ignoring the messages of its clients.
+   */
+  static class IdleServer extends AbstractServer
+  {
+    IdleServer(int port)
+    {
+      super(port);
+    }
+
+    protected void handleMessageFromClient(
+      Object msg, ConnectionToClient client) {}
+  }
+
+  /**
+   * A client ignoring the messages of the server.
+   */
+  static class IdleClient extends AbstractClient
+  {
+    IdleClient(String host, int port)
+    {
+      super(host, port);
+    }
+
+    protected void handleMessageFromServer(Object msg) {}
+  }
+
+  /**
+   * Measures the opening and closing of connections.
+   *
+   * @param harness the harness running the measure.
+   * @param mode the mode of the server.
+   * @param codec the name of the codec.
+   * @param port the port of the server.
+   * @return the result.
+   */
+  public static Harness.Result run(Harness harness, String mode,
+    final String codec, final int port) throws Exception
+  {
+    IdleServer server = new IdleServer(port);
+    BenchmarkSuite.configure(server, mode);
+    server.setMessageCodec(BenchmarkSuite.codec(codec));
+    server.listen();
+
+    try
+    {
+      return harness.measure("connectionSetup:" + mode + ":" + codec,
+        new Harness.Operation()
+        {
+          public void execute() throws IOException
+          {
+            IdleClient client = new IdleClient("localhost", port);
+            client.setMessageCodec(BenchmarkSuite.codec(codec));
+            client.openConnection();
+            client.closeConnection();
+          }
+        });
+    }
+    finally
+    {
+      server.close();
+    }
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the mode and the codec.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 1)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench.ConnectionSetup"
+        + " threads|virtual|loops [object|serialization|binary]");
+      return;
+    }
+
+    String codec = args.length > 1 ? args[1] : "object";
+    run(new Harness(3, 5, 1000), args[0], codec, 12351);
+  }
+}
+// End of ConnectionSetup class
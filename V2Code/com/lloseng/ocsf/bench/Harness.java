@@ -0,0 +1,272 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.util.*;
+import com.lloseng.ocsf.metrics.*;
+
+/**
+* The <code> Harness </code> class runs an operation repeatedly and
+* measures its rate and the distribution of its duration, in the
+* manner of JMH without depending on it. The operation is first run
+* during warmup iterations, so that the JIT compiler has optimized
+* it, then during the measured iterations. Each iteration lasts a
+* fixed time; the rate is reported as the mean over the iterations
+* with its standard deviation, and the durations of all the measured
+* operations are kept in a histogram.<p>
+*
+* The results are printed in a table close to the one of JMH, one
+* line per benchmark followed by the percentiles of its duration.
+* A benchmark that returns a value should store it in
+* <code>sink</code> so that the work is not optimized away.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.bench.BenchmarkSuite
+*/
+public class Harness
+{
+  /**
+   * An operation to measure.
+   */
+  public interface Operation
+  {
+    /**
+     * Runs the operation once.
+     *
+     * @exception Exception if the operation fails, which ends the
+     *   benchmark.
+     */
+    void execute() throws Exception;
+  }
+
+  /**
+   * The result of a benchmark.
+   */
+  public static class Result
+  {
+    private final String name;
+    private final double[] rates;
+    private final Histogram durations;
+
+    Result(String name, double[] rates, Histogram durations)
+    {
+      this.name = name;
+      this.rates = rates;
+      this.durations = durations;
+    }
+
+    /**
+     * @return the name of the benchmark.
+     */
+    public String getName()
+    {
+      return name;
+    }
+
+    /**
+     * @return the mean number of operations per second.
+     */
+    public double getRate()
+    {
+      double sum = 0;
+      for (int i=0; i<rates.length; i++)
+      {
+        sum += rates[i];
+      }
+      return sum / rates.length;
+    }
+
+    /**
+     * @return the standard deviation of the number of operations per
+     *   second over the iterations.
+     */
+    public double getRateDeviation()
+    {
+      if (rates.length < 2)
+        return 0;
+
+      double mean = getRate();
+      double sum = 0;
+      for (int i=0; i<rates.length; i++)
+      {
+        sum += (rates[i] - mean) * (rates[i] - mean);
+      }
+      return Math.sqrt(sum / (rates.length - 1));
+    }
+
+    /**
+     * @return the durations of the measured operations in nanoseconds.
+     */
+    public Histogram getDurations()
+    {
+      return durations;
+    }
+  }
+
+// CLASS VARIABLES **************************************************
+
+  /**
+   * Receives the values computed by the benchmarks.
+   */
+  public static volatile Object sink;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The number of warmup iterations.
+   */
+  private final int warmups;
+
+  /**
+   * The number of measured iterations.
+   */
+  private final int iterations;
+
+  /**
+   * The duration of an iteration in nanoseconds.
+   */
+  private final long iterationNanos;
+
+  /**
+   * The stream on which the results are printed.
+   */
+  private final PrintStream out;
+
+  /**
+   * Indicates if the header of the table has been printed.
+   */
+  private boolean headerPrinted = false;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a harness printing on the standard output.
+   *
+   * @param warmups the number of warmup iterations.
+   * @param iterations the number of measured iterations.
+   * @param iterationMillis the duration of an iteration in milliseconds.
+   */
+  public Harness(int warmups, int iterations, long iterationMillis)
+  {
+    this(warmups, iterations, iterationMillis, System.out);
+  }
+
+  /**
+   * Constructs a harness.
+   *
+   * @param warmups the number of warmup iterations.
+   * @param iterations the number of measured iterations.
+   * @param iterationMillis the duration of an iteration in milliseconds.
+   * @param out the stream on which the results are printed.
+   */
+  public Harness(int warmups, int iterations, long iterationMillis,
+    PrintStream out)
+  {
+    this.warmups = Math.max(0, warmups);
+    this.iterations = Math.max(1, iterations);
+    this.iterationNanos = iterationMillis * 1000000;
+    this.out = out;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Measures an operation and prints the result.
+   *
+   * @param name the name of the benchmark.
+   * @param operation the operation.
+   * @return the result.
+   * @exception Exception if the operation fails.
+   */
+  public Result measure(String name, Operation operation) throws Exception
+  {
+    Histogram ignored = new Histogram();
+    for (int i=0; i<warmups; i++)
+    {
+      iterate(operation, ignored);
+    }
+
+    Histogram durations = new Histogram();
+    double[] rates = new double[iterations];
+    for (int i=0; i<iterations; i++)
+    {
+      rates[i] = iterate(operation, durations);
+    }
+
+    Result result = new Result(name, rates, durations);
+    print(result);
+    return result;
+  }
+
+  /**
+   * Prints a result, with the header of the table if needed.
+   *
+   * @param result the result.
+   */
+  public synchronized void print(Result result)
+  {
+    if (!headerPrinted)
+    {
+      out.printf("%-44s %4s %14s %12s  %s%n",
+        "Benchmark", "Cnt", "Score", "Stdev", "Units");
+      headerPrinted = true;
+    }
+
+    Histogram durations = result.getDurations();
+    out.printf(Locale.ROOT, "%-44s %4d %14.1f %12.1f  %s%n",
+      result.getName(), result.rates.length, result.getRate(),
+      result.getRateDeviation(), "ops/s");
+    out.printf(Locale.ROOT, "%-44s      p50 %s  p99 %s  p99.9 %s  max %s%n",
+      "", format(durations.getPercentile(0.5)),
+      format(durations.getPercentile(0.99)),
+      format(durations.getPercentile(0.999)),
+      format(durations.getMax()));
+  }
+
+  /**
+   * Formats a duration with a suitable unit.
+   *
+   * @param nanos the duration in nanoseconds.
+   * @return the formatted duration.
+   */
+  public static String format(long nanos)
+  {
+    if (nanos < 10000)
+      return nanos + " ns";
+    if (nanos < 10000000)
+      return String.format(Locale.ROOT, "%.1f us", nanos / 1e3);
+    return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * Runs the operation during one iteration.
+   *
+   * @return the number of operations per second.
+   */
+  private double iterate(Operation operation, Histogram durations)
+    throws Exception
+  {
+    long start = System.nanoTime();
+    long end = start + iterationNanos;
+    long count = 0;
+    long now = start;
+
+    while (now < end)
+    {
+      long before = now;
+      operation.execute();
+      now = System.nanoTime();
+      durations.record(now - before);
+      count++;
+    }
+
+    return count / ((now - start) / 1e9);
+  }
+}
+// End of Harness class
@@ -0,0 +1,164 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.util.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> IdleConnectionFootprint </code> class measures the memory
+* used by a server for each idle client connection. It starts a server
+* in the requested mode, opens the given number of connections over
+* the loopback interface and reports the growth of the heap, of the
+* resident set size (on Linux) and of the number of threads divided
+* by the number of connections.<p>
+*
+* The client sockets are opened in the same process; they only hold
+* a socket and an object stream each, so their share of the figures
+* is small but not nil.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.IdleConnectionFootprint
+* mode count [port]</code> where mode is <code>threads</code>,
+* <code>virtual</code> or <code>loops</code>. The number of open files
+* allowed to the process must exceed twice the count.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#setVirtualThreads(boolean)
+* @see com.lloseng.ocsf.server.AbstractServer#setEventLoops(int)
+*/
+public class IdleConnectionFootprint
+{
+  /**
+   * A server that ignores all messages.
+   */
+  static class IdleServer extends AbstractServer
+  {
+    IdleServer(int port)
+    {
+      super(port);
+    }
+
+    protected void handleMessageFromClient(
+      Object msg, ConnectionToClient client) {}
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the mode, the number of connections and the port.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 2)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench."
+        + "IdleConnectionFootprint threads|virtual|loops count [port]");
+      return;
+    }
+
+    String mode = args[0];
+    int count = Integer.parseInt(args[1]);
+    int port = args.length > 2 ? Integer.parseInt(args[2]) : 12346;
+
+    AbstractServer server = new IdleServer(port);
+    server.setBacklog(1024);
+    if (mode.equals("virtual"))
+      server.setVirtualThreads(true);
+    else if (mode.equals("loops"))
+      server.setEventLoops(Runtime.getRuntime().availableProcessors());
+    server.listen();
+
+    long heapBefore = usedHeap();
+    long rssBefore = residentSetSize();
+    int threadsBefore = Thread.activeCount();
+
+    List<Socket> sockets = new ArrayList<Socket>(count);
+    List<ObjectOutputStream> streams = new ArrayList<ObjectOutputStream>(count);
+    for (int i=0; i<count; i++)
+    {
+      Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      ObjectOutputStream output =
+        new ObjectOutputStream(socket.getOutputStream());
+      output.flush();
+      sockets.add(socket);
+      streams.add(output);
+    }
+
+    while (server.getNumberOfClients() < count)
+    {
+      Thread.sleep(100);
+    }
+
+    long heapAfter = usedHeap();
+    long rssAfter = residentSetSize();
+    int threadsAfter = Thread.activeCount();
+
+    System.out.println("Mode:                     " + mode);
+    System.out.println("Connections:              " + count);
+    System.out.println("Heap per connection:      "
+      + (heapAfter - heapBefore) / count + " bytes");
+    if (rssBefore > 0)
+      System.out.println("Resident per connection:  "
+        + (rssAfter - rssBefore) / count + " bytes");
+    System.out.println("Platform threads added:   "
+      + (threadsAfter - threadsBefore));
+
+    for (int i=0; i<sockets.size(); i++)
+    {
+      sockets.get(i).close();
+    }
+    server.close();
+  }
+
+  /**
+   * @return the heap used after a few garbage collections.
+   */
+  private static long usedHeap() throws InterruptedException
+  {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i=0; i<3; i++)
+    {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * @return the resident set size of the process in bytes,
+   *   or 0 if it cannot be read.
+   */
+  private static long residentSetSize()
+  {
+    try
+    {
+      BufferedReader status =
+        new BufferedReader(new FileReader("/proc/self/status"));
+      try
+      {
+        String line;
+        while ((line = status.readLine()) != null)
+        {
+          if (line.startsWith("VmRSS:"))
+          {
+            String kb = line.substring(6).trim().split("\\s+")[0];
+            return Long.parseLong(kb) * 1024;
+          }
+        }
+      }
+      finally
+      {
+        status.close();
+      }
+    }
+    catch (IOException ex) {}
+    return 0;
+  }
+}
+// End of IdleConnectionFootprint class
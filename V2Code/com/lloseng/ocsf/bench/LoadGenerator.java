@@ -0,0 +1,458 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import com.lloseng.ocsf.client.*;
+import com.lloseng.ocsf.metrics.*;
+
+/**
+* The <code> LoadGenerator </code> class is a headless load tester
+* replacing the <code>ClientsFrame</code> of the tester application.
+* It opens the given number of connections to a server, then sends
+* messages at a fixed total rate for a given time, whatever the speed
+* at which the server answers, and reports the throughput and the
+* distribution of the latency. It works against any server echoing
+* the strings it receives, such as the <code>EchoServer</code> of the
+* chat application or the <code>SimpleServer</code> started by
+* <code>ServerDriver</code>.<p>
+*
+* Each message is a string holding the number of the client, the
+* time at which it should have been sent according to the schedule
+* and the time at which it was sent, padded to the size chosen from
+* the payload mix. Since these servers send every message to all
+* their clients, a client measures the latency of its own messages
+* only, and counts the others as received. The messages are sent by a
+* few sender threads, each in charge of a share of the clients and of
+* the rate. A sender held back by a slow send falls behind its
+* schedule; the latency is measured from the scheduled time, so that
+* this delay is not omitted, and from the actual sending for
+* comparison.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.LoadGenerator
+* [name=value]...</code> with the following options:<p>
+* <ul>
+* <li> <code>host</code>: the host of the server, localhost by default;
+* <li> <code>port</code>: the port of the server, 5555 by default;
+* <li> <code>clients</code>: the number of connections, 10 by default;
+* <li> <code>rate</code>: the number of messages sent per second by
+*      all the clients, 1000 by default;
+* <li> <code>duration</code>: the duration of the test in seconds,
+*      10 by default;
+* <li> <code>mix</code>: the payload mix, a list of sizes with their
+*      weights such as <code>32:70,1024:25,16384:5</code>, 32 bytes by
+*      default;
+* <li> <code>login</code>: a prefix such that each client first sends
+*      <code>#login</code> <i>prefix</i><i>number</i>, as required by
+*      the <code>EchoServer</code>, none by default;
+* <li> <code>codec</code>: <code>object</code>, <code>serialization</code>
+*      or <code>binary</code>; only <code>object</code> is understood
+*      by the servers of the examples;
+* <li> <code>senders</code>: the number of sender threads, 1 by default;
+* <li> <code>report</code>: the interval between progress reports in
+*      seconds, 0 for none, 1 by default.
+* </ul><p>
+*
+* The number of open files allowed to the process must exceed the
+* number of connections, and so must the one of the server.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.bench.RoundTripLatency
+*/
+public class LoadGenerator
+{
+  /**
+   * The word starting the messages sent.
+   */
+  private static final String TAG = "load ";
+
+  /**
+   * A client sending the messages chosen by its sender thread and
+   * measuring the latency of those it receives back.
+   */
+  class LoadClient extends AbstractClient
+  {
+    private final int number;
+
+    LoadClient(int number)
+    {
+      super(host, port);
+      this.number = number;
+    }
+
+    void send(long intended, String padding) throws IOException
+    {
+      long now = System.nanoTime();
+      sendToServer(TAG + number + " " + intended + " " + now + " " + padding);
+      sent.increment();
+    }
+
+    protected void handleMessageFromServer(Object msg)
+    {
+      long now = System.nanoTime();
+      received.increment();
+
+      String text = msg.toString();
+      int start = text.indexOf(TAG);
+      if (start < 0)
+        return;
+
+      try
+      {
+        start += TAG.length();
+        int space = text.indexOf(' ', start);
+        if (Integer.parseInt(text.substring(start, space)) != number)
+          return;
+
+        int middle = text.indexOf(' ', space + 1);
+        int end = text.indexOf(' ', middle + 1);
+        long intended = Long.parseLong(text.substring(space + 1, middle));
+        long actual = Long.parseLong(text.substring(middle + 1, end));
+        latencies.record(intended, actual, now);
+        interval.record(now - intended);
+      }
+      catch (RuntimeException ex) {}
+    }
+
+    protected void connectionException(Exception exception)
+    {
+      if (!stopping)
+        disconnects.increment();
+    }
+  }
+
+// INSTANCE VARIABLES ***********************************************
+
+  private final String host;
+  private final int port;
+  private final int clientCount;
+  private final double rate;
+  private final long duration;
+  private final String login;
+  private final String codec;
+  private final int senderCount;
+  private final long report;
+
+  /**
+   * The paddings of the payload mix.
+   */
+  private final String[] paddings;
+
+  /**
+   * The cumulated weights of the payload mix.
+   */
+  private final int[] weights;
+
+  private LoadClient[] clients;
+  private volatile boolean stopping = false;
+
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder received = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder disconnects = new LongAdder();
+  private final AtomicLong maxLag = new AtomicLong();
+  private final LatencyRecorder latencies = new LatencyRecorder("load");
+  private final Histogram interval = new Histogram();
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a load generator.
+   *
+   * @param options the options, by name.
+   */
+  public LoadGenerator(Map<String, String> options)
+  {
+    host = option(options, "host", "localhost");
+    port = Integer.parseInt(option(options, "port", "5555"));
+    clientCount = Integer.parseInt(option(options, "clients", "10"));
+    rate = Double.parseDouble(option(options, "rate", "1000"));
+    duration = (long)(Double.parseDouble(option(options, "duration", "10"))
+      * 1e9);
+    login = option(options, "login", null);
+    codec = option(options, "codec", "object");
+    senderCount = Math.max(1, Math.min(clientCount,
+      Integer.parseInt(option(options, "senders", "1"))));
+    report = (long)(Double.parseDouble(option(options, "report", "1")) * 1e9);
+
+    if (clientCount < 1 || rate <= 0)
+      throw new IllegalArgumentException(
+        "The number of clients and the rate must be positive");
+
+    String[] mix = option(options, "mix", "32").split(",");
+    paddings = new String[mix.length];
+    weights = new int[mix.length];
+    int total = 0;
+    for (int i=0; i<mix.length; i++)
+    {
+      String[] entry = mix[i].trim().split(":");
+      char[] chars = new char[Integer.parseInt(entry[0])];
+      Arrays.fill(chars, 'x');
+      paddings[i] = new String(chars);
+      total += entry.length > 1 ? Integer.parseInt(entry[1]) : 1;
+      weights[i] = total;
+    }
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Connects the clients, sends the messages, waits for the last
+   * replies and prints the results.
+   *
+   * @exception InterruptedException if the thread is interrupted.
+   */
+  public void run() throws InterruptedException
+  {
+    System.out.println("Connecting " + clientCount + " clients to "
+      + host + ":" + port);
+
+    clients = new LoadClient[clientCount];
+    long connectStart = System.nanoTime();
+    int failures = 0;
+    for (int i=0; i<clientCount; i++)
+    {
+      LoadClient client = new LoadClient(i);
+      client.setMessageCodec(BenchmarkSuite.codec(codec));
+      client.setTcpNoDelay(true);
+      try
+      {
+        client.openConnection();
+        if (login != null)
+          client.sendToServer("#login " + login + i);
+      }
+      catch (IOException ex)
+      {
+        if (failures++ == 0)
+          System.out.println("Connection failed: " + ex);
+      }
+      clients[i] = client;
+    }
+    System.out.printf(Locale.ROOT, "%d connected, %d failed in %.2f s%n",
+      clientCount - failures, failures,
+      (System.nanoTime() - connectStart) / 1e9);
+
+    final long start = System.nanoTime();
+    final long end = start + duration;
+    Thread[] senders = new Thread[senderCount];
+    for (int i=0; i<senderCount; i++)
+    {
+      final int first = i;
+      senders[i] = new Thread("OCSF load sender " + i)
+      {
+        public void run()
+        {
+          send(first, start, end);
+        }
+      };
+      senders[i].setDaemon(true);
+      senders[i].start();
+    }
+
+    long nextReport = start + (report > 0 ? report : duration);
+    long lastSent = 0;
+    long lastReceived = 0;
+    while (true)
+    {
+      long now = System.nanoTime();
+      if (now >= end)
+        break;
+      if (now < nextReport)
+      {
+        Thread.sleep(Math.max(1, (Math.min(nextReport, end) - now) / 1000000));
+        continue;
+      }
+
+      if (report > 0)
+      {
+        long totalSent = sent.sum();
+        long totalReceived = received.sum();
+        System.out.printf(Locale.ROOT,
+          "%6.1f s  sent %8.0f/s  received %9.0f/s  p50 %s  p99 %s"
+          + "  p99.9 %s  lag %s%n",
+          (now - start) / 1e9, (totalSent - lastSent) * 1e9 / report,
+          (totalReceived - lastReceived) * 1e9 / report,
+          Harness.format(interval.getPercentile(0.5)),
+          Harness.format(interval.getPercentile(0.99)),
+          Harness.format(interval.getPercentile(0.999)),
+          Harness.format(maxLag.get()));
+        interval.reset();
+        lastSent = totalSent;
+        lastReceived = totalReceived;
+      }
+      nextReport += report;
+    }
+
+    for (int i=0; i<senderCount; i++)
+    {
+      senders[i].join();
+    }
+    long elapsed = System.nanoTime() - start;
+
+    // Leaves a moment for the last replies
+    Thread.sleep(500);
+    stopping = true;
+    for (int i=0; i<clientCount; i++)
+    {
+      try
+      {
+        clients[i].closeConnection();
+      }
+      catch (IOException ex) {}
+    }
+
+    printResults(elapsed);
+  }
+
+  /**
+   * Prints the results of the test.
+   *
+   * @param elapsed the duration of the sending in nanoseconds.
+   */
+  public void printResults(long elapsed)
+  {
+    double seconds = elapsed / 1e9;
+    System.out.printf(Locale.ROOT, "Duration      %.2f s%n", seconds);
+    System.out.printf(Locale.ROOT, "Sent          %d (%.0f/s, target %.0f/s)%n",
+      sent.sum(), sent.sum() / seconds, rate);
+    System.out.printf(Locale.ROOT, "Echoed        %d%n",
+      latencies.getCorrected().getCount());
+    System.out.printf(Locale.ROOT, "Received      %d (%.0f/s)%n",
+      received.sum(), received.sum() / seconds);
+    System.out.printf(Locale.ROOT, "Errors        %d send, %d disconnected%n",
+      errors.sum(), disconnects.sum());
+    System.out.printf(Locale.ROOT, "Sender lag    max %s%n",
+      Harness.format(maxLag.get()));
+    printLatency("Latency", latencies.getCorrected());
+    printLatency("  uncorrected", latencies.getUncorrected());
+  }
+
+  /**
+   * @return the latencies of the messages echoed.
+   */
+  public LatencyRecorder getLatencies()
+  {
+    return latencies;
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * Sends the messages of one sender thread, in turn from each of its
+   * clients, at its share of the rate.
+   *
+   * @param first the number of the first client of the sender.
+   * @param start the time at which the sending starts.
+   * @param end the time at which the sending stops.
+   */
+  private void send(int first, long start, long end)
+  {
+    long period = (long)(1e9 * senderCount / rate);
+    long next = start + first * period / senderCount;
+    int current = first;
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+    while (next < end)
+    {
+      long now = System.nanoTime();
+      if (now < next)
+      {
+        LockSupport.parkNanos(next - now);
+        continue;
+      }
+
+      long lag = now - next;
+      if (lag > maxLag.get())
+        maxLag.set(lag);
+
+      LoadClient client = clients[current];
+      if (client.isConnected())
+      {
+        try
+        {
+          client.send(next, choosePadding(random));
+        }
+        catch (IOException ex)
+        {
+          errors.increment();
+        }
+      }
+
+      current += senderCount;
+      if (current >= clientCount)
+        current = first;
+      next += period;
+    }
+  }
+
+  /**
+   * Prints the percentiles of latencies.
+   */
+  private static void printLatency(String title, Histogram latencies)
+  {
+    System.out.printf(Locale.ROOT, "%-13s p50 %s  p99 %s  p99.9 %s  max %s%n",
+      title, Harness.format(latencies.getPercentile(0.5)),
+      Harness.format(latencies.getPercentile(0.99)),
+      Harness.format(latencies.getPercentile(0.999)),
+      Harness.format(latencies.getMax()));
+  }
+
+  /**
+   * Chooses the padding of a message according to the payload mix.
+   */
+  private String choosePadding(ThreadLocalRandom random)
+  {
+    int value = random.nextInt(weights[weights.length - 1]);
+    for (int i=0; i<weights.length; i++)
+    {
+      if (value < weights[i])
+        return paddings[i];
+    }
+    return paddings[paddings.length - 1];
+  }
+
+  /**
+   * Returns the value of an option or its default.
+   */
+  private static String option(Map<String, String> options, String name,
+    String defaultValue)
+  {
+    String value = options.get(name);
+    return value != null ? value : defaultValue;
+  }
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs a load test.
+   *
+   * @param args the options, as <code>name=value</code>.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    Map<String, String> options = new HashMap<String, String>();
+    for (int i=0; i<args.length; i++)
+    {
+      int equals = args[i].indexOf('=');
+      if (equals < 0)
+      {
+        System.out.println("Usage: java com.lloseng.ocsf.bench.LoadGenerator"
+          + " [host=h] [port=p] [clients=n] [rate=r] [duration=s]"
+          + " [mix=size:weight,...] [login=prefix]"
+          + " [codec=object|serialization|binary] [senders=n] [report=s]");
+        return;
+      }
+      options.put(args[i].substring(0, equals), args[i].substring(equals + 1));
+    }
+
+    new LoadGenerator(options).run();
+  }
+}
+// End of LoadGenerator class
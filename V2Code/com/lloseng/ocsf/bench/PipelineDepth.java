@@ -0,0 +1,131 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import com.lloseng.ocsf.client.*;
+import com.lloseng.ocsf.codec.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> PipelineDepth </code> class measures the number of
+* requests per second that a <code>PipelinedClient</code> gets answered
+* by a server, for a given number of requests kept in flight. With one
+* request in flight, the rate is bounded by the round trip; with more,
+* it grows until the server or the network is saturated.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.PipelineDepth mode codec
+* depth...</code> where mode is <code>threads</code>,
+* <code>virtual</code> or <code>loops</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.client.PipelinedClient
+*/
+public class PipelineDepth
+{
+  /**
+   * A server answering each request with its own payload.
+   */
+  static class ReplyingServer extends AbstractServer
+  {
+    ReplyingServer(int port)
+    {
+      super(port);
+    }
+
+    protected void handleMessageFromClient(
+      Object msg, ConnectionToClient client)
+    {
+      try
+      {
+        client.sendToClient(((CorrelatedMessage)msg).reply(
+          ((CorrelatedMessage)msg).getPayload()));
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+  /**
+   * Measures the requests answered with the given number in flight.
+   *
+   * @param harness the harness running the measure.
+   * @param mode the mode of the server.
+   * @param codec the name of the codec.
+   * @param depth the number of requests in flight.
+   * @param port the port of the server.
+   * @return the result.
+   */
+  public static Harness.Result run(Harness harness, String mode,
+    String codec, int depth, int port) throws Exception
+  {
+    ReplyingServer server = new ReplyingServer(port);
+    BenchmarkSuite.configure(server, mode);
+    server.setMessageCodec(BenchmarkSuite.codec(codec));
+    server.setTcpNoDelay(true);
+    server.listen();
+
+    final PipelinedClient client = new PipelinedClient("localhost", port);
+    client.setMessageCodec(BenchmarkSuite.codec(codec));
+    client.setTcpNoDelay(true);
+    client.openConnection();
+
+    final Semaphore inFlight = new Semaphore(depth);
+    final BiConsumer<Object, Throwable> release =
+      new BiConsumer<Object, Throwable>()
+      {
+        public void accept(Object reply, Throwable exception)
+        {
+          inFlight.release();
+        }
+      };
+    final String payload = "request";
+
+    try
+    {
+      return harness.measure(
+        "pipeline:" + mode + ":" + codec + ":" + depth,
+        new Harness.Operation()
+        {
+          public void execute() throws Exception
+          {
+            inFlight.acquire();
+            client.request(payload).whenComplete(release);
+          }
+        });
+    }
+    finally
+    {
+      inFlight.tryAcquire(depth, 10, TimeUnit.SECONDS);
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the mode, the codec and the numbers of requests in
+   *   flight.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 3)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench.PipelineDepth"
+        + " threads|virtual|loops object|serialization|binary depth...");
+      return;
+    }
+
+    Harness harness = new Harness(3, 5, 1000);
+    for (int i=2; i<args.length; i++)
+    {
+      run(harness, args[0], args[1], Integer.parseInt(args[i]), 12353);
+    }
+  }
+}
+// End of PipelineDepth class
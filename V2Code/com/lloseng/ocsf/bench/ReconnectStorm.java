@@ -0,0 +1,217 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> ReconnectStorm </code> class measures how fast a server
+* accepts a storm of connection attempts, such as all the clients of a
+* chat reconnecting at once after a restart of the server. A number of
+* connector threads open the given number of connections over the
+* loopback interface as fast as they can, each connection sending the
+* header of an object stream as a real client does. The number of
+* connections per second is measured until the server has reported
+* all of them with <code>clientConnected</code>; all the connections
+* are then closed and the storm is repeated.<p>
+*
+* Meanwhile, a chat client may keep the server busy: each of its
+* messages is handled while holding the lock of the server, for the
+* given number of microseconds, as a handler waiting for a database
+* would.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.ReconnectStorm mode acceptors
+* reuseport connections [rounds [connectors [handling]]]</code> where
+* mode is <code>threads</code> or <code>loops</code>, reuseport is
+* <code>true</code> to give each acceptor its own socket and handling
+* is the time spent on each chat message, 0 for no chat. The number of
+* open files allowed to the process must exceed twice the number of
+* connections.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#setAcceptors(int)
+* @see com.lloseng.ocsf.server.AbstractServer#setReusePort(boolean)
+*/
+public class ReconnectStorm
+{
+  /**
+   * A server counting the connections it has accepted.
+   */
+  static class CountingServer extends AbstractServer
+  {
+    final AtomicInteger connected = new AtomicInteger();
+    volatile long handlingNanos = 0;
+
+    CountingServer(int port)
+    {
+      super(port);
+    }
+
+    protected void clientConnected(ConnectionToClient client)
+    {
+      connected.incrementAndGet();
+    }
+
+    protected void handleMessageFromClient(
+      Object msg, ConnectionToClient client)
+    {
+      LockSupport.parkNanos(handlingNanos);
+    }
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the mode, the number of acceptors, the reuseport flag,
+   *   the number of connections, of rounds and of connector threads,
+   *   and the handling time of the chat messages.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 4)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench.ReconnectStorm"
+        + " threads|loops acceptors reuseport connections"
+        + " [rounds [connectors [handling]]]");
+      return;
+    }
+
+    String mode = args[0];
+    int acceptors = Integer.parseInt(args[1]);
+    boolean reusePort = Boolean.parseBoolean(args[2]);
+    final int count = Integer.parseInt(args[3]);
+    int rounds = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+    int connectors = args.length > 5 ? Integer.parseInt(args[5]) : 16;
+    long handling = args.length > 6 ? Long.parseLong(args[6]) : 0;
+    final int port = 12348;
+
+    CountingServer server = new CountingServer(port);
+    if (mode.equals("loops"))
+      server.setEventLoops(Runtime.getRuntime().availableProcessors());
+    server.setAcceptors(acceptors);
+    server.setReusePort(reusePort);
+    server.setBacklog(1024);
+    server.handlingNanos = handling * 1000;
+    server.listen();
+
+    Socket chat = null;
+    if (handling > 0)
+      chat = startChat(port);
+    int others = chat == null ? 0 : 1;
+    while (server.getNumberOfClients() < others)
+    {
+      Thread.sleep(10);
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(connectors);
+    final AtomicInteger failed = new AtomicInteger();
+
+    for (int round=1; round<=rounds; round++)
+    {
+      final List<Socket> sockets =
+        Collections.synchronizedList(new ArrayList<Socket>(count));
+      final AtomicInteger next = new AtomicInteger();
+      int before = server.connected.get();
+      long start = System.nanoTime();
+
+      List<Future<?>> tasks = new ArrayList<Future<?>>();
+      for (int i=0; i<connectors; i++)
+      {
+        tasks.add(pool.submit(new Runnable()
+        {
+          public void run()
+          {
+            while (next.getAndIncrement() < count)
+            {
+              try
+              {
+                Socket socket =
+                  new Socket(InetAddress.getLoopbackAddress(), port);
+                new ObjectOutputStream(socket.getOutputStream()).flush();
+                sockets.add(socket);
+              }
+              catch (IOException ex)
+              {
+                failed.incrementAndGet();
+              }
+            }
+          }
+        }));
+      }
+      for (Future<?> task : tasks)
+      {
+        task.get();
+      }
+
+      int expected = before + sockets.size();
+      while (server.connected.get() < expected)
+      {
+        Thread.sleep(1);
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf("Round %d: %d connections in %.3f s, %.0f accepts/s%n",
+        round, sockets.size(), seconds, sockets.size() / seconds);
+
+      for (Socket socket : sockets)
+      {
+        socket.close();
+      }
+      while (server.getNumberOfClients() > others)
+      {
+        Thread.sleep(10);
+      }
+    }
+
+    if (failed.get() > 0)
+      System.out.println("Failed connection attempts: " + failed.get());
+
+    pool.shutdown();
+    if (chat != null)
+      chat.close();
+    server.close();
+  }
+
+  /**
+   * Connects a client sending chat messages as fast as the server
+   * handles them, until its socket is closed.
+   *
+   * @param port the port of the server.
+   * @return the socket of the client.
+   */
+  private static Socket startChat(int port) throws IOException
+  {
+    final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+    final ObjectOutputStream output =
+      new ObjectOutputStream(socket.getOutputStream());
+
+    Thread chat = new Thread("chat")
+    {
+      public void run()
+      {
+        try
+        {
+          while (true)
+          {
+            output.writeObject("chat");
+            output.flush();
+          }
+        }
+        catch (IOException ex) {} // The socket has been closed
+      }
+    };
+    chat.setDaemon(true);
+    chat.start();
+    return socket;
+  }
+}
+// End of ReconnectStorm class
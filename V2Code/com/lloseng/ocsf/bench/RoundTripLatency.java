@@ -0,0 +1,153 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import com.lloseng.ocsf.client.*;
+import com.lloseng.ocsf.codec.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> RoundTripLatency </code> class measures the time taken by
+* a message sent with <code>AbstractClient.sendToServer</code> to come
+* back from a server that echoes it, as the <code>EchoServer</code> of
+* the examples does. One client sends a message, waits for its echo,
+* then sends the next one, so that the rate is the inverse of the
+* mean round trip. Nagle's algorithm is disabled on both ends.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.RoundTripLatency mode codec
+* [size]</code> where mode is <code>threads</code>, <code>virtual</code>
+* or <code>loops</code>, codec is <code>object</code>,
+* <code>serialization</code> or <code>binary</code> and size is the
+* length of the string messages.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.bench.BenchmarkSuite
+*/
+public class RoundTripLatency
+{
+  /**
+   * A server sending back every message to its sender.
+   */
+  static class EchoServer extends AbstractServer
+  {
+    EchoServer(int port)
+    {
+      super(port);
+    }
+
+    protected void handleMessageFromClient(
+      Object msg, ConnectionToClient client)
+    {
+      try
+      {
+        client.sendToClient(msg);
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+  /**
+   * A client waiting for the echo of each message it sends.
+   */
+  static class WaitingClient extends AbstractClient
+  {
+    private final AtomicLong received = new AtomicLong();
+    private long sent = 0;
+    private volatile Thread waiter;
+
+    WaitingClient(String host, int port)
+    {
+      super(host, port);
+    }
+
+    protected void handleMessageFromServer(Object msg)
+    {
+      received.incrementAndGet();
+      LockSupport.unpark(waiter);
+    }
+
+    void roundTrip(Object msg) throws IOException
+    {
+      waiter = Thread.currentThread();
+      sendToServer(msg);
+      sent++;
+      while (received.get() < sent)
+      {
+        LockSupport.park(this);
+      }
+    }
+  }
+
+  /**
+   * Measures the round trip of string messages.
+   *
+   * @param harness the harness running the measure.
+   * @param mode the mode of the server.
+   * @param codec the name of the codec.
+   * @param size the length of the messages.
+   * @param port the port of the server.
+   * @return the result.
+   */
+  public static Harness.Result run(Harness harness, String mode,
+    String codec, int size, int port) throws Exception
+  {
+    char[] chars = new char[size];
+    Arrays.fill(chars, 'x');
+    final String payload = new String(chars);
+
+    EchoServer server = new EchoServer(port);
+    BenchmarkSuite.configure(server, mode);
+    server.setMessageCodec(BenchmarkSuite.codec(codec));
+    server.setTcpNoDelay(true);
+    server.listen();
+
+    final WaitingClient client = new WaitingClient("localhost", port);
+    client.setMessageCodec(BenchmarkSuite.codec(codec));
+    client.setTcpNoDelay(true);
+    client.openConnection();
+
+    try
+    {
+      return harness.measure(
+        "roundTrip:" + mode + ":" + codec + ":" + size,
+        new Harness.Operation()
+        {
+          public void execute() throws Exception
+          {
+            client.roundTrip(payload);
+          }
+        });
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the mode, the codec and the size of the messages.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 2)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench.RoundTripLatency"
+        + " threads|virtual|loops object|serialization|binary [size]");
+      return;
+    }
+
+    int size = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+    run(new Harness(3, 5, 1000), args[0], args[1], size, 12349);
+  }
+}
+// End of RoundTripLatency class
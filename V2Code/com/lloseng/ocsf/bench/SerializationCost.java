@@ -0,0 +1,233 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.util.*;
+import com.lloseng.ocsf.codec.*;
+
+/**
+* The <code> SerializationCost </code> class measures the cost of
+* writing a message with a <code>MessageOutput</code> and reading it
+* back with a <code>MessageInput</code>, without any network. The
+* bytes go through a buffer in memory, so that the time measured is
+* the one of the encoding and of the decoding only. The number of
+* bytes taken by each message is printed after its rates. The
+* messages written are distinct instances, more numerous than the
+* messages between two resets of an object stream, so that an object
+* stream does not merely write a reference to a message already
+* sent.<p>
+*
+* The message types are <code>string</code> (a short string),
+* <code>integer</code>, <code>bytes</code> (an array of 1024 bytes),
+* <code>map</code> (a hash map of 10 entries) and <code>object</code>
+* (a serializable object holding two strings and a long).<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.SerializationCost codec
+* [type]</code> where codec is <code>object</code>,
+* <code>serialization</code> or <code>binary</code>; all the types are
+* measured if none is given.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.bench.BenchmarkSuite
+*/
+public class SerializationCost
+{
+  /**
+   * The names of the message types.
+   */
+  public static final String[] TYPES =
+    {"string", "integer", "bytes", "map", "object"};
+
+  /**
+   * The number of distinct messages written in turn.
+   */
+  private static final int MESSAGES = 1024;
+
+  /**
+   * A serializable message such as those of a chat application.
+   */
+  static class ChatLine implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+
+    final String from;
+    final String text;
+    final long time;
+
+    ChatLine(String from, String text, long time)
+    {
+      this.from = from;
+      this.text = text;
+      this.time = time;
+    }
+  }
+
+  /**
+   * A buffer written at its end and read from its start, connecting
+   * a message output to a message input in the same thread.
+   */
+  static class Loopback
+  {
+    private byte[] buffer = new byte[8192];
+    private int start = 0;
+    private int end = 0;
+
+    final OutputStream output = new OutputStream()
+    {
+      public void write(int b)
+      {
+        write(new byte[] {(byte)b}, 0, 1);
+      }
+
+      public void write(byte[] b, int off, int len)
+      {
+        if (start == end)
+          start = end = 0;
+        if (end + len > buffer.length)
+          buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + len));
+        System.arraycopy(b, off, buffer, end, len);
+        end += len;
+      }
+    };
+
+    final InputStream input = new InputStream()
+    {
+      public int read()
+      {
+        return start == end ? -1 : buffer[start++] & 0xff;
+      }
+
+      public int read(byte[] b, int off, int len)
+      {
+        if (len == 0)
+          return 0;
+        if (start == end)
+          return -1;
+
+        int count = Math.min(len, end - start);
+        System.arraycopy(buffer, start, b, off, count);
+        start += count;
+        return count;
+      }
+
+      public int available()
+      {
+        return end - start;
+      }
+    };
+  }
+
+  /**
+   * Creates a message of the given type.
+   *
+   * @param type the name of the type.
+   * @param index the number making the message distinct.
+   * @return the message.
+   */
+  public static Object message(String type, int index)
+  {
+    if (type.equals("string"))
+      return "Hello, world! " + index;
+
+    if (type.equals("integer"))
+      return Integer.valueOf(123456789 + index);
+
+    if (type.equals("bytes"))
+    {
+      byte[] bytes = new byte[1024];
+      new Random(index).nextBytes(bytes);
+      return bytes;
+    }
+
+    if (type.equals("map"))
+    {
+      HashMap<String, Integer> map = new HashMap<String, Integer>();
+      for (int i=0; i<10; i++)
+      {
+        map.put("key" + i, Integer.valueOf(index + i));
+      }
+      return map;
+    }
+
+    if (type.equals("object"))
+      return new ChatLine("alice", "Hello, world! " + index,
+        1000000000000L + index);
+
+    throw new IllegalArgumentException("Unknown message type: " + type);
+  }
+
+  /**
+   * Measures the writing and reading of one type of message.
+   *
+   * @param harness the harness running the measure.
+   * @param codec the name of the codec.
+   * @param type the name of the message type.
+   * @return the result.
+   */
+  public static Harness.Result run(Harness harness, String codec,
+    String type) throws Exception
+  {
+    final Object[] messages = new Object[MESSAGES];
+    for (int i=0; i<MESSAGES; i++)
+    {
+      messages[i] = message(type, i);
+    }
+
+    Loopback loopback = new Loopback();
+    final MessageOutput output =
+      new MessageOutput(loopback.output, BenchmarkSuite.codec(codec));
+    final MessageInput input =
+      new MessageInput(loopback.input, BenchmarkSuite.codec(codec));
+    input.open();
+
+    long bytesBefore = output.getBytesWritten();
+    long messagesBefore = output.getMessagesWritten();
+
+    Harness.Result result = harness.measure(
+      "serialization:" + codec + ":" + type,
+      new Harness.Operation()
+      {
+        private int next = 0;
+
+        public void execute() throws Exception
+        {
+          output.writeMessage(messages[next]);
+          next = (next + 1) % MESSAGES;
+          Harness.sink = input.readMessage();
+        }
+      });
+
+    long bytes = output.getBytesWritten() - bytesBefore;
+    long written = output.getMessagesWritten() - messagesBefore;
+    System.out.printf(Locale.ROOT, "%-44s      %.1f bytes/msg%n", "",
+      (double)bytes / Math.max(1, written));
+    return result;
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the codec and the message type.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 1)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench.SerializationCost"
+        + " object|serialization|binary [string|integer|bytes|map|object]");
+      return;
+    }
+
+    Harness harness = new Harness(3, 5, 1000);
+    String[] types = args.length > 1 ? new String[] {args[1]} : TYPES;
+    for (int i=0; i<types.length; i++)
+    {
+      run(harness, args[0], types[i]);
+    }
+  }
+}
+// End of SerializationCost class
@@ -0,0 +1,230 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.client.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> Throughput </code> class measures the number of small
+* messages per second that the framework carries over the loopback
+* interface, with and without output batching. It starts a server in
+* the requested mode and connects the given number of clients in the
+* same process. Each client first sends its messages to the server as
+* fast as it can; the server then broadcasts the same number of
+* messages to all the clients. The time is measured until the last
+* message has been handled by the receiving side. The measure stops
+* with an error as soon as a send fails or a client loses its
+* connection.<p>
+*
+* Type <code>java com.lloseng.ocsf.bench.Throughput mode clients
+* messages size [delay [nodelay]]</code> where mode is
+* <code>threads</code> or <code>loops</code>, size is the length of the
+* string messages, delay is the batching window in microseconds (0 for
+* no batching) and nodelay is <code>true</code> to disable Nagle's
+* algorithm on both ends.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#setOutputBatching(int, int, long)
+* @see com.lloseng.ocsf.client.AbstractClient#setOutputBatching(int, int, long)
+*/
+public class Throughput
+{
+  /**
+   * The number of messages of a batch when batching is enabled.
+   */
+  private static final int BATCH_MESSAGES = 64;
+
+  /**
+   * The number of bytes of a batch when batching is enabled.
+   */
+  private static final int BATCH_BYTES = 16384;
+
+  /**
+   * A server counting the messages it receives.
+   */
+  static class CountingServer extends AbstractServer
+  {
+    final AtomicLong received = new AtomicLong();
+
+    CountingServer(int port)
+    {
+      super(port);
+    }
+
+    protected void handleMessageFromClient(
+      Object msg, ConnectionToClient client)
+    {
+      received.incrementAndGet();
+    }
+  }
+
+  /**
+   * A client counting the messages it receives and recording the
+   * loss of its connection.
+   */
+  static class CountingClient extends AbstractClient
+  {
+    final AtomicLong received;
+    final AtomicReference<Exception> failure;
+
+    CountingClient(String host, int port, AtomicLong received,
+      AtomicReference<Exception> failure)
+    {
+      super(host, port);
+      this.received = received;
+      this.failure = failure;
+    }
+
+    protected void handleMessageFromServer(Object msg)
+    {
+      received.incrementAndGet();
+    }
+
+    protected void connectionException(Exception exception)
+    {
+      failure.compareAndSet(null, exception);
+    }
+  }
+
+  /**
+   * Runs the measure.
+   *
+   * @param args the mode, the number of clients, the number of
+   *   messages, their size, the batching delay and the nodelay flag.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    if (args.length < 4)
+    {
+      System.out.println("Usage: java com.lloseng.ocsf.bench.Throughput "
+        + "threads|loops clients messages size [delay [nodelay]]");
+      return;
+    }
+
+    String mode = args[0];
+    final int clients = Integer.parseInt(args[1]);
+    final int messages = Integer.parseInt(args[2]);
+    int size = Integer.parseInt(args[3]);
+    long delay = args.length > 4 ? Long.parseLong(args[4]) : 0;
+    boolean noDelay = args.length > 5 && Boolean.parseBoolean(args[5]);
+    int port = 12347;
+
+    char[] chars = new char[size];
+    Arrays.fill(chars, 'x');
+    final String payload = new String(chars);
+
+    CountingServer server = new CountingServer(port);
+    if (mode.equals("loops"))
+      server.setEventLoops(Runtime.getRuntime().availableProcessors());
+    server.setTcpNoDelay(noDelay);
+    if (delay > 0)
+      server.setOutputBatching(BATCH_MESSAGES, BATCH_BYTES, delay);
+    server.listen();
+
+    AtomicLong received = new AtomicLong();
+    final AtomicReference<Exception> failure =
+      new AtomicReference<Exception>();
+    final List<CountingClient> connected = new ArrayList<CountingClient>();
+    ExecutorService senders = Executors.newFixedThreadPool(clients);
+    try
+    {
+      for (int i=0; i<clients; i++)
+      {
+        CountingClient client =
+          new CountingClient("localhost", port, received, failure);
+        client.setTcpNoDelay(noDelay);
+        if (delay > 0)
+          client.setOutputBatching(BATCH_MESSAGES, BATCH_BYTES, delay);
+        client.openConnection();
+        connected.add(client);
+      }
+
+      while (server.getNumberOfClients() < clients)
+      {
+        Thread.sleep(10);
+      }
+
+      // Clients to server
+      long start = System.nanoTime();
+      for (final CountingClient client : connected)
+      {
+        senders.execute(new Runnable()
+        {
+          public void run()
+          {
+            try
+            {
+              for (int i=0; i<messages && failure.get() == null; i++)
+              {
+                // Distinct strings, as typed by chat users
+                client.sendToServer(new String(payload));
+              }
+            }
+            catch (IOException ex)
+            {
+              failure.compareAndSet(null, ex);
+            }
+          }
+        });
+      }
+      await(server.received, (long)clients * messages, failure);
+      report("Clients to server", clients * (long)messages, size, start);
+
+      // Server to clients
+      start = System.nanoTime();
+      for (int i=0; i<messages; i++)
+      {
+        server.sendToAllClients(new String(payload));
+      }
+      await(received, (long)clients * messages, failure);
+      report("Server to clients", clients * (long)messages, size, start);
+    }
+    finally
+    {
+      senders.shutdownNow();
+      for (CountingClient client : connected)
+      {
+        client.closeConnection();
+      }
+      server.close();
+    }
+  }
+
+  /**
+   * Waits until a counter reaches a value.
+   *
+   * @exception IOException if a send has failed or a client has lost
+   *   its connection meanwhile.
+   */
+  private static void await(AtomicLong counter, long value,
+    AtomicReference<Exception> failure)
+    throws IOException, InterruptedException
+  {
+    while (counter.get() < value)
+    {
+      Exception exception = failure.get();
+      if (exception != null)
+        throw new IOException("measure failed", exception);
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Prints the throughput of a phase.
+   */
+  private static void report(String phase, long count, int size, long start)
+  {
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-20s %10.0f msg/s %8.2f MB/s%n", phase + ":",
+      count / seconds, count * (double)size / seconds / (1 << 20));
+  }
+}
+// End of Throughput class
@@ -7,6 +7,9 @@ package com.lloseng.ocsf.client;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.codec.*;
 
 /**
 * The <code> AbstractClient </code> contains all the
@@ -60,6 +63,26 @@ import java.util.*;
 public abstract class AbstractClient implements Runnable
 {
 
+// CLASS VARIABLES **************************************************
+
+  /**
+  * The maximum number of messages sent by <code>sendAsync</code>
+  * that are written before the output is flushed.
+  */
+  private static final int MAX_UNFLUSHED = 64;
+
+  /**
+  * The threads opening the connections and writing the messages of
+  * the asynchronous methods. Created when first needed.
+  */
+  private static ExecutorService workers = null;
+
+  /**
+  * The thread scheduling the attempts to reconnect, which are run by
+  * the workers. Created when first needed.
+  */
+  private static ScheduledExecutorService reconnector = null;
+
 // INSTANCE VARIABLES ***********************************************
 
   /**
@@ -72,12 +95,69 @@ public abstract class AbstractClient implements Runnable
   /**
   * The stream to handle data going to the server.
   */
-  private ObjectOutputStream output;
+  private MessageOutput output;
 
   /**
   * The stream to handle data from the server.
   */
-  private ObjectInputStream input;
+  private MessageInput input;
+
+  /**
+  * The codec used to encode and decode the messages, null
+  * when object streams are used.
+  */
+  private MessageCodec messageCodec = null;
+
+  /**
+  * The number of messages after which the object stream is reset,
+  * 0 if not considered.
+  */
+  private int resetMessages = MessageOutput.DEFAULT_RESET_MESSAGES;
+
+  /**
+  * The number of bytes after which the object stream is reset,
+  * 0 if not considered.
+  */
+  private long resetBytes = MessageOutput.DEFAULT_RESET_BYTES;
+
+  /**
+  * Indicates if Nagle's algorithm is disabled on the socket.
+  */
+  private boolean tcpNoDelay = false;
+
+  /**
+  * The size of the send buffer of the socket, 0 to keep the size
+  * chosen by the system.
+  */
+  private int sendBufferSize = 0;
+
+  /**
+  * The size of the buffer in which the messages are gathered before
+  * being written to the socket.
+  */
+  private int outputBufferSize = 8192;
+
+  /**
+  * The number of messages after which a batch is flushed.
+  */
+  private int batchMessages = 0;
+
+  /**
+  * The number of bytes after which a batch is flushed.
+  */
+  private int batchBytes = 0;
+
+  /**
+  * The delay in microseconds after which a batch is flushed,
+  * 0 if the messages are not batched.
+  */
+  private long batchDelay = 0;
+
+  /**
+  * The maximum size of a message received from the server,
+  * 0 if the size is not limited.
+  */
+  private int maxMessageSize = MessageInput.DEFAULT_MAX_MESSAGE_SIZE;
 
   /**
   * The thread created to read data from the server.
@@ -91,6 +171,79 @@ public abstract class AbstractClient implements Runnable
   */
   private boolean readyToStop= false;
 
+  /**
+  * The messages sent by <code>sendAsync</code> that have not been
+  * written yet, in order.
+  */
+  private final ConcurrentLinkedQueue<OutboundMessage> outbound =
+    new ConcurrentLinkedQueue<OutboundMessage>();
+
+  /**
+  * The number of messages in the outbound queue.
+  */
+  private final AtomicInteger outboundSize = new AtomicInteger();
+
+  /**
+  * Indicates if a worker is writing the outbound queue.
+  */
+  private final AtomicBoolean writing = new AtomicBoolean();
+
+  /**
+  * The task writing the outbound queue.
+  */
+  private final Runnable writer = new Runnable()
+  {
+    public void run()
+    {
+      writeOutbound();
+    }
+  };
+
+  /**
+  * The delay in ms before the first attempt to reconnect, 0 if the
+  * client does not reconnect.
+  */
+  private long reconnectDelay = 0;
+
+  /**
+  * The maximum delay in ms between two attempts to reconnect.
+  */
+  private long maxReconnectDelay = 0;
+
+  /**
+  * The number of attempts to reconnect before giving up, 0 for no
+  * limit.
+  */
+  private int reconnectAttempts = 0;
+
+  /**
+  * The maximum number of messages held while reconnecting.
+  */
+  private int reconnectBufferSize = 1000;
+
+  /**
+  * Indicates if the connection has dropped and is being reopened, so
+  * that the messages sent meanwhile are held.
+  */
+  private volatile boolean reconnecting = false;
+
+  /**
+  * Indicates that the connection has been reopened and resumed, so
+  * that the messages held are being sent.
+  */
+  private volatile boolean resumed = false;
+
+  /**
+  * The lock ordering the changes of the reconnection state with the
+  * closing of the connection and the messages held.
+  */
+  private final Object reconnectLock = new Object();
+
+  /**
+  * The number of times the connection has dropped.
+  */
+  private final AtomicInteger drops = new AtomicInteger();
+
   /**
   * The server's host name.
   */
@@ -125,34 +278,99 @@ public abstract class AbstractClient implements Runnable
    * @exception IOException if an I/O error occurs when opening.
    */
   final public void openConnection() throws IOException
+  {
+    openConnection(0);
+  }
+
+  /**
+   * Opens the connection with the server, unless it is reopened after
+   * a drop and has been closed meanwhile.
+   *
+   * @param drop the number of the drop after which the connection is
+   *   reopened, 0 if it is opened by the application.
+   * @exception IOException if an I/O error occurs when opening.
+   */
+  private void openConnection(int drop) throws IOException
   {
     // Do not do anything if the connection is already open
     if(isConnected())
       return;
 
-    //Create the sockets and the data streams
+    // Create the sockets and the data streams, kept aside until it is
+    // known that the connection has not been closed meanwhile
+    Socket socket = null;
+    MessageOutput out = null;
+    MessageInput in = null;
     try
     {
-      clientSocket= new Socket(host, port);
-      output = new ObjectOutputStream(clientSocket.getOutputStream());
-      input = new ObjectInputStream(clientSocket.getInputStream());
+      socket = new Socket(host, port);
+      if (tcpNoDelay)
+        socket.setTcpNoDelay(true);
+      if (sendBufferSize > 0)
+        socket.setSendBufferSize(sendBufferSize);
+
+      out = new MessageOutput(socket.getOutputStream(), messageCodec,
+        outputBufferSize);
+      out.setResetPolicy(resetMessages, resetBytes);
+      out.setBatching(batchMessages, batchBytes, batchDelay);
+      in = new MessageInput(socket.getInputStream(), messageCodec);
+      in.setMaxMessageSize(maxMessageSize);
+      in.open();
     }
     catch (IOException ex)
     // All three of the above must be closed when there is a failure
     // to create any of them
     {
-      try
+      close(socket, out, in);
+      throw ex; // Rethrow the exception.
+    }
+
+    synchronized (reconnectLock)
+    {
+      // Closed by the application or dropped again meanwhile
+      if (drop != 0 && (!reconnecting || drop != drops.get()))
       {
-        closeAll();
+        close(socket, out, in);
+        return;
       }
-      catch (Exception exc) { }
 
-      throw ex; // Rethrow the exception.
+      clientSocket = socket;
+      output = out;
+      input = in;
+      clientReader = new Thread(this);  //Create the data reader thread
+      readyToStop = false;
+      clientReader.start();  //Start the thread
     }
+  }
 
-    clientReader = new Thread(this);  //Create the data reader thread
-    readyToStop = false;
-    clientReader.start();  //Start the thread
+  /**
+   * Opens the connection with the server without blocking the caller,
+   * which may be a user interface or a service thread. The connection
+   * is opened by another thread, as by <code>openConnection</code>.
+   *
+   * @return a future completed when the connection is open, or
+   *   completed exceptionally with the exception raised when opening.
+   */
+  final public CompletableFuture<Void> connectAsync()
+  {
+    final CompletableFuture<Void> connected = new CompletableFuture<Void>();
+
+    getWorkers().execute(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          openConnection();
+          connected.complete(null);
+        }
+        catch (Throwable ex)
+        {
+          connected.completeExceptionally(ex);
+        }
+      }
+    });
+    return connected;
   }
 
   /**
@@ -168,11 +386,102 @@ public abstract class AbstractClient implements Runnable
    */
   public void sendToServer(Object msg) throws IOException
   {
+    if (reconnecting) {
+      synchronized (reconnectLock) {
+        // Held until the messages held before are sent, except those
+        // sent by connectionResumed
+        if (reconnecting
+          && (resumed || Thread.currentThread() != clientReader)) {
+          if (sendAsync(msg).isCompletedExceptionally())
+            throw new SocketException("reconnect buffer full");
+          return;
+        }
+      }
+    }
+
+    if (clientSocket == null || output == null) {
+      throw new SocketException("socket does not exist");
+    }
+
+    output.writeMessage(msg);
+  }
+
+  /**
+   * Sends an object to the server without blocking the caller. The
+   * message is put in an outbound queue and written by another thread,
+   * in the order of the calls, so that a caller can send many
+   * messages in a row without waiting for the network. The messages
+   * queued meanwhile are written together and flushed once.
+   * The messages are written directly to the connection, without
+   * going through <code>sendToServer</code>.
+   *
+   * @param msg   The message to be sent.
+   * @return a future completed when the message has been written to
+   *   the socket, or completed exceptionally with the exception raised
+   *   when writing it.
+   */
+  public CompletableFuture<Void> sendAsync(Object msg)
+  {
+    CompletableFuture<Void> sent = new CompletableFuture<Void>();
+
+    if (reconnecting && outboundSize.get() >= reconnectBufferSize)
+    {
+      sent.completeExceptionally(
+        new SocketException("reconnect buffer full"));
+      return sent;
+    }
+
+    outbound.add(new OutboundMessage(msg, sent));
+    outboundSize.incrementAndGet();
+
+    // A worker is only needed if none is writing the queue already
+    if (writing.compareAndSet(false, true))
+      getWorkers().execute(writer);
+
+    return sent;
+  }
+
+  /**
+   * Sends the bytes of a stream to the server as a sequence of chunks,
+   * until the end of the stream, so that a payload larger than the
+   * maximum size of a message can be sent. The server receives them
+   * with <code>handleChunkFromClient</code>. No other message is sent
+   * meanwhile. The stream is not closed.
+   *
+   * @param stream the stream whose bytes are sent.
+   * @param chunkSize the maximum number of bytes of a chunk.
+   * @return the number of bytes sent.
+   * @exception IOException if an I/O error occurs when reading the
+   *   stream or sending the chunks.
+   */
+  public long sendStreamToServer(InputStream stream, int chunkSize)
+    throws IOException
+  {
+    MessageOutput output = this.output;
+
     if (clientSocket == null || output == null) {
       throw new SocketException("socket does not exist");
     }
 
-    output.writeObject(msg);
+    return output.writeStream(stream, chunkSize);
+  }
+
+  /**
+   * Flushes the messages sent to the server that are still held in
+   * the current batch.
+   *
+   * @exception IOException if an I/O error occurs when flushing.
+   * @see #setOutputBatching(int, int, long)
+   */
+  public void flush() throws IOException
+  {
+    MessageOutput output = this.output;
+
+    if (clientSocket == null || output == null) {
+      throw new SocketException("socket does not exist");
+    }
+
+    output.flush();
   }
 
   /**
@@ -183,8 +492,25 @@ public abstract class AbstractClient implements Runnable
   final public void closeConnection() throws IOException
   {
 
-      readyToStop= true; 
-      closeAll();
+      boolean held;
+      synchronized (reconnectLock)
+      {
+        readyToStop= true; 
+        held = reconnecting;
+        reconnecting = false;
+        resumed = false;
+      }
+
+      try
+      {
+        closeAll();
+      }
+      finally
+      {
+        // The messages held for a reconnection are failed
+        if (held && writing.compareAndSet(false, true))
+          getWorkers().execute(writer);
+      }
   }
 
 // ACCESSING METHODS ------------------------------------------------
@@ -197,6 +523,66 @@ public abstract class AbstractClient implements Runnable
     return clientReader!=null && clientReader.isAlive();
   }
 
+  /**
+   * Makes the client reopen the connection automatically when it
+   * drops, as opposed to being closed by <code>closeConnection</code>.
+   * The attempts are spaced by delays that double from the initial
+   * delay up to the maximum delay, each one being drawn at random
+   * between 0 and its bound. Clients disconnected at the same time,
+   * for instance by a restart of the server, thus spread their
+   * attempts instead of reconnecting all at once. By default the
+   * client does not reconnect.<p>
+   *
+   * While the connection is being reopened, the messages sent are
+   * held, up to the given number, and are sent once the connection
+   * is open again, after <code>connectionEstablished</code> then
+   * <code>connectionResumed</code> have been called. The messages sent
+   * meanwhile keep being held until those held before are sent, so
+   * that they are sent in order. The messages that were in transit
+   * when the connection dropped are lost.
+   *
+   * @param initialDelay the delay in ms before the first attempt,
+   *   0 not to reconnect.
+   * @param maxDelay the maximum delay in ms between two attempts.
+   * @param attempts the number of attempts before giving up, 0 for
+   *   no limit.
+   * @param bufferSize the maximum number of messages held.
+   * @exception IllegalArgumentException if a value is negative.
+   * @see #connectionResumed()
+   * @see #reconnectFailed(Exception)
+   */
+  final public void setAutoReconnect(long initialDelay, long maxDelay,
+    int attempts, int bufferSize)
+  {
+    if (initialDelay < 0 || maxDelay < 0 || attempts < 0 || bufferSize < 0)
+      throw new IllegalArgumentException("negative reconnect value");
+
+    this.reconnectDelay = initialDelay;
+    this.maxReconnectDelay = Math.max(initialDelay, maxDelay);
+    this.reconnectAttempts = attempts;
+    this.reconnectBufferSize = bufferSize;
+  }
+
+  /**
+   * @return true if the connection has dropped and is being reopened,
+   *   or if the messages held meanwhile are still being sent.
+   */
+  final public boolean isReconnecting()
+  {
+    return reconnecting;
+  }
+
+  /**
+   * Returns the number of messages sent by <code>sendAsync</code>
+   * that are still waiting to be written.
+   *
+   * @return the number of messages in the outbound queue.
+   */
+  final public int getOutboundQueueSize()
+  {
+    return outboundSize.get();
+  }
+
   /**
    * @return the port number.
    */
@@ -217,6 +603,192 @@ public abstract class AbstractClient implements Runnable
     this.port = port;
   }
 
+  /**
+   * Sets the codec used to encode and decode the messages for the
+   * next connection. The server must use the same codec. By default
+   * no codec is set and object streams are used.
+   * The change only takes effect at the time of the
+   * next call to openConnection().
+   *
+   * @param codec the codec, or null to use object streams.
+   */
+  final public void setMessageCodec(MessageCodec codec)
+  {
+    this.messageCodec = codec;
+  }
+
+  /**
+   * @return the codec used by the connection, null if object
+   *   streams are used.
+   */
+  final public MessageCodec getMessageCodec()
+  {
+    return messageCodec;
+  }
+
+  /**
+   * Sets the policy according to which the object stream writing to
+   * the server is reset, so that it stops retaining the messages
+   * already sent. The stream is reset as soon as it has written the
+   * given number of messages or bytes since its last reset; a limit of
+   * 0 is not considered, a limit of one message resets the stream after
+   * each message. The policy applies immediately if the connection is
+   * open, and has no effect when a codec is set.
+   *
+   * @param messages the number of messages after which the stream is
+   *   reset, or 0.
+   * @param bytes the number of bytes after which the stream is reset,
+   *   or 0.
+   * @exception IllegalArgumentException if a limit is negative.
+   */
+  final public void setStreamResetPolicy(int messages, long bytes)
+  {
+    if (messages < 0 || bytes < 0)
+      throw new IllegalArgumentException("negative reset limit");
+
+    this.resetMessages = messages;
+    this.resetBytes = bytes;
+
+    MessageOutput output = this.output;
+    if (output != null)
+      output.setResetPolicy(messages, bytes);
+  }
+
+  /**
+   * Enables or disables Nagle's algorithm (TCP_NODELAY) on the socket
+   * of the next connection. By default the algorithm is left enabled.
+   * The change only takes effect at the time of the
+   * next call to openConnection().
+   *
+   * @param on true to disable Nagle's algorithm.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    this.tcpNoDelay = on;
+  }
+
+  /**
+   * Sets the size of the send buffer of the socket of the next
+   * connection (SO_SNDBUF). The system may adjust it.
+   * The change only takes effect at the time of the
+   * next call to openConnection().
+   *
+   * @param size the size in bytes, or 0 to keep the system default.
+   * @exception IllegalArgumentException if the size is negative.
+   */
+  final public void setSendBufferSize(int size)
+  {
+    if (size < 0)
+      throw new IllegalArgumentException("negative buffer size");
+
+    this.sendBufferSize = size;
+  }
+
+  /**
+   * Sets the size of the buffer in which the bytes of the messages are
+   * gathered, so that a message is written to the socket at once rather
+   * than in pieces. The default size is 8192 bytes.
+   * The change only takes effect at the time of the
+   * next call to openConnection().
+   *
+   * @param size the size in bytes, or 0 for no buffer.
+   * @exception IllegalArgumentException if the size is negative.
+   */
+  final public void setOutputBufferSize(int size)
+  {
+    if (size < 0)
+      throw new IllegalArgumentException("negative buffer size");
+
+    this.outputBufferSize = size;
+  }
+
+  /**
+   * Sets the window in which the messages sent to the server are
+   * batched, so that the messages sent in a burst are written by a
+   * single system call. A batch is flushed when it holds the given
+   * number of messages or bytes, a limit of 0 not being considered, or
+   * at the latest after the given delay following its first message.
+   * With a delay of 0, the default, each message is flushed as soon as
+   * it is sent. The window applies immediately if the connection is
+   * open.
+   *
+   * @param messages the number of messages of a batch, or 0.
+   * @param bytes the number of bytes of a batch, or 0.
+   * @param delay the delay in microseconds after which a batch is
+   *   flushed, or 0 not to batch the messages.
+   * @exception IllegalArgumentException if a value is negative.
+   * @see #flush()
+   */
+  final public void setOutputBatching(int messages, int bytes, long delay)
+  {
+    if (messages < 0 || bytes < 0 || delay < 0)
+      throw new IllegalArgumentException("negative batching value");
+
+    this.batchMessages = messages;
+    this.batchBytes = bytes;
+    this.batchDelay = delay;
+
+    MessageOutput output = this.output;
+    if (output != null)
+      output.setBatching(messages, bytes, delay);
+  }
+
+  /**
+   * Sets the maximum size of a message received from the server. A
+   * larger message is rejected before it is allocated, and the
+   * connection is closed after <code>connectionException</code> has
+   * been called. By default a message may not exceed
+   * <code>MessageInput.DEFAULT_MAX_MESSAGE_SIZE</code> bytes. This
+   * change takes effect immediately.
+   *
+   * @param size the maximum number of bytes, 0 for no limit.
+   * @see #handleChunkFromServer(MessageChunk)
+   */
+  final public void setMaxMessageSize(int size)
+  {
+    this.maxMessageSize = Math.max(0, size);
+
+    MessageInput input = this.input;
+    if (input != null)
+      input.setMaxMessageSize(size);
+  }
+
+  /**
+   * @return the maximum size of a message received from the server,
+   *   0 if not limited.
+   */
+  final public int getMaxMessageSize()
+  {
+    return maxMessageSize;
+  }
+
+  /**
+   * Returns the number of messages sent since the last reset of the
+   * object stream, all of which are still retained by the handle table
+   * of this stream.
+   *
+   * @return the number of messages, 0 if not connected or if a codec
+   *   is used.
+   */
+  final public int getMessagesSinceReset()
+  {
+    MessageOutput output = this.output;
+    return output == null ? 0 : output.getMessagesSinceReset();
+  }
+
+  /**
+   * Returns the number of bytes sent since the last reset of the
+   * object stream.
+   *
+   * @return the number of bytes, 0 if not connected or if a codec
+   *   is used.
+   */
+  final public long getBytesSinceReset()
+  {
+    MessageOutput output = this.output;
+    return output == null ? 0 : output.getBytesSinceReset();
+  }
+
   /**
    * @return the host name.
    */
@@ -256,8 +828,21 @@ public abstract class AbstractClient implements Runnable
    */
   final public void run()
   {
+    // Reopened after a drop
+    boolean resuming = reconnecting;
+
     connectionEstablished();
 
+    if (resuming)
+    {
+      connectionResumed();
+      resume();
+    }
+
+    // The number of the drop of the connection, 0 if it did not drop
+    // or if the client does not reconnect
+    int drop = 0;
+
     // The message from the server
     Object msg;
 
@@ -273,12 +858,15 @@ public abstract class AbstractClient implements Runnable
         
         try { // added in version 2.31
         
-          msg = input.readObject();
+          msg = input.readMessage();
 
           // Concrete subclasses do what they want with the
           // msg by implementing the following method
           if (!readyToStop) {  // Added in version 2.2
-            handleMessageFromServer(msg);
+            if (msg instanceof MessageChunk)
+              handleChunkFromServer((MessageChunk)msg);
+            else
+              handleMessageFromServer(msg);
           }
           
         } catch(ClassNotFoundException ex) { // when an unknown class is received
@@ -295,6 +883,17 @@ public abstract class AbstractClient implements Runnable
     {
       if(!readyToStop)
       {
+        // The messages sent from now on are held
+        if (reconnectDelay > 0)
+        {
+          synchronized (reconnectLock)
+          {
+            drop = drops.incrementAndGet();
+            reconnecting = true;
+            resumed = false;
+          }
+        }
+
         try
         {
           closeAll();
@@ -308,6 +907,9 @@ public abstract class AbstractClient implements Runnable
     
         clientReader = null; 
         connectionClosed();   // moved here in version 2.31
+
+        if (drop != 0)
+          scheduleReconnect(drop, 0);
     }
   }
 
@@ -342,6 +944,31 @@ public abstract class AbstractClient implements Runnable
    */
   protected void connectionEstablished() {}
 
+  /**
+   * Hook method called after the connection has been reopened
+   * automatically, before the messages held meanwhile are sent.
+   * It is called by the thread reading from the server, right after
+   * <code>connectionEstablished</code>.
+   * The default implementation does nothing. It may be overridden
+   * by subclasses to restore the session on the server, for
+   * instance by logging in again with <code>sendToServer</code>;
+   * the messages it sends are sent before those held.
+   *
+   * @see #setAutoReconnect(long, long, int, int)
+   */
+  protected void connectionResumed() {}
+
+  /**
+   * Hook method called when the client gives up reopening the
+   * connection, after the last attempt has failed. The messages
+   * held meanwhile have failed. The default implementation does
+   * nothing.
+   *
+   * @param exception the exception raised by the last attempt.
+   * @see #setAutoReconnect(long, long, int, int)
+   */
+  protected void reconnectFailed(Exception exception) {}
+
   /**
    * Handles a message sent from the server to this client.
    * This MUST be implemented by subclasses, who should respond to
@@ -351,9 +978,233 @@ public abstract class AbstractClient implements Runnable
    */
   protected abstract void handleMessageFromServer(Object msg);
 
+  /**
+   * Handles a chunk of a payload sent by the server as a sequence of
+   * chunks. The chunks are received in order, the last one being
+   * marked as such. The default implementation passes the chunk to
+   * <code>handleMessageFromServer</code>. The method may be overridden
+   * by subclasses to process large payloads as they arrive, for
+   * instance by writing them to a file.
+   *
+   * @param chunk the chunk received.
+   */
+  protected void handleChunkFromServer(MessageChunk chunk)
+  {
+    handleMessageFromServer(chunk);
+  }
+
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+  /**
+   * Writes the messages of the outbound queue until it is empty.
+   * Only one worker at a time runs this method.
+   */
+  private void writeOutbound()
+  {
+    ArrayList<CompletableFuture<Void>> unflushed =
+      new ArrayList<CompletableFuture<Void>>();
+
+    while (true)
+    {
+      OutboundMessage next;
+      boolean held = false;
+      while ((next = outbound.peek()) != null)
+      {
+        if (reconnecting && !resumed)
+        {
+          // Sent once the connection is reopened and resumed
+          held = true;
+          break;
+        }
+
+        MessageOutput output = this.output;
+        outbound.poll();
+        outboundSize.decrementAndGet();
+        unflushed.add(next.sent);
+
+        try
+        {
+          if (clientSocket == null || output == null)
+            throw new SocketException("socket does not exist");
+
+          // The output is flushed with the last message of the queue
+          boolean followed =
+            unflushed.size() < MAX_UNFLUSHED && !outbound.isEmpty();
+          output.writeMessage(next.message, followed);
+
+          if (!followed)
+          {
+            for (CompletableFuture<Void> sent : unflushed)
+              sent.complete(null);
+            unflushed.clear();
+          }
+        }
+        catch (Exception ex)
+        {
+          for (CompletableFuture<Void> sent : unflushed)
+            sent.completeExceptionally(ex);
+          unflushed.clear();
+        }
+      }
+
+      for (CompletableFuture<Void> sent : unflushed)
+        sent.completeExceptionally(
+          new SocketException("connection dropped"));
+      unflushed.clear();
+
+      // The messages held have all been sent
+      if (!held && reconnecting)
+      {
+        synchronized (reconnectLock)
+        {
+          if (resumed && outbound.isEmpty())
+          {
+            reconnecting = false;
+            resumed = false;
+          }
+        }
+      }
+
+      // A message queued after the last poll may have seen the flag
+      // set, and the connection may have been reopened meanwhile
+      writing.set(false);
+      if (outbound.isEmpty() || (held && reconnecting && !resumed)
+        || !writing.compareAndSet(false, true))
+        return;
+    }
+  }
+
+  /**
+   * Schedules an attempt to reopen the connection after it dropped.
+   * The delay is drawn at random below a bound that doubles with
+   * each attempt.
+   *
+   * @param drop the number of the drop.
+   * @param attempt the number of attempts already made.
+   */
+  private void scheduleReconnect(final int drop, final int attempt)
+  {
+    long bound = reconnectDelay << Math.min(attempt, 30);
+    if (bound <= 0 || bound > maxReconnectDelay)
+      bound = maxReconnectDelay;
+    long delay = ThreadLocalRandom.current().nextLong(bound + 1);
+
+    getReconnector().schedule(new Runnable()
+    {
+      public void run()
+      {
+        // Connecting may block, so it is done by a worker
+        getWorkers().execute(new Runnable()
+        {
+          public void run()
+          {
+            reconnect(drop, attempt + 1);
+          }
+        });
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Attempts to reopen the connection. The thread reading from the
+   * new connection resumes it and sends the messages held.
+   *
+   * @param drop the number of the drop.
+   * @param attempt the number of this attempt.
+   */
+  private void reconnect(int drop, int attempt)
+  {
+    // Closed by the application meanwhile
+    if (!reconnecting || drop != drops.get())
+      return;
+
+    try
+    {
+      openConnection(drop);
+    }
+    catch (IOException ex)
+    {
+      if (reconnectAttempts > 0 && attempt >= reconnectAttempts)
+      {
+        synchronized (reconnectLock)
+        {
+          // Closed by the application meanwhile
+          if (!reconnecting || drop != drops.get())
+            return;
+          reconnecting = false;
+        }
+
+        if (writing.compareAndSet(false, true))
+          getWorkers().execute(writer);
+        reconnectFailed(ex);
+      }
+      else
+      {
+        scheduleReconnect(drop, attempt);
+      }
+    }
+  }
+
+  /**
+   * Sends the messages held while the connection was being reopened,
+   * unless it has been closed meanwhile. The messages sent from now
+   * on keep being held until these are sent.
+   */
+  private void resume()
+  {
+    synchronized (reconnectLock)
+    {
+      if (!reconnecting)
+        return;
+      resumed = true;
+    }
+
+    if (writing.compareAndSet(false, true))
+      getWorkers().execute(writer);
+  }
+
+  /**
+   * @return the thread scheduling the attempts to reconnect.
+   */
+  private static synchronized ScheduledExecutorService getReconnector()
+  {
+    if (reconnector == null)
+    {
+      reconnector = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable task)
+          {
+            Thread thread = new Thread(task, "OCSF reconnector");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    return reconnector;
+  }
+
+  /**
+   * @return the threads running the asynchronous methods.
+   */
+  private static synchronized ExecutorService getWorkers()
+  {
+    if (workers == null)
+    {
+      workers = Executors.newCachedThreadPool(new ThreadFactory()
+      {
+        public Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "OCSF client worker");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return workers;
+  }
+
   /**
    * Closes all aspects of the connection to the server.
    *
@@ -388,5 +1239,46 @@ public abstract class AbstractClient implements Runnable
       clientSocket = null;
     }
   }
+
+  /**
+   * Closes a socket and its streams that were being opened, ignoring
+   * the exceptions.
+   *
+   * @param socket the socket, or null.
+   * @param out the output stream, or null.
+   * @param in the input stream, or null.
+   */
+  private static void close(Socket socket, MessageOutput out,
+    MessageInput in)
+  {
+    try
+    {
+      if (socket != null)
+        socket.close();
+      if (out != null)
+        out.close();
+      if (in != null)
+        in.close();
+    }
+    catch (Exception ex) { }
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A message of the outbound queue, with the future completed once
+   * it has been written.
+   */
+  private static class OutboundMessage
+  {
+    final Object message;
+    final CompletableFuture<Void> sent;
+
+    OutboundMessage(Object message, CompletableFuture<Void> sent)
+    {
+      this.message = message;
+      this.sent = sent;
+    }
+  }
 }
 // end of AbstractClient class
@@ -70,6 +70,26 @@ class AdaptableClient extends AbstractClient
     client.connectionEstablished();
   }
 
+  /**
+   * Hook method called after the connection has been reopened
+   * automatically.
+   */
+  final protected void connectionResumed()
+  {
+    client.connectionResumed();
+  }
+
+  /**
+   * Hook method called when the client gives up reopening the
+   * connection.
+   *
+   * @param exception the exception raised by the last attempt.
+   */
+  final protected void reconnectFailed(Exception exception)
+  {
+    client.reconnectFailed(exception);
+  }
+
   /**
    * Handles a message sent from the server to this client.
    *
@@ -5,6 +5,7 @@
 package com.lloseng.ocsf.client;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import java.net.*;
 
@@ -32,6 +33,12 @@ public class ObservableClient extends Observable
    */
   public static final String CONNECTION_ESTABLISHED = "#OC:Connection established.";
 
+  /**
+   * Indicates that the connection to server has been reopened
+   * automatically.
+   */
+  public static final String CONNECTION_RESUMED = "#OC:Connection resumed.";
+
   //Instance variables **********************************************
 
   /**
@@ -56,6 +63,16 @@ public class ObservableClient extends Observable
     service.openConnection();
   }
 
+  /**
+   * Opens the connection with the server without blocking the caller.
+   *
+   * @return a future completed when the connection is open.
+   */
+  final public CompletableFuture<Void> connectAsync()
+  {
+    return service.connectAsync();
+  }
+
   /**
    * Closes the connection to the server.
    */
@@ -75,6 +92,17 @@ public class ObservableClient extends Observable
     service.sendToServer(msg);
   }
 
+  /**
+   * Sends an object to the server without blocking the caller.
+   *
+   *  @param msg   The message to be sent.
+   *  @return a future completed when the message has been written.
+   */
+  final public CompletableFuture<Void> sendAsync(Object msg)
+  {
+    return service.sendAsync(msg);
+  }
+
 // ACCESSING METHODS ------------------------------------------------
 
   /**
@@ -104,6 +132,32 @@ public class ObservableClient extends Observable
     service.setPort(port);
   }
 
+  /**
+   * Makes the client reopen the connection automatically when it
+   * drops.
+   *
+   * @param initialDelay the delay in ms before the first attempt,
+   *   0 not to reconnect.
+   * @param maxDelay the maximum delay in ms between two attempts.
+   * @param attempts the number of attempts before giving up, 0 for
+   *   no limit.
+   * @param bufferSize the maximum number of messages held.
+   * @see AbstractClient#setAutoReconnect(long, long, int, int)
+   */
+  final public void setAutoReconnect(long initialDelay, long maxDelay,
+    int attempts, int bufferSize)
+  {
+    service.setAutoReconnect(initialDelay, maxDelay, attempts, bufferSize);
+  }
+
+  /**
+   * @return true if the connection has dropped and is being reopened.
+   */
+  final public boolean isReconnecting()
+  {
+    return service.isReconnecting();
+  }
+
   /**
    * @return the host name.
    */
@@ -173,4 +227,27 @@ public class ObservableClient extends Observable
     setChanged();
     notifyObservers(CONNECTION_ESTABLISHED);
   }
+
+  /**
+   * Hook method called after the connection has been reopened
+   * automatically, before the messages held meanwhile are sent.
+   * It may be overridden to restore the session on the server.
+   */
+  protected void connectionResumed()
+  {
+    setChanged();
+    notifyObservers(CONNECTION_RESUMED);
+  }
+
+  /**
+   * Hook method called when the client gives up reopening the
+   * connection.
+   *
+   * @param exception the exception raised by the last attempt.
+   */
+  protected void reconnectFailed(Exception exception)
+  {
+    setChanged();
+    notifyObservers(exception);
+  }
 }
@@ -5,8 +5,12 @@
 package com.lloseng.ocsf.client;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import java.io.*;
 import java.net.*;
+import com.lloseng.ocsf.metrics.*;
 
 /**
  * This class acts as a subclass of <code>AbstractClient</code>
@@ -14,7 +18,15 @@ import java.net.*;
  * Each time a new message is received, observers are notified.
  * This class contains two blocking methods that can be used
  * when a user wishes to send a message and then wait for a reply
- * from the server.
+ * from the server.<p>
+ *
+ * Each call waits for its own reply, until an optional deadline, so
+ * that several threads may wait at the same time: a reply answers
+ * the earliest call expecting it, and <code>cancel(Thread)</code>
+ * only ends the call of the given thread. The expected replies are
+ * indexed by their hash code, so that matching a message costs the
+ * same however many calls are waiting, and the messages that no call
+ * expects are passed to the observers without taking any lock.
  *
  * @author Dr Robert Lagani&egrave;re
  * @version April 2002
@@ -29,13 +41,59 @@ public class ObservableSWRClient extends ObservableClient
   public static final String WAITING_FOR_REPLY = "#OC:Waiting for reply.";
 
   /**
-   * The service instance used to simulate multiple class inheritance.
+   * Stands for null in the index of the expected replies.
+   */
+  private static final Object NULL_KEY = new Object();
+
+  /**
+   * A call waiting for a reply. It is ended by the first thread that
+   * claims it, which then sets its outcome.
+   */
+  private static class Exchange
+  {
+    final Collection<?> expected;
+    final Thread waiter = Thread.currentThread();
+    final AtomicBoolean claimed = new AtomicBoolean();
+    long sentAt = 0;
+    boolean done = false;
+    boolean cancelled = false;
+    Exception exception = null;
+    Object received = null;
+
+    Exchange(Collection<?> expected)
+    {
+      this.expected = expected;
+    }
+  }
+
+  /**
+   * The calls waiting for a reply.
+   */
+  private final ConcurrentLinkedQueue<Exchange> exchanges =
+    new ConcurrentLinkedQueue<Exchange>();
+
+  /**
+   * The calls waiting for a reply by expected reply, each in the order
+   * they were made.
+   */
+  private final ConcurrentHashMap<Object, ConcurrentLinkedQueue<Exchange>>
+    index = new ConcurrentHashMap<Object, ConcurrentLinkedQueue<Exchange>>();
+
+  /**
+   * Indicates if the last call to end was cancelled.
    */
-  private ArrayList expected = new ArrayList(3);
-  private boolean cancelled = false;
-  private int waitTime = 30000;
-  private Exception exception;
-  private Object received;
+  private volatile boolean cancelled = false;
+
+  /**
+   * The period of the WAITING_FOR_REPLY notifications in ms, 0 for
+   * none.
+   */
+  private volatile int waitTime = 30000;
+
+  /**
+   * Records the time taken by the replies, null if not recorded.
+   */
+  private volatile LatencyRecorder latencyRecorder = null;
 
   //Constructor *****************************************************
 
@@ -46,58 +104,88 @@ public class ObservableSWRClient extends ObservableClient
 
   /**
    * Sets the wait time.
-   * At the end of each wait time period,
+   * Each time a call has waited for this time without a reply,
    * the instance will notify its observers with the
-   * WAITING_FOR_REPLY message.
+   * WAITING_FOR_REPLY message, from the waiting thread.
    *
-   * @param waitTime The wait time in ms.
+   * @param waitTime The wait time in ms, 0 for no notification.
    */
   public void setWaitTime(int waitTime)
   {
     this.waitTime= waitTime;
   }
 
+  /**
+   * Sets the recorder of the time taken by the replies, from the
+   * sending of a request by <code>sendAndWaitForReply</code> to the
+   * reception of its reply. Since a caller waits for each reply
+   * before sending its next request, the interval expected between
+   * two requests should be given to the recorder so that it corrects
+   * for the requests that a slow reply held back.
+   *
+   * @param recorder the recorder, null to stop recording.
+   * @see com.lloseng.ocsf.metrics.LatencyRecorder#setExpectedInterval(long)
+   */
+  public void setLatencyRecorder(LatencyRecorder recorder)
+  {
+    this.latencyRecorder = recorder;
+  }
+
+  /**
+   * Returns the recorder of the time taken by the replies.
+   *
+   * @return the recorder, null if the time is not recorded.
+   */
+  public LatencyRecorder getLatencyRecorder()
+  {
+    return latencyRecorder;
+  }
+
   /**
    * Connects to the server and waits. This method
    * will block until the server confirm connection.
-   * At the end of each wait time period,
-   * the instance will notify its observers with the
-   * WAITING_FOR_REPLY message.
    *
    * @return true if successfully connected.
    * @exception IOException if an I/O error occurs when connecting.
    */
-  public synchronized boolean connectAndWait() throws Exception
+  public boolean connectAndWait() throws Exception
   {
-    clearAll();
-    expected.add(CONNECTION_ESTABLISHED);
+    return connectAndWait(0);
+  }
 
-    this.openConnection();
+  /**
+   * Connects to the server and waits, at most for the given time.
+   * This method will block until the server confirm connection.
+   *
+   * @param timeout the maximum time to wait in ms, 0 for no limit.
+   * @return true if successfully connected, false if the call was
+   * cancelled or the connection closed first.
+   * @exception IOException if an I/O error occurs when connecting.
+   * @exception TimeoutException if the connection is not confirmed
+   * in time.
+   */
+  public boolean connectAndWait(long timeout) throws Exception
+  {
+    Exchange exchange = new Exchange(
+      Collections.singleton(CONNECTION_ESTABLISHED));
+    register(exchange);
 
-    while ( !cancelled && !expected.isEmpty() )
+    try
     {
-      wait(waitTime);
-      setChanged();
-      notifyObservers(WAITING_FOR_REPLY);
+      this.openConnection();
     }
-
-    if (exception != null)
+    catch (Exception ex)
     {
-      throw exception;
+      claim(exchange);
+      throw ex;
     }
 
-    if (cancelled)
-      return false;
-    else
-      return true;
+    return await(exchange, timeout) != null;
   }
 
   /**
    * Sends a message to the server and waits for a reply.
    * This method will block until the server sends the expected reply.
-   * At the end of each wait time period,
-   * the instance will notify its observers with the
-   * WAITING_FOR_REPLY message.
    *
    * @param message The message sends to the server.
    * @param expectedObject The client will wait until it receives an object
@@ -105,72 +193,130 @@ public class ObservableSWRClient extends ObservableClient
    * @return the object received.
    * @exception IOException if an I/O error occurs.
    */
-  public synchronized Object sendAndWaitForReply(
+  public Object sendAndWaitForReply(
                     Object message, Object expectedObject) throws Exception
   {
-    clearAll();
-    expected.add(expectedObject);
+    return sendAndWaitForReply(message, expectedObject, 0);
+  }
 
-    return sendAndWaitForReply(message, null);
+  /**
+   * Sends a message to the server and waits for a reply, at most for
+   * the given time.
+   * This method will block until the server sends the expected reply.
+   *
+   * @param message The message sends to the server.
+   * @param expectedObject The client will wait until it receives an object
+   * equals to this one.
+   * @param timeout the maximum time to wait in ms, 0 for no limit.
+   * @return the object received, null if the call was cancelled or
+   * the connection closed first.
+   * @exception IOException if an I/O error occurs.
+   * @exception TimeoutException if the reply does not arrive in time.
+   */
+  public Object sendAndWaitForReply(Object message, Object expectedObject,
+    long timeout) throws Exception
+  {
+    return sendAndWaitForReply(message,
+      Collections.singletonList(expectedObject), timeout);
   }
 
   /**
    * Sends a message to the server and waits for a reply.
    * This method will block until the server sends one
    * of the expected list of replies.
-   * At the end of each wait time period,
-   * the instance will notify its observers with the
-   * WAITING_FOR_REPLY message.
    *
    * @param message The message sends to the server.
    * @param expectedListOfObject The client will wait until it receives
-   * an object equals to one of the objects in this list.
-   * @return the object received.
+   * an object equals to one of the objects in this list; it does not
+   * wait if the list is null or empty.
+   * @return the object received, null if the call did not wait, was
+   * cancelled or the connection closed first.
    * @exception IOException if an I/O error occurs.
    */
-  public synchronized Object sendAndWaitForReply(
+  public Object sendAndWaitForReply(
               Object message, List expectedListOfObject) throws Exception
   {
+    return sendAndWaitForReply(message, expectedListOfObject, 0);
+  }
 
-    if (expectedListOfObject!=null)
+  /**
+   * Sends a message to the server and waits for a reply, at most for
+   * the given time.
+   * This method will block until the server sends one
+   * of the expected list of replies.
+   *
+   * @param message The message sends to the server.
+   * @param expectedListOfObject The client will wait until it receives
+   * an object equals to one of the objects in this list; it does not
+   * wait if the list is null or empty.
+   * @param timeout the maximum time to wait in ms, 0 for no limit.
+   * @return the object received, null if the call did not wait, was
+   * cancelled or the connection closed first.
+   * @exception IOException if an I/O error occurs.
+   * @exception TimeoutException if the reply does not arrive in time.
+   */
+  public Object sendAndWaitForReply(Object message,
+    List<?> expectedListOfObject, long timeout) throws Exception
+  {
+    if (expectedListOfObject == null || expectedListOfObject.isEmpty())
     {
-      clearAll();
-      expected.addAll(expectedListOfObject);
+      this.sendToServer(message);
+      return null;
     }
 
-    this.sendToServer(message);
+    Exchange exchange = new Exchange(
+      new LinkedHashSet<Object>(expectedListOfObject));
+    exchange.sentAt = System.nanoTime();
+    register(exchange);
 
-    while ( !cancelled && !expected.isEmpty() )
+    try
     {
-      wait(waitTime);
-      setChanged();
-      notifyObservers(WAITING_FOR_REPLY);
+      this.sendToServer(message);
     }
-
-    if (exception != null)
+    catch (Exception ex)
     {
-      throw exception;
+      claim(exchange);
+      throw ex;
     }
 
-    if (cancelled)
-      return null;
-    else
-      return received;
+    return await(exchange, timeout);
   }
 
   /**
-   * Cancels the exchange with the server.
+   * Cancels all the calls waiting for a reply.
+   * Each of them returns as if the connection had been closed.
+   */
+  public void cancel()
+  {
+    for (Exchange exchange : exchanges)
+    {
+      if (claim(exchange))
+        end(exchange, true, null, null);
+    }
+  }
+
+  /**
+   * Cancels the call of the given thread, if it is waiting for a
+   * reply. The calls of the other threads keep waiting.
    *
+   * @param waiter the thread waiting.
+   * @return true if a call was cancelled.
    */
-  public synchronized void cancel()
+  public boolean cancel(Thread waiter)
   {
-    clearAll();
-    cancelled= true;
-    notifyAll();
+    for (Exchange exchange : exchanges)
+    {
+      if (exchange.waiter == waiter && claim(exchange))
+      {
+        end(exchange, true, null, null);
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
-   * Returns true if cancal has been called.
+   * Returns true if the last call to end was cancelled.
    *
    */
   public boolean isCancelled()
@@ -178,29 +324,200 @@ public class ObservableSWRClient extends ObservableClient
     return cancelled;
   }
 
-  private void clearAll()
+  /**
+   * Returns the number of calls waiting for a reply.
+   *
+   * @return the number of calls waiting.
+   */
+  public int getWaitingCalls()
   {
-    cancelled= false;
-    expected.clear();
-    exception= null;
-    received= null;
+    return exchanges.size();
   }
 
-  private synchronized void notify(Exception ex)
+  /**
+   * Returns the key of an object in the index of the expected replies.
+   */
+  private static Object key(Object ob)
+  {
+    return ob == null ? NULL_KEY : ob;
+  }
+
+  /**
+   * Adds a call to the calls waiting and to the index.
+   */
+  private void register(final Exchange exchange)
   {
-    clearAll();
-    exception= ex;
-    notifyAll();
+    exchanges.add(exchange);
+    for (Object expected : exchange.expected)
+    {
+      index.compute(key(expected),
+        new BiFunction<Object, ConcurrentLinkedQueue<Exchange>,
+          ConcurrentLinkedQueue<Exchange>>()
+        {
+          public ConcurrentLinkedQueue<Exchange> apply(Object key,
+            ConcurrentLinkedQueue<Exchange> waiting)
+          {
+            if (waiting == null)
+              waiting = new ConcurrentLinkedQueue<Exchange>();
+            waiting.add(exchange);
+            return waiting;
+          }
+        });
+    }
   }
 
-  private synchronized void receive(Object ob)
+  /**
+   * Claims a call, so that no other thread can end it, and removes
+   * it from the calls waiting and from the index.
+   *
+   * @return false if the call was already claimed.
+   */
+  private boolean claim(final Exchange exchange)
   {
-    if (expected.contains(ob))
+    if (!exchange.claimed.compareAndSet(false, true))
+      return false;
+
+    exchanges.remove(exchange);
+    for (Object expected : exchange.expected)
     {
-      clearAll();
-      received= ob;
-      notifyAll();
+      index.computeIfPresent(key(expected),
+        new BiFunction<Object, ConcurrentLinkedQueue<Exchange>,
+          ConcurrentLinkedQueue<Exchange>>()
+        {
+          public ConcurrentLinkedQueue<Exchange> apply(Object key,
+            ConcurrentLinkedQueue<Exchange> waiting)
+          {
+            waiting.remove(exchange);
+            return waiting.isEmpty() ? null : waiting;
+          }
+        });
     }
+    return true;
+  }
+
+  /**
+   * Sets the outcome of a call, after it has been removed from the
+   * list of exchanges, and wakes it up.
+   */
+  private void end(Exchange exchange, boolean cancelled,
+    Exception exception, Object received)
+  {
+    synchronized (exchange)
+    {
+      exchange.done = true;
+      exchange.cancelled = cancelled;
+      exchange.exception = exception;
+      exchange.received = received;
+      exchange.notifyAll();
+    }
+  }
+
+  /**
+   * Waits for the end of a call, notifying the observers with
+   * WAITING_FOR_REPLY at each wait time period.
+   */
+  private Object await(Exchange exchange, long timeout) throws Exception
+  {
+    long start = System.nanoTime();
+    long period = TimeUnit.MILLISECONDS.toNanos(waitTime);
+    long nextNotice = period;
+    long limit = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+    try
+    {
+      while (true)
+      {
+        synchronized (exchange)
+        {
+          while (!exchange.done)
+          {
+            long elapsed = System.nanoTime() - start;
+            if (timeout > 0 && elapsed >= limit)
+            {
+              // A reply may have claimed the call meanwhile
+              if (claim(exchange))
+                throw new TimeoutException(
+                  "no reply after " + timeout + " ms");
+              exchange.wait();
+              continue;
+            }
+            if (period > 0 && elapsed >= nextNotice)
+              break;
+
+            long delay = Long.MAX_VALUE;
+            if (timeout > 0)
+              delay = limit - elapsed;
+            if (period > 0)
+              delay = Math.min(delay, nextNotice - elapsed);
+
+            if (delay == Long.MAX_VALUE)
+              exchange.wait();
+            else
+              TimeUnit.NANOSECONDS.timedWait(exchange, delay);
+          }
+
+          if (exchange.done)
+          {
+            this.cancelled = exchange.cancelled;
+            if (exchange.exception != null)
+              throw exchange.exception;
+            return exchange.received;
+          }
+        }
+
+        nextNotice += period;
+        setChanged();
+        notifyObservers(WAITING_FOR_REPLY);
+      }
+    }
+    catch (InterruptedException ex)
+    {
+      claim(exchange);
+      throw ex;
+    }
+  }
+
+  /**
+   * Ends all the calls waiting for a reply, with the exception given.
+   */
+  private void notify(Exception ex)
+  {
+    for (Exchange exchange : exchanges)
+    {
+      if (claim(exchange))
+        end(exchange, false, ex, null);
+    }
+  }
+
+  /**
+   * Ends the earliest call expecting the object received.
+   */
+  private void receive(Object ob)
+  {
+    if (index.isEmpty())
+      return;
+
+    ConcurrentLinkedQueue<Exchange> waiting = index.get(key(ob));
+    if (waiting == null)
+      return;
+
+    Exchange answered = null;
+    for (Exchange exchange : waiting)
+    {
+      if (claim(exchange))
+      {
+        answered = exchange;
+        break;
+      }
+    }
+
+    if (answered == null)
+      return;
+
+    LatencyRecorder recorder = latencyRecorder;
+    if (recorder != null && answered.sentAt != 0)
+      recorder.record(System.nanoTime() - answered.sentAt);
+    end(answered, false, null, ob);
   }
 
   /**
@@ -0,0 +1,220 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import com.lloseng.ocsf.codec.*;
+
+/**
+* The <code> PipelinedClient </code> sends requests to the server
+* without waiting for the replies to the previous ones. Each request
+* is wrapped in a <code>CorrelatedMessage</code> with a new ID and
+* returns a <code>CompletableFuture</code>, which is completed when
+* the server answers with a message of the same ID. Any number of
+* threads may send requests concurrently, and any number of requests
+* may be in flight, so that the throughput grows with the number of
+* outstanding requests instead of being limited to one request per
+* round trip as with <code>ObservableSWRClient</code>.<p>
+*
+* The server must answer each request with
+* <code>CorrelatedMessage.reply</code>; the replies may come in any
+* order. The messages received without correlation ID are passed to
+* <code>handleUnsolicitedMessage</code>. When the connection is
+* closed, the requests still waiting for a reply fail.<p>
+*
+* The futures are completed by the thread reading the messages from
+* the server, which must not be blocked by the actions attached to
+* them; an action that blocks should be attached with one of the
+* asynchronous methods of <code>CompletableFuture</code>. Output
+* batching lets concurrent requests share the same packets.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.CorrelatedMessage
+* @see com.lloseng.ocsf.client.AbstractClient#setOutputBatching(int, int, long)
+*/
+public class PipelinedClient extends AbstractClient
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The requests waiting for their reply, by correlation ID.
+   */
+  private final ConcurrentHashMap<Long, CompletableFuture<Object>> pending =
+    new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+
+  /**
+   * The source of the correlation IDs.
+   */
+  private final AtomicLong nextId = new AtomicLong();
+
+  /**
+   * The exception that ended the connection, null if none.
+   */
+  private volatile Exception failure = null;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs the client.
+   *
+   * @param host the server's host name.
+   * @param port the port number.
+   */
+  public PipelinedClient(String host, int port)
+  {
+    super(host, port);
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Sends a request to the server without waiting for its reply.
+   *
+   * @param request the request.
+   * @return a future completed with the payload of the reply, or
+   *   completed exceptionally if the request cannot be sent or if the
+   *   connection is closed first.
+   */
+  public CompletableFuture<Object> request(Object request)
+  {
+    long id = nextId.incrementAndGet();
+    CompletableFuture<Object> reply = new CompletableFuture<Object>();
+    send(id, request, reply);
+    return reply;
+  }
+
+  /**
+   * Sends a request to the server without waiting for its reply, and
+   * gives up on it after the given time. A late reply is ignored.
+   *
+   * @param request the request.
+   * @param timeout the time after which the request fails.
+   * @param unit the unit of the time.
+   * @return a future completed with the payload of the reply, or
+   *   completed exceptionally with a <code>TimeoutException</code>
+   *   if the reply does not arrive in time.
+   */
+  public CompletableFuture<Object> request(Object request, long timeout,
+    TimeUnit unit)
+  {
+    final long id = nextId.incrementAndGet();
+    final CompletableFuture<Object> reply = new CompletableFuture<Object>();
+    send(id, request, reply);
+
+    reply.orTimeout(timeout, unit).whenComplete(
+      new BiConsumer<Object, Throwable>()
+      {
+        public void accept(Object result, Throwable exception)
+        {
+          pending.remove(Long.valueOf(id), reply);
+        }
+      });
+    return reply;
+  }
+
+  /**
+   * Returns the number of requests waiting for their reply.
+   *
+   * @return the number of requests in flight.
+   */
+  public int getPendingRequests()
+  {
+    return pending.size();
+  }
+
+// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+  /**
+   * Handles a message sent by the server that is not the reply to a
+   * request. The default implementation does nothing.
+   *
+   * @param msg the message sent.
+   */
+  protected void handleUnsolicitedMessage(Object msg) {}
+
+  /**
+   * Hook method called each time an exception is thrown by the
+   * client's thread that is reading messages from the server. A
+   * subclass overriding this method must call it.
+   *
+   * @param exception the exception raised.
+   */
+  protected void connectionException(Exception exception)
+  {
+    failure = exception;
+  }
+
+  /**
+   * Hook method called after the connection has been closed. Fails
+   * the requests still waiting for their reply. A subclass overriding
+   * this method must call it.
+   */
+  protected void connectionClosed()
+  {
+    Exception cause = failure;
+    failure = null;
+
+    SocketException closed = new SocketException("connection closed");
+    if (cause != null)
+      closed.initCause(cause);
+
+    for (Long id : pending.keySet())
+    {
+      CompletableFuture<Object> reply = pending.remove(id);
+      if (reply != null)
+        reply.completeExceptionally(closed);
+    }
+  }
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  /**
+   * Completes the request matching a reply, or passes a message that
+   * is not a reply to <code>handleUnsolicitedMessage</code>.
+   *
+   * @param msg the message sent by the server.
+   */
+  final protected void handleMessageFromServer(Object msg)
+  {
+    if (msg instanceof CorrelatedMessage)
+    {
+      CorrelatedMessage reply = (CorrelatedMessage)msg;
+      CompletableFuture<Object> request =
+        pending.remove(Long.valueOf(reply.getId()));
+      if (request != null)
+        request.complete(reply.getPayload());
+    }
+    else
+    {
+      handleUnsolicitedMessage(msg);
+    }
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * Registers a request and sends it, or fails it if it cannot be sent.
+   */
+  private void send(long id, Object request, CompletableFuture<Object> reply)
+  {
+    Long key = Long.valueOf(id);
+    pending.put(key, reply);
+    try
+    {
+      sendToServer(new CorrelatedMessage(id, request));
+    }
+    catch (IOException ex)
+    {
+      pending.remove(key);
+      reply.completeExceptionally(ex);
+    }
+  }
+}
+// End of PipelinedClient class
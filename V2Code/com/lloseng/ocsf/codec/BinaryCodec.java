@@ -0,0 +1,237 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.nio.charset.*;
+
+/**
+* The <code> BinaryCodec </code> encodes the most common messages,
+* strings, byte arrays and the wrappers of the primitive types, in a
+* compact form made of a one byte tag followed by the raw value. A
+* string is encoded in UTF-8 and a byte array is copied as is, so these
+* messages cost little more than their own size to encode and decode.
+* A <code>CorrelatedMessage</code> is encoded as its ID followed by the
+* compact form of its payload.<p>
+*
+* Any other message is encoded with Java serialization, as done by
+* <code>SerializationCodec</code>, after a distinct tag.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageCodec
+*/
+public class BinaryCodec implements MessageCodec
+{
+// CLASS VARIABLES **************************************************
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte BYTES = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte FLOAT = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+  private static final byte BOOLEAN = 9;
+  private static final byte CHARACTER = 10;
+  private static final byte CORRELATED = 11;
+  private static final byte SERIALIZED = 127;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The codec used for the messages that have no compact form.
+   */
+  private final SerializationCodec serialization = new SerializationCodec();
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Encodes a message.
+   *
+   * @param msg the message to encode.
+   * @return the tag of the message followed by its value.
+   * @exception IOException if the message has no compact form and
+   *   is not serializable.
+   */
+  public byte[] encode(Object msg) throws IOException
+  {
+    if (msg == null)
+      return new byte[] {NULL};
+
+    if (msg instanceof String)
+      return tagged(STRING, ((String)msg).getBytes(StandardCharsets.UTF_8));
+
+    if (msg instanceof byte[])
+      return tagged(BYTES, (byte[])msg);
+
+    if (msg instanceof Integer)
+      return fixed(INTEGER, ((Integer)msg).longValue(), 4);
+
+    if (msg instanceof Long)
+      return fixed(LONG, ((Long)msg).longValue(), 8);
+
+    if (msg instanceof Double)
+      return fixed(DOUBLE, Double.doubleToRawLongBits((Double)msg), 8);
+
+    if (msg instanceof Float)
+      return fixed(FLOAT, Float.floatToRawIntBits((Float)msg), 4);
+
+    if (msg instanceof Short)
+      return fixed(SHORT, ((Short)msg).longValue(), 2);
+
+    if (msg instanceof Byte)
+      return fixed(BYTE, ((Byte)msg).longValue(), 1);
+
+    if (msg instanceof Boolean)
+      return fixed(BOOLEAN, ((Boolean)msg).booleanValue() ? 1 : 0, 1);
+
+    if (msg instanceof Character)
+      return fixed(CHARACTER, ((Character)msg).charValue(), 2);
+
+    if (msg instanceof CorrelatedMessage)
+    {
+      CorrelatedMessage correlated = (CorrelatedMessage)msg;
+      byte[] payload = encode(correlated.getPayload());
+      byte[] bytes = new byte[payload.length + 9];
+      bytes[0] = CORRELATED;
+      long id = correlated.getId();
+      for (int i=8; i>0; i--)
+      {
+        bytes[i] = (byte)id;
+        id >>>= 8;
+      }
+      System.arraycopy(payload, 0, bytes, 9, payload.length);
+      return bytes;
+    }
+
+    return tagged(SERIALIZED, serialization.encode(msg));
+  }
+
+  /**
+   * Decodes a message.
+   *
+   * @param frame the array containing the bytes.
+   * @param offset the position of the tag of the message.
+   * @param length the number of bytes of the message.
+   * @return the decoded message.
+   * @exception IOException if the bytes do not represent a message.
+   * @exception ClassNotFoundException if a serialized message is of
+   *   an unknown class.
+   */
+  public Object decode(byte[] frame, int offset, int length)
+    throws IOException, ClassNotFoundException
+  {
+    if (length < 1)
+      throw new StreamCorruptedException("empty message");
+
+    byte tag = frame[offset];
+    int start = offset + 1;
+    int size = length - 1;
+
+    switch (tag)
+    {
+      case NULL:
+        return null;
+
+      case STRING:
+        return new String(frame, start, size, StandardCharsets.UTF_8);
+
+      case BYTES:
+        byte[] bytes = new byte[size];
+        System.arraycopy(frame, start, bytes, 0, size);
+        return bytes;
+
+      case INTEGER:
+        return Integer.valueOf((int)read(frame, start, size, 4));
+
+      case LONG:
+        return Long.valueOf(read(frame, start, size, 8));
+
+      case DOUBLE:
+        return Double.valueOf(
+          Double.longBitsToDouble(read(frame, start, size, 8)));
+
+      case FLOAT:
+        return Float.valueOf(
+          Float.intBitsToFloat((int)read(frame, start, size, 4)));
+
+      case SHORT:
+        return Short.valueOf((short)read(frame, start, size, 2));
+
+      case BYTE:
+        return Byte.valueOf((byte)read(frame, start, size, 1));
+
+      case BOOLEAN:
+        return Boolean.valueOf(read(frame, start, size, 1) != 0);
+
+      case CHARACTER:
+        return Character.valueOf((char)read(frame, start, size, 2));
+
+      case CORRELATED:
+        if (size < 9)
+          throw new StreamCorruptedException("invalid message length");
+        return new CorrelatedMessage(read(frame, start, 8, 8),
+          decode(frame, start + 8, size - 8));
+
+      case SERIALIZED:
+        return serialization.decode(frame, start, size);
+
+      default:
+        throw new StreamCorruptedException("unknown message tag " + tag);
+    }
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * @return a tag followed by the given bytes.
+   */
+  private static byte[] tagged(byte tag, byte[] value)
+  {
+    byte[] bytes = new byte[value.length + 1];
+    bytes[0] = tag;
+    System.arraycopy(value, 0, bytes, 1, value.length);
+    return bytes;
+  }
+
+  /**
+   * @return a tag followed by the given number of low order bytes
+   *   of a value, most significant first.
+   */
+  private static byte[] fixed(byte tag, long value, int size)
+  {
+    byte[] bytes = new byte[size + 1];
+    bytes[0] = tag;
+    for (int i=size; i>0; i--)
+    {
+      bytes[i] = (byte)value;
+      value >>>= 8;
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the value of the given number of bytes, most
+   *   significant first.
+   * @exception IOException if the size is not the expected one.
+   */
+  private static long read(byte[] frame, int start, int size, int expected)
+    throws IOException
+  {
+    if (size != expected)
+      throw new StreamCorruptedException("invalid message length");
+
+    long value = 0;
+    for (int i=0; i<size; i++)
+    {
+      value = (value << 8) | (frame[start + i] & 0xff);
+    }
+    return value;
+  }
+}
+// End of BinaryCodec class
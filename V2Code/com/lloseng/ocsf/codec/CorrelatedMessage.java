@@ -0,0 +1,95 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+
+/**
+* A <code> CorrelatedMessage </code> carries a request, or the reply to
+* a request, along with the correlation ID that matches them. The
+* client chooses a distinct ID for each request it has in flight; the
+* server answers with <code>reply</code>, which keeps the ID, so that
+* the replies can be matched to their requests in any order and many
+* requests can be outstanding at once.<p>
+*
+* The <code>BinaryCodec</code> encodes a correlated message as its ID
+* followed by the compact form of its payload.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.client.PipelinedClient
+*/
+public final class CorrelatedMessage implements Serializable
+{
+// CLASS VARIABLES **************************************************
+
+  private static final long serialVersionUID = 1L;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The correlation ID.
+   */
+  private final long id;
+
+  /**
+   * The request or the reply.
+   */
+  private final Object payload;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a correlated message.
+   *
+   * @param id the correlation ID.
+   * @param payload the request or the reply.
+   */
+  public CorrelatedMessage(long id, Object payload)
+  {
+    this.id = id;
+    this.payload = payload;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Creates the reply to this request.
+   *
+   * @param reply the payload of the reply.
+   * @return a message with the same correlation ID.
+   */
+  public CorrelatedMessage reply(Object reply)
+  {
+    return new CorrelatedMessage(id, reply);
+  }
+
+  /**
+   * @return a description of the message.
+   */
+  public String toString()
+  {
+    return "#" + id + " " + payload;
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the correlation ID.
+   */
+  public long getId()
+  {
+    return id;
+  }
+
+  /**
+   * @return the request or the reply.
+   */
+  public Object getPayload()
+  {
+    return payload;
+  }
+}
+// End of CorrelatedMessage class
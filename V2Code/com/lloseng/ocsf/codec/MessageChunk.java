@@ -0,0 +1,106 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+
+/**
+* A <code> MessageChunk </code> is one piece of a payload too large to
+* be sent as a single message. The payload is sent as a sequence of
+* chunks, the last of which is marked as such, so that the receiving
+* end can process it as it arrives without ever holding it entirely
+* in memory. The chunks of a payload are not interleaved with other
+* messages.<p>
+*
+* With a codec, a chunk travels as a frame whose length has its two
+* upper bits set, the second one marking the last chunk. Without
+* codec, the chunk is written as an unshared object so that neither
+* object stream keeps a reference to its bytes.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageOutput#writeStream(InputStream, int)
+*/
+public final class MessageChunk implements Serializable
+{
+// CLASS VARIABLES **************************************************
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The bit of a frame length indicating a chunk.
+   */
+  static final int CHUNK_FLAG = 0x80000000;
+
+  /**
+   * The bit of a frame length indicating the last chunk of a payload.
+   */
+  static final int LAST_FLAG = 0x40000000;
+
+  /**
+   * The bits of a frame length giving the length of a chunk.
+   */
+  static final int LENGTH_MASK = 0x3fffffff;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The bytes of the chunk.
+   */
+  private transient byte[] data;
+
+  /**
+   * Indicates the last chunk of a payload.
+   */
+  private boolean last;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a chunk.
+   *
+   * @param data the bytes of the chunk, which are not copied.
+   * @param last true for the last chunk of a payload.
+   */
+  public MessageChunk(byte[] data, boolean last)
+  {
+    this.data = data;
+    this.last = last;
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the bytes of the chunk.
+   */
+  public byte[] getData()
+  {
+    return data;
+  }
+
+  /**
+   * @return true if this is the last chunk of a payload.
+   */
+  public boolean isLast()
+  {
+    return last;
+  }
+
+// SERIALIZATION METHODS --------------------------------------------
+
+  private void writeObject(ObjectOutputStream out) throws IOException
+  {
+    out.defaultWriteObject();
+    out.writeUnshared(data);
+  }
+
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    data = (byte[])in.readUnshared();
+  }
+}
+// End of MessageChunk class
@@ -0,0 +1,57 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+
+/**
+* A <code> MessageCodec </code> converts the messages exchanged by a
+* client and a server to and from bytes. When a codec is set on the
+* server and on its clients, every message travels as a frame made of
+* its length, written as a four byte integer, followed by the bytes
+* produced by <code>encode</code>. The framing is done by the framework,
+* so a codec only has to deal with one message at a time and keeps no
+* state from one message to the next.<p>
+*
+* When no codec is set, the framework uses Java object streams as in
+* the previous versions, which remains compatible with clients and
+* servers that do not know about codecs.<p>
+*
+* Implementations must be thread-safe since the same codec is used by
+* all the connections of a server.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.SerializationCodec
+* @see com.lloseng.ocsf.codec.BinaryCodec
+* @see com.lloseng.ocsf.server.AbstractServer#setMessageCodec(MessageCodec)
+* @see com.lloseng.ocsf.client.AbstractClient#setMessageCodec(MessageCodec)
+*/
+public interface MessageCodec
+{
+  /**
+   * Converts a message into bytes.
+   *
+   * @param msg the message to encode.
+   * @return the bytes representing the message.
+   * @exception IOException if the message cannot be encoded.
+   */
+  byte[] encode(Object msg) throws IOException;
+
+  /**
+   * Rebuilds a message from the bytes of a frame.
+   *
+   * @param frame the array containing the bytes.
+   * @param offset the position of the first byte of the message.
+   * @param length the number of bytes of the message.
+   * @return the decoded message.
+   * @exception IOException if the bytes do not represent a message.
+   * @exception ClassNotFoundException if the message is of an
+   *   unknown class.
+   */
+  Object decode(byte[] frame, int offset, int length)
+    throws IOException, ClassNotFoundException;
+}
+// End of MessageCodec interface
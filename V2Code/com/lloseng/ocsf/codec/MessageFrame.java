@@ -0,0 +1,150 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+
+/**
+* A <code> MessageFrame </code> holds a message already encoded for the
+* wire, so that a message sent to many clients is encoded only once and
+* the same bytes are then written to every connection.<p>
+*
+* With a codec, the frame is simply the length of the encoded message
+* followed by its bytes. Without codec, the object streams of the
+* connections normally replace an object that was already written by a
+* reference to its first occurrence, which makes the bytes of a message
+* depend on what was previously written to each stream. The frame is
+* then serialized by a stream of its own, and is written right after
+* the connection stream has been reset; it ends with a reset marker as
+* well. The receiving <code>ObjectInputStream</code> therefore reads it
+* with an empty reference table, exactly as if the message had been
+* written by the connection stream itself.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageOutput#writeFrame(MessageFrame)
+*/
+public final class MessageFrame
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The length of the header written by an
+   * <code>ObjectOutputStream</code> when it is created.
+   */
+  private static final int STREAM_HEADER_LENGTH = 4;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The message.
+   */
+  private final Object message;
+
+  /**
+   * The codec that encoded the message, null for an object stream.
+   */
+  private final MessageCodec codec;
+
+  /**
+   * The bytes to write on the wire.
+   */
+  private final byte[] bytes;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Encodes a message into a frame.
+   *
+   * @param msg the message to encode.
+   * @param codec the codec of the connections to which the frame is
+   *   written, or null if they use object streams.
+   * @exception IOException if the message cannot be encoded.
+   */
+  public MessageFrame(Object msg, MessageCodec codec) throws IOException
+  {
+    this.message = msg;
+    this.codec = codec;
+
+    if (codec != null)
+    {
+      byte[] encoded = codec.encode(msg);
+      bytes = new byte[encoded.length + 4];
+      writeLength(bytes, encoded.length);
+      System.arraycopy(encoded, 0, bytes, 4, encoded.length);
+    }
+    else
+    {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+      ObjectOutputStream output = new ObjectOutputStream(buffer);
+      output.writeObject(msg);
+      output.flush();
+
+      buffer.write(ObjectStreamConstants.TC_RESET);
+
+      byte[] serialized = buffer.toByteArray();
+      bytes = new byte[serialized.length - STREAM_HEADER_LENGTH];
+      System.arraycopy(serialized, STREAM_HEADER_LENGTH,
+        bytes, 0, bytes.length);
+    }
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the message of this frame.
+   */
+  public Object getMessage()
+  {
+    return message;
+  }
+
+  /**
+   * @return the codec that encoded the message, null for an
+   *   object stream.
+   */
+  public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * @return the number of bytes of the frame.
+   */
+  public int length()
+  {
+    return bytes.length;
+  }
+
+// METHODS TO BE USED FROM WITHIN THE PACKAGE ONLY ------------------
+
+  /**
+   * Writes the frame to a stream. When the frame is meant for an
+   * object stream, this stream must have been reset and flushed
+   * just before.
+   *
+   * @param output the stream underlying the message output.
+   * @exception IOException if an I/O error occurs.
+   */
+  void writeTo(OutputStream output) throws IOException
+  {
+    output.write(bytes);
+  }
+
+  /**
+   * Writes a frame length, most significant byte first.
+   *
+   * @param bytes the array in which the length is written.
+   * @param length the length.
+   */
+  static void writeLength(byte[] bytes, int length)
+  {
+    bytes[0] = (byte)(length >>> 24);
+    bytes[1] = (byte)(length >>> 16);
+    bytes[2] = (byte)(length >>> 8);
+    bytes[3] = (byte)length;
+  }
+}
+// End of MessageFrame class
@@ -0,0 +1,467 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+
+/**
+* A <code> MessageInput </code> reads the messages written by a
+* <code>MessageOutput</code> at the other end of a socket, using the
+* same codec, or an object stream when there is no codec.<p>
+*
+* The input must be opened before the first message is read. Without
+* codec, opening it reads the header of the object stream, and blocks
+* until this header has been received.<p>
+*
+* The size of the messages is limited so that a peer cannot make the
+* input allocate more memory than allowed. With a codec, the length of
+* a frame is checked before its bytes are allocated. Without codec, the
+* bytes consumed by the object stream for one message are counted as
+* they are read, and any array larger than allowed is rejected by a
+* filter of the stream before it is allocated. Payloads larger than
+* a message may be sent as a sequence of <code>MessageChunk</code>
+* objects, each of which is limited in size.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageOutput
+* @see com.lloseng.ocsf.codec.MessageCodec
+*/
+public class MessageInput
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The default maximum size of a message, 16 megabytes.
+   */
+  public static final int DEFAULT_MAX_MESSAGE_SIZE = 1 << 24;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The stream from which the bytes are read.
+   */
+  private final InputStream input;
+
+  /**
+   * The codec decoding the messages, null when an object stream
+   * is used.
+   */
+  private final MessageCodec codec;
+
+  /**
+   * The object stream reading the messages when there is no codec.
+   * Created when the input is opened.
+   */
+  private ObjectInputStream objects = null;
+
+  /**
+   * The stream reading the frames when there is a codec.
+   */
+  private DataInputStream frames = null;
+
+  /**
+   * The stream counting the bytes read by the object stream.
+   */
+  private final CountingInputStream counter;
+
+  /**
+   * The number of bytes of the frames read when there is a codec.
+   */
+  private volatile long frameBytes = 0;
+
+  /**
+   * The maximum size of a message, 0 if the size is not limited.
+   */
+  private volatile int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+  /**
+   * The size of the array rejected by the filter of the object stream
+   * during the current read, 0 if none.
+   */
+  private long rejectedSize = 0;
+
+  /**
+   * Indicates if the frames are read through a buffer.
+   */
+  private final boolean buffered;
+
+  /**
+   * The header of the frame being read.
+   */
+  private final byte[] headerBytes = new byte[4];
+
+  /**
+   * The scanner finding where the objects end in the object stream,
+   * null if there is a codec or if the stream cannot be scanned.
+   */
+  private ObjectStreamScanner scanner = null;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a message input. Nothing is read before the input
+   * is opened.
+   *
+   * @param input the stream from which the bytes are read.
+   * @param codec the codec decoding the messages, or null to use
+   *   an object stream.
+   */
+  public MessageInput(InputStream input, MessageCodec codec)
+  {
+    this(input, codec, true);
+  }
+
+  /**
+   * Constructs a message input. Nothing is read before the input
+   * is opened. The frames should only be read without buffer from a
+   * stream whose reads are cheap, such as one reading from memory;
+   * the buffer reads ahead, so that a caller checking the bytes
+   * available on the underlying stream may miss messages that are
+   * already in the buffer.
+   *
+   * @param input the stream from which the bytes are read.
+   * @param codec the codec decoding the messages, or null to use
+   *   an object stream.
+   * @param buffered true to read the frames through a buffer.
+   */
+  public MessageInput(InputStream input, MessageCodec codec,
+    boolean buffered)
+  {
+    this.input = input;
+    this.codec = codec;
+    this.counter = new CountingInputStream(input);
+    this.buffered = buffered;
+
+    if (codec == null)
+      scanner = new ObjectStreamScanner();
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Opens the input. Without codec, waits for the header of the
+   * object stream. If the input is already opened, this call has
+   * no effect.
+   *
+   * @exception IOException if an I/O error occurs.
+   */
+  public void open() throws IOException
+  {
+    if (isOpen())
+      return;
+
+    if (codec == null)
+    {
+      objects = new ObjectInputStream(counter);
+      objects.setObjectInputFilter(
+        new SizeFilter(objects.getObjectInputFilter()));
+    }
+    else
+      frames = new DataInputStream(
+        buffered ? new BufferedInputStream(input) : input);
+  }
+
+  /**
+   * Reads the next message, waiting until it has been received.
+   * The input is opened first if needed.
+   *
+   * @return the message read.
+   * @exception IOException if an I/O error occurs or if the bytes
+   *   received do not represent a message.
+   * @exception ClassNotFoundException if the message is of an
+   *   unknown class.
+   */
+  public Object readMessage() throws IOException, ClassNotFoundException
+  {
+    open();
+
+    int max = maxMessageSize;
+
+    if (codec == null)
+    {
+      counter.start = counter.count;
+      counter.max = max;
+      rejectedSize = 0;
+      try
+      {
+        return objects.readObject();
+      }
+      catch (InvalidClassException ex)
+      {
+        if (rejectedSize > 0)
+          throw new MessageTooLargeException(rejectedSize, max);
+        throw ex;
+      }
+      finally
+      {
+        counter.max = 0;
+      }
+    }
+
+    frames.readFully(headerBytes);
+    int header = ((headerBytes[0] & 0xff) << 24)
+      | ((headerBytes[1] & 0xff) << 16)
+      | ((headerBytes[2] & 0xff) << 8) | (headerBytes[3] & 0xff);
+    boolean chunk = (header & MessageChunk.CHUNK_FLAG) != 0;
+    int length = chunk ? header & MessageChunk.LENGTH_MASK : header;
+
+    // Rejected before allocating the frame
+    if (max > 0 && length > max)
+      throw new MessageTooLargeException(length, max);
+
+    byte[] frame = new byte[length];
+    frames.readFully(frame);
+    frameBytes += 4 + length;
+
+    if (chunk)
+      return new MessageChunk(frame, (header & MessageChunk.LAST_FLAG) != 0);
+
+    return codec.decode(frame, 0, length);
+  }
+
+  /**
+   * Returns the number of bytes that must have been received before
+   * the input can be opened, or the next message read, without waiting
+   * for more bytes. This lets a caller holding the bytes received in
+   * memory start decoding only once a message is complete.<p>
+   *
+   * With a codec, the length is given by the header of the frame.
+   * Without codec, the object stream is scanned; if it cannot be
+   * scanned, the message should be read at once.
+   *
+   * @param received a stream reading the bytes received and not yet
+   *   read from this input. They need not be consumed.
+   * @param available the number of bytes that can be read from
+   *   received.
+   * @return the number of bytes needed; at most
+   *   <code>available</code> if the next message can be read at once,
+   *   or if reading it fails at once.
+   * @exception IOException if the bytes received cannot be read.
+   */
+  public int bytesNeeded(InputStream received, int available)
+    throws IOException
+  {
+    int max = maxMessageSize;
+
+    if (codec != null)
+    {
+      if (available < 4)
+        return 4;
+
+      int header = new DataInputStream(received).readInt();
+      boolean chunk = (header & MessageChunk.CHUNK_FLAG) != 0;
+      int length = chunk ? header & MessageChunk.LENGTH_MASK : header;
+
+      // Rejected as soon as the header is read
+      if (max > 0 && length > max)
+        return 4;
+      return (int)Math.min(4L + length, Integer.MAX_VALUE);
+    }
+
+    if (!isOpen())
+      return 4; // The header of the object stream
+
+    if (scanner == null)
+      return 0;
+
+    long needed;
+    try
+    {
+      needed = scanner.scan(received, available, counter.count, max);
+    }
+    catch (StreamCorruptedException ex)
+    {
+      scanner = null;
+      return 0;
+    }
+
+    // The reading fails once more than the maximum has been read
+    if (needed > available && max > 0 && needed > max)
+      needed = max + 1L;
+    return (int)Math.min(needed, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Closes the input and its underlying stream.
+   *
+   * @exception IOException if an I/O error occurs.
+   */
+  public void close() throws IOException
+  {
+    if (objects != null)
+      objects.close();
+    else
+      input.close();
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return true if the input has been opened.
+   */
+  public boolean isOpen()
+  {
+    return objects != null || frames != null;
+  }
+
+  /**
+   * Sets the maximum size of a message. A larger message makes
+   * <code>readMessage</code> throw a
+   * <code>MessageTooLargeException</code>. By default, a message may
+   * not exceed <code>DEFAULT_MAX_MESSAGE_SIZE</code> bytes. This change
+   * takes effect with the next message read.
+   *
+   * @param size the maximum number of bytes, 0 for no limit.
+   */
+  public void setMaxMessageSize(int size)
+  {
+    this.maxMessageSize = Math.max(0, size);
+  }
+
+  /**
+   * @return the maximum size of a message, 0 if not limited.
+   */
+  public int getMaxMessageSize()
+  {
+    return maxMessageSize;
+  }
+
+  /**
+   * @return the codec of this input, null for an object stream.
+   */
+  public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Returns the number of bytes read so far. With a codec, these are
+   * the bytes of the frames read. Without codec, these are the bytes
+   * consumed by the object stream, header included.
+   *
+   * @return the number of bytes read.
+   */
+  public long getBytesRead()
+  {
+    return codec == null ? counter.count : frameBytes;
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * The filter of the object stream rejecting the arrays larger than
+   * the maximum size of a message, before they are allocated. The
+   * filter previously set on the stream, such as the filter of the
+   * virtual machine, is applied as well.
+   */
+  private class SizeFilter implements ObjectInputFilter
+  {
+    /**
+     * The filter previously set on the stream, or null.
+     */
+    private final ObjectInputFilter next;
+
+    SizeFilter(ObjectInputFilter next)
+    {
+      this.next = next;
+    }
+
+    public Status checkInput(FilterInfo info)
+    {
+      int max = maxMessageSize;
+      Class<?> type = info.serialClass();
+
+      if (max > 0 && info.arrayLength() > 0 && type != null
+        && type.isArray())
+      {
+        long size = info.arrayLength() * elementSize(type.getComponentType());
+        if (size > max)
+        {
+          rejectedSize = size;
+          return Status.REJECTED;
+        }
+      }
+
+      return next == null ? Status.UNDECIDED : next.checkInput(info);
+    }
+
+    /**
+     * @return the number of bytes taken by an element of an array.
+     */
+    private long elementSize(Class<?> type)
+    {
+      if (type == byte.class || type == boolean.class)
+        return 1;
+      if (type == char.class || type == short.class)
+        return 2;
+      if (type == long.class || type == double.class)
+        return 8;
+      return 4; // int, float or reference
+    }
+  }
+
+  /**
+   * A stream counting the bytes read through it. Reading more bytes
+   * than allowed for the current message makes it throw a
+   * <code>MessageTooLargeException</code>.
+   */
+  private static class CountingInputStream extends FilterInputStream
+  {
+    /**
+     * The number of bytes read.
+     */
+    volatile long count = 0;
+
+    /**
+     * The count when the current message started.
+     */
+    long start = 0;
+
+    /**
+     * The number of bytes the current message may take, 0 if the
+     * reading is not limited.
+     */
+    int max = 0;
+
+    CountingInputStream(InputStream input)
+    {
+      super(input);
+    }
+
+    public int read() throws IOException
+    {
+      int b = in.read();
+      if (b >= 0)
+        count++;
+      checkLimit();
+      return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      int read = in.read(b, off, len);
+      if (read > 0)
+        count += read;
+      checkLimit();
+      return read;
+    }
+
+    public long skip(long n) throws IOException
+    {
+      long skipped = in.skip(n);
+      count += skipped;
+      checkLimit();
+      return skipped;
+    }
+
+    private void checkLimit() throws IOException
+    {
+      if (max > 0 && count - start > max)
+        throw new MessageTooLargeException(count - start, max);
+    }
+  }
+}
+// End of MessageInput class
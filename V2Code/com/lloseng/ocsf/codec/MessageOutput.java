@@ -0,0 +1,769 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+* A <code> MessageOutput </code> writes messages to the stream of a
+* socket. Without codec, the messages are written by an
+* <code>ObjectOutputStream</code> as in the previous versions of the
+* framework. With a codec, each message is written as a frame made of
+* its length followed by the bytes produced by the codec.<p>
+*
+* An object stream keeps a reference to every object it has written so
+* that an object written again is replaced by a handle to its first
+* occurrence. On a long-lived connection this handle table would retain
+* every message ever sent, so the object stream is reset automatically
+* according to a policy: after a given number of messages or a given
+* number of bytes written since the last reset, whichever comes first.
+* A reset makes both ends forget the objects written so far.<p>
+*
+* The bytes of the messages may be gathered in a buffer, and the
+* output may be flushed only once for a batch of messages: a batch is
+* flushed as soon as it holds a given number of messages or bytes, and
+* at the latest after a given delay following its first message. Small
+* messages sent in bursts are thus written by a single system call.
+* Without batching delay, each message is flushed as soon as it has
+* been written.<p>
+*
+* The methods of this class are synchronized so that several threads
+* may send messages through the same output.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageInput
+* @see com.lloseng.ocsf.codec.MessageCodec
+*/
+public class MessageOutput
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The default number of messages after which the object stream
+   * is reset.
+   */
+  public static final int DEFAULT_RESET_MESSAGES = 1000;
+
+  /**
+   * The default number of bytes after which the object stream
+   * is reset.
+   */
+  public static final long DEFAULT_RESET_BYTES = 1L << 20;
+
+  /**
+   * The thread timing the delays of the batches. Created when the
+   * first batch is delayed. It never writes to a stream itself.
+   */
+  private static ScheduledExecutorService timer = null;
+
+  /**
+   * The threads flushing the batches whose delay has expired. A flush
+   * may block on a socket whose other end no longer reads, so each
+   * output is flushed by its own thread, taken from a pool, and the
+   * other outputs keep being flushed on time.
+   */
+  private static ExecutorService flushers = null;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The stream to which the bytes are written.
+   */
+  private final OutputStream output;
+
+  /**
+   * The codec encoding the messages, null when an object stream
+   * is used.
+   */
+  private final MessageCodec codec;
+
+  /**
+   * The object stream writing the messages when there is no codec.
+   */
+  private final ObjectOutputStream objects;
+
+  /**
+   * Counts the bytes written to the output. The messages and frames
+   * are written through this stream, which ignores the flushes so
+   * that the output is only flushed at the end of a batch.
+   */
+  private final CountingOutputStream counter;
+
+  /**
+   * The number of messages after which a batch is flushed,
+   * 0 if the number of messages is not considered.
+   */
+  private int batchMessages = 0;
+
+  /**
+   * The number of bytes after which a batch is flushed,
+   * 0 if the number of bytes is not considered.
+   */
+  private int batchBytes = 0;
+
+  /**
+   * The delay in nanoseconds after which a batch is flushed,
+   * 0 if the messages are not batched.
+   */
+  private long batchDelay = 0;
+
+  /**
+   * The number of messages written since the last flush.
+   */
+  private int pendingMessages = 0;
+
+  /**
+   * The byte count at the last flush.
+   */
+  private long bytesAtFlush = 0;
+
+  /**
+   * Indicates if the message being written is followed by others, so
+   * that it is not flushed on its own.
+   */
+  private boolean followed = false;
+
+  /**
+   * Indicates if a delayed flush is scheduled.
+   */
+  private boolean flushScheduled = false;
+
+  /**
+   * The task flushing the batch whose delay has expired.
+   */
+  private final Runnable delayedFlusher = new Runnable()
+  {
+    public void run()
+    {
+      delayedFlush();
+    }
+  };
+
+  /**
+   * The exception thrown by the last delayed flush, reported by the
+   * next write.
+   */
+  private IOException flushFailure = null;
+
+  /**
+   * The time at which the write in progress started, 0 if no write
+   * is in progress.
+   */
+  private volatile long writeStart = 0;
+
+  /**
+   * The number of messages after which the object stream is reset,
+   * 0 if the number of messages is not considered.
+   */
+  private int resetMessages = DEFAULT_RESET_MESSAGES;
+
+  /**
+   * The number of bytes after which the object stream is reset,
+   * 0 if the number of bytes is not considered.
+   */
+  private long resetBytes = DEFAULT_RESET_BYTES;
+
+  /**
+   * The number of messages written since the last reset.
+   */
+  private volatile int messagesSinceReset = 0;
+
+  /**
+   * The byte count of the object stream at the last reset.
+   */
+  private volatile long bytesAtReset = 0;
+
+  /**
+   * The number of times the object stream has been reset.
+   */
+  private volatile long resets = 0;
+
+  /**
+   * The number of messages, frames and chunks written.
+   */
+  private volatile long messagesWritten = 0;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a message output writing directly to the given stream.
+   * Without codec, the header of the object stream is written and
+   * flushed immediately.
+   *
+   * @param output the stream to which the bytes are written.
+   * @param codec the codec encoding the messages, or null to use
+   *   an object stream.
+   * @exception IOException if an I/O error occurs.
+   */
+  public MessageOutput(OutputStream output, MessageCodec codec)
+    throws IOException
+  {
+    this(output, codec, 0);
+  }
+
+  /**
+   * Constructs a message output gathering the bytes in a buffer
+   * before writing them to the given stream. Without codec, the
+   * header of the object stream is written and flushed immediately.
+   *
+   * @param output the stream to which the bytes are written.
+   * @param codec the codec encoding the messages, or null to use
+   *   an object stream.
+   * @param bufferSize the size of the buffer, 0 for no buffer.
+   * @exception IOException if an I/O error occurs.
+   */
+  public MessageOutput(OutputStream output, MessageCodec codec,
+    int bufferSize) throws IOException
+  {
+    this.output = bufferSize > 0 ?
+      new BufferedOutputStream(output, bufferSize) : output;
+    this.codec = codec;
+    this.counter = new CountingOutputStream(this.output);
+    this.objects = codec == null ? new ObjectOutputStream(counter) : null;
+
+    // The other end waits for the header before sending its messages
+    if (objects != null)
+      flush();
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Writes a message.
+   *
+   * @param msg the message to write.
+   * @exception IOException if an I/O error occurs or if the message
+   *   cannot be encoded.
+   */
+  public synchronized void writeMessage(Object msg) throws IOException
+  {
+    writeStart = System.nanoTime();
+    try
+    {
+      writeEncoded(msg);
+    }
+    finally
+    {
+      writeStart = 0;
+    }
+  }
+
+  /**
+   * Writes a message that the caller follows immediately with others.
+   * Without batching delay, the message is then left in the buffer
+   * instead of being flushed on its own, so that the messages written
+   * in a row are flushed once, with the last one, which is written
+   * with <code>followed</code> false.
+   *
+   * @param msg the message to write.
+   * @param followed true if another message is written right after.
+   * @exception IOException if an I/O error occurs or if the message
+   *   cannot be encoded.
+   */
+  public synchronized void writeMessage(Object msg, boolean followed)
+    throws IOException
+  {
+    this.followed = followed;
+    try
+    {
+      writeMessage(msg);
+    }
+    finally
+    {
+      this.followed = false;
+    }
+  }
+
+  /**
+   * Encodes and writes a message while the write start time is set.
+   */
+  private void writeEncoded(Object msg) throws IOException
+  {
+    checkFlushFailure();
+
+    if (codec == null)
+    {
+      objects.writeObject(msg);
+      messagesSinceReset++;
+
+      if ((resetMessages > 0 && messagesSinceReset >= resetMessages)
+        || (resetBytes > 0 && getBytesSinceReset() >= resetBytes))
+      {
+        reset();
+      }
+
+      // Moves the bytes from the block buffer of the object stream
+      objects.flush();
+    }
+    else
+    {
+      byte[] encoded = codec.encode(msg);
+      byte[] frame = new byte[encoded.length + 4];
+      MessageFrame.writeLength(frame, encoded.length);
+      System.arraycopy(encoded, 0, frame, 4, encoded.length);
+
+      counter.write(frame);
+    }
+
+    endOfMessage();
+  }
+
+  /**
+   * Writes a message already encoded. If the frame was not encoded
+   * for this output, its message is encoded again.
+   *
+   * @param frame the frame to write.
+   * @exception IOException if an I/O error occurs.
+   */
+  public synchronized void writeFrame(MessageFrame frame) throws IOException
+  {
+    writeStart = System.nanoTime();
+    try
+    {
+      writeFrameBytes(frame);
+    }
+    finally
+    {
+      writeStart = 0;
+    }
+  }
+
+  /**
+   * Writes a frame while the write start time is set.
+   */
+  private void writeFrameBytes(MessageFrame frame) throws IOException
+  {
+    if (frame.getCodec() != codec)
+    {
+      writeEncoded(frame.getMessage());
+      return;
+    }
+
+    checkFlushFailure();
+
+    if (codec == null)
+    {
+      // Both ends start the frame with an empty reference table
+      objects.reset();
+      objects.flush();
+    }
+
+    frame.writeTo(counter);
+
+    if (codec == null)
+    {
+      // The frame ends with a reset marker
+      messagesSinceReset = 0;
+      bytesAtReset = counter.count;
+      resets++;
+    }
+
+    endOfMessage();
+  }
+
+  /**
+   * Writes a chunk of a payload sent as a sequence of chunks. The
+   * caller must make sure that no other message is written before
+   * the last chunk of the payload.
+   *
+   * @param data the array holding the bytes of the chunk.
+   * @param offset the position of the first byte of the chunk.
+   * @param length the number of bytes of the chunk.
+   * @param last true for the last chunk of the payload.
+   * @exception IOException if an I/O error occurs.
+   * @see #writeStream(InputStream, int)
+   */
+  public synchronized void writeChunk(byte[] data, int offset, int length,
+    boolean last) throws IOException
+  {
+    if (length > MessageChunk.LENGTH_MASK)
+      throw new IllegalArgumentException("chunk too large");
+
+    writeStart = System.nanoTime();
+    try
+    {
+      checkFlushFailure();
+
+      if (codec == null)
+      {
+        // Unshared, so that no stream keeps a reference to the bytes
+        objects.writeUnshared(new MessageChunk(
+          Arrays.copyOfRange(data, offset, offset + length), last));
+        objects.flush();
+      }
+      else
+      {
+        byte[] header = new byte[4];
+        MessageFrame.writeLength(header, MessageChunk.CHUNK_FLAG
+          | (last ? MessageChunk.LAST_FLAG : 0) | length);
+        counter.write(header);
+        counter.write(data, offset, length);
+      }
+
+      endOfMessage();
+    }
+    finally
+    {
+      writeStart = 0;
+    }
+  }
+
+  /**
+   * Writes the bytes of a stream as a sequence of chunks, until the
+   * end of the stream. No other message is written meanwhile, so the
+   * stream should be readily available. The stream is not closed.
+   *
+   * @param stream the stream whose bytes are sent.
+   * @param chunkSize the maximum number of bytes of a chunk, which
+   *   should not exceed the maximum size of a message at the other end.
+   * @return the number of bytes sent.
+   * @exception IOException if an I/O error occurs when reading the
+   *   stream or writing the chunks.
+   */
+  public synchronized long writeStream(InputStream stream, int chunkSize)
+    throws IOException
+  {
+    if (chunkSize <= 0 || chunkSize > MessageChunk.LENGTH_MASK)
+      throw new IllegalArgumentException("invalid chunk size");
+
+    byte[] buffer = new byte[chunkSize];
+    long total = 0;
+
+    while (true)
+    {
+      int count = 0;
+      int read = 0;
+      while (count < chunkSize
+        && (read = stream.read(buffer, count, chunkSize - count)) >= 0)
+      {
+        count += read;
+      }
+
+      total += count;
+      writeChunk(buffer, 0, count, read < 0);
+      if (read < 0)
+        return total;
+    }
+  }
+
+  /**
+   * Sets the window in which the messages are batched. A batch is
+   * flushed when it holds the given number of messages or bytes, a
+   * limit of 0 not being considered, or at the latest after the given
+   * delay following its first message. With a delay of 0, the default,
+   * each message is flushed immediately and the limits are ignored.
+   *
+   * @param messages the number of messages of a batch, or 0.
+   * @param bytes the number of bytes of a batch, or 0.
+   * @param delay the delay in microseconds after which a batch is
+   *   flushed, or 0 not to batch the messages.
+   * @exception IllegalArgumentException if a value is negative.
+   */
+  public synchronized void setBatching(int messages, int bytes, long delay)
+  {
+    if (messages < 0 || bytes < 0 || delay < 0)
+      throw new IllegalArgumentException("negative batching value");
+
+    this.batchMessages = messages;
+    this.batchBytes = bytes;
+    this.batchDelay = TimeUnit.MICROSECONDS.toNanos(delay);
+  }
+
+  /**
+   * Sets the policy according to which the object stream is reset.
+   * The stream is reset as soon as one of the two limits is reached;
+   * a limit of 0 is not considered. A limit of one message resets
+   * the stream after each message, and two zero limits mean that the
+   * stream is never reset. This policy has no effect with a codec,
+   * since the messages are then encoded independently of each other.
+   *
+   * @param messages the number of messages after which the stream
+   *   is reset, or 0.
+   * @param bytes the number of bytes after which the stream is
+   *   reset, or 0.
+   * @exception IllegalArgumentException if a limit is negative.
+   */
+  public synchronized void setResetPolicy(int messages, long bytes)
+  {
+    if (messages < 0 || bytes < 0)
+      throw new IllegalArgumentException("negative reset limit");
+
+    this.resetMessages = messages;
+    this.resetBytes = bytes;
+  }
+
+  /**
+   * Resets the object stream, so that both ends forget the objects
+   * written so far. Without object stream this call has no effect.
+   *
+   * @exception IOException if an I/O error occurs.
+   */
+  public synchronized void reset() throws IOException
+  {
+    if (codec != null)
+      return;
+
+    objects.reset();
+    messagesSinceReset = 0;
+    bytesAtReset = counter.count;
+    resets++;
+  }
+
+  /**
+   * Flushes the output, including the messages of the current batch.
+   *
+   * @exception IOException if an I/O error occurs.
+   */
+  public synchronized void flush() throws IOException
+  {
+    boolean timed = writeStart == 0;
+    if (timed)
+      writeStart = System.nanoTime();
+
+    try
+    {
+      if (codec == null)
+        objects.flush();
+
+      output.flush();
+      pendingMessages = 0;
+      bytesAtFlush = counter.count;
+    }
+    finally
+    {
+      if (timed)
+        writeStart = 0;
+    }
+  }
+
+  /**
+   * Closes the output and its underlying stream. The messages of the
+   * current batch are flushed first.
+   *
+   * @exception IOException if an I/O error occurs.
+   */
+  public void close() throws IOException
+  {
+    if (codec == null)
+      objects.close();
+    else
+      output.close();
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * Flushes the output if the message just written ends a batch, or
+   * schedules the flush of the batch it starts.
+   */
+  private void endOfMessage() throws IOException
+  {
+    pendingMessages++;
+    messagesWritten++;
+
+    if ((batchDelay == 0 && !followed)
+      || (batchMessages > 0 && pendingMessages >= batchMessages)
+      || (batchBytes > 0 && counter.count - bytesAtFlush >= batchBytes))
+    {
+      flush();
+    }
+    else if (batchDelay > 0 && !flushScheduled)
+    {
+      flushScheduled = true;
+      getTimer().schedule(new Runnable()
+      {
+        public void run()
+        {
+          getFlushers().execute(delayedFlusher);
+        }
+      }, batchDelay, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Flushes the batch whose delay has expired.
+   */
+  private synchronized void delayedFlush()
+  {
+    flushScheduled = false;
+
+    if (pendingMessages == 0)
+      return;
+
+    try
+    {
+      flush();
+    }
+    catch (IOException ex)
+    {
+      flushFailure = ex;
+    }
+  }
+
+  /**
+   * Throws the exception of the last delayed flush, if any.
+   */
+  private void checkFlushFailure() throws IOException
+  {
+    IOException failure = flushFailure;
+    if (failure != null)
+    {
+      flushFailure = null;
+      throw failure;
+    }
+  }
+
+  /**
+   * @return the thread timing the delayed batches.
+   */
+  private static synchronized ScheduledExecutorService getTimer()
+  {
+    if (timer == null)
+    {
+      timer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable task)
+          {
+            Thread thread = new Thread(task, "OCSF flush timer");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    }
+    return timer;
+  }
+
+  /**
+   * @return the threads flushing the delayed batches.
+   */
+  private static synchronized ExecutorService getFlushers()
+  {
+    if (flushers == null)
+    {
+      flushers = Executors.newCachedThreadPool(new ThreadFactory()
+      {
+        public Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "OCSF flusher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return flushers;
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the codec of this output, null for an object stream.
+   */
+  public MessageCodec getCodec()
+  {
+    return codec;
+  }
+
+  /**
+   * Returns for how long the write in progress has been running,
+   * which reveals a peer that does not read the bytes sent to it.
+   *
+   * @param now the current value of <code>System.nanoTime()</code>.
+   * @return the duration in nanoseconds, 0 if no write is in progress.
+   */
+  public long getWriteStall(long now)
+  {
+    long start = writeStart;
+    return start == 0 ? 0 : now - start;
+  }
+
+  /**
+   * @return the number of messages written, frames and chunks included.
+   */
+  public long getMessagesWritten()
+  {
+    return messagesWritten;
+  }
+
+  /**
+   * Returns the number of bytes written, including those still held
+   * in the current batch.
+   *
+   * @return the number of bytes.
+   */
+  public long getBytesWritten()
+  {
+    return counter.count;
+  }
+
+  /**
+   * Returns the number of messages written since the last reset of
+   * the object stream. Each of them holds at least one entry in the
+   * handle table of the stream, one per distinct object it contains.
+   *
+   * @return the number of messages, 0 with a codec.
+   */
+  public int getMessagesSinceReset()
+  {
+    return messagesSinceReset;
+  }
+
+  /**
+   * Returns the number of bytes written since the last reset of the
+   * object stream, which bounds the size of the objects retained by
+   * its handle table.
+   *
+   * @return the number of bytes, 0 with a codec.
+   */
+  public long getBytesSinceReset()
+  {
+    return codec == null ? counter.count - bytesAtReset : 0;
+  }
+
+  /**
+   * @return the number of times the object stream has been reset.
+   */
+  public long getResetCount()
+  {
+    return resets;
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A stream counting the bytes written through it. Its flushes
+   * do not reach the underlying stream.
+   */
+  private static class CountingOutputStream extends FilterOutputStream
+  {
+    /**
+     * The number of bytes written.
+     */
+    volatile long count = 0;
+
+    CountingOutputStream(OutputStream output)
+    {
+      super(output);
+    }
+
+    public void write(int b) throws IOException
+    {
+      out.write(b);
+      count++;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    public void flush() {}
+  }
+}
+// End of MessageOutput class
@@ -0,0 +1,34 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+
+/**
+* Thrown by a <code>MessageInput</code> when the peer sends a message
+* larger than the maximum size allowed. The message is rejected before
+* the memory it describes is allocated. The stream cannot be read any
+* further, so the connection is closed.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageInput#setMaxMessageSize(int)
+*/
+public class MessageTooLargeException extends IOException
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Constructs the exception.
+   *
+   * @param size the size of the message, as far as it is known.
+   * @param max the maximum size allowed.
+   */
+  public MessageTooLargeException(long size, int max)
+  {
+    super("message of " + size + " bytes exceeds the maximum of " + max);
+  }
+}
+// End of MessageTooLargeException class
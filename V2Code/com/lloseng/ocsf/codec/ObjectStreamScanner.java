@@ -0,0 +1,620 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* An <code> ObjectStreamScanner </code> finds where the next object of a
+* serialization stream ends, without deserializing it. It follows the
+* grammar of the stream and keeps its own table of the class descriptors
+* received, mirroring the handle table of the
+* <code>ObjectInputStream</code> reading the same bytes, so that it can
+* tell how many bytes an object takes before all of them have been
+* received. No class is loaded.<p>
+*
+* The scanner relies on the classes with a <code>writeObject</code>
+* method writing their fields, with <code>defaultWriteObject</code> or
+* <code>writeFields</code>, before any other data, as required by the
+* serialization specification. The data of an
+* <code>Externalizable</code> object written with the first version of
+* the stream protocol is not delimited and cannot be scanned; neither
+* can objects nested deeper than <code>MAX_DEPTH</code>. In these cases
+* the scanner throws a <code>StreamCorruptedException</code> and should
+* not be used anymore on the stream.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageInput
+*/
+final class ObjectStreamScanner implements ObjectStreamConstants
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The deepest nesting of objects that can be scanned.
+   */
+  static final int MAX_DEPTH = 1000;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The objects received, indexed by handle. The class descriptors
+   * are kept, the other objects are represented by null.
+   */
+  private ArrayList<Object> handles = new ArrayList<Object>();
+
+  /**
+   * The positions in the stream where the objects found complete and
+   * not yet read end, from index <code>first</code> to index
+   * <code>last</code> excluded.
+   */
+  private long[] ends = new long[16];
+
+  /**
+   * The index of the end of the first object not yet read.
+   */
+  private int first = 0;
+
+  /**
+   * The index following the end of the last object found complete.
+   */
+  private int last = 0;
+
+  /**
+   * The position in the stream where the first object not yet read
+   * starts, -1 before the first scan.
+   */
+  private long start = -1;
+
+  /**
+   * Indicates that the object stream fails to read the only object
+   * found complete.
+   */
+  private boolean failed = false;
+
+  /**
+   * The stream being scanned.
+   */
+  private DataInputStream in;
+
+  /**
+   * The number of bytes that can be read from the stream.
+   */
+  private long available;
+
+  /**
+   * The number of bytes scanned so far.
+   */
+  private long position;
+
+  /**
+   * The maximum size of an array, 0 if not limited.
+   */
+  private long maxArraySize;
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Returns the number of bytes of the next object of the stream,
+   * including the resets that precede it. All the objects received
+   * are scanned at once; the following calls return the next one
+   * found complete, until the scan must resume.
+   *
+   * @param received the bytes received, starting with the next object.
+   *   They are read but need not be consumed, and are only read when
+   *   the scan must resume.
+   * @param count the number of bytes that can be read from received.
+   * @param streamPosition the number of bytes of the stream already
+   *   read by the object stream.
+   * @param maxArraySize the size of an array that the object stream
+   *   rejects, 0 if not limited.
+   * @return the number of bytes of the next object if it is complete
+   *   or if its reading fails after this number of bytes; otherwise,
+   *   more than <code>count</code>: the number of bytes needed to
+   *   scan further.
+   * @exception StreamCorruptedException if the stream cannot be scanned.
+   * @exception IOException if the bytes received cannot be read.
+   */
+  long scan(InputStream received, int count, long streamPosition,
+    int maxArraySize) throws IOException
+  {
+    // Forgets the objects read since the last call
+    while (first < last && ends[first] <= streamPosition)
+    {
+      if (failed)
+        throw new StreamCorruptedException("scanner out of step");
+      start = ends[first++];
+    }
+    if (start >= 0 && streamPosition != start)
+      throw new StreamCorruptedException("scanner out of step");
+    if (first < last)
+      return ends[first] - streamPosition;
+
+    first = last = 0;
+    start = streamPosition;
+
+    this.in = new DataInputStream(received);
+    this.available = count;
+    this.position = 0;
+    this.maxArraySize = maxArraySize;
+
+    long needed = 1;
+    try
+    {
+      while (position < available)
+      {
+        ArrayList<Object> saved = handles;
+        int savedSize = saved.size();
+        try
+        {
+          int tc = readByte();
+          while (tc == TC_RESET)
+          {
+            handles = new ArrayList<Object>();
+            tc = readByte();
+          }
+          readObject(tc, 0);
+          addEnd(streamPosition + position);
+        }
+        catch (Underflow ex)
+        {
+          // Scanned again once more bytes have been received
+          handles = saved;
+          handles.subList(savedSize, handles.size()).clear();
+          needed = ex.needed;
+          break;
+        }
+        catch (Failure ex)
+        {
+          // The object stream throws an exception at this point
+          if (first == last)
+          {
+            failed = true;
+            addEnd(streamPosition + position);
+          }
+          else
+          {
+            handles = saved;
+            handles.subList(savedSize, handles.size()).clear();
+          }
+          break;
+        }
+      }
+    }
+    finally
+    {
+      this.in = null;
+    }
+
+    return first < last ? ends[first] - streamPosition : needed;
+  }
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  /**
+   * Scans an object whose type code has been read.
+   *
+   * @param tc the type code.
+   * @param depth the nesting depth of the object.
+   * @return the class descriptor if the object is one, otherwise null.
+   */
+  private Desc readObject(int tc, int depth)
+    throws IOException, Underflow, Failure
+  {
+    if (depth > MAX_DEPTH)
+      throw new StreamCorruptedException("objects nested too deeply");
+
+    switch (tc)
+    {
+      case TC_NULL:
+        return null;
+
+      case TC_REFERENCE:
+        return reference(readInt());
+
+      case TC_CLASSDESC:
+        return readClassDesc(depth);
+
+      case TC_PROXYCLASSDESC:
+        return readProxyDesc(depth);
+
+      case TC_STRING:
+        handles.add(null);
+        skip(readUnsignedShort());
+        return null;
+
+      case TC_LONGSTRING:
+        handles.add(null);
+        skip(readLong());
+        return null;
+
+      case TC_CLASS:
+        readDesc(depth);
+        handles.add(null);
+        return null;
+
+      case TC_ENUM:
+        readDesc(depth);
+        handles.add(null);
+        readObject(readByte(), depth + 1);
+        return null;
+
+      case TC_ARRAY:
+        readArray(depth);
+        return null;
+
+      case TC_OBJECT:
+        Desc desc = readDesc(depth);
+        if (desc == null)
+          throw new Failure();
+        handles.add(null);
+        readClassData(desc, depth);
+        return null;
+
+      default:
+        // Exceptions, resets and block data are errors at this point
+        throw new Failure();
+    }
+  }
+
+  /**
+   * Scans a class descriptor, which may be null or a reference.
+   *
+   * @return the class descriptor.
+   */
+  private Desc readDesc(int depth) throws IOException, Underflow, Failure
+  {
+    int tc = readByte();
+    if (tc != TC_NULL && tc != TC_REFERENCE && tc != TC_CLASSDESC
+      && tc != TC_PROXYCLASSDESC)
+      throw new Failure();
+
+    return readObject(tc, depth + 1);
+  }
+
+  /**
+   * Scans a class descriptor whose type code has been read.
+   */
+  private Desc readClassDesc(int depth) throws IOException, Underflow, Failure
+  {
+    Desc desc = new Desc();
+    handles.add(desc);
+
+    int nameLength = readUnsignedShort();
+    if (nameLength >= 2)
+    {
+      int first = readByte();
+      desc.component = first == '[' ? readByte() : 0;
+      skip(nameLength - (first == '[' ? 2 : 1));
+    }
+    else
+    {
+      skip(nameLength);
+    }
+
+    skip(8); // serialVersionUID
+    desc.flags = readByte();
+
+    int fields = readShort();
+    if (fields < 0)
+      throw new Failure();
+
+    for (int i=0; i<fields; i++)
+    {
+      int type = readByte();
+      skip(readUnsignedShort());
+      if (type == '[' || type == 'L')
+      {
+        readObject(readByte(), depth + 1);
+        desc.objectFields++;
+      }
+      else
+      {
+        desc.primitiveSize += primitiveSize(type);
+      }
+    }
+
+    readAnnotation(depth);
+    desc.superDesc = readDesc(depth);
+    return desc;
+  }
+
+  /**
+   * Scans a proxy class descriptor whose type code has been read.
+   */
+  private Desc readProxyDesc(int depth) throws IOException, Underflow, Failure
+  {
+    Desc desc = new Desc();
+    desc.flags = SC_SERIALIZABLE;
+    handles.add(desc);
+
+    int interfaces = readInt();
+    if (interfaces < 0)
+      throw new Failure();
+
+    for (int i=0; i<interfaces; i++)
+    {
+      skip(readUnsignedShort());
+    }
+
+    readAnnotation(depth);
+    desc.superDesc = readDesc(depth);
+    return desc;
+  }
+
+  /**
+   * Scans an array whose type code has been read.
+   */
+  private void readArray(int depth) throws IOException, Underflow, Failure
+  {
+    Desc desc = readDesc(depth);
+    if (desc == null || desc.component == 0)
+      throw new Failure();
+    handles.add(null);
+
+    int length = readInt();
+    if (length < 0)
+      throw new Failure();
+
+    if (desc.component == '[' || desc.component == 'L')
+    {
+      for (int i=0; i<length; i++)
+      {
+        readObject(readByte(), depth + 1);
+      }
+      return;
+    }
+
+    long size = (long)length * primitiveSize(desc.component);
+
+    // The filter of the object stream rejects the array at once
+    if (maxArraySize > 0 && size > maxArraySize)
+      throw new Failure();
+
+    skip(size);
+  }
+
+  /**
+   * Scans the data of an object, from its topmost serializable class
+   * down to its own class.
+   */
+  private void readClassData(Desc desc, int depth)
+    throws IOException, Underflow, Failure
+  {
+    if ((desc.flags & SC_EXTERNALIZABLE) != 0)
+    {
+      if ((desc.flags & SC_BLOCK_DATA) == 0)
+        throw new StreamCorruptedException(
+          "externalizable data cannot be scanned");
+      readAnnotation(depth);
+      return;
+    }
+
+    ArrayList<Desc> classes = new ArrayList<Desc>();
+    for (Desc d = desc; d != null; d = d.superDesc)
+    {
+      classes.add(d);
+    }
+
+    for (int i=classes.size()-1; i>=0; i--)
+    {
+      Desc d = classes.get(i);
+      if ((d.flags & SC_SERIALIZABLE) == 0)
+        continue;
+
+      skip(d.primitiveSize);
+      for (int j=0; j<d.objectFields; j++)
+      {
+        readObject(readByte(), depth + 1);
+      }
+      if ((d.flags & SC_WRITE_METHOD) != 0)
+        readAnnotation(depth);
+    }
+  }
+
+  /**
+   * Scans the block data and objects written by a class, up to the
+   * end marker.
+   */
+  private void readAnnotation(int depth) throws IOException, Underflow, Failure
+  {
+    while (true)
+    {
+      int tc = readByte();
+      switch (tc)
+      {
+        case TC_ENDBLOCKDATA:
+          return;
+
+        case TC_BLOCKDATA:
+          skip(readByte());
+          break;
+
+        case TC_BLOCKDATALONG:
+          int length = readInt();
+          if (length < 0)
+            throw new Failure();
+          skip(length);
+          break;
+
+        default:
+          readObject(tc, depth + 1);
+      }
+    }
+  }
+
+  /**
+   * @return the class descriptor of a handle, or null if the handle
+   *   is not that of a class descriptor.
+   */
+  private Desc reference(int handle) throws Failure
+  {
+    int index = handle - baseWireHandle;
+    if (index < 0 || index >= handles.size())
+      throw new Failure();
+
+    Object object = handles.get(index);
+    return object instanceof Desc ? (Desc)object : null;
+  }
+
+  /**
+   * @return the number of bytes of a primitive type.
+   */
+  private static int primitiveSize(int type) throws Failure
+  {
+    switch (type)
+    {
+      case 'B': case 'Z':
+        return 1;
+      case 'C': case 'S':
+        return 2;
+      case 'I': case 'F':
+        return 4;
+      case 'J': case 'D':
+        return 8;
+      default:
+        throw new Failure();
+    }
+  }
+
+  /**
+   * Records the end of an object found complete.
+   *
+   * @param end the position of the end in the stream.
+   */
+  private void addEnd(long end)
+  {
+    if (last == ends.length)
+      ends = Arrays.copyOf(ends, 2 * last);
+    ends[last++] = end;
+  }
+
+  /**
+   * Checks that bytes can be read.
+   *
+   * @param count the number of bytes to read.
+   * @exception Underflow if they have not been received.
+   */
+  private void require(long count) throws Underflow
+  {
+    if (count > available - position)
+      throw new Underflow(position + count);
+    position += count;
+  }
+
+  private int readByte() throws IOException, Underflow
+  {
+    require(1);
+    return in.readUnsignedByte();
+  }
+
+  private int readShort() throws IOException, Underflow
+  {
+    require(2);
+    return in.readShort();
+  }
+
+  private int readUnsignedShort() throws IOException, Underflow
+  {
+    require(2);
+    return in.readUnsignedShort();
+  }
+
+  private int readInt() throws IOException, Underflow
+  {
+    require(4);
+    return in.readInt();
+  }
+
+  private long readLong() throws IOException, Underflow, Failure
+  {
+    require(8);
+    long value = in.readLong();
+    if (value < 0)
+      throw new Failure();
+    return value;
+  }
+
+  private void skip(long count) throws IOException, Underflow
+  {
+    require(count);
+    while (count > 0)
+    {
+      long skipped = in.skip(count);
+      if (skipped <= 0)
+        throw new EOFException();
+      count -= skipped;
+    }
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * What the scanner needs to know of a class descriptor.
+   */
+  private static class Desc
+  {
+    /**
+     * The flags of the class.
+     */
+    int flags;
+
+    /**
+     * The number of bytes of the primitive fields.
+     */
+    int primitiveSize;
+
+    /**
+     * The number of object fields.
+     */
+    int objectFields;
+
+    /**
+     * The type code of the elements for an array class, otherwise 0.
+     */
+    int component;
+
+    /**
+     * The descriptor of the superclass, or null.
+     */
+    Desc superDesc;
+  }
+
+  /**
+   * Thrown when the object goes beyond the bytes received.
+   */
+  private static class Underflow extends Exception
+  {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of bytes needed to scan further.
+     */
+    final long needed;
+
+    Underflow(long needed)
+    {
+      super(null, null, false, false);
+      this.needed = needed;
+    }
+  }
+
+  /**
+   * Thrown at the point where the object stream fails to read the
+   * object, which makes reading it again pointless.
+   */
+  private static class Failure extends Exception
+  {
+    private static final long serialVersionUID = 1L;
+
+    Failure()
+    {
+      super(null, null, false, false);
+    }
+  }
+}
+// End of ObjectStreamScanner class
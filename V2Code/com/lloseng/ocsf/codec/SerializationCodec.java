@@ -0,0 +1,62 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+
+/**
+* The <code> SerializationCodec </code> encodes messages with Java
+* serialization, hence it accepts any <code>Serializable</code> message
+* exactly as the object streams do.<p>
+*
+* Unlike a long-lived <code>ObjectOutputStream</code>, each message is
+* serialized on its own: no reference to the messages already sent is
+* kept, and a frame can be decoded without the ones that preceded it.
+* The price is that the class descriptors are repeated in each frame.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.codec.MessageCodec
+*/
+public class SerializationCodec implements MessageCodec
+{
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Serializes a message.
+   *
+   * @param msg the message to encode.
+   * @return the serialized message.
+   * @exception IOException if the message is not serializable.
+   */
+  public byte[] encode(Object msg) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    ObjectOutputStream output = new ObjectOutputStream(bytes);
+    output.writeObject(msg);
+    output.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Deserializes a message.
+   *
+   * @param frame the array containing the bytes.
+   * @param offset the position of the first byte of the message.
+   * @param length the number of bytes of the message.
+   * @return the decoded message.
+   * @exception IOException if the bytes are not a serialized object.
+   * @exception ClassNotFoundException if the message is of an
+   *   unknown class.
+   */
+  public Object decode(byte[] frame, int offset, int length)
+    throws IOException, ClassNotFoundException
+  {
+    ObjectInputStream input = new ObjectInputStream(
+      new ByteArrayInputStream(frame, offset, length));
+    return input.readObject();
+  }
+}
+// End of SerializationCodec class
@@ -0,0 +1,329 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/**
+* A <code> Histogram </code> records the distribution of durations, or
+* of any other non-negative values, in a fixed set of buckets. By
+* default, values below 16 have their own bucket; larger values are
+* grouped in eight buckets per power of two, so that a percentile is
+* known within 12.5% whatever its magnitude, from nanoseconds to hours.
+* As in an HDR histogram, the precision may be raised by giving more
+* buckets to each power of two: 128 buckets keep a percentile within
+* 1%, at the cost of a larger histogram.<p>
+*
+* Recording a value allocates nothing and takes no lock, so that a
+* histogram may be updated by many threads on the hot path of a
+* server. A percentile read while values are recorded may be slightly
+* off, as the buckets are not read atomically.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class Histogram
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The default number of bits of a value, after its highest one,
+   * that select a bucket within a power of two.
+   */
+  public static final int DEFAULT_SUB_BITS = 3;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The number of bits of a value, after its highest one, that select
+   * a bucket within a power of two.
+   */
+  private final int subBits;
+
+  /**
+   * The number of values having their own bucket.
+   */
+  private final int linearBuckets;
+
+  /**
+   * The number of values recorded in each bucket, enough for any
+   * positive long.
+   */
+  private final AtomicLongArray buckets;
+
+  /**
+   * The number of values recorded.
+   */
+  private final LongAdder count = new LongAdder();
+
+  /**
+   * The sum of the values recorded.
+   */
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * The largest value recorded.
+   */
+  private final AtomicLong max = new AtomicLong();
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a histogram with eight buckets per power of two.
+   */
+  public Histogram()
+  {
+    this(DEFAULT_SUB_BITS);
+  }
+
+  /**
+   * Constructs a histogram with the given precision.
+   *
+   * @param subBits the number of bits of a value, after its highest
+   *   one, that select its bucket, between 1 and 16; each power of two
+   *   has <code>2^subBits</code> buckets, and the percentiles are
+   *   known within <code>1/2^subBits</code>.
+   */
+  public Histogram(int subBits)
+  {
+    if (subBits < 1 || subBits > 16)
+      throw new IllegalArgumentException("Invalid precision: " + subBits);
+
+    this.subBits = subBits;
+    this.linearBuckets = 2 << subBits;
+    this.buckets = new AtomicLongArray(
+      linearBuckets + (63 - (subBits + 1)) * (1 << subBits));
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Records a value. A negative value is recorded as 0.
+   *
+   * @param value the value.
+   */
+  public void record(long value)
+  {
+    record(value, 1);
+  }
+
+  /**
+   * Records the same value several times.
+   *
+   * @param value the value.
+   * @param times the number of times it is recorded.
+   */
+  public void record(long value, long times)
+  {
+    if (times <= 0)
+      return;
+    if (value < 0)
+      value = 0;
+
+    buckets.addAndGet(bucketOf(value), times);
+    count.add(times);
+    sum.add(value * times);
+
+    long largest = max.get();
+    while (value > largest && !max.compareAndSet(largest, value))
+    {
+      largest = max.get();
+    }
+  }
+
+  /**
+   * Records the values of a decreasing arithmetic sequence, from the
+   * given value down to the step, such as the latencies that requests
+   * sent at a regular interval would have had while a slow one was
+   * awaited. The sequence is recorded bucket by bucket, so that a long
+   * sequence takes no more time than a short one.
+   *
+   * @param highest the first value of the sequence.
+   * @param step the difference between two values, positive.
+   */
+  public void recordSequence(long highest, long step)
+  {
+    if (step <= 0 || highest < step)
+      return;
+
+    long value = highest;
+    while (value >= step)
+    {
+      int bucket = bucketOf(value);
+      long lowest = Math.max(lowerBoundOf(bucket), step);
+      long n = (value - lowest) / step + 1;
+
+      buckets.addAndGet(bucket, n);
+      count.add(n);
+      sum.add(n * value - step * (n * (n - 1) / 2));
+      value -= n * step;
+    }
+
+    long largest = max.get();
+    while (highest > largest && !max.compareAndSet(largest, highest))
+    {
+      largest = max.get();
+    }
+  }
+
+  /**
+   * Adds the values recorded by another histogram to this one.
+   *
+   * @param other the other histogram.
+   */
+  public void add(Histogram other)
+  {
+    if (other.subBits == subBits)
+    {
+      for (int i=0; i<buckets.length(); i++)
+      {
+        long n = other.buckets.get(i);
+        if (n > 0)
+          buckets.addAndGet(i, n);
+      }
+    }
+    else
+    {
+      for (int i=0; i<other.buckets.length(); i++)
+      {
+        long n = other.buckets.get(i);
+        if (n > 0)
+          buckets.addAndGet(bucketOf(other.upperBoundOf(i)), n);
+      }
+    }
+    count.add(other.count.sum());
+    sum.add(other.sum.sum());
+
+    long value = other.max.get();
+    long largest = max.get();
+    while (value > largest && !max.compareAndSet(largest, value))
+    {
+      largest = max.get();
+    }
+  }
+
+  /**
+   * Forgets all the values recorded.
+   */
+  public void reset()
+  {
+    for (int i=0; i<buckets.length(); i++)
+    {
+      buckets.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the number of values recorded.
+   */
+  public long getCount()
+  {
+    return count.sum();
+  }
+
+  /**
+   * @return the sum of the values recorded.
+   */
+  public long getSum()
+  {
+    return sum.sum();
+  }
+
+  /**
+   * @return the largest value recorded, 0 if none.
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * @return the mean of the values recorded, 0 if none.
+   */
+  public double getMean()
+  {
+    long n = count.sum();
+    return n == 0 ? 0 : (double)sum.sum() / n;
+  }
+
+  /**
+   * Returns the value below which the given fraction of the values
+   * recorded fall. The result is the upper bound of the bucket holding
+   * this value, but never more than the largest value recorded.
+   *
+   * @param fraction the fraction, between 0 and 1, such as 0.99 for
+   *   the 99th percentile.
+   * @return the percentile, 0 if no value has been recorded.
+   */
+  public long getPercentile(double fraction)
+  {
+    long total = 0;
+    for (int i=0; i<buckets.length(); i++)
+    {
+      total += buckets.get(i);
+    }
+    if (total == 0)
+      return 0;
+
+    long rank = (long)Math.ceil(Math.min(1, Math.max(0, fraction)) * total);
+    rank = Math.max(1, rank);
+
+    long seen = 0;
+    for (int i=0; i<buckets.length(); i++)
+    {
+      seen += buckets.get(i);
+      if (seen >= rank)
+        return Math.min(upperBoundOf(i), max.get());
+    }
+    return max.get();
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * @return the index of the bucket of a non-negative value.
+   */
+  private int bucketOf(long value)
+  {
+    if (value < linearBuckets)
+      return (int)value;
+
+    // subBits + 1 or more
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int)(value >>> (exponent - subBits)) & ((1 << subBits) - 1);
+    return linearBuckets + ((exponent - subBits - 1) << subBits) + sub;
+  }
+
+  /**
+   * @return the smallest value falling in a bucket.
+   */
+  private long lowerBoundOf(int bucket)
+  {
+    if (bucket < linearBuckets)
+      return bucket;
+
+    int exponent = ((bucket - linearBuckets) >> subBits) + subBits + 1;
+    long sub = (bucket - linearBuckets) & ((1 << subBits) - 1);
+    return (1L << exponent) + (sub << (exponent - subBits));
+  }
+
+  /**
+   * @return the largest value falling in a bucket.
+   */
+  private long upperBoundOf(int bucket)
+  {
+    if (bucket < linearBuckets)
+      return bucket;
+
+    int exponent = ((bucket - linearBuckets) >> subBits) + subBits + 1;
+    long upper = lowerBoundOf(bucket) + (1L << (exponent - subBits)) - 1;
+    return upper < 0 ? Long.MAX_VALUE : upper;
+  }
+}
+// End of Histogram class
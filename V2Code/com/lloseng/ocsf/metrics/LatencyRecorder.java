@@ -0,0 +1,291 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.metrics;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+* A <code> LatencyRecorder </code> records the latency of requests
+* without the coordinated omission of naive timing. A caller that
+* waits for each reply before sending the next request, and times
+* the request from the moment it is actually sent, never measures
+* the requests it could not send while a slow reply held it: the
+* queueing delay disappears from the tail. The recorder avoids this
+* in two ways:<p>
+* <ul>
+* <li> when the time at which each request should have been sent is
+*      known, the latency is measured from this intended start, with
+*      <code>record(intendedStart, actualStart, end)</code>; the
+*      <code>pace</code> method provides such a schedule at a fixed
+*      rate;
+* <li> otherwise, given the interval expected between two requests,
+*      a latency longer than this interval is recorded along with
+*      the latencies that the requests due meanwhile would have had,
+*      as an HDR histogram does.
+* </ul><p>
+*
+* Both the corrected latencies and the latencies measured from the
+* actual start are kept, in histograms precise within 1%, so that the
+* two can be compared. A recorder may be attached to an
+* <code>ObservableSWRClient</code> or to a server, or be used by any
+* client matching its replies to its requests.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.client.ObservableSWRClient#setLatencyRecorder(LatencyRecorder)
+* @see com.lloseng.ocsf.server.AbstractServer#setLatencyRecorder(LatencyRecorder)
+*/
+public class LatencyRecorder implements MetricsSource
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The precision of the histograms.
+   */
+  private static final int SUB_BITS = 7;
+
+  /**
+   * The percentiles written by <code>writeMetrics</code>.
+   */
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 0.9999};
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The name of the recorder, used in the names of its metrics.
+   */
+  private final String name;
+
+  /**
+   * The latencies measured from the intended starts, with the
+   * latencies of the requests that could not be sent.
+   */
+  private final Histogram corrected = new Histogram(SUB_BITS);
+
+  /**
+   * The latencies measured from the actual starts.
+   */
+  private final Histogram uncorrected = new Histogram(SUB_BITS);
+
+  /**
+   * The interval expected between two requests in nanoseconds, 0 if
+   * unknown.
+   */
+  private volatile long expectedInterval = 0;
+
+  /**
+   * The intended start of the next request returned by
+   * <code>pace</code>, 0 before the first one.
+   */
+  private final AtomicLong nextStart = new AtomicLong();
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a recorder.
+   *
+   * @param name the name of the recorder, such as <code>reply</code>;
+   *   its metrics are named <code>ocsf_</code><i>name</i><code>_seconds</code>.
+   */
+  public LatencyRecorder(String name)
+  {
+    this.name = name;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Records the latency of a request measured from its intended start.
+   *
+   * @param intendedStart the time at which the request should have
+   *   been sent, as given by <code>System.nanoTime</code>.
+   * @param actualStart the time at which it was sent.
+   * @param end the time at which its reply was received.
+   */
+  public void record(long intendedStart, long actualStart, long end)
+  {
+    corrected.record(end - Math.min(intendedStart, actualStart));
+    uncorrected.record(end - actualStart);
+  }
+
+  /**
+   * Records the latency of a request measured from its actual start.
+   * If an interval is expected between two requests, the latencies
+   * that the requests due during this one would have had are also
+   * recorded in the corrected histogram.
+   *
+   * @param latency the latency in nanoseconds.
+   */
+  public void record(long latency)
+  {
+    uncorrected.record(latency);
+    corrected.record(latency);
+
+    long interval = expectedInterval;
+    if (interval > 0)
+      corrected.recordSequence(latency - interval, interval);
+  }
+
+  /**
+   * Returns the intended start of the next request according to a
+   * schedule at the expected interval, waiting until this time if it
+   * is still to come. The first call starts the schedule. A request
+   * sent late keeps its intended start, so that its delay is counted
+   * in its latency. Without expected interval, returns the current
+   * time.
+   *
+   * @return the intended start of the request, as given by
+   *   <code>System.nanoTime</code>.
+   */
+  public long pace()
+  {
+    long interval = expectedInterval;
+    long now = System.nanoTime();
+    if (interval <= 0)
+      return now;
+
+    long start = nextStart.get();
+    while (true)
+    {
+      long intended = start == 0 ? now : start;
+      if (nextStart.compareAndSet(start, intended + interval))
+      {
+        start = intended;
+        break;
+      }
+      start = nextStart.get();
+    }
+
+    while ((now = System.nanoTime()) < start)
+    {
+      LockSupport.parkNanos(start - now);
+    }
+    return start;
+  }
+
+  /**
+   * Forgets the latencies recorded and restarts the schedule.
+   */
+  public void reset()
+  {
+    corrected.reset();
+    uncorrected.reset();
+    nextStart.set(0);
+  }
+
+  /**
+   * Writes the percentiles of the corrected and uncorrected latencies
+   * as plain text, in seconds.
+   *
+   * @param out the writer receiving the text.
+   * @exception IOException if an I/O error occurs.
+   */
+  public void writeMetrics(Writer out) throws IOException
+  {
+    String metric = "ocsf_" + name + "_seconds";
+    out.write("# HELP " + metric + " Latency, with the delay of the"
+      + " requests held back (corrected=\"true\") or without.\n");
+    out.write("# TYPE " + metric + " summary\n");
+    writeSummary(out, metric, "true", corrected);
+    writeSummary(out, metric, "false", uncorrected);
+  }
+
+  /**
+   * Returns the percentiles of the corrected and uncorrected latencies
+   * as a table, from the median to the maximum.
+   *
+   * @return the text.
+   */
+  public String toString()
+  {
+    StringBuilder text = new StringBuilder();
+    text.append(String.format(Locale.ROOT, "%-10s %14s %14s%n",
+      "Percentile", "Corrected", "Uncorrected"));
+    for (int i=0; i<QUANTILES.length; i++)
+    {
+      text.append(String.format(Locale.ROOT, "%-10s %11.3f ms %11.3f ms%n",
+        QUANTILES[i] * 100, corrected.getPercentile(QUANTILES[i]) / 1e6,
+        uncorrected.getPercentile(QUANTILES[i]) / 1e6));
+    }
+    text.append(String.format(Locale.ROOT, "%-10s %11.3f ms %11.3f ms%n",
+      "max", corrected.getMax() / 1e6, uncorrected.getMax() / 1e6));
+    text.append(String.format(Locale.ROOT, "%-10s %14d %14d%n",
+      "count", corrected.getCount(), uncorrected.getCount()));
+    return text.toString();
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the name of the recorder.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Sets the interval expected between two requests, which enables
+   * the correction of the latencies recorded without intended start
+   * and the schedule of <code>pace</code>.
+   *
+   * @param nanos the interval in nanoseconds, 0 if unknown.
+   */
+  public void setExpectedInterval(long nanos)
+  {
+    expectedInterval = Math.max(0, nanos);
+  }
+
+  /**
+   * @return the interval expected between two requests in nanoseconds,
+   *   0 if unknown.
+   */
+  public long getExpectedInterval()
+  {
+    return expectedInterval;
+  }
+
+  /**
+   * @return the latencies measured from the intended starts, in
+   *   nanoseconds.
+   */
+  public Histogram getCorrected()
+  {
+    return corrected;
+  }
+
+  /**
+   * @return the latencies measured from the actual starts, in
+   *   nanoseconds.
+   */
+  public Histogram getUncorrected()
+  {
+    return uncorrected;
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * Writes the percentiles, count, sum and maximum of a histogram.
+   */
+  private static void writeSummary(Writer out, String metric,
+    String label, Histogram latencies) throws IOException
+  {
+    String labels = "corrected=\"" + label + "\"";
+    for (int i=0; i<QUANTILES.length; i++)
+    {
+      out.write(metric + "{" + labels + ",quantile=\"" + QUANTILES[i] + "\"} "
+        + latencies.getPercentile(QUANTILES[i]) / 1e9 + "\n");
+    }
+    out.write(metric + "_sum{" + labels + "} " + latencies.getSum() / 1e9
+      + "\n");
+    out.write(metric + "_count{" + labels + "} " + latencies.getCount()
+      + "\n");
+  }
+}
+// End of LatencyRecorder class
@@ -0,0 +1,146 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.metrics;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import com.sun.net.httpserver.*;
+
+/**
+* A <code> MetricsEndpoint </code> serves the metrics of a source as
+* plain text over HTTP, so that they can be read with a browser or
+* collected by a monitoring system. Any path of the endpoint returns
+* the metrics; <code>/metrics</code> is the usual one. The endpoint
+* runs on a single thread, which only does work when the endpoint is
+* read and keeps running until the endpoint is stopped.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.ServerMetrics
+*/
+public class MetricsEndpoint
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The source of the metrics.
+   */
+  private final MetricsSource source;
+
+  /**
+   * The address on which the endpoint listens.
+   */
+  private final InetSocketAddress address;
+
+  /**
+   * The HTTP server, null when the endpoint is stopped.
+   */
+  private HttpServer httpServer = null;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs an endpoint listening on all the interfaces.
+   *
+   * @param source the source of the metrics.
+   * @param port the port of the endpoint, 0 for any free port.
+   */
+  public MetricsEndpoint(MetricsSource source, int port)
+  {
+    this(source, new InetSocketAddress(port));
+  }
+
+  /**
+   * Constructs an endpoint listening on the given address, such as
+   * the loopback address to keep the metrics private to the host.
+   *
+   * @param source the source of the metrics.
+   * @param address the address of the endpoint.
+   */
+  public MetricsEndpoint(MetricsSource source, InetSocketAddress address)
+  {
+    this.source = source;
+    this.address = address;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Starts serving the metrics. If the endpoint is already started,
+   * this call has no effect.
+   *
+   * @exception IOException if the port cannot be bound.
+   */
+  public synchronized void start() throws IOException
+  {
+    if (httpServer != null)
+      return;
+
+    HttpServer server = HttpServer.create(address, 0);
+    server.createContext("/", new HttpHandler()
+    {
+      public void handle(HttpExchange exchange) throws IOException
+      {
+        serve(exchange);
+      }
+    });
+    // The default executor uses the thread of the server
+    server.start();
+    httpServer = server;
+  }
+
+  /**
+   * Stops serving the metrics. If the endpoint is already stopped,
+   * this call has no effect.
+   */
+  public synchronized void stop()
+  {
+    if (httpServer == null)
+      return;
+
+    httpServer.stop(0);
+    httpServer = null;
+  }
+
+  /**
+   * @return the port on which the endpoint listens, -1 if it is
+   *   stopped.
+   */
+  public synchronized int getPort()
+  {
+    return httpServer == null ? -1 : httpServer.getAddress().getPort();
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * Answers a request with the current value of the metrics.
+   */
+  private void serve(HttpExchange exchange) throws IOException
+  {
+    try
+    {
+      StringWriter text = new StringWriter();
+      source.writeMetrics(text);
+      byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+
+      exchange.getResponseHeaders().set("Content-Type",
+        "text/plain; version=0.0.4; charset=utf-8");
+      if (exchange.getRequestMethod().equals("HEAD"))
+      {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+    }
+    finally
+    {
+      exchange.close();
+    }
+  }
+}
+// End of MetricsEndpoint class
@@ -0,0 +1,29 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.metrics;
+
+import java.io.*;
+
+/**
+* A <code> MetricsSource </code> writes its metrics as plain text, one
+* metric per line in the form <code>name{labels} value</code>, preceded
+* by comment lines starting with <code>#</code>. This is the format
+* read by most monitoring systems, such as Prometheus.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.metrics.MetricsEndpoint
+*/
+public interface MetricsSource
+{
+  /**
+   * Writes the current value of the metrics.
+   *
+   * @param out the writer receiving the text.
+   * @exception IOException if an I/O error occurs.
+   */
+  void writeMetrics(Writer out) throws IOException;
+}
+// End of MetricsSource interface
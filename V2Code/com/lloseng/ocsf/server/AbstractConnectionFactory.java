@@ -41,7 +41,12 @@ public abstract class AbstractConnectionFactory
    * Hook method called each time a new client connection must
    * be created. This method should simply call the constructor
    * of the defined subclass of <code> ConnectionToClient </code>
-   * and return the created instance.
+   * and return the created instance.<p>
+   *
+   * The created connection starts itself according to the mode of
+   * the server, hence a factory works unchanged when the server uses
+   * virtual threads or event loops. In these modes the connection does
+   * not run as a thread of the group, which is then only nominal.
    *
    * @param group the thread group that contains the connections.
    * @param clientSocket contains the client's socket.
@@ -4,9 +4,15 @@
 
 package com.lloseng.ocsf.server;
 
+import java.lang.reflect.*;
 import java.net.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
+import com.lloseng.ocsf.codec.*;
+import com.lloseng.ocsf.metrics.*;
 
 /**
 * The <code> AbstractServer </code> class maintains a thread that waits
@@ -70,6 +76,69 @@ import java.io.*;
 */
 public abstract class AbstractServer implements Runnable
 {
+  // CLASS VARIABLES ************************************************
+
+  /**
+   * Overflow policy of the outbound queues: when the queue of a client
+   * is full, its oldest message is dropped to make room for the new one.
+   */
+  public static final int OVERFLOW_DROP_OLDEST = 1;
+
+  /**
+   * Overflow policy of the outbound queues: when the queue of a client
+   * is full, the connection with this client is closed. This is the
+   * default policy.
+   */
+  public static final int OVERFLOW_DROP_CONNECTION = 2;
+
+  /**
+   * Overflow policy of the outbound queues: when the queue of a client
+   * is full, the sending thread waits until there is room in it.
+   * The other clients then wait for the slowest one, so this policy
+   * is best kept for servers whose clients all read promptly.
+   */
+  public static final int OVERFLOW_BLOCK = 3;
+
+  /**
+   * Slow consumer policy: when a client exceeds the outbound limits,
+   * <code>slowConsumerDetected</code> is called and the messages are
+   * still sent to it.
+   */
+  public static final int SLOW_CONSUMER_NOTIFY = 1;
+
+  /**
+   * Slow consumer policy: when a client exceeds the outbound limits,
+   * <code>slowConsumerDetected</code> is called and the messages sent
+   * to it are dropped until it is back under the limits, which
+   * <code>sendToClient</code> reports by throwing a
+   * <code>MessageDroppedException</code>. Without event loops, a write
+   * already blocked on the socket of the client is not released; only
+   * <code>SLOW_CONSUMER_DISCONNECT</code> does so.
+   */
+  public static final int SLOW_CONSUMER_DROP = 2;
+
+  /**
+   * Slow consumer policy: when a client exceeds the outbound limits,
+   * <code>slowConsumerDetected</code> is called and the connection
+   * with this client is closed.
+   */
+  public static final int SLOW_CONSUMER_DISCONNECT = 3;
+
+  /**
+   * The default size of the buffer in which the messages sent to a
+   * client are gathered.
+   */
+  public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 8192;
+
+  /**
+   * The type of information under which the login ID of a client is
+   * saved with <code>ConnectionToClient.setInfo()</code>. This type
+   * is always indexed.
+   *
+   * @see #sendToClient(Object, Object)
+   */
+  public static final String ID_INFO = "ID";
+
   // INSTANCE VARIABLES *********************************************
 
   /**
@@ -88,13 +157,31 @@ public abstract class AbstractServer implements Runnable
   private int port;
 
   /**
-   * The server timeout while for accepting connections.
-   * After timing out, the server will check to see if a command to
-   * stop the server has been issued; it not it will resume accepting
-   * connections.
-   * Set to half a second by default.
+   * The channels of the server sockets, through which the connections
+   * are accepted. There is one channel per acceptor when the port is
+   * shared, and a single one otherwise.
+   */
+  private ServerSocketChannel[] serverChannels = null;
+
+  /**
+   * The selectors on which the acceptors wait for a connection attempt,
+   * one per acceptor. They are woken up when the server stops
+   * listening, so that no timeout is needed to notice the request.
+   */
+  private Selector[] acceptSelectors = null;
+
+  /**
+   * The number of threads accepting the connections, including the
+   * connection listener thread.
    */
-  private int timeout = 500;
+  private int acceptorCount = 1;
+
+  /**
+   * Indicates if each acceptor listens on its own socket bound to the
+   * same port with SO_REUSEPORT, the system then distributing the
+   * connection attempts among these sockets.
+   */
+  private boolean reusePort = false;
 
   /**
    * The maximum queue length; i.e. the maximum number of clients that
@@ -113,7 +200,7 @@ public abstract class AbstractServer implements Runnable
    * Indicates if the listening thread is ready to stop.  Set to
    * false by default.
    */
-  private boolean readyToStop = true; // modified in version 2.31
+  private volatile boolean readyToStop = true; // modified in version 2.31
 
   /**
    * The factory used to create new connections to clients.
@@ -121,6 +208,238 @@ public abstract class AbstractServer implements Runnable
    * instances will be created. Added in version 2.3
    */
   private AbstractConnectionFactory connectionFactory = null;
+
+  /**
+   * The codec used to encode and decode the messages of the new
+   * connections. Null by default, meaning that object streams are used.
+   */
+  private volatile MessageCodec messageCodec = null;
+
+  /**
+   * The number of messages after which the object stream of a
+   * connection is reset, 0 if not considered.
+   */
+  private volatile int resetMessages = MessageOutput.DEFAULT_RESET_MESSAGES;
+
+  /**
+   * The number of bytes after which the object stream of a
+   * connection is reset, 0 if not considered.
+   */
+  private volatile long resetBytes = MessageOutput.DEFAULT_RESET_BYTES;
+
+  /**
+   * Indicates if Nagle's algorithm is disabled on the client sockets.
+   */
+  private volatile boolean tcpNoDelay = false;
+
+  /**
+   * The size of the send buffer of the client sockets, 0 to keep
+   * the size chosen by the system.
+   */
+  private volatile int sendBufferSize = 0;
+
+  /**
+   * The size of the buffer in which the messages sent to a client
+   * are gathered before being written to its socket.
+   */
+  private volatile int outputBufferSize = DEFAULT_OUTPUT_BUFFER_SIZE;
+
+  /**
+   * The number of messages after which a batch is flushed.
+   */
+  private volatile int batchMessages = 0;
+
+  /**
+   * The number of bytes after which a batch is flushed.
+   */
+  private volatile int batchBytes = 0;
+
+  /**
+   * The delay in microseconds after which a batch is flushed,
+   * 0 if the messages are not batched.
+   */
+  private volatile long batchDelay = 0;
+
+  /**
+   * The maximum size of a message received from a client, 0 if the
+   * size is not limited.
+   */
+  private volatile int maxMessageSize = MessageInput.DEFAULT_MAX_MESSAGE_SIZE;
+
+  /**
+   * The number of event loops multiplexing the client connections.
+   * Set to 0 by default, meaning that each connection runs its own
+   * thread.
+   */
+  private int eventLoopCount = 0;
+
+  /**
+   * The event loops serving the client connections.
+   * Null when the server is not event-driven.
+   */
+  private EventLoop[] eventLoops = null;
+
+  /**
+   * Used to assign the new connections to the event loops in turn.
+   */
+  private AtomicInteger nextEventLoop = new AtomicInteger();
+
+  /**
+   * The number of worker threads used with the event loops.
+   * Set to 0 by default, meaning one per available processor.
+   */
+  private int eventWorkerCount = 0;
+
+  /**
+   * The threads deserializing and handling the messages received
+   * by the event loops. A thread is only used once a connection has
+   * received a whole message, hence neither idle connections nor
+   * clients sending partial messages hold any thread. There is one
+   * such thread per processor by default.
+   */
+  private ExecutorService eventWorkers = null;
+
+  /**
+   * Indicates if the connections read the messages of their client
+   * on a virtual thread rather than on their own platform thread.
+   * Set to false by default.
+   */
+  private boolean virtualThreads = false;
+
+  /**
+   * Indicates if the messages of different clients may be handled
+   * at the same time. Set to false by default, meaning that all
+   * messages are handled while holding the lock of the server.
+   */
+  private volatile boolean concurrentDispatch = false;
+
+  /**
+   * Starts the virtual threads of the connections.
+   * Null when the server does not use virtual threads.
+   */
+  private Executor virtualThreadStarter = null;
+
+  /**
+   * The maximum number of messages waiting in the outbound queue
+   * of each client. Set to 1024 by default.
+   */
+  private volatile int outboundCapacity = 1024;
+
+  /**
+   * What to do when the outbound queue of a client is full.
+   * Set to <code>OVERFLOW_DROP_CONNECTION</code> by default, so that
+   * a full queue never holds up the sending thread.
+   */
+  private volatile int overflowPolicy = OVERFLOW_DROP_CONNECTION;
+
+  /**
+   * Indicates if <code>sendToAllClients</code> goes through the
+   * outbound queues. Set to false by default.
+   */
+  private volatile boolean asyncBroadcast = false;
+
+  /**
+   * The threads writing the messages of the outbound queues.
+   * Created when first needed.
+   */
+  private ThreadPoolExecutor outboundWriters = null;
+
+  /**
+   * The maximum number of threads writing the messages of the
+   * outbound queues, 0 for four per processor.
+   */
+  private int outboundWriterCount = 0;
+
+  /**
+   * The maximum number of bytes waiting to be sent to a client,
+   * 0 if the number of bytes is not limited.
+   */
+  private volatile long maxQueuedBytes = 0;
+
+  /**
+   * The maximum number of messages waiting to be sent to a client,
+   * 0 if the number of messages is not limited.
+   */
+  private volatile int maxQueuedMessages = 0;
+
+  /**
+   * The maximum time in milliseconds during which a client may leave
+   * the bytes sent to it unread, 0 if this time is not limited.
+   */
+  private volatile long maxWriteStall = 0;
+
+  /**
+   * What to do with a client that exceeds the outbound limits.
+   * Set to <code>SLOW_CONSUMER_DISCONNECT</code> by default.
+   */
+  private volatile int slowConsumerPolicy = SLOW_CONSUMER_DISCONNECT;
+
+  /**
+   * The task checking the write stall of the clients. Scheduled while
+   * the server is open and the write stall is limited.
+   */
+  private ScheduledFuture<?> watchdog = null;
+
+  /**
+   * The messages per second each client may send, 0 if the number of
+   * messages is not limited.
+   */
+  private volatile double inboundMessageRate = 0;
+
+  /**
+   * The bytes per second each client may send, 0 if the number of
+   * bytes is not limited.
+   */
+  private volatile long inboundByteRate = 0;
+
+  /**
+   * The number of times the reading of a client has been paused
+   * because it exceeded the inbound rate limit.
+   */
+  private final LongAdder inboundPauses = new LongAdder();
+
+  /**
+   * The total time in nanoseconds during which the reading of the
+   * clients has been paused.
+   */
+  private final LongAdder inboundPauseNanos = new LongAdder();
+
+  /**
+   * The thread running the delayed tasks of the server. Created when
+   * first needed.
+   */
+  private ScheduledThreadPoolExecutor timer = null;
+
+  /**
+   * The registry of the connections with the clients, by connection
+   * ID. A connection is registered when it is created and removed once
+   * the <code>clientDisconnected</code> callback has been called, in
+   * every mode of the server.
+   */
+  private final ConcurrentHashMap<Long, ConnectionToClient> connections =
+    new ConcurrentHashMap<Long, ConnectionToClient>();
+
+  /**
+   * The source of the connection IDs.
+   */
+  private final AtomicLong nextConnectionId = new AtomicLong();
+
+  /**
+   * The indexes of the connections by type of information.
+   */
+  private final ConcurrentHashMap<String, InfoIndex> infoIndexes =
+    new ConcurrentHashMap<String, InfoIndex>();
+
+  /**
+   * The metrics of the server.
+   */
+  private final ServerMetrics metrics = new ServerMetrics(this);
+
+  /**
+   * Records the latency of the messages from their reception to the
+   * end of their handling, null if not recorded.
+   */
+  private volatile LatencyRecorder latencyRecorder = null;
   
 // CONSTRUCTOR ******************************************************
 
@@ -132,6 +451,7 @@ public abstract class AbstractServer implements Runnable
   public AbstractServer(int port)
   {
     this.port = port;
+    this.infoIndexes.put(ID_INFO, new InfoIndex());
 
     this.clientThreadGroup =
       new ThreadGroup("ConnectionToClient threads")
@@ -141,6 +461,7 @@ public abstract class AbstractServer implements Runnable
         public void uncaughtException(
           Thread thread, Throwable exception)
         {
+          metrics.exceptionRaised(exception);
           clientException((ConnectionToClient)thread, exception);
         }
       };
@@ -161,13 +482,22 @@ public abstract class AbstractServer implements Runnable
   {
     if (!isListening())
     {
+      if (eventLoopCount > 0 && eventLoops == null)
+      {
+        startEventLoops();
+      }
+
+      if (virtualThreads && virtualThreadStarter == null)
+      {
+        virtualThreadStarter = createVirtualThreadStarter();
+      }
+
       if (serverSocket == null)
       {
-        serverSocket = new ServerSocket(getPort(), backlog);
+        openServerChannels();
+        updateWatchdog();
       }
 
-      serverSocket.setSoTimeout(timeout);
-      
       connectionListener = new Thread(this);
       connectionListener.start();
     }
@@ -179,6 +509,16 @@ public abstract class AbstractServer implements Runnable
   final public void stopListening()
   {
     readyToStop = true;
+
+    Selector[] selectors = acceptSelectors;
+    if (selectors != null)
+    {
+      // The acceptors stop at once
+      for (int i=0; i<selectors.length; i++)
+      {
+        selectors[i].wakeup();
+      }
+    }
   }
 
   /**
@@ -201,19 +541,22 @@ public abstract class AbstractServer implements Runnable
 
     try
     {
-      serverSocket.close();
+      ServerSocketChannel[] channels = serverChannels;
+      for (int i=0; i<channels.length; i++)
+      {
+        channels[i].close();
+      }
     }
     finally
     {
       synchronized (this)
       {
         // Close the client sockets of the already connected clients
-        Thread[] clientThreadList = getClientConnections();
-        for (int i=0; i<clientThreadList.length; i++)
+        for (ConnectionToClient client : connections.values())
         {
           try
           {
-            ((ConnectionToClient)clientThreadList[i]).close();
+            client.close();
           }
           // Ignore all exceptions when closing clients.
           catch(Exception ex) {}
@@ -228,6 +571,11 @@ public abstract class AbstractServer implements Runnable
       catch(InterruptedException ex) {}
       catch(NullPointerException ex) {} // When thread already dead.
 
+      closeServerChannels();
+      stopEventLoops();
+      updateWatchdog();
+      virtualThreadStarter = null;
+
       serverClosed();
     }
   }
@@ -240,21 +588,102 @@ public abstract class AbstractServer implements Runnable
    * the general function of sending to all clients, perhaps after some kind
    * of filtering is done. Any exception thrown while
    * sending the message to a particular client is ignored.
+   * When asynchronous broadcast has been selected, the message is
+   * only queued for each client, as done by
+   * <code>sendToAllClientsAsync</code>.
    *
    * @param msg   Object The message to be sent
+   * @see #setAsyncBroadcast(boolean)
    */
   public void sendToAllClients(Object msg)
   {
-    Thread[] clientThreadList = getClientConnections();
-
-    for (int i=0; i<clientThreadList.length; i++)
+    if (asyncBroadcast)
     {
-      try
-      {
-        ((ConnectionToClient)clientThreadList[i]).sendToClient(msg);
-      }
-      catch (Exception ex) {}
+      sendToAllClientsAsync(msg);
+      return;
     }
+
+    multicast(msg, connections.values());
+  }
+
+  /**
+   * Sends a message to every client connected to the server without
+   * waiting for the message to be written. The message is added to the
+   * outbound queue of each client and is written by a writer thread,
+   * so that a client that is slow to read does not delay the caller
+   * nor the other clients. When the queue of a client is full, the
+   * overflow policy set with <code>setOutboundQueue()</code> applies.
+   * The message is serialized once for all clients; it is however
+   * sent with <code>sendToClient()</code> to the connections that
+   * override this method, hence any filtering they do still applies.
+   *
+   * @param msg   Object The message to be sent
+   * @return a future completed with the summary of the delivery once
+   *   the message has been written to, or dropped for, every client.
+   * @see #setOutboundQueue(int, int)
+   */
+  public CompletableFuture<BroadcastResult> sendToAllClientsAsync(Object msg)
+  {
+    return multicastAsync(msg, connections.values());
+  }
+
+  /**
+   * Sends a message to some of the clients connected to the server.
+   * As with <code>sendToAllClients</code>, the message is serialized
+   * only once and any exception thrown while sending the message to a
+   * particular client is ignored.
+   *
+   * @param msg   Object The message to be sent
+   * @param clients the connections to which the message is sent.
+   */
+  public void sendToClients(Object msg,
+    Collection<? extends ConnectionToClient> clients)
+  {
+    if (asyncBroadcast)
+      multicastAsync(msg, clients);
+    else
+      multicast(msg, clients);
+  }
+
+  /**
+   * Sends a message to some of the clients connected to the server
+   * through their outbound queues, as done by
+   * <code>sendToAllClientsAsync</code>.
+   *
+   * @param msg   Object The message to be sent
+   * @param clients the connections to which the message is sent.
+   * @return a future completed with the summary of the delivery.
+   */
+  public CompletableFuture<BroadcastResult> sendToClientsAsync(Object msg,
+    Collection<? extends ConnectionToClient> clients)
+  {
+    return multicastAsync(msg, clients);
+  }
+
+  /**
+   * Sends a message to the client logged in with the given ID, that is
+   * to the connections whose information of type <code>ID_INFO</code>
+   * is equal to this ID. The connection is found through an index,
+   * without going through all the connections. If the same ID is used
+   * by several connections, the message is sent to all of them.
+   * As with <code>sendToAllClients</code>, any exception thrown while
+   * sending the message to a particular client is ignored.
+   *
+   * @param id the login ID of the client.
+   * @param msg the message to send.
+   * @return false if no client with this ID is connected.
+   * @see com.lloseng.ocsf.server.ConnectionToClient#setInfo(String, Object)
+   */
+  public boolean sendToClient(Object id, Object msg)
+  {
+    Collection<ConnectionToClient> clients =
+      getClientConnections(ID_INFO, id);
+
+    if (clients.isEmpty())
+      return false;
+
+    sendToClients(msg, clients);
+    return true;
   }
 
 
@@ -289,28 +718,144 @@ public abstract class AbstractServer implements Runnable
    * Remember that after this array is obtained, some clients
    * in this migth disconnect. New clients can also connect,
    * these later will not appear in the array.
+   * The array is copied from the connection registry; the method
+   * <code>getConnections()</code> avoids this copy.
    *
    * @return an array of <code>Thread</code> containing
    * <code>ConnectionToClient</code> instances.
    */
-  synchronized final public Thread[] getClientConnections()
+  final public Thread[] getClientConnections()
+  {
+    return connections.values().toArray(new Thread[0]);
+  }
+
+  /**
+   * Returns the existing client connections without copying them.
+   * The collection cannot be modified; it reflects the connections
+   * and disconnections as they occur, and may be iterated while
+   * clients connect and disconnect. An iteration returns each
+   * connection at most once, and the connections that remain connected
+   * during the whole iteration are all returned.
+   *
+   * @return a live view of the client connections.
+   */
+  final public Collection<ConnectionToClient> getConnections()
+  {
+    return Collections.unmodifiableCollection(connections.values());
+  }
+
+  /**
+   * Returns the connection with the given ID.
+   *
+   * @param id the ID of the connection.
+   * @return the connection, or null if no client with this ID is
+   *   connected.
+   * @see com.lloseng.ocsf.server.ConnectionToClient#getConnectionId()
+   */
+  final public ConnectionToClient getClientConnection(long id)
+  {
+    return connections.get(id);
+  }
+
+  /**
+   * Returns the connections to which the given information has been
+   * attached with <code>ConnectionToClient.setInfo()</code>. The type of
+   * information must be indexed; the login IDs, of type
+   * <code>ID_INFO</code>, always are. The lookup takes a constant time
+   * whatever the number of connections.
+   *
+   * @param infoType the type of information.
+   * @param info the value of the information.
+   * @return a live view of the connections holding this value, empty
+   *   if there is none.
+   * @exception IllegalArgumentException if the type of information is
+   *   not indexed.
+   * @see #indexInfo(String)
+   */
+  final public Collection<ConnectionToClient> getClientConnections(
+    String infoType, Object info)
+  {
+    InfoIndex index = infoIndexes.get(infoType);
+    if (index == null)
+      throw new IllegalArgumentException(infoType + " is not indexed");
+
+    return index.get(info);
+  }
+
+  /**
+   * Returns the connections whose attribute has the given value. The
+   * attribute must be indexed.
+   *
+   * @param key the key of the attribute.
+   * @param value the value of the attribute.
+   * @return a live view of the connections holding this value, empty
+   *   if there is none.
+   * @exception IllegalArgumentException if the attribute is not indexed.
+   * @see #getClientConnections(String, Object)
+   */
+  final public <T> Collection<ConnectionToClient> getClientConnections(
+    AttributeKey<T> key, T value)
+  {
+    return getClientConnections(key.getName(), value);
+  }
+
+  /**
+   * Indexes the connections by a type of information, so that the
+   * connections holding a given value can be found with
+   * <code>getClientConnections(String, Object)</code>. The information
+   * already attached to the connections is indexed at once. The index
+   * follows the later calls to <code>setInfo()</code> and the
+   * disconnections. If the type is already indexed, this call has no
+   * effect.
+   *
+   * @param infoType the type of information.
+   */
+  final public void indexInfo(String infoType)
   {
-    Thread[] clientThreadList = new
-      Thread[clientThreadGroup.activeCount()];
+    InfoIndex index = new InfoIndex();
+    if (infoIndexes.putIfAbsent(infoType, index) != null)
+      return;
 
-    clientThreadGroup.enumerate(clientThreadList);
+    for (ConnectionToClient client : connections.values())
+    {
+      client.indexInfo(infoType, index);
+    }
+  }
+
+  /**
+   * Indexes the connections by an attribute, as done by
+   * <code>indexInfo()</code> for the name of its key.
+   *
+   * @param key the key of the attribute.
+   */
+  final public void indexAttribute(AttributeKey<?> key)
+  {
+    indexInfo(key.getName());
+  }
 
-    return clientThreadList;
+  /**
+   * Returns the metrics of the server: its connections, the messages
+   * and bytes exchanged with its clients, the exceptions reported
+   * and the durations of the handling of the messages and of the
+   * sends. They are recorded from the creation of the server.
+   *
+   * @return the metrics.
+   * @see com.lloseng.ocsf.metrics.MetricsEndpoint
+   */
+  final public ServerMetrics getMetrics()
+  {
+    return metrics;
   }
 
   /**
    * Counts the number of clients currently connected.
+   * This count is maintained as the clients connect and disconnect.
    *
    * @return the number of clients currently connected.
    */
   final public int getNumberOfClients()
   {
-    return clientThreadGroup.activeCount();
+    return connections.size();
   }
 
   /**
@@ -337,36 +882,78 @@ public abstract class AbstractServer implements Runnable
 
   /**
    * Sets the timeout time when accepting connections.
-   * The default is half a second. This means that stopping the
-   * server may take up to timeout duration to actually stop.
-   * The server must be stopped and restarted for the timeout
-   * change to be effective.
+   * The listening thread used to wake up at the end of each timeout
+   * to check whether the server was stopped. It now waits until a
+   * connection attempt occurs or until the server is stopped, which
+   * then takes effect immediately, so the timeout is ignored.
    *
    * @param timeout the timeout time in ms.
+   * @deprecated the server no longer needs a timeout to stop.
    */
+  @Deprecated
   final public void setTimeout(int timeout)
   {
-    this.timeout = timeout;
   }
 
   /**
-   * Sets the maximum number of waiting connections accepted by the
-   * operating system. The default is 20.
-   * The server must be closed and restarted for the backlog
-   * change to be in effect.
+   * Sets the number of threads accepting the connections. A single
+   * thread, the default, may not keep up with a storm of connection
+   * attempts, such as all the clients reconnecting after a restart of
+   * the server. The acceptors wait on the same server socket, unless
+   * the port is shared with <code>setReusePort()</code>. With more
+   * than one acceptor, <code>clientConnected</code> may be called for
+   * several clients at the same time.
+   * The server must be closed and restarted for the change
+   * to be in effect.
    *
-   * @param backlog the maximum number of connections.
+   * @param count the number of acceptor threads, at least 1.
+   * @exception IllegalArgumentException if the count is less than 1.
    */
-  final public void setBacklog(int backlog)
+  final public void setAcceptors(int count)
   {
-    this.backlog = backlog;
+    if (count < 1)
+      throw new IllegalArgumentException("at least one acceptor needed");
+
+    this.acceptorCount = count;
   }
 
   /**
-   * Sets the connection factory.
-   * Once set, this one will be used in the creation
-   * of new <code>ConnectionToClient</code> instances.
-   * The call to this method is optional; if not called
+   * Makes each acceptor listen on its own server socket, all bound to
+   * the same port with the SO_REUSEPORT option, so that the system
+   * spreads the connection attempts among them instead of waking all
+   * the acceptors for each of them. Each socket then has its own
+   * backlog. On the systems where the option is not supported, as well
+   * as with a single acceptor, one socket is shared by the acceptors.
+   * Note that another process may then bind the same port as well.
+   * The server must be closed and restarted for the change
+   * to be in effect.
+   *
+   * @param on true to give each acceptor its own socket.
+   * @see #setAcceptors(int)
+   */
+  final public void setReusePort(boolean on)
+  {
+    this.reusePort = on;
+  }
+
+  /**
+   * Sets the maximum number of waiting connections accepted by the
+   * operating system. The default is 10.
+   * The server must be closed and restarted for the backlog
+   * change to be in effect.
+   *
+   * @param backlog the maximum number of connections.
+   */
+  final public void setBacklog(int backlog)
+  {
+    this.backlog = backlog;
+  }
+
+  /**
+   * Sets the connection factory.
+   * Once set, this one will be used in the creation
+   * of new <code>ConnectionToClient</code> instances.
+   * The call to this method is optional; if not called
    * Then regular <code>ConnectionToClient</code> instances
    * are created. Added in version 2.3
    *
@@ -377,6 +964,483 @@ public abstract class AbstractServer implements Runnable
     this.connectionFactory = factory;
   }
 
+  /**
+   * Sets the codec used to encode and decode the messages exchanged
+   * with the clients. By default no codec is set and the messages are
+   * written and read by Java object streams, as in the previous
+   * versions of the framework. With a codec, each message travels as a
+   * frame made of its length followed by its encoded bytes; the clients
+   * must then use the same codec. The connections already established
+   * keep the codec they were created with.
+   *
+   * @param codec the codec, or null to use object streams.
+   * @see com.lloseng.ocsf.codec.SerializationCodec
+   * @see com.lloseng.ocsf.codec.BinaryCodec
+   */
+  final public void setMessageCodec(MessageCodec codec)
+  {
+    this.messageCodec = codec;
+  }
+
+  /**
+   * Returns the codec used by the new connections.
+   *
+   * @return the codec, or null if object streams are used.
+   */
+  final public MessageCodec getMessageCodec()
+  {
+    return messageCodec;
+  }
+
+  /**
+   * Sets the policy according to which the object streams writing to
+   * the clients are reset, so that they stop retaining the messages
+   * already sent. A stream is reset as soon as it has written the given
+   * number of messages or bytes since its last reset; a limit of 0 is
+   * not considered, a limit of one message resets the stream after each
+   * message. By default, the streams are reset every
+   * <code>MessageOutput.DEFAULT_RESET_MESSAGES</code> messages or
+   * <code>MessageOutput.DEFAULT_RESET_BYTES</code> bytes. The policy
+   * applies to the connections established afterwards and has no
+   * effect when a codec is set.
+   *
+   * @param messages the number of messages after which a stream is
+   *   reset, or 0.
+   * @param bytes the number of bytes after which a stream is reset,
+   *   or 0.
+   * @exception IllegalArgumentException if a limit is negative.
+   * @see com.lloseng.ocsf.codec.MessageOutput#setResetPolicy(int, long)
+   */
+  final public void setStreamResetPolicy(int messages, long bytes)
+  {
+    if (messages < 0 || bytes < 0)
+      throw new IllegalArgumentException("negative reset limit");
+
+    this.resetMessages = messages;
+    this.resetBytes = bytes;
+  }
+
+  /**
+   * @return the number of messages after which the streams of the
+   *   new connections are reset, 0 if not considered.
+   */
+  final public int getStreamResetMessages()
+  {
+    return resetMessages;
+  }
+
+  /**
+   * @return the number of bytes after which the streams of the
+   *   new connections are reset, 0 if not considered.
+   */
+  final public long getStreamResetBytes()
+  {
+    return resetBytes;
+  }
+
+  /**
+   * Enables or disables Nagle's algorithm (TCP_NODELAY) on the sockets
+   * of the connections established afterwards. Disabling it sends the
+   * small messages without delay, at the cost of more packets; it is
+   * best combined with output batching. By default the algorithm is
+   * left enabled.
+   *
+   * @param on true to disable Nagle's algorithm.
+   */
+  final public void setTcpNoDelay(boolean on)
+  {
+    this.tcpNoDelay = on;
+  }
+
+  /**
+   * Sets the size of the send buffer of the sockets of the connections
+   * established afterwards (SO_SNDBUF). The system may adjust it.
+   *
+   * @param size the size in bytes, or 0 to keep the system default.
+   * @exception IllegalArgumentException if the size is negative.
+   */
+  final public void setSendBufferSize(int size)
+  {
+    if (size < 0)
+      throw new IllegalArgumentException("negative buffer size");
+
+    this.sendBufferSize = size;
+  }
+
+  /**
+   * Sets the size of the buffer in which the bytes of the messages
+   * sent to a client are gathered, so that a message is written to the
+   * socket at once rather than in pieces. The default size is
+   * <code>DEFAULT_OUTPUT_BUFFER_SIZE</code>. This buffer is not used
+   * when the connections are served by event loops, which gather the
+   * bytes themselves. Applies to the connections established
+   * afterwards.
+   *
+   * @param size the size in bytes, or 0 for no buffer.
+   * @exception IllegalArgumentException if the size is negative.
+   */
+  final public void setOutputBufferSize(int size)
+  {
+    if (size < 0)
+      throw new IllegalArgumentException("negative buffer size");
+
+    this.outputBufferSize = size;
+  }
+
+  /**
+   * Sets the window in which the messages sent to a client are batched,
+   * so that the messages sent in a burst are written by a single system
+   * call. A batch is flushed when it holds the given number of messages
+   * or bytes, a limit of 0 not being considered, or at the latest after
+   * the given delay following its first message. With a delay of 0, the
+   * default, each message is flushed as soon as it is sent. Applies to
+   * the connections established afterwards.
+   *
+   * @param messages the number of messages of a batch, or 0.
+   * @param bytes the number of bytes of a batch, or 0.
+   * @param delay the delay in microseconds after which a batch is
+   *   flushed, or 0 not to batch the messages.
+   * @exception IllegalArgumentException if a value is negative.
+   * @see com.lloseng.ocsf.server.ConnectionToClient#flush()
+   */
+  final public void setOutputBatching(int messages, int bytes, long delay)
+  {
+    if (messages < 0 || bytes < 0 || delay < 0)
+      throw new IllegalArgumentException("negative batching value");
+
+    this.batchMessages = messages;
+    this.batchBytes = bytes;
+    this.batchDelay = delay;
+  }
+
+  /**
+   * Sets the maximum size of a message received from a client. A
+   * larger message is rejected before it is allocated, and the
+   * connection is closed after <code>clientException</code> has been
+   * called. Larger payloads may be sent as a sequence of chunks,
+   * which are received by <code>handleChunkFromClient</code>. By
+   * default a message may not exceed
+   * <code>MessageInput.DEFAULT_MAX_MESSAGE_SIZE</code> bytes. This
+   * change takes effect immediately.
+   *
+   * @param size the maximum number of bytes, 0 for no limit.
+   * @see com.lloseng.ocsf.codec.MessageTooLargeException
+   */
+  final public void setMaxMessageSize(int size)
+  {
+    this.maxMessageSize = Math.max(0, size);
+
+    for (ConnectionToClient client : connections.values())
+    {
+      client.setMaxMessageSize(size);
+    }
+  }
+
+  /**
+   * @return the maximum size of a message received from a client,
+   *   0 if not limited.
+   */
+  final public int getMaxMessageSize()
+  {
+    return maxMessageSize;
+  }
+
+  /**
+   * Sets the number of event loops used to serve the client
+   * connections. By default this number is 0, and each connection
+   * runs its own thread that blocks while waiting for the messages
+   * of its client. When a positive number is set, the connections
+   * are instead multiplexed over this number of threads, each of them
+   * waiting on a <code>java.nio.channels.Selector</code>; the messages
+   * received are then deserialized and handled by worker threads that
+   * are only used while a connection has data to process.
+   * The hook methods are called as in the default mode, so concrete
+   * subclasses need not be modified.
+   * The server must be closed and restarted for this change to
+   * be in effect.
+   *
+   * @param count the number of event loops, 0 for one thread
+   *   per connection.
+   */
+  final public void setEventLoops(int count)
+  {
+    this.eventLoopCount = Math.max(0, count);
+  }
+
+  /**
+   * Sets the size and the overflow policy of the outbound queue
+   * of each client. By default a queue holds up to 1024 messages and
+   * the connection is closed when it is full. This change takes effect
+   * immediately.
+   *
+   * @param capacity the maximum number of messages waiting to be
+   *   sent to a client.
+   * @param overflowPolicy one of <code>OVERFLOW_DROP_OLDEST</code>,
+   *   <code>OVERFLOW_DROP_CONNECTION</code> or
+   *   <code>OVERFLOW_BLOCK</code>.
+   */
+  final public void setOutboundQueue(int capacity, int overflowPolicy)
+  {
+    if (overflowPolicy < OVERFLOW_DROP_OLDEST || overflowPolicy > OVERFLOW_BLOCK)
+      throw new IllegalArgumentException("unknown overflow policy");
+
+    this.outboundCapacity = Math.max(1, capacity);
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Sets the outbound limits of each client. A client exceeds them
+   * when more bytes or more messages than allowed are waiting to be
+   * sent to it, or when a write to it has been blocked, or bytes sent
+   * to it have been left unread, for longer than allowed. The slow
+   * consumer policy is then applied. By default there is no limit.
+   * This change takes effect immediately.<p>
+   *
+   * The bytes and messages waiting are those of the outbound queue
+   * and, with event loops, the bytes not yet accepted by the socket.
+   * The bytes held by the socket itself are not seen; a client that
+   * stops reading is revealed by the write stall, which is checked
+   * periodically even when nothing more is sent to the client.
+   *
+   * @param bytes the maximum number of bytes waiting, 0 for no limit.
+   * @param messages the maximum number of messages waiting, 0 for
+   *   no limit.
+   * @param stall the maximum write stall in milliseconds, 0 for
+   *   no limit.
+   * @see #setSlowConsumerPolicy(int)
+   */
+  final public void setOutboundLimits(long bytes, int messages, long stall)
+  {
+    this.maxQueuedBytes = Math.max(0, bytes);
+    this.maxQueuedMessages = Math.max(0, messages);
+    this.maxWriteStall = Math.max(0, stall);
+    updateWatchdog();
+  }
+
+  /**
+   * Sets what to do with a client that exceeds the outbound limits.
+   * Whatever the policy, <code>slowConsumerDetected</code> is called
+   * first. This change takes effect immediately.
+   *
+   * @param policy one of <code>SLOW_CONSUMER_NOTIFY</code>,
+   *   <code>SLOW_CONSUMER_DROP</code> or
+   *   <code>SLOW_CONSUMER_DISCONNECT</code>.
+   * @see #setOutboundLimits(long, int, long)
+   */
+  final public void setSlowConsumerPolicy(int policy)
+  {
+    if (policy < SLOW_CONSUMER_NOTIFY || policy > SLOW_CONSUMER_DISCONNECT)
+      throw new IllegalArgumentException("unknown slow consumer policy");
+
+    this.slowConsumerPolicy = policy;
+  }
+
+  /**
+   * @return the slow consumer policy of the server.
+   */
+  final public int getSlowConsumerPolicy()
+  {
+    return slowConsumerPolicy;
+  }
+
+  /**
+   * Limits the rate at which each client may send messages. When a
+   * client exceeds the limit, the server stops reading its socket
+   * until the client is back under the limit; the messages are not
+   * dropped, but the client is slowed down as TCP stops accepting
+   * its bytes. Each client may send one second worth of messages and
+   * bytes at full speed after having been idle. By default there is
+   * no limit. This change takes effect immediately.
+   *
+   * @param messages the messages per second, 0 for no limit.
+   * @param bytes the bytes per second, 0 for no limit.
+   * @see #getInboundPauseCount()
+   */
+  final public void setInboundRateLimit(double messages, long bytes)
+  {
+    this.inboundMessageRate = Math.max(0, messages);
+    this.inboundByteRate = Math.max(0, bytes);
+  }
+
+  /**
+   * @return the messages per second each client may send,
+   *   0 if not limited.
+   */
+  final public double getInboundMessageRate()
+  {
+    return inboundMessageRate;
+  }
+
+  /**
+   * @return the bytes per second each client may send, 0 if not limited.
+   */
+  final public long getInboundByteRate()
+  {
+    return inboundByteRate;
+  }
+
+  /**
+   * Returns the number of times the reading of a client has been
+   * paused by the inbound rate limit since the server was created.
+   *
+   * @return the number of pauses.
+   */
+  final public long getInboundPauseCount()
+  {
+    return inboundPauses.sum();
+  }
+
+  /**
+   * Returns the total time during which the reading of the clients
+   * has been paused by the inbound rate limit since the server was
+   * created.
+   *
+   * @return the time in milliseconds.
+   */
+  final public long getInboundPauseMillis()
+  {
+    return inboundPauseNanos.sum() / 1000000;
+  }
+
+  /**
+   * Makes <code>sendToAllClients</code> go through the outbound
+   * queues, as <code>sendToAllClientsAsync</code> does, instead of
+   * writing the message to each client in turn. This change takes
+   * effect immediately.
+   *
+   * @param async true to broadcast through the outbound queues.
+   */
+  final public void setAsyncBroadcast(boolean async)
+  {
+    this.asyncBroadcast = async;
+  }
+
+  /**
+   * Sets the maximum number of threads writing the messages of the
+   * outbound queues. By default there are up to four writers per
+   * available processor; the queues of the other clients wait for
+   * a writer to be free. A writer is held while the socket of its
+   * client does not accept more bytes, which only happens when the
+   * connections run their own thread; a write stall limit set with
+   * <code>setOutboundLimits</code> frees such writers. This change
+   * takes effect immediately.
+   *
+   * @param count the number of writers, 0 for four per processor.
+   */
+  synchronized final public void setOutboundWriters(int count)
+  {
+    this.outboundWriterCount = Math.max(0, count);
+
+    if (outboundWriters != null)
+    {
+      int writers = getOutboundWriterCount();
+      if (writers > outboundWriters.getMaximumPoolSize())
+      {
+        outboundWriters.setMaximumPoolSize(writers);
+        outboundWriters.setCorePoolSize(writers);
+      }
+      else
+      {
+        outboundWriters.setCorePoolSize(writers);
+        outboundWriters.setMaximumPoolSize(writers);
+      }
+    }
+  }
+
+  /**
+   * Sets the number of worker threads that deserialize and handle the
+   * messages received by the event loops. By default there is one
+   * worker per available processor. When concurrent dispatch is
+   * selected and the handling of a message waits for some resource,
+   * more workers allow more clients to be served in the meantime.
+   * The server must be closed and restarted for this change to
+   * be in effect.
+   *
+   * @param count the number of workers, 0 for one per processor.
+   */
+  final public void setEventWorkers(int count)
+  {
+    this.eventWorkerCount = Math.max(0, count);
+  }
+
+  /**
+   * Makes the connections read the messages of their client on a
+   * virtual thread. In this mode a connection still blocks while
+   * waiting for messages, but a waiting virtual thread does not hold
+   * a platform thread nor its native stack, which allows a server to
+   * keep a very large number of idle clients. The connections are
+   * then tracked by the server rather than by the client thread group.
+   * On a Java runtime that does not provide virtual threads, platform
+   * threads with a reduced stack size are used instead.
+   * This mode is ignored when event loops are used.
+   * The server must be closed and restarted for this change to
+   * be in effect.
+   *
+   * @param virtualThreads true to use virtual threads.
+   */
+  final public void setVirtualThreads(boolean virtualThreads)
+  {
+    this.virtualThreads = virtualThreads;
+  }
+
+  /**
+   * Selects how the received messages are dispatched to
+   * <code>handleMessageFromClient</code>. By default the handling is
+   * synchronized on the server, so that only one message, from any
+   * client, is handled at a time. When concurrent dispatch is selected,
+   * the messages of different clients are handled in parallel by
+   * their respective connection threads, or worker threads when event
+   * loops are used. The messages of any one client are still handled
+   * one at a time and in the order they were sent, since a connection
+   * reads its next message only once the previous one has been
+   * handled. The handler must then protect any state it shares between
+   * clients. This change takes effect immediately.
+   *
+   * @param concurrent true to handle the messages of different
+   *   clients concurrently.
+   */
+  final public void setConcurrentDispatch(boolean concurrent)
+  {
+    this.concurrentDispatch = concurrent;
+  }
+
+  /**
+   * Returns true if the messages of different clients are handled
+   * concurrently.
+   *
+   * @return true if concurrent dispatch is selected.
+   */
+  final public boolean isConcurrentDispatch()
+  {
+    return concurrentDispatch;
+  }
+
+  /**
+   * Sets the recorder of the latency of the messages received, from
+   * the reception of their bytes to the end of their handling. Unlike
+   * the duration of the handling given by the metrics, this latency
+   * includes the time a message waits for a worker thread when event
+   * loops are used, and for the other clients' messages when the
+   * dispatch is not concurrent, which is where the queueing delay of
+   * a loaded server shows. This change takes effect immediately.
+   *
+   * @param recorder the recorder, null to stop recording.
+   */
+  final public void setLatencyRecorder(LatencyRecorder recorder)
+  {
+    this.latencyRecorder = recorder;
+  }
+
+  /**
+   * Returns the recorder of the latency of the messages received.
+   *
+   * @return the recorder, null if the latency is not recorded.
+   */
+  final public LatencyRecorder getLatencyRecorder()
+  {
+    return latencyRecorder;
+  }
+
 // RUN METHOD -------------------------------------------------------
 
   /**
@@ -389,42 +1453,104 @@ public abstract class AbstractServer implements Runnable
     readyToStop= false;  // added in version 2.31
     serverStarted();
 
+    // The other acceptors, if any, run in threads of their own
+    Thread[] acceptors = new Thread[acceptSelectors.length - 1];
+    for (int i=0; i<acceptors.length; i++)
+    {
+      final int index = i + 1;
+      acceptors[i] = new Thread("OCSF acceptor " + index)
+      {
+        public void run()
+        {
+          accept(index);
+        }
+      };
+      acceptors[i].start();
+    }
+
+    try
+    {
+      accept(0);
+    }
+    finally
+    {
+      stopListening();
+
+      for (int i=0; i<acceptors.length; i++)
+      {
+        try
+        {
+          acceptors[i].join();
+        }
+        catch (InterruptedException ex) {}
+      }
+
+      connectionListener = null;
+
+      // call the hook method to notify that the server has stopped
+      serverStopped(); // moved in version 2.31
+    }
+  }
+
+  /**
+   * Accepts the connections until the server stops listening. Called
+   * by each acceptor thread. An exception stops all the acceptors.
+   *
+   * @param index the index of the selector of this acceptor.
+   */
+  private void accept(int index)
+  {
+    Selector selector = acceptSelectors[index];
+    ServerSocketChannel serverChannel =
+      serverChannels[serverChannels.length > 1 ? index : 0];
+
     try
     {
       // Repeatedly waits for a new client connection, accepts it, and
       // starts a new thread to handle data exchange.
       while(!readyToStop)
       {
-        try
+        // Wait here for new connection attempts, or a request to stop
+        selector.select();
+        selector.selectedKeys().clear();
+
+        SocketChannel channel;
+        while (!readyToStop && (channel = serverChannel.accept()) != null)
         {
-          // Wait here for new connection attempts, or a timeout
-          Socket clientSocket = serverSocket.accept();
+          Socket clientSocket = channel.socket();
 
           // When a client is accepted, create a thread to handle
           // the data exchange, then add it to thread group
 
-          synchronized(this)
+          if (readyToStop)  // added in version 2.2
           {
-            if (!readyToStop)  // added in version 2.2
-            {
-              if (connectionFactory == null) {
+            clientSocket.close();
+            break;
+          }
+
+          ConnectionToClient client;
+          if (connectionFactory == null) {
+
+            client = new ConnectionToClient(
+              this.clientThreadGroup, clientSocket, this);
 
-                new ConnectionToClient(
-                  this.clientThreadGroup, clientSocket, this);
-                  
-              } else {        // added in version 2.3
+          } else {        // added in version 2.3
 
-                connectionFactory.createConnection(
-                  this.clientThreadGroup, clientSocket, this);
-              }
+            client = connectionFactory.createConnection(
+              this.clientThreadGroup, clientSocket, this);
+          }
+
+          // The connection is registered before this check, hence it is
+          // closed either here or by close(), without locking the server
+          if (readyToStop && client != null)
+          {
+            try
+            {
+              client.close();
             }
+            catch (IOException ex) {}
           }
         }
-        catch (InterruptedIOException exception)
-        {
-          // This will be thrown when a timeout occurs.
-          // The server will continue to listen if not ready to stop.
-        }
       }
     }
     catch (IOException exception)
@@ -432,16 +1558,13 @@ public abstract class AbstractServer implements Runnable
       if (!readyToStop)
       {
         // Closing the socket must have thrown a SocketException
+        metrics.exceptionRaised(exception);
         listeningException(exception);
       }
     }
     finally
     {
-      readyToStop = true;
-      connectionListener = null;
-
-      // call the hook method to notify that the server has stopped
-      serverStopped(); // moved in version 2.31
+      stopListening();
     }
   }
 
@@ -451,10 +1574,15 @@ public abstract class AbstractServer implements Runnable
   /**
    * Hook method called each time a new client connection is
    * accepted. The default implementation does nothing.
-   * This method does not have to be synchronized since only
-   * one client can be accepted at a time.
+   * This method is called by the thread serving the new connection,
+   * before any message of the client is handled. When more than one
+   * acceptor is configured with <code>setAcceptors()</code>, several
+   * clients are accepted at the same time and this method may run
+   * concurrently for them; it must then be synchronized, or otherwise
+   * thread-safe, if it updates state shared between clients.
    *
    * @param client the connection connected to the client.
+   * @see #setAcceptors(int)
    */
   protected void clientConnected(ConnectionToClient client) {}
 
@@ -504,8 +1632,22 @@ public abstract class AbstractServer implements Runnable
   protected void serverStarted() {}
 
   /**
-   * Hook method called when the server stops accepting
-   * connections.  The default implementation
+   * Hook method called when a client exceeds the outbound limits,
+   * once until it is back under them, before the slow consumer
+   * policy is applied. It is called by the thread sending a message
+   * to the client or by the thread checking the write stall. The
+   * default implementation does nothing. The method may be
+   * overridden by subclasses, for instance to log the client or to
+   * close it whatever the policy.
+   *
+   * @param client the connection with the slow client.
+   * @see #setOutboundLimits(long, int, long)
+   */
+  protected void slowConsumerDetected(ConnectionToClient client) {}
+
+  /**
+   * Hook method called when the server stops accepting
+   * connections.  The default implementation
    * does nothing. This method may be overriden by subclasses.
    */
   protected void serverStopped() {}
@@ -523,15 +1665,38 @@ public abstract class AbstractServer implements Runnable
    * This MUST be implemented by subclasses, who should respond to
    * messages.
    * This method is called by a synchronized method so it is also
-   * implcitly synchronized.
+   * implcitly synchronized, unless concurrent dispatch has been
+   * selected.
    *
    * @param msg   the message sent.
+   * @see #setConcurrentDispatch(boolean)
    * @param client the connection connected to the client that
    *  sent the message.
    */
   protected abstract void handleMessageFromClient(
     Object msg, ConnectionToClient client);
 
+  /**
+   * Handles a chunk of a payload sent by a client as a sequence of
+   * chunks. The chunks of a client are received in order, the last
+   * one being marked as such. This method is called as
+   * <code>handleMessageFromClient</code> is, to which the default
+   * implementation passes the chunk. It may be
+   * overridden by subclasses to process large payloads as they
+   * arrive, for instance by writing them to a file, without holding
+   * them entirely in memory.
+   *
+   * @param chunk the chunk received.
+   * @param client the connection connected to the client that
+   *  sent the chunk.
+   * @see com.lloseng.ocsf.client.AbstractClient#sendStreamToServer(InputStream, int)
+   */
+  protected void handleChunkFromClient(
+    MessageChunk chunk, ConnectionToClient client)
+  {
+    handleMessageFromClient(chunk, client);
+  }
+
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
@@ -539,18 +1704,643 @@ public abstract class AbstractServer implements Runnable
    * Receives a command sent from the client to the server.
    * Called by the run method of <code>ConnectionToClient</code>
    * instances that are watching for messages coming from the server
-   * This method is synchronized to ensure that whatever effects it has
-   * do not conflict with work being done by other threads. The method
-   * simply calls the <code>handleMessageFromClient</code> slot method.
+   * By default this method is synchronized to ensure that whatever
+   * effects it has do not conflict with work being done by other
+   * threads. The method simply calls the
+   * <code>handleMessageFromClient</code> slot method.
    *
    * @param msg   the message sent.
    * @param client the connection connected to the client that
    *  sent the message.
+   * @param arrival the time at which the message was received, as
+   *  given by <code>System.nanoTime</code>.
+   */
+  final void receiveMessageFromClient(
+    Object msg, ConnectionToClient client, long arrival)
+  {
+    if (concurrentDispatch)
+    {
+      // Ordering per client is garanteed by the caller
+      dispatch(msg, client);
+    }
+    else
+    {
+      synchronized (this)
+      {
+        dispatch(msg, client);
+      }
+    }
+
+    LatencyRecorder recorder = latencyRecorder;
+    if (recorder != null)
+    {
+      long now = System.nanoTime();
+      recorder.record(arrival, arrival, now);
+    }
+  }
+
+  /**
+   * Passes a message received to the handler matching its kind.
+   *
+   * @param msg the message received.
+   * @param client the connection with the client.
+   */
+  private void dispatch(Object msg, ConnectionToClient client)
+  {
+    long start = System.nanoTime();
+    try
+    {
+      if (msg instanceof MessageChunk)
+        this.handleChunkFromClient((MessageChunk)msg, client);
+      else
+        this.handleMessageFromClient(msg, client);
+    }
+    finally
+    {
+      metrics.messageHandled(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Writes a message to each of the given connections in turn.
+   * The message is serialized once, before the first connection
+   * accepting frames is served.
+   *
+   * @param msg the message to send.
+   * @param clients the connections.
+   */
+  private void multicast(Object msg,
+    Collection<? extends ConnectionToClient> clients)
+  {
+    MessageFrame frame = null;
+    boolean framed = false;
+
+    for (ConnectionToClient client : clients)
+    {
+      try
+      {
+        if (!framed && client.acceptsFrames())
+        {
+          frame = createFrame(msg);
+          framed = true;
+        }
+        client.send(msg, frame);
+      }
+      catch (Exception ex) {}
+    }
+  }
+
+  /**
+   * Queues a message for each of the given connections.
+   *
+   * @param msg the message to send.
+   * @param clients the connections.
+   * @return a future completed with the summary of the delivery.
+   */
+  private CompletableFuture<BroadcastResult> multicastAsync(
+    Object msg, Collection<? extends ConnectionToClient> clients)
+  {
+    // The delivery needs the exact number of recipients
+    ConnectionToClient[] clientList =
+      clients.toArray(new ConnectionToClient[0]);
+
+    MessageFrame frame = clientList.length > 0 ? createFrame(msg) : null;
+    OutboundQueue.Delivery delivery =
+      new OutboundQueue.Delivery(clientList.length);
+
+    for (int i=0; i<clientList.length; i++)
+    {
+      ConnectionToClient client = clientList[i];
+
+      if (!client.enqueue(msg, frame, delivery,
+        outboundCapacity, overflowPolicy))
+      {
+        try
+        {
+          client.close();
+        }
+        // Ignore all exceptions when closing clients.
+        catch (Exception ex) {}
+      }
+    }
+
+    return delivery.getFuture();
+  }
+
+  /**
+   * Serializes a message sent to several clients.
+   *
+   * @param msg the message.
+   * @return the frame, or null if the message cannot be serialized, in
+   *   which case sending it to each client reports the failure.
+   */
+  private MessageFrame createFrame(Object msg)
+  {
+    try
+    {
+      return new MessageFrame(msg, messageCodec);
+    }
+    catch (IOException ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if a client exceeds the outbound limits.
+   *
+   * @param client the connection with the client.
+   * @return true if one of the limits is exceeded.
+   */
+  final boolean exceedsOutboundLimits(ConnectionToClient client)
+  {
+    long bytes = maxQueuedBytes;
+    int messages = maxQueuedMessages;
+    long stall = maxWriteStall;
+
+    return (bytes > 0 && client.getQueuedBytes() > bytes)
+      || (messages > 0 && client.getQueuedMessages() > messages)
+      || (stall > 0 && client.getWriteStallMillis() > stall);
+  }
+
+  /**
+   * Starts the thread checking the write stall of the clients while
+   * the server is open and the write stall is limited, and stops it
+   * otherwise. The stall is checked four times per allowed stall.
+   */
+  private synchronized void updateWatchdog()
+  {
+    if (watchdog != null)
+    {
+      watchdog.cancel(false);
+      watchdog = null;
+    }
+
+    long stall = maxWriteStall;
+    if (stall == 0 || serverSocket == null)
+      return;
+
+    long period = Math.max(1, stall / 4);
+    watchdog = getTimer().scheduleWithFixedDelay(new Runnable()
+    {
+      public void run()
+      {
+        for (ConnectionToClient client : connections.values())
+        {
+          try
+          {
+            client.checkOutboundLimits();
+          }
+          // Keep watching the other clients
+          catch (RuntimeException ex) {}
+        }
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Opens the server sockets and the selectors of the acceptors.
+   * The channels are non blocking so that the acceptors may wait on
+   * the selectors; the accepted channels are blocking.
+   *
+   * @exception IOException if a socket cannot be bound.
+   */
+  private void openServerChannels() throws IOException
+  {
+    int acceptors = acceptorCount;
+    ServerSocketChannel first = ServerSocketChannel.open();
+    boolean shared = reusePort && acceptors > 1 && first.supportedOptions()
+      .contains(StandardSocketOptions.SO_REUSEPORT);
+
+    serverChannels = new ServerSocketChannel[shared ? acceptors : 1];
+    acceptSelectors = new Selector[acceptors];
+    serverChannels[0] = first;
+
+    try
+    {
+      for (int i=0; i<serverChannels.length; i++)
+      {
+        if (serverChannels[i] == null)
+          serverChannels[i] = ServerSocketChannel.open();
+
+        ServerSocketChannel channel = serverChannels[i];
+        if (shared)
+          channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        channel.bind(new InetSocketAddress(getPort()), backlog);
+        channel.configureBlocking(false);
+      }
+
+      for (int i=0; i<acceptors; i++)
+      {
+        acceptSelectors[i] = Selector.open();
+        serverChannels[shared ? i : 0].register(
+          acceptSelectors[i], SelectionKey.OP_ACCEPT);
+      }
+    }
+    catch (IOException ex)
+    {
+      closeServerChannels();
+      throw ex;
+    }
+
+    serverSocket = serverChannels[0].socket();
+  }
+
+  /**
+   * Closes the channels of the server sockets and the selectors on
+   * which the connections are accepted. Any exception is ignored.
+   */
+  private void closeServerChannels()
+  {
+    ServerSocketChannel[] channels = serverChannels;
+    Selector[] selectors = acceptSelectors;
+    serverChannels = null;
+    acceptSelectors = null;
+
+    for (int i=0; channels != null && i<channels.length; i++)
+    {
+      try
+      {
+        if (channels[i] != null)
+          channels[i].close();
+      }
+      catch (IOException ex) {}
+    }
+
+    for (int i=0; selectors != null && i<selectors.length; i++)
+    {
+      try
+      {
+        if (selectors[i] != null)
+          selectors[i].close(); // Completes the closing of the channel
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+  /**
+   * Applies the socket options of this server to the socket of a
+   * new connection.
+   *
+   * @param socket the socket of the connection.
+   * @exception IOException if an option cannot be set.
+   */
+  final void configureSocket(Socket socket) throws IOException
+  {
+    if (tcpNoDelay)
+      socket.setTcpNoDelay(true);
+
+    if (sendBufferSize > 0)
+      socket.setSendBufferSize(sendBufferSize);
+  }
+
+  /**
+   * Creates the output writing the messages of a new connection,
+   * according to the codec, the reset policy and the batching window
+   * of this server.
+   *
+   * @param stream the stream to which the messages are written.
+   * @param buffered true if the bytes are to be gathered in a buffer.
+   * @return the output of the connection.
+   * @exception IOException if an I/O error occurs.
+   */
+  final MessageOutput createMessageOutput(OutputStream stream,
+    boolean buffered) throws IOException
+  {
+    MessageOutput output = new MessageOutput(
+      stream, messageCodec, buffered ? outputBufferSize : 0);
+    output.setResetPolicy(resetMessages, resetBytes);
+    output.setBatching(batchMessages, batchBytes, batchDelay);
+    return output;
+  }
+
+  /**
+   * Returns true if the new connections are to be served by the
+   * event loops rather than by their own thread.
+   *
+   * @return true if the event loops are running.
+   */
+  final boolean isEventDriven()
+  {
+    return eventLoops != null;
+  }
+
+  /**
+   * Creates the handler linking a new connection to one of the event
+   * loops.
+   *
+   * @param client the new connection.
+   * @param channel the channel of the connection.
+   * @return the handler of the connection.
+   * @exception IOException if the channel cannot be configured.
+   */
+  final ChannelHandler createChannelHandler(
+    ConnectionToClient client, SocketChannel channel) throws IOException
+  {
+    EventLoop[] loops = eventLoops;
+    if (loops == null)
+      throw new SocketException("server is closed");
+
+    EventLoop loop =
+      loops[Math.floorMod(nextEventLoop.getAndIncrement(), loops.length)];
+
+    ChannelHandler handler =
+      new ChannelHandler(client, channel, loop, eventWorkers);
+    return handler;
+  }
+
+  /**
+   * Starts a new connection on a virtual thread if this server uses
+   * virtual threads.
+   *
+   * @param client the new connection.
+   * @return false if the connection must run its own thread.
+   */
+  final boolean startVirtualThread(final ConnectionToClient client)
+  {
+    Executor starter = virtualThreadStarter;
+    if (starter == null)
+      return false;
+
+    starter.execute(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          client.run();
+        }
+        catch (Throwable exception)
+        {
+          // As done by the client thread group for platform threads.
+          metrics.exceptionRaised(exception);
+          clientException(client, exception);
+        }
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Returns the threads writing the messages of the outbound queues.
+   * These threads are created when needed and end after being
+   * idle for a while. Their number is bounded; the queues scheduled
+   * while all of them are busy wait for one to be free.
+   *
+   * @return the writer executor.
    */
-  final synchronized void receiveMessageFromClient(
-    Object msg, ConnectionToClient client)
+  final synchronized Executor getOutboundWriters()
   {
-    this.handleMessageFromClient(msg, client);
+    if (outboundWriters == null)
+    {
+      int writers = getOutboundWriterCount();
+      outboundWriters = new ThreadPoolExecutor(
+        writers, writers, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory()
+        {
+          private int count = 0;
+
+          public synchronized Thread newThread(Runnable task)
+          {
+            Thread thread = new Thread(task, "OCSF writer " + (++count));
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      outboundWriters.allowCoreThreadTimeOut(true);
+    }
+    return outboundWriters;
+  }
+
+  /**
+   * @return the maximum number of threads writing the messages of
+   *   the outbound queues.
+   */
+  private int getOutboundWriterCount()
+  {
+    return outboundWriterCount > 0 ?
+      outboundWriterCount : 4 * Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Returns the thread running the delayed tasks of the server, such
+   * as resuming the reading of a client paused by the inbound rate
+   * limit. This thread is created when needed and ends after being
+   * idle for a while.
+   *
+   * @return the timer executor.
+   */
+  final synchronized ScheduledExecutorService getTimer()
+  {
+    if (timer == null)
+    {
+      timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+        public Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "OCSF timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      timer.setKeepAliveTime(60L, TimeUnit.SECONDS);
+      timer.allowCoreThreadTimeOut(true);
+      timer.setRemoveOnCancelPolicy(true);
+    }
+    return timer;
+  }
+
+  /**
+   * Returns for how long a client must stop reading after a message
+   * has been received from it, and records the pause in the counters
+   * of the server.
+   *
+   * @param limiter the rate limiter of the client.
+   * @param bytes the number of bytes of the message.
+   * @return the pause in nanoseconds, 0 if the client may go on.
+   */
+  final long inboundPause(RateLimiter limiter, long bytes)
+  {
+    double messageRate = inboundMessageRate;
+    long byteRate = inboundByteRate;
+
+    if (messageRate == 0 && byteRate == 0)
+      return 0;
+
+    long pause =
+      limiter.acquire(bytes, messageRate, byteRate, System.nanoTime());
+    if (pause > 0)
+    {
+      inboundPauses.increment();
+      inboundPauseNanos.add(pause);
+    }
+    return pause;
+  }
+
+  /**
+   * Records a new connection in the registry and gives it its ID.
+   *
+   * @param client the new connection.
+   * @return the ID of the connection.
+   */
+  final long registerConnection(ConnectionToClient client)
+  {
+    long id = nextConnectionId.incrementAndGet();
+    connections.put(id, client);
+    metrics.connectionAccepted();
+    return id;
+  }
+
+  /**
+   * Removes a connection from the registry once it has been closed.
+   *
+   * @param client the closed connection.
+   */
+  final void unregisterConnection(ConnectionToClient client)
+  {
+    if (connections.remove(client.getConnectionId(), client))
+      metrics.connectionClosed(client);
+    client.removeFromIndexes(infoIndexes);
+  }
+
+  /**
+   * Updates the index of a type of information, if it is indexed,
+   * when a connection changes the value of this information.
+   *
+   * @param client the connection.
+   * @param infoType the type of information.
+   * @param oldInfo the previous value, or null.
+   * @param newInfo the new value, or null.
+   */
+  final void infoChanged(ConnectionToClient client, String infoType,
+    Object oldInfo, Object newInfo)
+  {
+    InfoIndex index = infoIndexes.get(infoType);
+    if (index == null)
+      return;
+
+    index.remove(oldInfo, client);
+
+    // A connection no longer registered must not reappear
+    if (connections.get(client.getConnectionId()) == client)
+      index.add(newInfo, client);
+  }
+
+  /**
+   * Starts the event loops and their worker threads.
+   *
+   * @exception IOException if a selector cannot be opened.
+   */
+  private void startEventLoops() throws IOException
+  {
+    int workers = eventWorkerCount > 0 ?
+      eventWorkerCount : Runtime.getRuntime().availableProcessors();
+
+    // The read tasks are run in the order they were scheduled, so that
+    // a busy connection rescheduling its own task does not starve others
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+      workers, workers, 60L, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory()
+      {
+        private int count = 0;
+
+        public synchronized Thread newThread(Runnable task)
+        {
+          Thread thread = new Thread(task, "OCSF event worker " + (++count));
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    pool.allowCoreThreadTimeOut(true);
+    eventWorkers = pool;
+
+    EventLoop[] loops = new EventLoop[eventLoopCount];
+    try
+    {
+      for (int i=0; i<loops.length; i++)
+      {
+        loops[i] = new EventLoop("OCSF event loop " + (i+1));
+      }
+    }
+    catch (IOException ex)
+    {
+      for (int i=0; i<loops.length && loops[i] != null; i++)
+      {
+        loops[i].shutdown();
+      }
+      eventWorkers.shutdown();
+      eventWorkers = null;
+      throw ex;
+    }
+
+    eventLoops = loops;
+  }
+
+  /**
+   * Creates the executor starting one virtual thread per task.
+   * <code>Thread.ofVirtual()</code> is looked up by reflection so that
+   * the framework still runs on older Java runtimes, in which case
+   * platform threads with a small stack are started instead.
+   *
+   * @return the executor starting the connection threads.
+   */
+  private Executor createVirtualThreadStarter()
+  {
+    ThreadFactory factory;
+    try
+    {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class)
+        .invoke(builder, "OCSF connection ", 1L);
+      factory = (ThreadFactory)builderClass.getMethod("factory")
+        .invoke(builder);
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      factory = new ThreadFactory()
+      {
+        private int count = 0;
+
+        public synchronized Thread newThread(Runnable task)
+        {
+          // Not added to the client thread group since the
+          // connection is registered by the server.
+          return new Thread(null, task,
+            "OCSF connection " + (++count), 128 * 1024);
+        }
+      };
+    }
+
+    final ThreadFactory threads = factory;
+    return new Executor()
+    {
+      public void execute(Runnable task)
+      {
+        threads.newThread(task).start();
+      }
+    };
+  }
+
+  /**
+   * Stops the event loops. The worker threads complete the tasks
+   * already scheduled, such as the disconnection of the clients
+   * that have just been closed, before they end.
+   */
+  private void stopEventLoops()
+  {
+    EventLoop[] loops = eventLoops;
+    if (loops == null)
+      return;
+
+    eventLoops = null;
+    for (int i=0; i<loops.length; i++)
+    {
+      loops[i].shutdown();
+    }
+    eventWorkers.shutdown();
   }
 }
 // End of AbstractServer Class
@@ -0,0 +1,95 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+/**
+* An <code> AttributeKey </code> names an attribute attached to a
+* connection with <code>ConnectionToClient.setAttribute()</code> and
+* gives the type of its value, so that no cast is needed to read it.
+* Keys are usually declared once as constants:
+* <pre>
+*   static final AttributeKey&lt;String&gt; LOGIN =
+*     new AttributeKey&lt;String&gt;("ID", String.class);
+* </pre>
+* An attribute is identified by the name of its key; it is the same
+* information as the one saved with <code>setInfo()</code> under this
+* name, which may thus be indexed by the server as well.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.ConnectionToClient#getAttribute(AttributeKey)
+* @see com.lloseng.ocsf.server.ConnectionToClient#setAttribute(AttributeKey, Object)
+*/
+public final class AttributeKey<T>
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The name of the attribute.
+   */
+  private final String name;
+
+  /**
+   * The type of the value of the attribute.
+   */
+  private final Class<T> type;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a key.
+   *
+   * @param name the name of the attribute.
+   * @param type the type of its value.
+   */
+  public AttributeKey(String name, Class<T> type)
+  {
+    if (name == null || type == null)
+      throw new NullPointerException();
+
+    this.name = name.intern();
+    this.type = type;
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the name of the attribute.
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return the type of the value of the attribute.
+   */
+  public Class<T> getType()
+  {
+    return type;
+  }
+
+  /**
+   * Converts a value read from a connection to the type of this key.
+   *
+   * @param value the value, or null.
+   * @return the value.
+   * @exception ClassCastException if the value was saved with another
+   *   type under the same name.
+   */
+  T cast(Object value)
+  {
+    return type.cast(value);
+  }
+
+  /**
+   * @return the name and the type of the attribute.
+   */
+  public String toString()
+  {
+    return name + " (" + type.getName() + ")";
+  }
+}
+// End of AttributeKey class
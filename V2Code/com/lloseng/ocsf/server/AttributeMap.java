@@ -0,0 +1,124 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+
+/**
+* An <code> AttributeMap </code> holds the attributes of a connection.
+* A connection usually holds a handful of attributes, so they are kept
+* in a single array alternating names and values rather than in a hash
+* table: a connection without attribute only holds a reference to a
+* shared empty array.<p>
+*
+* The array is never modified once published. A change copies it under
+* the lock of the map and then replaces it, so that the attributes can
+* be read by any thread without lock, and always in a consistent
+* state.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AttributeKey
+*/
+final class AttributeMap
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The array of the maps without attribute.
+   */
+  private static final Object[] EMPTY = new Object[0];
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The names of the attributes, each followed by its value.
+   */
+  private volatile Object[] entries = EMPTY;
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Returns the value of an attribute. Does not lock the map.
+   *
+   * @param name the name of the attribute.
+   * @return the value, or null if the attribute is not set.
+   */
+  Object get(String name)
+  {
+    Object[] entries = this.entries;
+    int i = indexOf(entries, name);
+    return i < 0 ? null : entries[i + 1];
+  }
+
+  /**
+   * Sets the value of an attribute. Callers updating state that
+   * depends on the attributes synchronize on the map around this call.
+   *
+   * @param name the name of the attribute.
+   * @param value the value, or null to remove the attribute.
+   * @return the previous value, or null.
+   */
+  synchronized Object put(String name, Object value)
+  {
+    Object[] entries = this.entries;
+    int i = indexOf(entries, name);
+
+    if (i < 0)
+    {
+      if (value == null)
+        return null;
+
+      Object[] added = Arrays.copyOf(entries, entries.length + 2);
+      added[entries.length] = name;
+      added[entries.length + 1] = value;
+      this.entries = added;
+      return null;
+    }
+
+    Object previous = entries[i + 1];
+    Object[] changed;
+
+    if (value == null)
+    {
+      changed = entries.length == 2 ? EMPTY : new Object[entries.length - 2];
+      System.arraycopy(entries, 0, changed, 0, i);
+      System.arraycopy(entries, i + 2, changed, i, entries.length - i - 2);
+    }
+    else
+    {
+      changed = entries.clone();
+      changed[i + 1] = value;
+    }
+
+    this.entries = changed;
+    return previous;
+  }
+
+  /**
+   * @return the number of attributes set.
+   */
+  int size()
+  {
+    return entries.length / 2;
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * @return the position of the name of an attribute in an array of
+   *   entries, or -1 if it is not there.
+   */
+  private static int indexOf(Object[] entries, String name)
+  {
+    for (int i=0; i<entries.length; i+=2)
+    {
+      if (entries[i] == name || entries[i].equals(name))
+        return i;
+    }
+    return -1;
+  }
+}
+// End of AttributeMap class
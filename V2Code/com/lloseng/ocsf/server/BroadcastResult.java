@@ -0,0 +1,111 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+/**
+* A <code> BroadcastResult </code> summarizes the delivery of a message
+* sent to several clients through their outbound queues. It is the
+* value of the future returned by
+* <code>AbstractServer.sendToAllClientsAsync()</code>, which completes
+* once the message has been written to, or dropped for, every client
+* that was connected when the message was sent.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#sendToAllClientsAsync(Object)
+*/
+public final class BroadcastResult
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The number of clients to which the message was addressed.
+   */
+  private final int recipients;
+
+  /**
+   * The number of clients to which the message has been written.
+   */
+  private final int delivered;
+
+  /**
+   * The number of clients for which the message was dropped because
+   * their outbound queue was full or they exceeded the outbound limits.
+   */
+  private final int dropped;
+
+  /**
+   * The number of clients whose connection failed or was closed
+   * before the message could be written.
+   */
+  private final int failed;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs the summary of a broadcast.
+   *
+   * @param recipients the number of clients addressed.
+   * @param delivered the number of clients reached.
+   * @param dropped the number of clients for which the message was dropped.
+   * @param failed the number of clients whose connection failed.
+   */
+  BroadcastResult(int recipients, int delivered, int dropped, int failed)
+  {
+    this.recipients = recipients;
+    this.delivered = delivered;
+    this.dropped = dropped;
+    this.failed = failed;
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @return the number of clients to which the message was addressed.
+   */
+  public int getRecipients()
+  {
+    return recipients;
+  }
+
+  /**
+   * @return the number of clients to which the message has been written.
+   */
+  public int getDelivered()
+  {
+    return delivered;
+  }
+
+  /**
+   * @return the number of clients for which the message was dropped
+   *   because their outbound queue was full or they exceeded the
+   *   outbound limits.
+   */
+  public int getDropped()
+  {
+    return dropped;
+  }
+
+  /**
+   * @return the number of clients whose connection failed or was
+   *   closed before the message could be written.
+   */
+  public int getFailed()
+  {
+    return failed;
+  }
+
+  /**
+   * Returns a string representation of the summary.
+   *
+   * @return the description of the delivery.
+   */
+  public String toString()
+  {
+    return "delivered " + delivered + "/" + recipients
+      + ", dropped " + dropped + ", failed " + failed;
+  }
+}
+// End of BroadcastResult class
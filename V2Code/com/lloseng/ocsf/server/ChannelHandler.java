@@ -0,0 +1,877 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.codec.*;
+
+/**
+* A <code> ChannelHandler </code> connects a <code>ConnectionToClient</code>
+* to the <code>EventLoop</code> serving its socket when the server runs
+* in event-driven mode.<p>
+*
+* The bytes read by the loop are queued in this handler and exposed
+* as an <code>InputStream</code> from which the connection deserializes
+* its messages. Reading is done by a worker thread of the server that
+* is only scheduled once a whole message has been received, so that
+* neither an idle connection nor a client sending a message slowly
+* holds any thread. Symmetrically, the bytes written by the
+* connection are sent immediately when the socket accepts them and
+* are otherwise queued until the loop finds the socket writable.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.EventLoop
+*/
+final class ChannelHandler
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The connection served by this handler.
+   */
+  private final ConnectionToClient connection;
+
+  /**
+   * The channel of the connection.
+   */
+  private final SocketChannel channel;
+
+  /**
+   * The loop on which the channel is registered.
+   */
+  private final EventLoop loop;
+
+  /**
+   * The executor running the read tasks of the connection.
+   */
+  private final Executor workers;
+
+  /**
+   * The selection key of the channel. Null until the loop has
+   * registered the channel.
+   */
+  private volatile SelectionKey key;
+
+  /**
+   * The chunks of bytes received and not yet deserialized.
+   */
+  private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+
+  /**
+   * The times at which the chunks were received.
+   */
+  private final LinkedList<Long> arrivals = new LinkedList<Long>();
+
+  /**
+   * The time at which the last chunk read from was received.
+   */
+  private volatile long lastArrival = 0;
+
+  /**
+   * The position of the next byte to be read in the first chunk.
+   */
+  private int chunkPosition = 0;
+
+  /**
+   * The number of bytes received and not yet deserialized.
+   */
+  private int available = 0;
+
+  /**
+   * The number of bytes that must have been received before the next
+   * message can be read, as last found by <code>messageReady</code>.
+   */
+  private int wanted = 1;
+
+  /**
+   * Indicates that no more bytes will be received, either because
+   * the client has closed its end of the socket or because the
+   * connection has been closed.
+   */
+  private boolean endOfInput = false;
+
+  /**
+   * Indicates that the channel has been closed.
+   */
+  private volatile boolean closed = false;
+
+  /**
+   * Indicates that the connection has no more work to do; once set,
+   * no read task is scheduled anymore.
+   */
+  private volatile boolean finished = false;
+
+  /**
+   * Indicates that the reading of the channel is paused by the inbound
+   * rate limit. The bytes already received are not deserialized
+   * either until the reading is resumed.
+   */
+  private volatile boolean paused = false;
+
+  /**
+   * Indicates that the reading of the channel is suspended because
+   * too many bytes have been received and not yet deserialized.
+   */
+  private volatile boolean full = false;
+
+  /**
+   * The number of bytes received and not yet deserialized above which
+   * the channel is no longer read, as long as a message is waiting to
+   * be read. The client is then held back by TCP, as it is by a
+   * connection having its own thread.
+   */
+  private volatile int highWaterMark =
+    MessageInput.DEFAULT_MAX_MESSAGE_SIZE + EventLoop.READ_BUFFER_SIZE;
+
+  /**
+   * Indicates that a read task is scheduled or running. At most one
+   * such task exists at a time, which garantees that the messages
+   * of a client are handled in the order they were sent.
+   */
+  private final AtomicBoolean readScheduled = new AtomicBoolean(true);
+
+  /**
+   * The buffers that could not be written immediately.
+   */
+  private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+  /**
+   * The number of bytes waiting in the write queue.
+   */
+  private volatile long queuedBytes = 0;
+
+  /**
+   * The time at which the channel last accepted bytes from the write
+   * queue, or at which the queue ceased to be empty.
+   */
+  private volatile long lastProgress = 0;
+
+  /**
+   * The stream from which the connection reads the bytes received.
+   */
+  private final InputStream input = new InputStream()
+  {
+    public int read() throws IOException
+    {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      return readReceived(b, off, len);
+    }
+
+    public int available()
+    {
+      synchronized (chunks)
+      {
+        return available;
+      }
+    }
+  };
+
+  /**
+   * The stream to which the connection writes the bytes to send.
+   * The bytes are accumulated until the stream is flushed.
+   */
+  private final OutputStream output = new OutputStream()
+  {
+    private byte[] buffer = new byte[256];
+    private int count = 0;
+
+    public void write(int b)
+    {
+      ensureCapacity(1);
+      buffer[count++] = (byte)b;
+    }
+
+    public void write(byte[] b, int off, int len)
+    {
+      ensureCapacity(len);
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+
+    public void flush() throws IOException
+    {
+      if (count == 0)
+        return;
+
+      ByteBuffer bytes = ByteBuffer.wrap(Arrays.copyOf(buffer, count));
+      count = 0;
+      send(bytes);
+    }
+
+    private void ensureCapacity(int len)
+    {
+      if (count + len > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + len));
+    }
+  };
+
+  /**
+   * The task reading and dispatching the messages received.
+   */
+  private final Runnable reader = new Runnable()
+  {
+    public void run()
+    {
+      if (!connection.readAvailable())
+        finished = true;
+      checkDrained();
+
+      // The messages left wait behind the tasks of other connections
+      readScheduled.set(false);
+      scheduleRead();
+    }
+  };
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs the handler of a connection. The channel is switched
+   * to non-blocking mode but is not registered before
+   * <code>start()</code> is called.
+   *
+   * @param connection the connection served by this handler.
+   * @param channel the channel of the connection.
+   * @param loop the loop that will serve the channel.
+   * @param workers the executor running the read tasks.
+   * @exception IOException if the channel cannot be configured.
+   */
+  ChannelHandler(ConnectionToClient connection, SocketChannel channel,
+    EventLoop loop, Executor workers) throws IOException
+  {
+    this.connection = connection;
+    this.channel = channel;
+    this.loop = loop;
+    this.workers = workers;
+
+    channel.configureBlocking(false);
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Starts serving the connection. The <code>clientConnected</code>
+   * hook is called by a worker thread before the channel is
+   * registered so that it always precedes the handling of the
+   * first message.
+   */
+  void start()
+  {
+    workers.execute(new Runnable()
+    {
+      public void run()
+      {
+        connection.channelOpened();
+        loop.register(ChannelHandler.this);
+
+        readScheduled.set(false);
+        if (needsReading() && readScheduled.compareAndSet(false, true))
+          reader.run();
+      }
+    });
+  }
+
+  /**
+   * Closes the channel. Any thread waiting for bytes is released and
+   * a read task is scheduled so that the connection can complete its
+   * disconnection.
+   *
+   * @exception IOException if an error occurs when closing the channel.
+   */
+  void close() throws IOException
+  {
+    closed = true;
+    synchronized (chunks)
+    {
+      endOfInput = true;
+    }
+    synchronized (writeQueue)
+    {
+      writeQueue.clear();
+      queuedBytes = 0;
+    }
+
+    try
+    {
+      channel.close();
+    }
+    finally
+    {
+      scheduleRead();
+    }
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * Sets the high-water mark of the bytes received to the maximum
+   * size of a message plus what the loop reads at once.
+   *
+   * @param size the maximum size of a message, 0 for no limit, in
+   *   which case the default maximum size is used.
+   */
+  void setMaxMessageSize(int size)
+  {
+    if (size == 0)
+      size = MessageInput.DEFAULT_MAX_MESSAGE_SIZE;
+    highWaterMark = (int)Math.min(Integer.MAX_VALUE,
+      (long)size + EventLoop.READ_BUFFER_SIZE);
+  }
+
+  /**
+   * @return the channel of the connection.
+   */
+  SocketChannel getChannel()
+  {
+    return channel;
+  }
+
+  /**
+   * @return the stream from which the messages are read.
+   */
+  InputStream getInputStream()
+  {
+    return input;
+  }
+
+  /**
+   * @return the stream to which the messages are written.
+   */
+  OutputStream getOutputStream()
+  {
+    return output;
+  }
+
+  /**
+   * @return the number of buffers waiting to be written to the
+   *   channel, one per flush of the output that could not be
+   *   written at once.
+   */
+  int getQueuedBuffers()
+  {
+    synchronized (writeQueue)
+    {
+      return writeQueue.size();
+    }
+  }
+
+  /**
+   * @return the number of bytes waiting to be written to the channel.
+   */
+  long getQueuedBytes()
+  {
+    return queuedBytes;
+  }
+
+  /**
+   * Returns for how long the client has not read the bytes waiting
+   * to be written.
+   *
+   * @param now the current value of <code>System.nanoTime()</code>.
+   * @return the stall time in nanoseconds, 0 if nothing is waiting.
+   */
+  long getWriteStall(long now)
+  {
+    return queuedBytes > 0 ? now - lastProgress : 0;
+  }
+
+  /**
+   * @return true if the channel has been closed.
+   */
+  boolean isClosed()
+  {
+    return closed;
+  }
+
+  /**
+   * Returns the time at which the bytes last deserialized had all been
+   * received, as given by <code>System.nanoTime</code>.
+   *
+   * @return the time of reception of the last chunk read from.
+   */
+  long getLastArrival()
+  {
+    return lastArrival;
+  }
+
+  /**
+   * Returns true if there is something for a read task to do, that is
+   * a message received or the end of the input to report.
+   *
+   * @return true if a read task should run.
+   */
+  boolean needsReading()
+  {
+    synchronized (chunks)
+    {
+      return !finished
+        && (closed || (!paused && (available >= wanted || endOfInput)));
+    }
+  }
+
+  /**
+   * Checks that the next message has been entirely received, so that
+   * reading it does not have to wait for more bytes. Otherwise, no
+   * read task is scheduled until enough bytes have been received.
+   *
+   * @param input the input reading the messages of the connection.
+   * @return true if the next message can be read, or the end of the
+   *   input reported.
+   * @exception IOException if the bytes received cannot be read.
+   */
+  boolean messageReady(MessageInput input) throws IOException
+  {
+    int count;
+    synchronized (chunks)
+    {
+      if (closed || endOfInput)
+        return true;
+      count = available;
+    }
+
+    int needed = input.bytesNeeded(new ReceivedBytes(count), count);
+
+    synchronized (chunks)
+    {
+      wanted = needed <= count ? 1 : needed;
+    }
+    return needed <= count;
+  }
+
+  /**
+   * Stops reading the channel for a while. The loop no longer selects
+   * the channel for reading, so that the socket buffer fills up and
+   * TCP stops the client. Called by the read task, which returns
+   * once the pause has begun.
+   *
+   * @param nanos the duration of the pause in nanoseconds.
+   * @param timer the executor resuming the reading.
+   */
+  void pauseReading(long nanos, ScheduledExecutorService timer)
+  {
+    paused = true;
+    updateReadInterest();
+
+    timer.schedule(new Runnable()
+    {
+      public void run()
+      {
+        paused = false;
+        updateReadInterest();
+        scheduleRead();
+      }
+    }, nanos, TimeUnit.NANOSECONDS);
+  }
+
+// METHODS CALLED BY THE EVENT LOOP ---------------------------------
+
+  /**
+   * Called by the loop once the channel has been registered.
+   *
+   * @param key the selection key of the channel.
+   */
+  void registered(SelectionKey key)
+  {
+    this.key = key;
+
+    if (closed)
+    {
+      key.cancel();
+      return;
+    }
+
+    synchronized (writeQueue)
+    {
+      if (!writeQueue.isEmpty())
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      if (paused || full)
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+  }
+
+  /**
+   * Called by the loop when the channel could not be registered
+   * because it was already closed.
+   */
+  void closed()
+  {
+    closed = true;
+    synchronized (chunks)
+    {
+      endOfInput = true;
+    }
+    scheduleRead();
+  }
+
+  /**
+   * Called by the loop when bytes are available on the channel.
+   *
+   * @param buffer an empty buffer in which the bytes can be read.
+   */
+  void channelReadable(ByteBuffer buffer)
+  {
+    int count;
+    try
+    {
+      count = channel.read(buffer);
+    }
+    catch (IOException ex)
+    {
+      count = -1;
+    }
+
+    boolean filled = false;
+    synchronized (chunks)
+    {
+      if (count < 0)
+      {
+        endOfInput = true;
+        key.cancel();
+      }
+      else if (count > 0)
+      {
+        byte[] chunk = new byte[count];
+        buffer.flip();
+        buffer.get(chunk);
+        chunks.add(chunk);
+        arrivals.add(Long.valueOf(System.nanoTime()));
+        available += count;
+
+        // A message waits while the bytes pile up: stop reading until
+        // the read task has caught up
+        if (!full && available > highWaterMark && available >= wanted)
+          filled = full = true;
+      }
+      else
+      {
+        return;
+      }
+    }
+
+    if (filled)
+      updateReadInterest();
+    scheduleRead();
+  }
+
+  /**
+   * Called by the loop when the channel can accept more bytes.
+   */
+  void channelWritable()
+  {
+    synchronized (writeQueue)
+    {
+      try
+      {
+        while (!writeQueue.isEmpty())
+        {
+          ByteBuffer bytes = writeQueue.getFirst();
+          int written = channel.write(bytes);
+          if (written > 0)
+          {
+            queuedBytes -= written;
+            lastProgress = System.nanoTime();
+          }
+          if (bytes.hasRemaining())
+            return;
+          writeQueue.removeFirst();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+      catch (IOException ex)
+      {
+        // The failure will be reported by the read task, as it
+        // would have been by the reading thread of a connection.
+        abort();
+      }
+    }
+  }
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  /**
+   * Resumes the reading of the channel once the bytes received have
+   * been deserialized below the high-water mark, or if the next
+   * message needs more bytes than those received.
+   */
+  private void checkDrained()
+  {
+    synchronized (chunks)
+    {
+      if (!full || (available > highWaterMark && available >= wanted))
+        return;
+      full = false;
+    }
+    updateReadInterest();
+  }
+
+  /**
+   * Adds or removes the reading interest of the channel, according to
+   * the rate limit and the bytes waiting to be deserialized.
+   */
+  private void updateReadInterest()
+  {
+    SelectionKey key = this.key;
+    if (key == null)
+      return;
+
+    // The interest set is also updated under this lock by the writes,
+    // and the state is read under it so that the last update wins
+    synchronized (writeQueue)
+    {
+      try
+      {
+        if (!paused && !full)
+          key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        else
+          key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        loop.wakeup();
+      }
+      catch (CancelledKeyException ex)
+      {
+        // The channel has been closed meanwhile.
+      }
+    }
+  }
+
+  /**
+   * Schedules the read task if it is not already scheduled.
+   */
+  private void scheduleRead()
+  {
+    if (needsReading() && readScheduled.compareAndSet(false, true))
+    {
+      try
+      {
+        workers.execute(reader);
+      }
+      catch (RejectedExecutionException ex)
+      {
+        // The server has been closed.
+        readScheduled.set(false);
+      }
+    }
+  }
+
+  /**
+   * Copies received bytes. The read task only reads a message once it
+   * has been received, hence this method never waits.
+   *
+   * @return the number of bytes copied, or -1 at the end of the input.
+   * @exception IOException if the channel has been closed, or if the
+   *   message being read has not been entirely received.
+   */
+  private int readReceived(byte[] b, int off, int len) throws IOException
+  {
+    if (len == 0)
+      return 0;
+
+    synchronized (chunks)
+    {
+      if (available == 0)
+      {
+        if (closed)
+          throw new SocketException("socket closed");
+        if (endOfInput)
+          return -1;
+        throw new StreamCorruptedException("message incomplete");
+      }
+
+      int copied = 0;
+      while (copied < len && available > 0)
+      {
+        byte[] chunk = chunks.getFirst();
+        lastArrival = arrivals.getFirst().longValue();
+        int count = Math.min(len - copied, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, b, off + copied, count);
+        copied += count;
+        available -= count;
+        chunkPosition += count;
+        if (chunkPosition == chunk.length)
+        {
+          chunks.removeFirst();
+          arrivals.removeFirst();
+          chunkPosition = 0;
+        }
+      }
+      return copied;
+    }
+  }
+
+  /**
+   * Sends bytes to the client, or queues them if the socket cannot
+   * accept them immediately.
+   *
+   * @param bytes the bytes to send.
+   * @exception IOException if the channel has been closed.
+   */
+  private void send(ByteBuffer bytes) throws IOException
+  {
+    synchronized (writeQueue)
+    {
+      if (closed)
+        throw new SocketException("socket closed");
+
+      if (writeQueue.isEmpty())
+      {
+        channel.write(bytes);
+        if (!bytes.hasRemaining())
+          return;
+        lastProgress = System.nanoTime();
+      }
+
+      writeQueue.add(bytes);
+      queuedBytes += bytes.remaining();
+
+      SelectionKey key = this.key;
+      if (key != null && key.isValid())
+      {
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        loop.wakeup();
+      }
+    }
+  }
+
+  /**
+   * Closes the channel after a write failure without marking the
+   * connection as closed by the application.
+   */
+  private void abort()
+  {
+    try
+    {
+      channel.close();
+    }
+    catch (IOException ex) {}
+
+    closed();
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A stream reading the bytes received, without consuming them. The
+   * chunks are only looked up when the stream is first read.
+   */
+  private class ReceivedBytes extends InputStream
+  {
+    /**
+     * The chunks of bytes received, null until the stream is read.
+     */
+    private List<byte[]> received = null;
+
+    /**
+     * The index of the chunk being read.
+     */
+    private int index = 0;
+
+    /**
+     * The position of the next byte to be read in this chunk.
+     */
+    private int position = 0;
+
+    /**
+     * The number of bytes that remain to be read.
+     */
+    private int remaining;
+
+    ReceivedBytes(int remaining)
+    {
+      this.remaining = remaining;
+    }
+
+    public int read()
+    {
+      if (remaining == 0)
+        return -1;
+
+      byte[] chunk = chunk();
+      int b = chunk[position] & 0xff;
+      advance(1);
+      return b;
+    }
+
+    public int read(byte[] b, int off, int len)
+    {
+      if (len == 0)
+        return 0;
+      if (remaining == 0)
+        return -1;
+
+      int copied = 0;
+      while (copied < len && remaining > 0)
+      {
+        byte[] chunk = chunk();
+        int count = Math.min(len - copied,
+          Math.min(remaining, chunk.length - position));
+        System.arraycopy(chunk, position, b, off + copied, count);
+        copied += count;
+        advance(count);
+      }
+      return copied;
+    }
+
+    public long skip(long n)
+    {
+      long skipped = 0;
+      while (skipped < n && remaining > 0)
+      {
+        int count = (int)Math.min(Math.min(n - skipped, remaining),
+          chunk().length - position);
+        skipped += count;
+        advance(count);
+      }
+      return skipped;
+    }
+
+    public int available()
+    {
+      return remaining;
+    }
+
+    /**
+     * @return the chunk being read.
+     */
+    private byte[] chunk()
+    {
+      if (received == null)
+      {
+        // Only the read task consumes the chunks, the loop adds more
+        synchronized (chunks)
+        {
+          received = new ArrayList<byte[]>(chunks);
+          position = chunkPosition;
+        }
+      }
+      return received.get(index);
+    }
+
+    /**
+     * Moves forward within the current chunk, then to the next one
+     * once it has been read.
+     */
+    private void advance(int count)
+    {
+      remaining -= count;
+      position += count;
+      if (position == received.get(index).length)
+      {
+        index++;
+        position = 0;
+      }
+    }
+  }
+}
+// End of ChannelHandler class
@@ -6,7 +6,11 @@ package com.lloseng.ocsf.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import com.lloseng.ocsf.codec.*;
 
 /**
 * An instance of this class is created by the server when a client
@@ -58,6 +62,14 @@ import java.util.*;
 */
 public class ConnectionToClient extends Thread
 {
+// CLASS VARIABLES **************************************************
+
+  /**
+  * The maximum number of messages handled by a read task when the
+  * connection is served by an event loop.
+  */
+  static final int MAX_MESSAGES_PER_READ = 64;
+
 // INSTANCE VARIABLES ***********************************************
 
   /**
@@ -75,27 +87,108 @@ public class ConnectionToClient extends Thread
   /**
   * Stream used to read from the client.
   */
-  private ObjectInputStream input;
+  private MessageInput input;
 
   /**
   * Stream used to write to the client.
   */
-  private ObjectOutputStream output;
+  private MessageOutput output;
+
+  /**
+  * The ID of this connection, unique within its server.
+  */
+  private long connectionId;
+
+  /**
+  * Indicates if the messages sent to this client may be written as
+  * frames serialized once for all clients. False when a subclass
+  * overrides <code>sendToClient()</code>, since broadcast messages
+  * must then go through this method.
+  */
+  private boolean framesAllowed;
 
   /**
   * Indicates if the thread is ready to stop. Set to true when closing
   * of the connection is initiated.
   */
-  private boolean readyToStop;
+  private volatile boolean readyToStop;
 
   /**
    * Map to save information about the client such as its login ID.
-   * The initial size of the map is small since it is not expected
-   * that concrete servers will want to store many different types of
-   * information about each client. Used by the setInfo and getInfo
-   * methods.
+   * It is expected that concrete servers will only store a few types
+   * of information about each client, hence the map is a compact array
+   * that may be read without lock. Used by the setInfo, getInfo and
+   * attribute methods.
+   */
+  private final AttributeMap savedInfo = new AttributeMap();
+
+  /**
+   * The handler linking this connection to an event loop of the server.
+   * Null when the connection runs its own thread to read the messages
+   * of the client.
+   */
+  private ChannelHandler channelHandler = null;
+
+  /**
+   * Indicates that the <code>clientDisconnected</code> callback has
+   * been called for a connection served by an event loop.
+   */
+  private boolean disconnected = false;
+
+  /**
+   * The messages waiting to be written by a writer thread of the
+   * server. Created when the first message is queued.
+   */
+  private OutboundQueue outboundQueue = null;
+
+  /**
+   * Indicates that this client exceeds the outbound limits of the
+   * server and that <code>slowConsumerDetected</code> has been called.
+   */
+  private final AtomicBoolean slowConsumer = new AtomicBoolean();
+
+  /**
+   * The token buckets limiting the messages received from the client.
+   */
+  private final RateLimiter rateLimiter = new RateLimiter();
+
+  /**
+   * The number of messages received from the client.
+   */
+  private volatile long messagesReceived = 0;
+
+  /**
+   * The number of bytes read from the client when the last message
+   * was received.
+   */
+  private long bytesAtLastMessage = 0;
+
+  /**
+   * The number of times the reading of this client has been paused
+   * by the inbound rate limit.
+   */
+  private volatile long readPauses = 0;
+
+  /**
+   * The thread waiting for the end of a pause of the reading, null
+   * if the reading is not paused by this connection's own thread.
+   */
+  private volatile Thread pausedReader = null;
+
+  /**
+   * The number of bytes received when the streams were closed.
+   */
+  private volatile long closedBytesReceived = 0;
+
+  /**
+   * The number of messages sent when the streams were closed.
+   */
+  private volatile long closedMessagesSent = 0;
+
+  /**
+   * The number of bytes sent when the streams were closed.
    */
-  private HashMap savedInfo = new HashMap(10);
+  private volatile long closedBytesSent = 0;
 
 
 // CONSTRUCTORS *****************************************************
@@ -123,8 +216,35 @@ public class ConnectionToClient extends Thread
     //Initialize the objects streams
     try
     {
-      input = new ObjectInputStream(clientSocket.getInputStream());
-      output = new ObjectOutputStream(clientSocket.getOutputStream());
+      server.configureSocket(clientSocket);
+
+      SocketChannel channel = clientSocket.getChannel();
+      MessageCodec codec = server.getMessageCodec();
+
+      if (channel != null && server.isEventDriven())
+      {
+        // The input is opened by the first read task since opening
+        // it may block until the stream header has been received.
+        // The channel handler buffers the output until it is flushed.
+        channelHandler = server.createChannelHandler(this, channel);
+        // The handler holds the bytes received in memory, and a buffer
+        // reading ahead would hide them from needsReading()
+        input = new MessageInput(channelHandler.getInputStream(), codec,
+          false);
+        input.setMaxMessageSize(server.getMaxMessageSize());
+        channelHandler.setMaxMessageSize(server.getMaxMessageSize());
+        output = server.createMessageOutput(
+          channelHandler.getOutputStream(), false);
+      }
+      else
+      {
+        // The input is opened by the thread of the connection, so that
+        // the acceptor does not wait for the stream header.
+        input = new MessageInput(clientSocket.getInputStream(), codec);
+        input.setMaxMessageSize(server.getMaxMessageSize());
+        output = server.createMessageOutput(
+          clientSocket.getOutputStream(), true);
+      }
     }
     catch (IOException ex)
     {
@@ -137,8 +257,23 @@ public class ConnectionToClient extends Thread
       throw ex;  // Rethrow the exception.
     }
 
+    try
+    {
+      framesAllowed = getClass().getMethod("sendToClient", Object.class)
+        .getDeclaringClass() == ConnectionToClient.class;
+    }
+    catch (NoSuchMethodException ex)
+    {
+      framesAllowed = false;
+    }
+
     readyToStop = false;
-    start(); // Start the thread waits for data from the socket
+    connectionId = server.registerConnection(this);
+
+    if (channelHandler != null)
+      channelHandler.start(); // Registers the channel with an event loop
+    else if (!server.startVirtualThread(this))
+      start(); // Start the thread waits for data from the socket
   }
 
 // INSTANCE METHODS *************************************************
@@ -151,15 +286,71 @@ public class ConnectionToClient extends Thread
    * perhaps after some kind of filtering is done.
    *
    * @param msg the message to be sent.
+   * @exception MessageDroppedException if the message is dropped
+   *    because the client exceeds the outbound limits of the server
+   *    and the slow consumer policy is <code>SLOW_CONSUMER_DROP</code>.
    * @exception IOException if an I/O error occur when sending the
-   *    message.
+   *    message, or if the client exceeds the outbound limits and the
+   *    slow consumer policy closes its connection.
    */
   public void sendToClient(Object msg) throws IOException
   {
+    MessageOutput output = this.output;
+
     if (clientSocket == null || output == null)
       throw new SocketException("socket does not exist");
 
-    output.writeObject(msg);
+    if (checkOutboundLimits())
+    {
+      if (this.output == null)
+        throw new SocketException("slow consumer disconnected");
+      throw new MessageDroppedException();
+    }
+
+    long start = System.nanoTime();
+    output.writeMessage(msg);
+    server.getMetrics().messageSent(System.nanoTime() - start);
+  }
+
+  /**
+   * Sends the bytes of a stream to the client as a sequence of chunks,
+   * until the end of the stream, so that a payload larger than the
+   * maximum size of a message can be sent. The client receives them
+   * with <code>handleChunkFromServer</code>. No other message is sent
+   * to this client meanwhile. The stream is not closed.
+   *
+   * @param stream the stream whose bytes are sent.
+   * @param chunkSize the maximum number of bytes of a chunk.
+   * @return the number of bytes sent.
+   * @exception IOException if an I/O error occurs when reading the
+   *   stream or sending the chunks.
+   */
+  public long sendStreamToClient(InputStream stream, int chunkSize)
+    throws IOException
+  {
+    MessageOutput output = this.output;
+
+    if (clientSocket == null || output == null)
+      throw new SocketException("socket does not exist");
+
+    return output.writeStream(stream, chunkSize);
+  }
+
+  /**
+   * Flushes the messages sent to the client that are still held
+   * in the current batch.
+   *
+   * @exception IOException if an I/O error occurs when flushing.
+   * @see com.lloseng.ocsf.server.AbstractServer#setOutputBatching(int, int, long)
+   */
+  public void flush() throws IOException
+  {
+    MessageOutput output = this.output;
+
+    if (clientSocket == null || output == null)
+      throw new SocketException("socket does not exist");
+
+    output.flush();
   }
 
   /**
@@ -173,6 +364,11 @@ public class ConnectionToClient extends Thread
   {
   
     readyToStop = true; // Set the flag that tells the thread to stop
+
+    Thread reader = pausedReader;
+    if (reader != null)
+      LockSupport.unpark(reader);
+
     closeAll();
   }
 
@@ -188,6 +384,18 @@ public class ConnectionToClient extends Thread
     return clientSocket == null ? null : clientSocket.getInetAddress();
   }
 
+  /**
+   * Returns the ID of this connection, which identifies it among the
+   * connections of its server for as long as the server runs.
+   *
+   * @return the ID of the connection.
+   * @see com.lloseng.ocsf.server.AbstractServer#getClientConnection(long)
+   */
+  final public long getConnectionId()
+  {
+    return connectionId;
+  }
+
   /**
    * Returns a string representation of the client.
    *
@@ -200,21 +408,179 @@ public class ConnectionToClient extends Thread
         +" (" + clientSocket.getInetAddress().getHostAddress() + ")";
   }
 
+  /**
+   * Returns the number of messages written to the client since the
+   * last reset of the object stream, all of which are still retained
+   * by the handle table of this stream.
+   *
+   * @return the number of messages, 0 if a codec is used.
+   */
+  public int getMessagesSinceReset()
+  {
+    MessageOutput output = this.output;
+    return output == null ? 0 : output.getMessagesSinceReset();
+  }
+
+  /**
+   * Returns the number of bytes written to the client since the last
+   * reset of the object stream.
+   *
+   * @return the number of bytes, 0 if a codec is used.
+   */
+  public long getBytesSinceReset()
+  {
+    MessageOutput output = this.output;
+    return output == null ? 0 : output.getBytesSinceReset();
+  }
+
+  /**
+   * Returns the number of messages waiting to be sent to the client,
+   * in the outbound queue and, with event loops, in the buffers not
+   * yet accepted by the socket. A buffer holds one message unless
+   * output batching is selected.
+   *
+   * @return the number of messages waiting.
+   * @see com.lloseng.ocsf.server.AbstractServer#setOutboundLimits(long, int, long)
+   */
+  public int getQueuedMessages()
+  {
+    OutboundQueue queue;
+    synchronized (this)
+    {
+      queue = outboundQueue;
+    }
+    ChannelHandler handler = channelHandler;
+
+    return (queue == null ? 0 : queue.size())
+      + (handler == null ? 0 : handler.getQueuedBuffers());
+  }
+
+  /**
+   * Returns the number of bytes waiting to be sent to the client,
+   * in the outbound queue and, with event loops, in the buffers not
+   * yet accepted by the socket.
+   *
+   * @return the number of bytes waiting.
+   * @see com.lloseng.ocsf.server.AbstractServer#setOutboundLimits(long, int, long)
+   */
+  public long getQueuedBytes()
+  {
+    OutboundQueue queue;
+    synchronized (this)
+    {
+      queue = outboundQueue;
+    }
+    ChannelHandler handler = channelHandler;
+
+    return (queue == null ? 0 : queue.getQueuedBytes())
+      + (handler == null ? 0 : handler.getQueuedBytes());
+  }
+
+  /**
+   * Returns for how long the client has left the bytes sent to it
+   * unread: the time a write to its socket has been blocked or, with
+   * event loops, the time since the socket last accepted bytes that
+   * are waiting.
+   *
+   * @return the stall time in milliseconds, 0 if nothing is waiting.
+   * @see com.lloseng.ocsf.server.AbstractServer#setOutboundLimits(long, int, long)
+   */
+  public long getWriteStallMillis()
+  {
+    long now = System.nanoTime();
+    MessageOutput output = this.output;
+    ChannelHandler handler = channelHandler;
+
+    long stall = output == null ? 0 : output.getWriteStall(now);
+    if (handler != null)
+      stall = Math.max(stall, handler.getWriteStall(now));
+    return stall / 1000000;
+  }
+
+  /**
+   * @return the number of messages received from the client.
+   */
+  public long getMessagesReceived()
+  {
+    return messagesReceived;
+  }
+
+  /**
+   * Returns the number of bytes of the messages received from the
+   * client.
+   *
+   * @return the number of bytes read.
+   * @see com.lloseng.ocsf.codec.MessageInput#getBytesRead()
+   */
+  public long getBytesReceived()
+  {
+    MessageInput input = this.input;
+    return input == null ? closedBytesReceived : input.getBytesRead();
+  }
+
+  /**
+   * @return the number of messages sent to the client, including
+   *   those still held in the current batch.
+   */
+  public long getMessagesSent()
+  {
+    MessageOutput output = this.output;
+    return output == null ? closedMessagesSent : output.getMessagesWritten();
+  }
+
+  /**
+   * @return the number of bytes sent to the client, including those
+   *   still held in the current batch.
+   */
+  public long getBytesSent()
+  {
+    MessageOutput output = this.output;
+    return output == null ? closedBytesSent : output.getBytesWritten();
+  }
+
+  /**
+   * Returns the number of times the server stopped reading this client
+   * because it exceeded the inbound rate limit.
+   *
+   * @return the number of pauses.
+   * @see com.lloseng.ocsf.server.AbstractServer#setInboundRateLimit(double, long)
+   */
+  public long getReadPauseCount()
+  {
+    return readPauses;
+  }
+
+  /**
+   * Returns true if this client exceeds the outbound limits of the
+   * server and has not been back under them since.
+   *
+   * @return true if the client is a slow consumer.
+   */
+  public boolean isSlowConsumer()
+  {
+    return slowConsumer.get();
+  }
+
   /**
    * Saves arbitrary information about this client. Designed to be
-   * used by concrete subclasses of AbstractServer. Based on a hash map.
+   * used by concrete subclasses of AbstractServer. Setting a null
+   * value removes the information. May be called by any thread.
    *
    * @param infoType   identifies the type of information
    * @param info       the information itself.
    */
   public void setInfo(String infoType, Object info)
   {
-    savedInfo.put(infoType, info);
+    synchronized (savedInfo)
+    {
+      Object oldInfo = savedInfo.put(infoType, info);
+      server.infoChanged(this, infoType, oldInfo, info);
+    }
   }
 
   /**
    * Returns information about the client saved using setInfo.
-   * Based on a hash map.
+   * May be called by any thread, without lock.
    *
    * @param infoType   identifies the type of information
    */
@@ -223,6 +589,41 @@ public class ConnectionToClient extends Thread
     return savedInfo.get(infoType);
   }
 
+  /**
+   * Sets a typed attribute of this client. The attribute is the
+   * information saved under the name of its key, so this method is
+   * equivalent to <code>setInfo(key.getName(), value)</code>.
+   *
+   * @param key the key of the attribute.
+   * @param value the value, or null to remove the attribute.
+   * @return the previous value, or null.
+   * @exception ClassCastException if the previous value was saved with
+   *   another type under the same name.
+   */
+  public <T> T setAttribute(AttributeKey<T> key, T value)
+  {
+    synchronized (savedInfo)
+    {
+      Object oldValue = savedInfo.put(key.getName(), value);
+      server.infoChanged(this, key.getName(), oldValue, value);
+      return key.cast(oldValue);
+    }
+  }
+
+  /**
+   * Returns a typed attribute of this client. May be called by any
+   * thread, without lock.
+   *
+   * @param key the key of the attribute.
+   * @return the value, or null if the attribute is not set.
+   * @exception ClassCastException if the value was saved with another
+   *   type under the same name.
+   */
+  public <T> T getAttribute(AttributeKey<T> key)
+  {
+    return key.cast(savedInfo.get(key.getName()));
+  }
+
 // RUN METHOD -------------------------------------------------------
 
   /**
@@ -238,49 +639,23 @@ public class ConnectionToClient extends Thread
     // from clients
     try
     {
-      // The message from the client
-      Object msg;
-
       while (!readyToStop)
       {
-        // This block waits until it reads a message from the client
+        // This call waits until it reads a message from the client
         // and then sends it for handling by the server
-        
-        try { // Added in version 2.31
-        
-          // wait to receive an object
-          msg = input.readObject();
-                  
-          if (!readyToStop && handleMessageFromClient(msg)) // Added in version 2.2
-          {
-            server.receiveMessageFromClient(msg, this);
-          }
-          
-        } catch(ClassNotFoundException ex) { // when an unknown class is received
-        
-          server.clientException(this, ex);
-          
-        } catch (RuntimeException ex) { // thrown by handleMessageFromClient or receiveMessageFromClient
-        
-          server.clientException(this, ex);
-        }
+        long pause = receiveMessage();
+
+        if (pause > 0)
+          pauseReading(pause);
       }
     }
     catch (Exception exception)
     {
-      if (!readyToStop)
-      {
-        try
-        {
-          closeAll();
-        }
-        catch (Exception ex) { }
-
-        server.clientException(this, exception);
-      }
+      connectionFailed(exception);
     } finally {
     
         server.clientDisconnected(this);   // moved here in version 2.31
+        server.unregisterConnection(this);
     }
   }
 
@@ -302,6 +677,346 @@ public class ConnectionToClient extends Thread
 
 // METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
 
+  /**
+   * Called by a worker thread of the server when this connection is
+   * served by an event loop, in place of the start of the
+   * <code>run()</code> method.
+   */
+  final void channelOpened()
+  {
+    server.clientConnected(this);
+  }
+
+  /**
+   * Called by a worker thread of the server when this connection is
+   * served by an event loop and a message, or the end of the input,
+   * has been received. Handles the messages received so far, up to
+   * <code>MAX_MESSAGES_PER_READ</code>; the read task is then
+   * scheduled again, after those of the other connections.
+   *
+   * @return false once the connection is closed and the
+   *   <code>clientDisconnected</code> callback has been called.
+   */
+  final boolean readAvailable()
+  {
+    try
+    {
+      for (int count=0; count < MAX_MESSAGES_PER_READ
+        && !readyToStop && channelHandler.needsReading(); count++)
+      {
+        MessageInput input = this.input;
+        if (input == null)
+          break;
+
+        // The rest of the message is awaited without holding the thread
+        if (!channelHandler.messageReady(input))
+          break;
+
+        if (!input.isOpen())
+        {
+          input.open();
+          bytesAtLastMessage = input.getBytesRead();
+        }
+        else
+        {
+          long pause = receiveMessage();
+
+          if (pause > 0)
+          {
+            // The read task ends and is scheduled again after the pause
+            readPauses++;
+            channelHandler.pauseReading(pause, server.getTimer());
+          }
+        }
+      }
+    }
+    catch (Exception exception)
+    {
+      connectionFailed(exception);
+    }
+
+    if (readyToStop || channelHandler.isClosed())
+    {
+      synchronized (this)
+      {
+        if (disconnected)
+          return false;
+        disconnected = true;
+      }
+
+      server.clientDisconnected(this);
+      server.unregisterConnection(this);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Changes the maximum size of the messages received from the client.
+   *
+   * @param size the maximum number of bytes, 0 for no limit.
+   */
+  final void setMaxMessageSize(int size)
+  {
+    MessageInput input = this.input;
+    if (input != null)
+      input.setMaxMessageSize(size);
+    if (channelHandler != null)
+      channelHandler.setMaxMessageSize(size);
+  }
+
+  /**
+   * Adds this connection to a new index, under the value it holds
+   * for the indexed type of information.
+   *
+   * @param infoType the type of information.
+   * @param index the index.
+   */
+  final void indexInfo(String infoType, InfoIndex index)
+  {
+    synchronized (savedInfo)
+    {
+      index.add(savedInfo.get(infoType), this);
+    }
+  }
+
+  /**
+   * Removes this connection from the indexes of the server, once it
+   * has been removed from its registry.
+   *
+   * @param indexes the indexes by type of information.
+   */
+  final void removeFromIndexes(Map<String, InfoIndex> indexes)
+  {
+    synchronized (savedInfo)
+    {
+      for (Map.Entry<String, InfoIndex> entry : indexes.entrySet())
+      {
+        entry.getValue().remove(savedInfo.get(entry.getKey()), this);
+      }
+    }
+  }
+
+  /**
+   * Sends a message that may have been serialized beforehand. The frame
+   * is written when this connection allows it, otherwise the message is
+   * sent with <code>sendToClient()</code>.
+   *
+   * @param msg the message to send.
+   * @param frame the serialized message, or null.
+   * @exception MessageDroppedException if the message is dropped
+   *    for a slow consumer.
+   * @exception IOException if an I/O error occur when sending the
+   *    message.
+   */
+  final void send(Object msg, MessageFrame frame) throws IOException
+  {
+    if (frame == null || !framesAllowed)
+    {
+      sendToClient(msg);
+      return;
+    }
+
+    MessageOutput output = this.output;
+
+    if (clientSocket == null || output == null)
+      throw new SocketException("socket does not exist");
+
+    if (checkOutboundLimits())
+    {
+      if (this.output == null)
+        throw new SocketException("slow consumer disconnected");
+      throw new MessageDroppedException();
+    }
+
+    long start = System.nanoTime();
+    output.writeFrame(frame);
+    server.getMetrics().messageSent(System.nanoTime() - start);
+  }
+
+  /**
+   * Returns true if the messages sent to this client may be written as
+   * frames serialized once for all clients.
+   *
+   * @return true if <code>sendToClient()</code> is not overriden.
+   */
+  final boolean acceptsFrames()
+  {
+    return framesAllowed;
+  }
+
+  /**
+   * Adds a message to the outbound queue of this connection.
+   *
+   * @param msg the message to send.
+   * @param frame the serialized message, or null.
+   * @param delivery the delivery the message belongs to.
+   * @param capacity the maximum number of queued messages.
+   * @param policy the overflow policy of the queue.
+   * @return false if the connection must be dropped.
+   */
+  final boolean enqueue(Object msg, MessageFrame frame,
+    OutboundQueue.Delivery delivery, int capacity, int policy)
+  {
+    if (checkOutboundLimits())
+    {
+      delivery.dropped();
+      return true;
+    }
+
+    OutboundQueue queue;
+    synchronized (this)
+    {
+      if (outboundQueue == null)
+        outboundQueue = new OutboundQueue(this, server.getOutboundWriters());
+      queue = outboundQueue;
+    }
+    return queue.offer(msg, frame, delivery, capacity, policy);
+  }
+
+  /**
+   * Checks this client against the outbound limits of the server.
+   * The first time a limit is exceeded, <code>slowConsumerDetected</code>
+   * is called, then the slow consumer policy is applied.
+   *
+   * @return true if the message about to be sent must be dropped.
+   */
+  final boolean checkOutboundLimits()
+  {
+    if (!server.exceedsOutboundLimits(this))
+    {
+      slowConsumer.set(false);
+      return false;
+    }
+
+    // A connection already being closed is not reported again
+    if (slowConsumer.compareAndSet(false, true) && !readyToStop)
+      server.slowConsumerDetected(this);
+
+    switch (server.getSlowConsumerPolicy())
+    {
+      case AbstractServer.SLOW_CONSUMER_DISCONNECT:
+        try
+        {
+          close();
+        }
+        // Ignore all exceptions when closing clients.
+        catch (Exception ex) {}
+        return true;
+
+      case AbstractServer.SLOW_CONSUMER_DROP:
+        return true;
+
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Reads one message from the client and sends it for handling by
+   * the server. Waits until a message is received.
+   *
+   * @return for how long the reading must then be paused by the
+   *   inbound rate limit, in nanoseconds.
+   * @exception IOException if the connection has failed.
+   */
+  private long receiveMessage() throws IOException
+  {
+    long pause = 0;
+
+    try { // Added in version 2.31
+    
+      // wait to receive an object
+      Object msg = input.readMessage();
+      long arrival = channelHandler != null ?
+        channelHandler.getLastArrival() : System.nanoTime();
+      pause = messageReceived();
+              
+      if (!readyToStop && handleMessageFromClient(msg)) // Added in version 2.2
+      {
+        server.receiveMessageFromClient(msg, this, arrival);
+      }
+      
+    } catch(ClassNotFoundException ex) { // when an unknown class is received
+    
+      pause = messageReceived();
+      server.getMetrics().exceptionRaised(ex);
+      server.clientException(this, ex);
+      
+    } catch (RuntimeException ex) { // thrown by handleMessageFromClient or receiveMessageFromClient
+    
+      server.getMetrics().exceptionRaised(ex);
+      server.clientException(this, ex);
+    }
+
+    return pause;
+  }
+
+  /**
+   * Counts a message read from the client and takes its tokens from
+   * the rate limiter.
+   *
+   * @return for how long the reading must be paused, in nanoseconds.
+   */
+  private long messageReceived()
+  {
+    long bytes = input.getBytesRead();
+    long size = bytes - bytesAtLastMessage;
+
+    messagesReceived++;
+    bytesAtLastMessage = bytes;
+    return server.inboundPause(rateLimiter, size);
+  }
+
+  /**
+   * Stops reading the client for a while, so that TCP slows it down.
+   * Used when the connection runs its own thread; returns earlier if
+   * the connection is closed.
+   *
+   * @param nanos the duration of the pause in nanoseconds.
+   */
+  private void pauseReading(long nanos)
+  {
+    readPauses++;
+    pausedReader = Thread.currentThread();
+    try
+    {
+      long deadline = System.nanoTime() + nanos;
+      long left = nanos;
+      while (!readyToStop && left > 0)
+      {
+        LockSupport.parkNanos(this, left);
+        left = deadline - System.nanoTime();
+      }
+    }
+    finally
+    {
+      pausedReader = null;
+    }
+  }
+
+  /**
+   * Closes the connection after an exception has ended the reception
+   * of messages, and reports this exception unless the connection
+   * was being closed.
+   *
+   * @param exception the exception raised.
+   */
+  private void connectionFailed(Exception exception)
+  {
+    if (!readyToStop)
+    {
+      try
+      {
+        closeAll();
+      }
+      catch (Exception ex) { }
+
+      server.getMetrics().exceptionRaised(exception);
+      server.clientException(this, exception);
+    }
+  }
+
   /**
    * Closes all connection to the server.
    *
@@ -314,6 +1029,14 @@ public class ConnectionToClient extends Thread
 
     try
     {
+      // Close the channel, this also closes the socket. The streams
+      // of a channel do not hold any resource.
+      if (channelHandler != null)
+      {
+        channelHandler.close();
+        return;
+      }
+
       // Close the socket
       if (clientSocket != null)
         clientSocket.close();
@@ -332,6 +1055,15 @@ public class ConnectionToClient extends Thread
       // Doing so allows, but does not require, any finalizers
       // of these objects to reclaim system resources if and
       // when they are garbage collected.
+      // The counts of the streams are kept for the metrics.
+      if (output != null)
+      {
+        closedMessagesSent = output.getMessagesWritten();
+        closedBytesSent = output.getBytesWritten();
+      }
+      if (input != null)
+        closedBytesReceived = input.getBytesRead();
+
       output = null;
       input = null;
       clientSocket = null;
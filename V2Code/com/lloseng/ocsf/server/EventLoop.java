@@ -0,0 +1,205 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+* An <code> EventLoop </code> owns a <code>Selector</code> and the
+* thread that waits on it. Each loop multiplexes the sockets of many
+* <code>ChannelHandler</code> instances: it reads whatever bytes are
+* available and hands them to the handler, and it writes pending
+* output when a socket becomes writable again. The loop itself never
+* deserializes messages nor calls the server hook methods; this work is
+* performed by the worker threads of the server so that a slow handler
+* cannot stall the other connections of the loop.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.ChannelHandler
+* @see com.lloseng.ocsf.server.AbstractServer#setEventLoops(int)
+*/
+final class EventLoop implements Runnable
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The size of the buffer in which the loop reads the incoming bytes,
+   * that is the largest number of bytes read from a channel at once.
+   */
+  static final int READ_BUFFER_SIZE = 16384;
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The selector on which the channels of this loop are registered.
+   */
+  private final Selector selector;
+
+  /**
+   * The handlers waiting to be registered with the selector. The
+   * registration must be made by the loop thread itself.
+   */
+  private final Queue<ChannelHandler> pending =
+    new ConcurrentLinkedQueue<ChannelHandler>();
+
+  /**
+   * The buffer in which the loop reads the incoming bytes. It is
+   * shared by all the channels of the loop since they are read
+   * one at a time.
+   */
+  private final ByteBuffer readBuffer = 
+    ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+  /**
+   * The thread running this loop.
+   */
+  private final Thread thread;
+
+  /**
+   * Indicates if the loop has been asked to stop.
+   */
+  private volatile boolean readyToStop = false;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs and starts a new event loop.
+   *
+   * @param name the name given to the loop thread.
+   * @exception IOException if the selector cannot be opened.
+   */
+  EventLoop(String name) throws IOException
+  {
+    selector = Selector.open();
+    thread = new Thread(this, name);
+    thread.start();
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Asks the loop to register the channel of a handler. The handler
+   * will be notified as soon as bytes are available on its channel.
+   *
+   * @param handler the handler to register.
+   */
+  void register(ChannelHandler handler)
+  {
+    pending.add(handler);
+    selector.wakeup();
+  }
+
+  /**
+   * Wakes up the loop so that it takes into account a change of the
+   * interest set of one of its keys.
+   */
+  void wakeup()
+  {
+    selector.wakeup();
+  }
+
+  /**
+   * Stops the loop and waits for the end of its thread.
+   * The channels still registered are not closed by this method.
+   */
+  void shutdown()
+  {
+    readyToStop = true;
+    selector.wakeup();
+
+    if (Thread.currentThread() != thread)
+    {
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException ex) {}
+    }
+  }
+
+// RUN METHOD -------------------------------------------------------
+
+  /**
+   * Waits for channels to become readable or writable and serves them.
+   * Not to be called.
+   */
+  public void run()
+  {
+    try
+    {
+      while (!readyToStop)
+      {
+        selector.select();
+        registerPending();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext())
+        {
+          SelectionKey key = keys.next();
+          keys.remove();
+
+          ChannelHandler handler = (ChannelHandler)key.attachment();
+          try
+          {
+            if (key.isValid() && key.isWritable())
+              handler.channelWritable();
+
+            if (key.isValid() && key.isReadable())
+            {
+              readBuffer.clear();
+              handler.channelReadable(readBuffer);
+            }
+          }
+          catch (CancelledKeyException ex)
+          {
+            // The connection has been closed by another thread.
+          }
+        }
+      }
+    }
+    catch (IOException ex)
+    {
+      // The selector itself failed; nothing else can be done
+      // with the channels of this loop.
+    }
+    finally
+    {
+      try
+      {
+        selector.close();
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  /**
+   * Registers the channels of the handlers that were added by
+   * other threads since the last selection.
+   */
+  private void registerPending()
+  {
+    ChannelHandler handler;
+    while ((handler = pending.poll()) != null)
+    {
+      try
+      {
+        handler.registered(handler.getChannel().register(
+          selector, SelectionKey.OP_READ, handler));
+      }
+      catch (ClosedChannelException ex)
+      {
+        handler.closed();
+      }
+    }
+  }
+}
+// End of EventLoop class
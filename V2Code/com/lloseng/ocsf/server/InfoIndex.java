@@ -0,0 +1,102 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+* An <code> InfoIndex </code> finds the connections to which a given
+* value of one type of information has been attached with
+* <code>ConnectionToClient.setInfo()</code>, without going through all
+* the connections of the server. Several connections may share the
+* same value, for instance a user logged in twice.<p>
+*
+* The connections holding a value are kept in a concurrent set which
+* is updated atomically with the entry of the value, so the index may
+* be updated and queried by several threads at the same time.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#indexInfo(String)
+*/
+final class InfoIndex
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The connections holding each value.
+   */
+  private final ConcurrentHashMap<Object, Set<ConnectionToClient>> entries =
+    new ConcurrentHashMap<Object, Set<ConnectionToClient>>();
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Records that a connection holds a value.
+   *
+   * @param info the value, ignored if null.
+   * @param client the connection.
+   */
+  void add(Object info, final ConnectionToClient client)
+  {
+    if (info == null)
+      return;
+
+    entries.compute(info,
+      new BiFunction<Object, Set<ConnectionToClient>, Set<ConnectionToClient>>()
+      {
+        public Set<ConnectionToClient> apply(
+          Object key, Set<ConnectionToClient> clients)
+        {
+          if (clients == null)
+            clients = ConcurrentHashMap.<ConnectionToClient>newKeySet();
+          clients.add(client);
+          return clients;
+        }
+      });
+  }
+
+  /**
+   * Records that a connection no longer holds a value.
+   *
+   * @param info the value, ignored if null.
+   * @param client the connection.
+   */
+  void remove(Object info, final ConnectionToClient client)
+  {
+    if (info == null)
+      return;
+
+    entries.computeIfPresent(info,
+      new BiFunction<Object, Set<ConnectionToClient>, Set<ConnectionToClient>>()
+      {
+        public Set<ConnectionToClient> apply(
+          Object key, Set<ConnectionToClient> clients)
+        {
+          clients.remove(client);
+          return clients.isEmpty() ? null : clients;
+        }
+      });
+  }
+
+  /**
+   * Returns the connections holding a value.
+   *
+   * @param info the value.
+   * @return a live view of the connections, empty if none.
+   */
+  Collection<ConnectionToClient> get(Object info)
+  {
+    Set<ConnectionToClient> clients = info == null ? null : entries.get(info);
+
+    if (clients == null)
+      return Collections.emptySet();
+
+    return Collections.unmodifiableSet(clients);
+  }
+}
+// End of InfoIndex class
@@ -0,0 +1,32 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+
+/**
+* Thrown when a message is not sent to a client because the client
+* exceeds the outbound limits of the server and the slow consumer
+* policy is <code>SLOW_CONSUMER_DROP</code>. The connection stays
+* open, and the messages are sent again once the client is back under
+* the limits.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#SLOW_CONSUMER_DROP
+*/
+public class MessageDroppedException extends IOException
+{
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Constructs the exception.
+   */
+  public MessageDroppedException()
+  {
+    super("message dropped for a slow consumer");
+  }
+}
+// End of MessageDroppedException class
@@ -118,6 +118,18 @@ public class ObservableServer extends Observable
     service.sendToAllClients(msg);
   }
 
+  /**
+   * Sends a message to the client logged in with the given ID.
+   *
+   * @param id the login ID of the client.
+   * @param msg the message to send.
+   * @return false if no client with this ID is connected.
+   */
+  public boolean sendToClient(Object id, Object msg)
+  {
+    return service.sendToClient(id, msg);
+  }
+
 // ACCESSING METHODS ------------------------------------------------
 
   /**
@@ -142,6 +154,28 @@ public class ObservableServer extends Observable
     return service.getClientConnections();
   }
 
+  /**
+   * Returns the connection with the given ID.
+   *
+   * @param id the ID of the connection.
+   * @return the connection, or null if no client with this ID is
+   *   connected.
+   */
+  final public ConnectionToClient getClientConnection(long id)
+  {
+    return service.getClientConnection(id);
+  }
+
+  /**
+   * Returns the metrics of the server.
+   *
+   * @return the metrics.
+   */
+  final public ServerMetrics getMetrics()
+  {
+    return service.getMetrics();
+  }
+
   /**
    * @return the number of clients currently connected.
    */
@@ -171,12 +205,13 @@ public class ObservableServer extends Observable
 
   /**
    * Sets the timeout time when accepting connection.
-   * The default is half a second.
-   * The server must be stopped and restarted for the timeout
-   * change be in effect.
+   * The timeout is now ignored since the server stops listening
+   * immediately.
    *
    * @param timeout the timeout time in ms.
+   * @deprecated the server no longer needs a timeout to stop.
    */
+  @Deprecated
   final public void setTimeout(int timeout)
   {
     service.setTimeout(timeout);
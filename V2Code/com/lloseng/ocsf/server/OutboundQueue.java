@@ -0,0 +1,277 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.codec.*;
+
+/**
+* An <code> OutboundQueue </code> holds the messages waiting to be sent
+* to one client. Messages are added by the threads broadcasting them
+* and are written, in order, by a writer thread of the server that is
+* only scheduled while the queue is not empty. Hence a client that is
+* slow to read its messages delays its own queue only, and not the
+* broadcasting thread nor the other clients.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#sendToAllClientsAsync(Object)
+*/
+final class OutboundQueue implements Runnable
+{
+  /**
+   * Tracks the delivery of one message to all its recipients and
+   * completes the corresponding future once every recipient has
+   * been served.
+   */
+  static final class Delivery
+  {
+    private final int recipients;
+    private final AtomicInteger pending;
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final CompletableFuture<BroadcastResult> future =
+      new CompletableFuture<BroadcastResult>();
+
+    Delivery(int recipients)
+    {
+      this.recipients = recipients;
+      this.pending = new AtomicInteger(recipients);
+
+      if (recipients == 0)
+        future.complete(new BroadcastResult(0, 0, 0, 0));
+    }
+
+    CompletableFuture<BroadcastResult> getFuture()
+    {
+      return future;
+    }
+
+    void delivered()
+    {
+      delivered.incrementAndGet();
+      done();
+    }
+
+    void dropped()
+    {
+      dropped.incrementAndGet();
+      done();
+    }
+
+    void failed()
+    {
+      failed.incrementAndGet();
+      done();
+    }
+
+    private void done()
+    {
+      if (pending.decrementAndGet() == 0)
+      {
+        future.complete(new BroadcastResult(recipients,
+          delivered.get(), dropped.get(), failed.get()));
+      }
+    }
+  }
+
+  /**
+   * A queued message, its frame and the delivery it belongs to.
+   */
+  private static final class Entry
+  {
+    final Object message;
+    final MessageFrame frame;
+    final Delivery delivery;
+
+    Entry(Object message, MessageFrame frame, Delivery delivery)
+    {
+      this.message = message;
+      this.frame = frame;
+      this.delivery = delivery;
+    }
+  }
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The connection to which the messages are sent.
+   */
+  private final ConnectionToClient connection;
+
+  /**
+   * The executor running the writer task.
+   */
+  private final Executor writers;
+
+  /**
+   * The messages waiting to be sent.
+   */
+  private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+  /**
+   * Indicates that the writer task is scheduled or running.
+   */
+  private boolean draining = false;
+
+  /**
+   * The number of bytes of the frames waiting to be sent. The messages
+   * queued without frame are not counted.
+   */
+  private volatile long queuedBytes = 0;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs the queue of a connection.
+   *
+   * @param connection the connection to which messages are sent.
+   * @param writers the executor running the writer task.
+   */
+  OutboundQueue(ConnectionToClient connection, Executor writers)
+  {
+    this.connection = connection;
+    this.writers = writers;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Adds a message to the queue, applying the overflow policy
+   * if the queue is full.
+   *
+   * @param message the message to send.
+   * @param frame the serialized message, or null.
+   * @param delivery the delivery the message belongs to.
+   * @param capacity the maximum number of queued messages.
+   * @param policy the overflow policy, one of the
+   *   <code>AbstractServer.OVERFLOW_</code> constants.
+   * @return false if the connection must be dropped.
+   */
+  boolean offer(Object message, MessageFrame frame, Delivery delivery,
+    int capacity, int policy)
+  {
+    Entry droppedEntry = null;
+    boolean schedule = false;
+
+    synchronized (entries)
+    {
+      while (entries.size() >= capacity)
+      {
+        if (policy == AbstractServer.OVERFLOW_DROP_OLDEST)
+        {
+          droppedEntry = entries.poll();
+          queuedBytes -= length(droppedEntry);
+        }
+        else if (policy == AbstractServer.OVERFLOW_DROP_CONNECTION)
+        {
+          delivery.dropped();
+          return false;
+        }
+        else
+        {
+          try
+          {
+            entries.wait();
+          }
+          catch (InterruptedException ex)
+          {
+            Thread.currentThread().interrupt();
+            delivery.failed();
+            return true;
+          }
+        }
+      }
+
+      Entry entry = new Entry(message, frame, delivery);
+      entries.add(entry);
+      queuedBytes += length(entry);
+      if (!draining)
+      {
+        draining = true;
+        schedule = true;
+      }
+    }
+
+    if (droppedEntry != null)
+      droppedEntry.delivery.dropped();
+
+    if (schedule)
+      writers.execute(this);
+
+    return true;
+  }
+
+  /**
+   * @return the number of messages waiting to be sent.
+   */
+  int size()
+  {
+    synchronized (entries)
+    {
+      return entries.size();
+    }
+  }
+
+  /**
+   * @return the number of bytes of the frames waiting to be sent.
+   */
+  long getQueuedBytes()
+  {
+    return queuedBytes;
+  }
+
+  /**
+   * @return the number of bytes of the frame of an entry, 0 if the
+   *   message has no frame.
+   */
+  private static long length(Entry entry)
+  {
+    return entry.frame == null ? 0 : entry.frame.length();
+  }
+
+// RUN METHOD -------------------------------------------------------
+
+  /**
+   * Writes the queued messages until the queue is empty.
+   * Not to be called.
+   */
+  public void run()
+  {
+    while (true)
+    {
+      Entry entry;
+      synchronized (entries)
+      {
+        entry = entries.poll();
+        if (entry == null)
+        {
+          draining = false;
+          return;
+        }
+        queuedBytes -= length(entry);
+        entries.notifyAll(); // Room for a blocked sender
+      }
+
+      try
+      {
+        connection.send(entry.message, entry.frame);
+        entry.delivery.delivered();
+      }
+      catch (MessageDroppedException ex)
+      {
+        entry.delivery.dropped();
+      }
+      catch (Exception ex)
+      {
+        entry.delivery.failed();
+      }
+    }
+  }
+}
+// End of OutboundQueue class
@@ -0,0 +1,90 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+/**
+* A <code> RateLimiter </code> holds the two token buckets limiting the
+* messages and the bytes received from one client. Each bucket holds
+* at most one second worth of tokens, which is the burst a client may
+* send at full speed after having been idle.<p>
+*
+* A message is always let through and its tokens are taken even if
+* the bucket becomes negative; the limiter then tells for how long the
+* connection must stop reading so that the buckets are refilled. The
+* rates are passed on each call so that a change made on the server
+* applies at once to every connection.<p>
+*
+* Only used by the thread reading the messages of the connection.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#setInboundRateLimit(double, long)
+*/
+final class RateLimiter
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The message tokens available.
+   */
+  private double messageTokens = Double.NaN;
+
+  /**
+   * The byte tokens available.
+   */
+  private double byteTokens = Double.NaN;
+
+  /**
+   * The time at which the buckets were last refilled.
+   */
+  private long lastRefill = 0;
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Takes the tokens of a message received.
+   *
+   * @param bytes the number of bytes of the message.
+   * @param messageRate the messages allowed per second, 0 for no limit.
+   * @param byteRate the bytes allowed per second, 0 for no limit.
+   * @param now the current value of <code>System.nanoTime()</code>.
+   * @return the time in nanoseconds during which the connection must
+   *   not read, 0 if it may go on.
+   */
+  long acquire(long bytes, double messageRate, long byteRate, long now)
+  {
+    if (Double.isNaN(messageTokens))
+    {
+      // Full buckets for a new connection
+      messageTokens = messageRate;
+      byteTokens = byteRate;
+      lastRefill = now;
+    }
+
+    double elapsed = (now - lastRefill) / 1e9;
+    lastRefill = now;
+
+    long delay = 0;
+
+    if (messageRate > 0)
+    {
+      messageTokens =
+        Math.min(messageRate, messageTokens + elapsed * messageRate) - 1;
+      if (messageTokens < 0)
+        delay = (long)(-messageTokens / messageRate * 1e9);
+    }
+
+    if (byteRate > 0)
+    {
+      byteTokens =
+        Math.min(byteRate, byteTokens + elapsed * byteRate) - bytes;
+      if (byteTokens < 0)
+        delay = Math.max(delay, (long)(-byteTokens / byteRate * 1e9));
+    }
+
+    return delay;
+  }
+}
+// End of RateLimiter class
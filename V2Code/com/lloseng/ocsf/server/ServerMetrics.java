@@ -0,0 +1,456 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import javax.management.*;
+import com.lloseng.ocsf.metrics.*;
+
+/**
+* The <code> ServerMetrics </code> of a server count its connections,
+* the messages and bytes it exchanges with its clients and the
+* exceptions reported to it, and record the distribution of the time
+* taken by <code>handleMessageFromClient</code> and by the sends to
+* the clients. They are obtained with
+* <code>AbstractServer.getMetrics()</code>.<p>
+*
+* Recording is allocation-free and lock-free. The messages and bytes
+* are counted by the streams of each connection, and are only summed
+* when the metrics are read; the totals of the closed connections are
+* kept. The metrics may be read programmatically, exported over JMX
+* with <code>registerMBean</code> or served as plain text by a
+* <code>MetricsEndpoint</code>.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.AbstractServer#getMetrics()
+* @see com.lloseng.ocsf.metrics.MetricsEndpoint
+*/
+public final class ServerMetrics implements ServerMetricsMBean, MetricsSource
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * Creates the counter of a type of exception.
+   */
+  private static final Function<Class<?>, LongAdder> NEW_COUNTER =
+    new Function<Class<?>, LongAdder>()
+    {
+      public LongAdder apply(Class<?> type)
+      {
+        return new LongAdder();
+      }
+    };
+
+  /**
+   * The percentiles written by <code>writeMetrics</code>.
+   */
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The server whose metrics are recorded.
+   */
+  private final AbstractServer server;
+
+  /**
+   * The number of connections accepted.
+   */
+  private final LongAdder accepts = new LongAdder();
+
+  /**
+   * The number of connections closed.
+   */
+  private final LongAdder disconnects = new LongAdder();
+
+  /**
+   * The messages received from the closed connections.
+   */
+  private final LongAdder closedMessagesReceived = new LongAdder();
+
+  /**
+   * The bytes received from the closed connections.
+   */
+  private final LongAdder closedBytesReceived = new LongAdder();
+
+  /**
+   * The messages sent to the closed connections.
+   */
+  private final LongAdder closedMessagesSent = new LongAdder();
+
+  /**
+   * The bytes sent to the closed connections.
+   */
+  private final LongAdder closedBytesSent = new LongAdder();
+
+  /**
+   * The number of exceptions reported, by type.
+   */
+  private final ConcurrentHashMap<Class<?>, LongAdder> exceptions =
+    new ConcurrentHashMap<Class<?>, LongAdder>();
+
+  /**
+   * The durations of <code>handleMessageFromClient</code>.
+   */
+  private final Histogram handleTime = new Histogram();
+
+  /**
+   * The durations of the sends to the clients.
+   */
+  private final Histogram sendTime = new Histogram();
+
+  /**
+   * The name under which the metrics are registered with JMX, null
+   * if they are not registered.
+   */
+  private ObjectName mbeanName = null;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs the metrics of a server.
+   *
+   * @param server the server.
+   */
+  ServerMetrics(AbstractServer server)
+  {
+    this.server = server;
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Registers the metrics with the platform MBean server under the
+   * name <code>com.lloseng.ocsf:type=Server,port=</code><i>port</i>.
+   * If the metrics are already registered, this call has no effect.
+   *
+   * @exception JMException if the metrics cannot be registered, for
+   *   instance if another server uses the same name.
+   */
+  public synchronized void registerMBean() throws JMException
+  {
+    if (mbeanName != null)
+      return;
+
+    ObjectName name = new ObjectName(
+      "com.lloseng.ocsf:type=Server,port=" + server.getPort());
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    mbeanName = name;
+  }
+
+  /**
+   * Removes the metrics from the platform MBean server. If the metrics
+   * are not registered, this call has no effect.
+   *
+   * @exception JMException if the metrics cannot be unregistered.
+   */
+  public synchronized void unregisterMBean() throws JMException
+  {
+    if (mbeanName == null)
+      return;
+
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+    mbeanName = null;
+  }
+
+  /**
+   * Writes the metrics as plain text. The counters end with
+   * <code>_total</code>, the durations are in seconds.
+   *
+   * @param out the writer receiving the text.
+   * @exception IOException if an I/O error occurs.
+   */
+  public void writeMetrics(Writer out) throws IOException
+  {
+    writeMetric(out, "ocsf_clients", "gauge",
+      "Clients connected.", getClients());
+    writeMetric(out, "ocsf_accepts_total", "counter",
+      "Connections accepted.", getAccepts());
+    writeMetric(out, "ocsf_disconnects_total", "counter",
+      "Connections closed.", getDisconnects());
+    writeMetric(out, "ocsf_messages_received_total", "counter",
+      "Messages received from the clients.", getMessagesReceived());
+    writeMetric(out, "ocsf_messages_sent_total", "counter",
+      "Messages sent to the clients.", getMessagesSent());
+    writeMetric(out, "ocsf_bytes_received_total", "counter",
+      "Bytes received from the clients.", getBytesReceived());
+    writeMetric(out, "ocsf_bytes_sent_total", "counter",
+      "Bytes sent to the clients.", getBytesSent());
+    writeMetric(out, "ocsf_queued_messages", "gauge",
+      "Messages waiting to be sent to the clients.", getQueuedMessages());
+    writeMetric(out, "ocsf_queued_bytes", "gauge",
+      "Bytes waiting to be sent to the clients.", getQueuedBytes());
+    writeMetric(out, "ocsf_inbound_pauses_total", "counter",
+      "Pauses of the reading of a client over its rate limit.",
+      server.getInboundPauseCount());
+
+    out.write("# HELP ocsf_exceptions_total Exceptions reported to the server.\n");
+    out.write("# TYPE ocsf_exceptions_total counter\n");
+    for (Map.Entry<String, Long> entry : getExceptionCounts().entrySet())
+    {
+      out.write("ocsf_exceptions_total{type=\"" + entry.getKey() + "\"} "
+        + entry.getValue() + "\n");
+    }
+
+    writeDurations(out, "ocsf_handle_seconds",
+      "Duration of handleMessageFromClient.", handleTime);
+    writeDurations(out, "ocsf_send_seconds",
+      "Duration of a send to a client.", sendTime);
+  }
+
+  /**
+   * Forgets the durations recorded so far.
+   */
+  public void resetDurations()
+  {
+    handleTime.reset();
+    sendTime.reset();
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  public int getClients()
+  {
+    return server.getNumberOfClients();
+  }
+
+  public long getAccepts()
+  {
+    return accepts.sum();
+  }
+
+  public long getDisconnects()
+  {
+    return disconnects.sum();
+  }
+
+  public long getMessagesReceived()
+  {
+    long total = closedMessagesReceived.sum();
+    for (ConnectionToClient client : server.getConnections())
+    {
+      total += client.getMessagesReceived();
+    }
+    return total;
+  }
+
+  public long getMessagesSent()
+  {
+    long total = closedMessagesSent.sum();
+    for (ConnectionToClient client : server.getConnections())
+    {
+      total += client.getMessagesSent();
+    }
+    return total;
+  }
+
+  public long getBytesReceived()
+  {
+    long total = closedBytesReceived.sum();
+    for (ConnectionToClient client : server.getConnections())
+    {
+      total += client.getBytesReceived();
+    }
+    return total;
+  }
+
+  public long getBytesSent()
+  {
+    long total = closedBytesSent.sum();
+    for (ConnectionToClient client : server.getConnections())
+    {
+      total += client.getBytesSent();
+    }
+    return total;
+  }
+
+  public long getQueuedMessages()
+  {
+    long total = 0;
+    for (ConnectionToClient client : server.getConnections())
+    {
+      total += client.getQueuedMessages();
+    }
+    return total;
+  }
+
+  public long getQueuedBytes()
+  {
+    long total = 0;
+    for (ConnectionToClient client : server.getConnections())
+    {
+      total += client.getQueuedBytes();
+    }
+    return total;
+  }
+
+  public long getExceptions()
+  {
+    long total = 0;
+    for (LongAdder count : exceptions.values())
+    {
+      total += count.sum();
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of exceptions reported to the server, by name
+   *   of their class, sorted by name.
+   */
+  public Map<String, Long> getExceptionCounts()
+  {
+    Map<String, Long> counts = new TreeMap<String, Long>();
+    for (Map.Entry<Class<?>, LongAdder> entry : exceptions.entrySet())
+    {
+      counts.put(entry.getKey().getName(), entry.getValue().sum());
+    }
+    return counts;
+  }
+
+  /**
+   * @return the durations of <code>handleMessageFromClient</code>
+   *   in nanoseconds.
+   */
+  public Histogram getHandleTime()
+  {
+    return handleTime;
+  }
+
+  /**
+   * @return the durations of the sends to the clients in nanoseconds.
+   */
+  public Histogram getSendTime()
+  {
+    return sendTime;
+  }
+
+  public double getHandleTimeMeanMicros()
+  {
+    return handleTime.getMean() / 1000;
+  }
+
+  public double getHandleTimeP99Micros()
+  {
+    return handleTime.getPercentile(0.99) / 1000.0;
+  }
+
+  public double getHandleTimeMaxMicros()
+  {
+    return handleTime.getMax() / 1000.0;
+  }
+
+  public double getSendTimeMeanMicros()
+  {
+    return sendTime.getMean() / 1000;
+  }
+
+  public double getSendTimeP99Micros()
+  {
+    return sendTime.getPercentile(0.99) / 1000.0;
+  }
+
+  public double getSendTimeMaxMicros()
+  {
+    return sendTime.getMax() / 1000.0;
+  }
+
+// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------
+
+  /**
+   * Counts a connection accepted.
+   */
+  void connectionAccepted()
+  {
+    accepts.increment();
+  }
+
+  /**
+   * Counts a connection closed and keeps its totals.
+   *
+   * @param client the closed connection.
+   */
+  void connectionClosed(ConnectionToClient client)
+  {
+    disconnects.increment();
+    closedMessagesReceived.add(client.getMessagesReceived());
+    closedBytesReceived.add(client.getBytesReceived());
+    closedMessagesSent.add(client.getMessagesSent());
+    closedBytesSent.add(client.getBytesSent());
+  }
+
+  /**
+   * Counts an exception reported to the server.
+   *
+   * @param exception the exception.
+   */
+  void exceptionRaised(Throwable exception)
+  {
+    Class<?> type = exception.getClass();
+    LongAdder count = exceptions.get(type);
+    if (count == null)
+      count = exceptions.computeIfAbsent(type, NEW_COUNTER);
+    count.increment();
+  }
+
+  /**
+   * Records the duration of <code>handleMessageFromClient</code>.
+   *
+   * @param nanos the duration in nanoseconds.
+   */
+  void messageHandled(long nanos)
+  {
+    handleTime.record(nanos);
+  }
+
+  /**
+   * Records the duration of a send to a client.
+   *
+   * @param nanos the duration in nanoseconds.
+   */
+  void messageSent(long nanos)
+  {
+    sendTime.record(nanos);
+  }
+
+// METHODS TO BE USED FROM WITHIN THIS CLASS ONLY -------------------
+
+  /**
+   * Writes a metric with its description.
+   */
+  private static void writeMetric(Writer out, String name, String type,
+    String help, long value) throws IOException
+  {
+    out.write("# HELP " + name + " " + help + "\n");
+    out.write("# TYPE " + name + " " + type + "\n");
+    out.write(name + " " + value + "\n");
+  }
+
+  /**
+   * Writes the percentiles, count, sum and maximum of durations.
+   */
+  private static void writeDurations(Writer out, String name, String help,
+    Histogram durations) throws IOException
+  {
+    out.write("# HELP " + name + " " + help + "\n");
+    out.write("# TYPE " + name + " summary\n");
+    for (int i=0; i<QUANTILES.length; i++)
+    {
+      out.write(name + "{quantile=\"" + QUANTILES[i] + "\"} "
+        + durations.getPercentile(QUANTILES[i]) / 1e9 + "\n");
+    }
+    out.write(name + "_sum " + durations.getSum() / 1e9 + "\n");
+    out.write(name + "_count " + durations.getCount() + "\n");
+    out.write("# TYPE " + name + "_max gauge\n");
+    out.write(name + "_max " + durations.getMax() / 1e9 + "\n");
+  }
+}
+// End of ServerMetrics class
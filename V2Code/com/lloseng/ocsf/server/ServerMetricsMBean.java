@@ -0,0 +1,104 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+/**
+* The management interface through which the metrics of a server are
+* exported over JMX, where they can be read with tools such as
+* JConsole. The durations are given in microseconds.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*
+* @see com.lloseng.ocsf.server.ServerMetrics#registerMBean()
+*/
+public interface ServerMetricsMBean
+{
+  /**
+   * @return the number of clients connected.
+   */
+  int getClients();
+
+  /**
+   * @return the number of connections accepted.
+   */
+  long getAccepts();
+
+  /**
+   * @return the number of connections closed.
+   */
+  long getDisconnects();
+
+  /**
+   * @return the number of messages received from the clients.
+   */
+  long getMessagesReceived();
+
+  /**
+   * @return the number of messages sent to the clients.
+   */
+  long getMessagesSent();
+
+  /**
+   * @return the number of bytes received from the clients.
+   */
+  long getBytesReceived();
+
+  /**
+   * @return the number of bytes sent to the clients.
+   */
+  long getBytesSent();
+
+  /**
+   * @return the number of messages waiting to be sent to the clients.
+   */
+  long getQueuedMessages();
+
+  /**
+   * @return the number of bytes waiting to be sent to the clients.
+   */
+  long getQueuedBytes();
+
+  /**
+   * @return the number of exceptions reported to the server.
+   */
+  long getExceptions();
+
+  /**
+   * @return the mean duration of <code>handleMessageFromClient</code>.
+   */
+  double getHandleTimeMeanMicros();
+
+  /**
+   * @return the 99th percentile of the duration of
+   *   <code>handleMessageFromClient</code>.
+   */
+  double getHandleTimeP99Micros();
+
+  /**
+   * @return the longest duration of <code>handleMessageFromClient</code>.
+   */
+  double getHandleTimeMaxMicros();
+
+  /**
+   * @return the mean duration of a send to a client.
+   */
+  double getSendTimeMeanMicros();
+
+  /**
+   * @return the 99th percentile of the duration of a send to a client.
+   */
+  double getSendTimeP99Micros();
+
+  /**
+   * @return the longest duration of a send to a client.
+   */
+  double getSendTimeMaxMicros();
+
+  /**
+   * Forgets the durations recorded so far.
+   */
+  void resetDurations();
+}
+// End of ServerMetricsMBean interface
@@ -0,0 +1,91 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf;
+
+import java.lang.reflect.*;
+
+/**
+* The <code> AllTests </code> class runs every test of the framework
+* and exits with a non-zero status if one of them fails. Each test is
+* a class whose <code>main</code> method throws an
+* <code>AssertionError</code> when a check fails, and may be run
+* alone. Compile the tests together with the framework, for instance:
+*
+* <pre>
+* javac -d out $(find V2Code V2Test -name '*.java')
+* java -cp out com.lloseng.ocsf.AllTests
+* </pre>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class AllTests
+{
+// CLASS VARIABLES **************************************************
+
+  /**
+   * The names of the test classes, in the order they are run.
+   */
+  private static final String[] TESTS =
+  {
+    "com.lloseng.ocsf.codec.ObjectStreamScannerTest",
+    "com.lloseng.ocsf.server.ReadBackpressureTest",
+    "com.lloseng.ocsf.codec.MessageCodecTest",
+    "com.lloseng.ocsf.codec.MessageBatchingTest",
+    "com.lloseng.ocsf.codec.MessageChunkTest",
+    "com.lloseng.ocsf.codec.StreamResetTest",
+    "com.lloseng.ocsf.server.VirtualThreadsTest",
+    "com.lloseng.ocsf.server.OutboundQueueTest",
+    "com.lloseng.ocsf.server.AcceptorsTest",
+    "com.lloseng.ocsf.server.InfoIndexTest",
+    "com.lloseng.ocsf.server.SlowConsumerTest",
+    "com.lloseng.ocsf.server.RateLimiterTest",
+    "com.lloseng.ocsf.metrics.HistogramTest",
+    "com.lloseng.ocsf.metrics.LatencyRecorderTest",
+    "com.lloseng.ocsf.client.PipelinedClientTest",
+    "com.lloseng.ocsf.client.AsyncClientTest",
+    "com.lloseng.ocsf.client.ReconnectTest",
+  };
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the tests.
+   *
+   * @param args the names of the tests to run, all if none.
+   */
+  public static void main(String[] args)
+  {
+    String[] tests = args.length > 0 ? args : TESTS;
+    int failures = 0;
+
+    for (String test : tests)
+    {
+      long start = System.nanoTime();
+      try
+      {
+        Method main = Class.forName(test).getMethod("main", String[].class);
+        main.invoke(null, (Object)new String[0]);
+        System.out.println("PASS " + test + " ("
+          + (System.nanoTime() - start) / 1000000 + " ms)");
+      }
+      catch (InvocationTargetException ex)
+      {
+        failures++;
+        System.out.println("FAIL " + test);
+        ex.getCause().printStackTrace(System.out);
+      }
+      catch (Exception ex)
+      {
+        failures++;
+        System.out.println("FAIL " + test + ": " + ex);
+      }
+    }
+
+    System.out.println(tests.length - failures + " passed, "
+      + failures + " failed");
+    System.exit(failures == 0 ? 0 : 1);
+  }
+}
+// End of AllTests class
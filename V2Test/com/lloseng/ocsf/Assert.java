@@ -0,0 +1,99 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf;
+
+/**
+* The <code> Assert </code> class holds the checks made by the tests of
+* the framework. A failed check throws an <code>AssertionError</code>,
+* so that a test run from the command line exits with a non-zero
+* status.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public final class Assert
+{
+// CONSTRUCTORS *****************************************************
+
+  private Assert() {}
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Checks that a condition holds.
+   *
+   * @param condition the condition.
+   * @param message the description of the check.
+   */
+  public static void assertTrue(boolean condition, String message)
+  {
+    if (!condition)
+      throw new AssertionError(message);
+  }
+
+  /**
+   * Checks that a value is the one expected.
+   *
+   * @param expected the value expected, possibly null.
+   * @param actual the value found, possibly null.
+   * @param message the description of the check.
+   */
+  public static void assertEquals(Object expected, Object actual,
+    String message)
+  {
+    if (expected == null ? actual != null : !expected.equals(actual))
+      throw new AssertionError(message + ": expected " + expected
+        + " but was " + actual);
+  }
+
+  /**
+   * Checks that a number is the one expected.
+   *
+   * @param expected the number expected.
+   * @param actual the number found.
+   * @param message the description of the check.
+   */
+  public static void assertEquals(long expected, long actual,
+    String message)
+  {
+    if (expected != actual)
+      throw new AssertionError(message + ": expected " + expected
+        + " but was " + actual);
+  }
+
+  /**
+   * Waits until a condition holds, failing if it does not within
+   * the given time.
+   *
+   * @param condition the condition.
+   * @param timeout the maximum time to wait in ms.
+   * @param message the description of the check.
+   * @exception InterruptedException if the thread is interrupted.
+   */
+  public static void awaitTrue(Condition condition, long timeout,
+    String message) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + timeout;
+    while (!condition.holds())
+    {
+      if (System.currentTimeMillis() > deadline)
+        throw new AssertionError(message);
+      Thread.sleep(5);
+    }
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A condition awaited by a test.
+   */
+  public interface Condition
+  {
+    /**
+     * @return true if the condition holds.
+     */
+    boolean holds();
+  }
+}
+// End of Assert class
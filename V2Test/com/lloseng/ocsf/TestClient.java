@@ -0,0 +1,63 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf;
+
+import java.util.concurrent.*;
+import com.lloseng.ocsf.client.*;
+
+/**
+* The <code> TestClient </code> is the client used by the tests. It
+* keeps the messages received from the server until the test takes
+* them.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class TestClient extends AbstractClient
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The messages received, in order.
+   */
+  public final BlockingQueue<Object> received =
+    new LinkedBlockingQueue<Object>();
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs a client of the local host.
+   *
+   * @param port the port number.
+   */
+  public TestClient(int port)
+  {
+    super("localhost", port);
+  }
+
+// INSTANCE METHODS *************************************************
+
+  /**
+   * Waits for the next message received.
+   *
+   * @param timeout the maximum time to wait in ms.
+   * @return the message.
+   * @exception InterruptedException if the thread is interrupted.
+   */
+  public Object next(long timeout) throws InterruptedException
+  {
+    Object msg = received.poll(timeout, TimeUnit.MILLISECONDS);
+    if (msg == null)
+      throw new AssertionError("no message received");
+    return msg;
+  }
+
+// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+  protected void handleMessageFromServer(Object msg)
+  {
+    received.add(msg == null ? "null" : msg);
+  }
+}
+// End of TestClient class
@@ -0,0 +1,101 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> TestServer </code> is the server used by the tests. It
+* sends every message received back to its client, records it with
+* the thread that handled it, and counts the clients connected and
+* disconnected.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class TestServer extends AbstractServer
+{
+// INSTANCE VARIABLES ***********************************************
+
+  /**
+   * The messages received, in the order they were handled.
+   */
+  public final BlockingQueue<Object> received =
+    new LinkedBlockingQueue<Object>();
+
+  /**
+   * The threads that handled the messages, in the same order.
+   */
+  public final BlockingQueue<Thread> handlers =
+    new LinkedBlockingQueue<Thread>();
+
+  /**
+   * The number of clients connected.
+   */
+  public final AtomicInteger connected = new AtomicInteger();
+
+  /**
+   * The number of clients disconnected.
+   */
+  public final AtomicInteger disconnected = new AtomicInteger();
+
+  /**
+   * Indicates if the messages are sent back.
+   */
+  private volatile boolean echo = true;
+
+// CONSTRUCTORS *****************************************************
+
+  /**
+   * Constructs the server.
+   *
+   * @param port the port number.
+   */
+  public TestServer(int port)
+  {
+    super(port);
+  }
+
+// ACCESSING METHODS ------------------------------------------------
+
+  /**
+   * @param echo true to send the messages back.
+   */
+  public void setEcho(boolean echo)
+  {
+    this.echo = echo;
+  }
+
+// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------
+
+  protected void clientConnected(ConnectionToClient client)
+  {
+    connected.incrementAndGet();
+  }
+
+  protected void clientDisconnected(ConnectionToClient client)
+  {
+    disconnected.incrementAndGet();
+  }
+
+  protected void handleMessageFromClient(Object msg,
+    ConnectionToClient client)
+  {
+    received.add(msg == null ? "null" : msg);
+    handlers.add(Thread.currentThread());
+
+    if (echo)
+    {
+      try
+      {
+        client.sendToClient(msg);
+      }
+      catch (IOException ex) { }
+    }
+  }
+}
+// End of TestServer class
@@ -0,0 +1,156 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+import java.io.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> AsyncClientTest </code> checks that the futures returned
+* by <code>connectAsync</code> and <code>sendAsync</code> are always
+* completed: normally when the connection is opened or the message
+* written, exceptionally when the server cannot be reached or the
+* connection is closed, instead of leaving the caller waiting.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class AsyncClientTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12324;
+
+  /**
+   * A port on which no server listens.
+   */
+  private static final int NO_SERVER_PORT = 12323;
+
+  /**
+   * The maximum time in ms to wait for a future.
+   */
+  private static final long TIMEOUT = 5000;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testFailedConnect();
+    testConnectAndSend();
+    testSendAfterClose();
+  }
+
+  /**
+   * A connection that cannot be opened completes its future
+   * exceptionally, with the exception raised when opening.
+   */
+  private static void testFailedConnect() throws Exception
+  {
+    TestClient client = new TestClient(NO_SERVER_PORT);
+    CompletableFuture<Void> connected = client.connectAsync();
+
+    Throwable cause = failure(connected);
+    Assert.assertTrue(cause instanceof IOException,
+      "connect failed with " + cause);
+    Assert.assertTrue(!client.isConnected(), "client not connected");
+
+    // A message sent without connection fails as well
+    cause = failure(client.sendAsync("lost"));
+    Assert.assertTrue(cause instanceof IOException,
+      "send failed with " + cause);
+  }
+
+  /**
+   * A connection opened completes its future, and the messages sent
+   * are received in order once their futures are completed.
+   */
+  private static void testConnectAndSend() throws Exception
+  {
+    TestServer server = new TestServer(PORT);
+    server.setEcho(false);
+    server.listen();
+
+    TestClient client = new TestClient(PORT);
+    try
+    {
+      client.connectAsync().get(TIMEOUT, TimeUnit.MILLISECONDS);
+      Assert.assertTrue(client.isConnected(), "client connected");
+
+      CompletableFuture<?>[] sent = new CompletableFuture<?>[100];
+      for (int i=0; i<sent.length; i++)
+        sent[i] = client.sendAsync(Integer.valueOf(i));
+      CompletableFuture.allOf(sent).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+      for (int i=0; i<sent.length; i++)
+        Assert.assertEquals(Integer.valueOf(i),
+          server.received.poll(TIMEOUT, TimeUnit.MILLISECONDS),
+          "message received by the server");
+      Assert.assertEquals(0, client.getOutboundQueueSize(), "outbound size");
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * A message sent after the connection is closed fails its future
+   * instead of leaving it pending.
+   */
+  private static void testSendAfterClose() throws Exception
+  {
+    TestServer server = new TestServer(PORT);
+    server.listen();
+
+    TestClient client = new TestClient(PORT);
+    try
+    {
+      client.connectAsync().get(TIMEOUT, TimeUnit.MILLISECONDS);
+      client.sendAsync("before").get(TIMEOUT, TimeUnit.MILLISECONDS);
+      client.closeConnection();
+
+      Throwable cause = failure(client.sendAsync("after"));
+      Assert.assertTrue(cause instanceof IOException,
+        "send failed with " + cause);
+      Assert.assertEquals(0, client.getOutboundQueueSize(), "outbound size");
+    }
+    finally
+    {
+      server.close();
+    }
+  }
+
+  /**
+   * Waits for a future that must fail.
+   *
+   * @param future the future.
+   * @return the exception that completed it.
+   */
+  private static Throwable failure(CompletableFuture<?> future)
+    throws Exception
+  {
+    try
+    {
+      future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+    catch (ExecutionException ex)
+    {
+      return ex.getCause();
+    }
+    catch (TimeoutException ex)
+    {
+      throw new AssertionError("future still pending");
+    }
+    throw new AssertionError("future completed normally");
+  }
+}
+// End of AsyncClientTest class
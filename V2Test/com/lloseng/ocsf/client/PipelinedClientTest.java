@@ -0,0 +1,262 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+import com.lloseng.ocsf.codec.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> PipelinedClientTest </code> checks that the replies of a
+* pipelined client are matched to their requests whatever their order
+* and the number of threads sending them, and that the requests
+* without reply fail when they time out or when the connection is
+* closed.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class PipelinedClientTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12321;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    ReplyingServer server = new ReplyingServer();
+    server.listen();
+    TestPipelinedClient client = new TestPipelinedClient();
+    try
+    {
+      testNotConnected(client);
+      client.openConnection();
+      testConcurrentRequests(client);
+      testReordered(client);
+      testTimeout(client);
+      testUnsolicited(client);
+      testClosed(client);
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * A request that cannot be sent fails at once.
+   */
+  private static void testNotConnected(PipelinedClient client)
+    throws Exception
+  {
+    CompletableFuture<Object> reply = client.request(Integer.valueOf(1));
+    Assert.assertTrue(reply.isCompletedExceptionally(), "request failed");
+    Assert.assertEquals(0, client.getPendingRequests(), "pending requests");
+  }
+
+  /**
+   * Threads sending requests at the same time each get their replies.
+   */
+  private static void testConcurrentRequests(final PipelinedClient client)
+    throws Exception
+  {
+    ExecutorService senders = Executors.newFixedThreadPool(4);
+    ArrayList<Future<List<CompletableFuture<Object>>>> sent =
+      new ArrayList<Future<List<CompletableFuture<Object>>>>();
+    for (int i=0; i<4; i++)
+    {
+      final int first = i * 1000;
+      sent.add(senders.submit(new Callable<List<CompletableFuture<Object>>>()
+      {
+        public List<CompletableFuture<Object>> call()
+        {
+          ArrayList<CompletableFuture<Object>> replies =
+            new ArrayList<CompletableFuture<Object>>();
+          for (int j=first; j<first + 250; j++)
+            replies.add(client.request(Integer.valueOf(j)));
+          return replies;
+        }
+      }));
+    }
+
+    for (int i=0; i<4; i++)
+    {
+      List<CompletableFuture<Object>> replies = sent.get(i).get();
+      for (int j=0; j<replies.size(); j++)
+        Assert.assertEquals(Integer.valueOf(2 * (i * 1000 + j)),
+          replies.get(j).get(5, TimeUnit.SECONDS), "reply");
+    }
+    senders.shutdown();
+    Assert.assertEquals(0, client.getPendingRequests(), "pending requests");
+  }
+
+  /**
+   * Replies sent in the reverse order of their requests are matched.
+   */
+  private static void testReordered(PipelinedClient client)
+    throws Exception
+  {
+    ArrayList<CompletableFuture<Object>> replies =
+      new ArrayList<CompletableFuture<Object>>();
+    for (int i=0; i<ReplyingServer.HELD; i++)
+      replies.add(client.request("held " + i));
+
+    for (int i=0; i<ReplyingServer.HELD; i++)
+      Assert.assertEquals("HELD " + i, replies.get(i).get(5, TimeUnit.SECONDS),
+        "reordered reply");
+  }
+
+  /**
+   * A request without reply fails once its time is up, and a late
+   * reply is ignored.
+   */
+  private static void testTimeout(final PipelinedClient client)
+    throws Exception
+  {
+    CompletableFuture<Object> reply =
+      client.request("silent", 100, TimeUnit.MILLISECONDS);
+    try
+    {
+      reply.get(5, TimeUnit.SECONDS);
+      throw new AssertionError("silent request answered");
+    }
+    catch (ExecutionException ex)
+    {
+      Assert.assertTrue(ex.getCause() instanceof TimeoutException,
+        "request timed out: " + ex.getCause());
+    }
+    // The request is forgotten once the future has been completed
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return client.getPendingRequests() == 0;
+      }
+    }, 5000, "timed out request forgotten");
+
+    Assert.assertEquals(Integer.valueOf(2), client.request(
+      Integer.valueOf(1), 5, TimeUnit.SECONDS).get(), "reply in time");
+  }
+
+  /**
+   * The messages that are not replies are passed to the client.
+   */
+  private static void testUnsolicited(TestPipelinedClient client)
+    throws Exception
+  {
+    Assert.assertEquals("ok",
+      client.request("push").get(5, TimeUnit.SECONDS), "reply to push");
+    Assert.assertEquals("pushed",
+      client.unsolicited.poll(5, TimeUnit.SECONDS), "unsolicited message");
+  }
+
+  /**
+   * The requests still waiting fail when the connection is closed.
+   */
+  private static void testClosed(PipelinedClient client) throws Exception
+  {
+    CompletableFuture<Object> reply = client.request("silent");
+    Assert.assertEquals(1, client.getPendingRequests(), "pending request");
+    client.closeConnection();
+    try
+    {
+      reply.get(5, TimeUnit.SECONDS);
+      throw new AssertionError("request answered after close");
+    }
+    catch (ExecutionException ex)
+    {
+      Assert.assertTrue(ex.getCause() instanceof SocketException,
+        "request failed: " + ex.getCause());
+    }
+    Assert.assertEquals(0, client.getPendingRequests(), "pending requests");
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A pipelined client keeping the unsolicited messages.
+   */
+  private static class TestPipelinedClient extends PipelinedClient
+  {
+    final BlockingQueue<Object> unsolicited =
+      new LinkedBlockingQueue<Object>();
+
+    TestPipelinedClient()
+    {
+      super("localhost", PORT);
+    }
+
+    protected void handleUnsolicitedMessage(Object msg)
+    {
+      unsolicited.add(msg);
+    }
+  }
+
+  /**
+   * A server doubling the numbers, answering the held requests in
+   * reverse order, pushing a message on request, and never answering
+   * a silent request.
+   */
+  private static class ReplyingServer extends AbstractServer
+  {
+    static final int HELD = 5;
+
+    private final ArrayList<CorrelatedMessage> held =
+      new ArrayList<CorrelatedMessage>();
+
+    ReplyingServer()
+    {
+      super(PORT);
+    }
+
+    protected void handleMessageFromClient(Object msg,
+      ConnectionToClient client)
+    {
+      CorrelatedMessage request = (CorrelatedMessage)msg;
+      Object payload = request.getPayload();
+      try
+      {
+        if (payload instanceof Integer)
+        {
+          client.sendToClient(
+            request.reply(Integer.valueOf(2 * (Integer)payload)));
+        }
+        else if ("push".equals(payload))
+        {
+          client.sendToClient("pushed");
+          client.sendToClient(request.reply("ok"));
+        }
+        else if (((String)payload).startsWith("held"))
+        {
+          held.add(request);
+          if (held.size() == HELD)
+          {
+            for (int i=HELD - 1; i>=0; i--)
+            {
+              CorrelatedMessage next = held.get(i);
+              client.sendToClient(next.reply(
+                ((String)next.getPayload()).toUpperCase()));
+            }
+            held.clear();
+          }
+        }
+      }
+      catch (IOException ex) { }
+    }
+  }
+}
+// End of PipelinedClientTest class
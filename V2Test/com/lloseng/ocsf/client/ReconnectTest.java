@@ -0,0 +1,301 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.client;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> ReconnectTest </code> checks that a client reopens its
+* dropped connection, sending the messages held meanwhile after the
+* resumption hooks, in order, and that it stops reconnecting when
+* closed or when it gives up.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class ReconnectTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12325;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testResume(false);
+    testResume(true);
+    testClosedWhileReconnecting();
+    testGiveUp();
+    testCloseRace();
+  }
+
+  /**
+   * Drops the connection of a client and checks that the messages held
+   * are sent after the login of <code>connectionResumed</code>.
+   *
+   * @param loops true to serve the client with an event loop.
+   */
+  private static void testResume(boolean loops) throws Exception
+  {
+    TestServer server = listen(loops);
+    final ResumingClient client = new ResumingClient();
+    client.setAutoReconnect(100, 1000, 0, 100);
+    try
+    {
+      client.openConnection();
+      client.sendToServer("before");
+      Assert.assertEquals("before", server.received.poll(5, TimeUnit.SECONDS),
+        "message before the drop");
+
+      server.close();
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return client.isReconnecting();
+        }
+      }, 5000, "reconnecting");
+
+      client.sendToServer("held 1");
+      CompletableFuture<Void> sent = client.sendAsync("held 2");
+      client.sendToServer("held 3");
+      Assert.assertEquals(3, client.getOutboundQueueSize(), "messages held");
+
+      server = listen(loops);
+      sent.get(10, TimeUnit.SECONDS);
+      String[] expected = {"login", "held 1", "held 2", "held 3"};
+      for (String message : expected)
+        Assert.assertEquals(message, server.received.poll(5, TimeUnit.SECONDS),
+          "message after the resumption");
+
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return !client.isReconnecting();
+        }
+      }, 5000, "resumed");
+      Assert.assertEquals("EER", client.getHooks(), "hooks called");
+
+      client.sendToServer("after");
+      Assert.assertEquals("after", server.received.poll(5, TimeUnit.SECONDS),
+        "message after reconnecting");
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * Closing a client while it reconnects fails the messages held and
+   * stops it reconnecting.
+   */
+  private static void testClosedWhileReconnecting() throws Exception
+  {
+    TestServer server = listen(false);
+    final ResumingClient client = new ResumingClient();
+    client.setAutoReconnect(100, 1000, 0, 100);
+    client.openConnection();
+    server.close();
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return client.isReconnecting();
+      }
+    }, 5000, "reconnecting");
+
+    CompletableFuture<Void> held = client.sendAsync("held");
+    client.closeConnection();
+    try
+    {
+      held.get(5, TimeUnit.SECONDS);
+      throw new AssertionError("held message sent after close");
+    }
+    catch (ExecutionException ex) { }
+    Assert.assertTrue(!client.isReconnecting(), "reconnecting after close");
+
+    server = listen(false);
+    try
+    {
+      Thread.sleep(500);
+      Assert.assertEquals(0, server.connected.get(), "reconnected after close");
+    }
+    finally
+    {
+      server.close();
+    }
+  }
+
+  /**
+   * A client gives up after its attempts, failing the messages held,
+   * and refuses the messages that do not fit in its buffer.
+   */
+  private static void testGiveUp() throws Exception
+  {
+    TestServer server = listen(false);
+    final ResumingClient client = new ResumingClient();
+    client.setAutoReconnect(50, 100, 3, 2);
+    client.openConnection();
+    server.close();
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return client.isReconnecting();
+      }
+    }, 5000, "reconnecting");
+
+    CompletableFuture<Void> first = client.sendAsync("held 1");
+    client.sendAsync("held 2");
+    Assert.assertTrue(client.sendAsync("held 3").isCompletedExceptionally(),
+      "message refused when the buffer is full");
+    try
+    {
+      client.sendToServer("held 4");
+      throw new AssertionError("message held when the buffer is full");
+    }
+    catch (IOException ex) { }
+
+    try
+    {
+      first.get(5, TimeUnit.SECONDS);
+      throw new AssertionError("held message sent without a connection");
+    }
+    catch (ExecutionException ex) { }
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return client.failure != null && !client.isReconnecting();
+      }
+    }, 5000, "gave up");
+    Assert.assertTrue(!client.isConnected(), "connected after giving up");
+  }
+
+  /**
+   * Closes clients at random times while their connection is dropped
+   * and reopened, and checks that none is left connected or
+   * reconnecting, and that <code>connectionResumed</code> always
+   * follows <code>connectionEstablished</code>.
+   */
+  private static void testCloseRace() throws Exception
+  {
+    TestServer server = new TestServer(PORT)
+    {
+      protected void handleMessageFromClient(Object msg,
+        ConnectionToClient client)
+      {
+        try
+        {
+          client.close();
+        }
+        catch (IOException ex) { }
+      }
+    };
+    server.listen();
+    Random random = new Random(1);
+    try
+    {
+      for (int i=0; i<100; i++)
+      {
+        ResumingClient client = new ResumingClient();
+        client.setAutoReconnect(1, 2, 0, 100);
+        client.openConnection();
+        client.sendToServer("kick");
+
+        long until = System.nanoTime() + random.nextInt(4000000);
+        while (System.nanoTime() < until) { }
+        try
+        {
+          client.closeConnection();
+        }
+        catch (IOException ex) { }
+
+        Thread.sleep(20);
+        Assert.assertTrue(!client.isConnected() && !client.isReconnecting(),
+          "client " + i + " left open");
+        // A connection reopened as the client closes is not resumed
+        Assert.assertTrue(client.getHooks().matches("E(ER)*E?"),
+          "hooks of client " + i + ": " + client.getHooks());
+      }
+    }
+    finally
+    {
+      server.close();
+    }
+  }
+
+  /**
+   * @return a server listening on the test port, without echo.
+   */
+  private static TestServer listen(boolean loops) throws IOException
+  {
+    TestServer server = new TestServer(PORT);
+    server.setEcho(false);
+    if (loops)
+      server.setEventLoops(1);
+    server.listen();
+    return server;
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A client logging in again when its connection is resumed, and
+   * recording the hooks called.
+   */
+  private static class ResumingClient extends AbstractClient
+  {
+    private final StringBuffer hooks = new StringBuffer();
+
+    volatile Exception failure;
+
+    ResumingClient()
+    {
+      super("localhost", PORT);
+    }
+
+    String getHooks()
+    {
+      return hooks.toString();
+    }
+
+    protected void handleMessageFromServer(Object msg) { }
+
+    protected void connectionEstablished()
+    {
+      hooks.append('E');
+    }
+
+    protected void connectionResumed()
+    {
+      hooks.append('R');
+      try
+      {
+        sendToServer("login");
+      }
+      catch (IOException ex) { } // closed meanwhile
+    }
+
+    protected void reconnectFailed(Exception exception)
+    {
+      failure = exception;
+    }
+  }
+}
+// End of ReconnectTest class
@@ -0,0 +1,127 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.Assert;
+
+/**
+* The <code> MessageBatchingTest </code> checks that the batches of
+* messages are flushed once full or once their delay has expired, and
+* that an output blocked in a flush does not delay the batches of the
+* other outputs.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class MessageBatchingTest
+{
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testBatchFlushed();
+    testBlockedOutput();
+  }
+
+  /**
+   * A batch is flushed once it holds enough messages, or after its
+   * delay.
+   */
+  private static void testBatchFlushed() throws Exception
+  {
+    FlushedStream stream = new FlushedStream();
+    MessageOutput output = new MessageOutput(stream, new BinaryCodec(), 8192);
+    output.setBatching(3, 0, 200000);
+
+    output.writeMessage("one");
+    output.writeMessage("two");
+    Assert.assertEquals(0, stream.flushes.size(), "batch flushed early");
+    output.writeMessage("three");
+    Assert.assertEquals(1, stream.flushes.size(), "full batch flushed");
+
+    output.writeMessage("four");
+    Assert.assertTrue(stream.flushes.poll(5, TimeUnit.SECONDS) != null
+      && stream.flushes.poll(5, TimeUnit.SECONDS) != null,
+      "batch flushed after its delay");
+  }
+
+  /**
+   * The delayed batch of an output whose stream blocks does not
+   * prevent the batches of another output from being flushed.
+   */
+  private static void testBlockedOutput() throws Exception
+  {
+    final CountDownLatch release = new CountDownLatch(1);
+    OutputStream stuck = new OutputStream()
+    {
+      public void write(int b) throws IOException
+      {
+        block();
+      }
+
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+        block();
+      }
+
+      private void block() throws IOException
+      {
+        try
+        {
+          release.await();
+        }
+        catch (InterruptedException ex)
+        {
+          throw new InterruptedIOException();
+        }
+      }
+    };
+
+    try
+    {
+      MessageOutput blocked = new MessageOutput(stuck, new BinaryCodec(),
+        8192);
+      blocked.setBatching(0, 0, 1000);
+      blocked.writeMessage("never sent");
+
+      // The delayed flush of the first output is now blocked
+      Thread.sleep(100);
+
+      FlushedStream stream = new FlushedStream();
+      MessageOutput other = new MessageOutput(stream, new BinaryCodec(), 8192);
+      other.setBatching(0, 0, 1000);
+      other.writeMessage("sent");
+      Assert.assertTrue(stream.flushes.poll(5, TimeUnit.SECONDS) != null,
+        "batch flushed while another output is blocked");
+    }
+    finally
+    {
+      release.countDown();
+    }
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A stream recording the times at which it is flushed.
+   */
+  private static class FlushedStream extends ByteArrayOutputStream
+  {
+    final BlockingQueue<Long> flushes = new LinkedBlockingQueue<Long>();
+
+    public void flush()
+    {
+      flushes.add(Long.valueOf(System.nanoTime()));
+    }
+  }
+}
+// End of MessageBatchingTest class
@@ -0,0 +1,329 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+import com.lloseng.ocsf.server.*;
+
+/**
+* The <code> MessageChunkTest </code> checks the maximum size of the
+* messages received and the payloads sent as sequences of chunks: a
+* frame larger than the maximum is rejected and the connection closed,
+* and the chunks of a stream, flagged in the headers of their frames,
+* are reassembled exactly, even when a chunk arrives in several
+* pieces.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class MessageChunkTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12316;
+
+  /**
+   * The maximum size of a message received by the server.
+   */
+  private static final int MAX = 4096;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testChunkFrames(10000, 3000);
+    testChunkFrames(9000, 3000);
+    testChunkObjects();
+    testTooLarge();
+    for (int loops=0; loops<=1; loops++)
+    {
+      testStreamToServer(loops);
+      testSplitChunk(loops);
+      testTooLargeClosed(loops);
+    }
+  }
+
+  /**
+   * A stream is written as chunk frames: the chunk flag is set in
+   * every header and the last flag in the last one only, which is
+   * empty when the length of the stream is a multiple of the size of
+   * the chunks.
+   *
+   * @param length the length of the stream.
+   * @param chunkSize the size of the chunks.
+   */
+  private static void testChunkFrames(int length, int chunkSize)
+    throws Exception
+  {
+    byte[] payload = payload(length);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, new BinaryCodec());
+    Assert.assertEquals(length, output.writeStream(
+      new ByteArrayInputStream(payload), chunkSize), "bytes written");
+    output.flush();
+
+    DataInputStream frames =
+      new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    int chunks = length / chunkSize + 1;
+    for (int i=0; i<chunks; i++)
+    {
+      int header = frames.readInt();
+      Assert.assertTrue((header & 0x80000000) != 0, "chunk flag " + i);
+      Assert.assertEquals(i == chunks - 1, (header & 0x40000000) != 0,
+        "last flag " + i);
+      int size = header & 0x3fffffff;
+      Assert.assertEquals(Math.min(chunkSize, length - i * chunkSize), size,
+        "size of chunk " + i);
+      byte[] chunk = new byte[size];
+      frames.readFully(chunk);
+      data.write(chunk);
+    }
+    Assert.assertEquals(-1, frames.read(), "end of the frames");
+    Assert.assertTrue(Arrays.equals(payload, data.toByteArray()),
+      "payload reassembled");
+
+    MessageInput input = new MessageInput(
+      new ByteArrayInputStream(bytes.toByteArray()), new BinaryCodec());
+    Assert.assertTrue(Arrays.equals(payload, readChunks(input)),
+      "payload read");
+  }
+
+  /**
+   * Without codec, the chunks are written as objects.
+   */
+  private static void testChunkObjects() throws Exception
+  {
+    byte[] payload = payload(10000);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, null);
+    output.writeStream(new ByteArrayInputStream(payload), 3000);
+    output.writeMessage("after");
+    output.flush();
+
+    MessageInput input =
+      new MessageInput(new ByteArrayInputStream(bytes.toByteArray()), null);
+    Assert.assertTrue(Arrays.equals(payload, readChunks(input)),
+      "payload read");
+    Assert.assertEquals("after", input.readMessage(), "message after");
+  }
+
+  /**
+   * A frame, or a chunk, larger than the maximum is rejected.
+   */
+  private static void testTooLarge() throws Exception
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, new BinaryCodec());
+    output.writeMessage(new byte[MAX + 1]);
+    output.writeChunk(new byte[MAX + 1], 0, MAX + 1, true);
+    output.flush();
+    byte[] stream = bytes.toByteArray();
+    int frame = stream.length / 2;
+
+    for (int i=0; i<2; i++)
+    {
+      MessageInput input = new MessageInput(new ByteArrayInputStream(
+        stream, i * frame, frame), new BinaryCodec());
+      input.setMaxMessageSize(MAX);
+      try
+      {
+        input.readMessage();
+        throw new AssertionError("frame " + i + " read");
+      }
+      catch (MessageTooLargeException ex) { }
+    }
+  }
+
+  /**
+   * A client sends a stream larger than the maximum size of a message.
+   */
+  private static void testStreamToServer(int loops) throws Exception
+  {
+    ChunkServer server = start(loops);
+    TestClient client = new TestClient(PORT);
+    client.setMessageCodec(new BinaryCodec());
+    try
+    {
+      client.openConnection();
+      byte[] payload = payload(50000);
+      client.sendStreamToServer(new ByteArrayInputStream(payload), MAX);
+      client.sendToServer("after");
+
+      Assert.assertTrue(Arrays.equals(payload,
+        server.payloads.poll(5, TimeUnit.SECONDS)), "payload received");
+      Assert.assertEquals("after", server.received.poll(5, TimeUnit.SECONDS),
+        "message after the stream");
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * The frames of the chunks arrive in pieces, a header being split.
+   */
+  private static void testSplitChunk(int loops) throws Exception
+  {
+    ChunkServer server = start(loops);
+    Socket socket = new Socket("localhost", PORT);
+    try
+    {
+      byte[] payload = payload(6000);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      MessageOutput output = new MessageOutput(bytes, new BinaryCodec());
+      output.writeStream(new ByteArrayInputStream(payload), 2500);
+      output.flush();
+      byte[] stream = bytes.toByteArray();
+
+      socket.setTcpNoDelay(true);
+      OutputStream out = socket.getOutputStream();
+      int[] cuts = {2, 1000, 2504, 2506, stream.length - 1, stream.length};
+      int start = 0;
+      for (int cut : cuts)
+      {
+        out.write(stream, start, cut - start);
+        out.flush();
+        start = cut;
+        Thread.sleep(50);
+      }
+
+      Assert.assertTrue(Arrays.equals(payload,
+        server.payloads.poll(5, TimeUnit.SECONDS)), "payload received");
+      Assert.assertTrue(server.exceptions.isEmpty(), "no exception");
+    }
+    finally
+    {
+      socket.close();
+      server.close();
+    }
+  }
+
+  /**
+   * A message larger than the maximum closes the connection after the
+   * exception has been reported.
+   */
+  private static void testTooLargeClosed(int loops) throws Exception
+  {
+    final ChunkServer server = start(loops);
+    final TestClient client = new TestClient(PORT);
+    client.setMessageCodec(new BinaryCodec());
+    try
+    {
+      client.openConnection();
+      client.sendToServer("before");
+      Assert.assertEquals("before", server.received.poll(5, TimeUnit.SECONDS),
+        "message before");
+      client.sendToServer(new byte[MAX + 1]);
+
+      Assert.assertTrue(server.exceptions.poll(5, TimeUnit.SECONDS)
+        instanceof MessageTooLargeException, "message too large");
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return server.getNumberOfClients() == 0
+            && server.disconnected.get() == 1 && !client.isConnected();
+        }
+      }, 5000, "connection closed");
+      Assert.assertTrue(server.received.isEmpty(), "large message handled");
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * @return the chunks read until the last one, put together.
+   */
+  private static byte[] readChunks(MessageInput input) throws Exception
+  {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    MessageChunk chunk;
+    do
+    {
+      chunk = (MessageChunk)input.readMessage();
+      data.write(chunk.getData());
+    }
+    while (!chunk.isLast());
+    return data.toByteArray();
+  }
+
+  /**
+   * @return a payload of the given length.
+   */
+  private static byte[] payload(int length)
+  {
+    byte[] payload = new byte[length];
+    new Random(length).nextBytes(payload);
+    return payload;
+  }
+
+  /**
+   * @return a listening server using the binary codec.
+   */
+  private static ChunkServer start(int loops) throws IOException
+  {
+    ChunkServer server = new ChunkServer();
+    server.setMessageCodec(new BinaryCodec());
+    server.setMaxMessageSize(MAX);
+    server.setEventLoops(loops);
+    server.setEcho(false);
+    server.listen();
+    return server;
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A server putting the chunks received together, and keeping the
+   * exceptions raised by the clients.
+   */
+  private static class ChunkServer extends TestServer
+  {
+    final BlockingQueue<byte[]> payloads = new LinkedBlockingQueue<byte[]>();
+
+    final BlockingQueue<Throwable> exceptions =
+      new LinkedBlockingQueue<Throwable>();
+
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+    ChunkServer()
+    {
+      super(PORT);
+    }
+
+    protected void handleChunkFromClient(MessageChunk chunk,
+      ConnectionToClient client)
+    {
+      data.write(chunk.getData(), 0, chunk.getData().length);
+      if (chunk.isLast())
+      {
+        payloads.add(data.toByteArray());
+        data.reset();
+      }
+    }
+
+    protected void clientException(ConnectionToClient client,
+      Throwable exception)
+    {
+      exceptions.add(exception);
+    }
+  }
+}
+// End of MessageChunkTest class
@@ -0,0 +1,179 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.util.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> MessageCodecTest </code> checks the codecs and the frames
+* in which the messages they encode are written: each frame is the
+* length of the encoded message, on four bytes, followed by these
+* bytes. It also checks that a client and a server using the same codec
+* exchange messages, in both server modes.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class MessageCodecTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12306;
+
+  /**
+   * Messages of every kind the binary codec encodes.
+   */
+  private static final Object[] MESSAGES =
+  {
+    null, "", "h\u00e9llo \u4e16\u754c", Integer.valueOf(-1),
+    Long.valueOf(Long.MIN_VALUE), Double.valueOf(Math.PI),
+    Float.valueOf(-0.5f), Short.valueOf((short)-2), Byte.valueOf((byte)3),
+    Boolean.TRUE, Boolean.FALSE, Character.valueOf('\u20ac'),
+    new ArrayList<Object>(Arrays.asList("a", Integer.valueOf(1)))
+  };
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testBinaryCodec();
+    testCorrupted();
+    testFrames(new BinaryCodec());
+    testFrames(new SerializationCodec());
+    testConnection(false);
+    testConnection(true);
+  }
+
+  /**
+   * Each message is decoded as it was encoded, wherever it lies in
+   * the frame.
+   */
+  private static void testBinaryCodec() throws Exception
+  {
+    BinaryCodec codec = new BinaryCodec();
+    for (Object message : MESSAGES)
+    {
+      byte[] encoded = codec.encode(message);
+      byte[] frame = new byte[encoded.length + 5];
+      System.arraycopy(encoded, 0, frame, 3, encoded.length);
+      Assert.assertEquals(message, codec.decode(frame, 3, encoded.length),
+        "decoded message");
+    }
+
+    byte[] bytes = {1, 2, 3};
+    byte[] encoded = codec.encode(bytes);
+    Assert.assertEquals(4, encoded.length, "bytes encoded");
+    Assert.assertTrue(Arrays.equals(bytes,
+      (byte[])codec.decode(encoded, 0, encoded.length)), "decoded bytes");
+
+    Assert.assertEquals(5, codec.encode(Integer.valueOf(7)).length,
+      "integer encoded");
+
+    CorrelatedMessage correlated =
+      new CorrelatedMessage(1L << 40, new CorrelatedMessage(2, "x"));
+    encoded = codec.encode(correlated);
+    CorrelatedMessage decoded =
+      (CorrelatedMessage)codec.decode(encoded, 0, encoded.length);
+    Assert.assertEquals(1L << 40, decoded.getId(), "correlation id");
+    CorrelatedMessage inner = (CorrelatedMessage)decoded.getPayload();
+    Assert.assertEquals(2, inner.getId(), "inner correlation id");
+    Assert.assertEquals("x", inner.getPayload(), "inner payload");
+  }
+
+  /**
+   * Bytes that are not an encoded message are rejected.
+   */
+  private static void testCorrupted() throws Exception
+  {
+    BinaryCodec codec = new BinaryCodec();
+    byte[][] corrupted =
+    {
+      {}, {100}, {3, 0, 0}, {4, 1, 2, 3}, {11, 0, 0, 0}
+    };
+
+    for (byte[] bytes : corrupted)
+    {
+      try
+      {
+        codec.decode(bytes, 0, bytes.length);
+        throw new AssertionError("decoded " + Arrays.toString(bytes));
+      }
+      catch (StreamCorruptedException ex) { }
+    }
+  }
+
+  /**
+   * The frames hold the length of each message followed by its bytes,
+   * and are read back in order.
+   *
+   * @param codec the codec.
+   */
+  private static void testFrames(MessageCodec codec) throws Exception
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, codec);
+    for (Object message : MESSAGES)
+      output.writeMessage(message);
+    output.flush();
+    byte[] stream = bytes.toByteArray();
+
+    DataInputStream frames =
+      new DataInputStream(new ByteArrayInputStream(stream));
+    for (Object message : MESSAGES)
+    {
+      byte[] encoded = codec.encode(message);
+      Assert.assertEquals(encoded.length, frames.readInt(), "frame length");
+      byte[] frame = new byte[encoded.length];
+      frames.readFully(frame);
+      Assert.assertTrue(Arrays.equals(encoded, frame), "frame bytes");
+    }
+    Assert.assertEquals(-1, frames.read(), "end of the frames");
+
+    MessageInput input =
+      new MessageInput(new ByteArrayInputStream(stream), codec);
+    for (Object message : MESSAGES)
+      Assert.assertEquals(message, input.readMessage(), "message read");
+    Assert.assertEquals(stream.length, input.getBytesRead(), "bytes read");
+  }
+
+  /**
+   * A client and a server using the binary codec exchange messages.
+   *
+   * @param loops true to use an event loop on the server.
+   */
+  private static void testConnection(boolean loops) throws Exception
+  {
+    TestServer server = new TestServer(PORT);
+    server.setMessageCodec(new BinaryCodec());
+    if (loops)
+      server.setEventLoops(1);
+    server.listen();
+
+    TestClient client = new TestClient(PORT);
+    client.setMessageCodec(new BinaryCodec());
+    try
+    {
+      client.openConnection();
+      for (Object message : MESSAGES)
+        client.sendToServer(message);
+      for (Object message : MESSAGES)
+        Assert.assertEquals(message == null ? "null" : message,
+          client.next(5000), "message sent back");
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+}
+// End of MessageCodecTest class
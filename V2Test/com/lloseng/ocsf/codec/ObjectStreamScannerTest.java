@@ -0,0 +1,258 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.util.*;
+import com.lloseng.ocsf.Assert;
+
+/**
+* The <code> ObjectStreamScannerTest </code> checks that
+* <code>MessageInput.bytesNeeded</code> tells when a message has been
+* received in full, so that an event loop decodes only complete
+* messages. Every prefix of a message must be reported incomplete, and
+* the whole message complete, for object streams as for codecs.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class ObjectStreamScannerTest
+{
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testObjectStream(false);
+    testObjectStream(true);
+    testCodec(new BinaryCodec());
+    testCodec(new SerializationCodec());
+    testTooLarge();
+  }
+
+  /**
+   * Scans messages of various kinds written to an object stream,
+   * referring to each other across messages.
+   *
+   * @param resets true to reset the stream after each message.
+   */
+  private static void testObjectStream(boolean resets) throws Exception
+  {
+    Node shared = new Node("shared", null);
+    ArrayList<Object> list = new ArrayList<Object>();
+    list.add(shared);
+    list.add(new Node("other", shared));
+    HashMap<String, Object> map = new HashMap<String, Object>();
+    map.put("list", new ArrayList<Object>(list));
+    map.put("color", Color.GREEN);
+    map.put("class", String.class);
+
+    Object[] messages =
+    {
+      "hello", Integer.valueOf(42), null, new int[100], shared, list,
+      map, new Object[] {shared, Color.RED, new Date(0)},
+      new StringBuilder("custom"), new MessageChunk(new byte[10], true),
+      new Node("last", shared)
+    };
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, null);
+    if (resets)
+      output.setResetPolicy(1, 0);
+    for (Object message : messages)
+      output.writeMessage(message);
+    output.flush();
+    byte[] stream = bytes.toByteArray();
+
+    MessageInput input =
+      new MessageInput(new ByteArrayInputStream(stream), null);
+    Assert.assertEquals(4, input.bytesNeeded(received(stream, 0, 0), 0),
+      "bytes needed before the header");
+    input.open();
+
+    for (int i=0; i<messages.length; i++)
+    {
+      int start = (int)input.getBytesRead();
+      int length = checkPrefixes(input, stream, start);
+
+      Object message = input.readMessage();
+      Assert.assertEquals(start + length, input.getBytesRead(),
+        "bytes read for message " + i);
+      Assert.assertEquals(describe(messages[i]), describe(message),
+        "message " + i);
+    }
+  }
+
+  /**
+   * Scans the frames written with a codec.
+   *
+   * @param codec the codec.
+   */
+  private static void testCodec(MessageCodec codec) throws Exception
+  {
+    Object[] messages = {"hello", Long.valueOf(7), new byte[1000], null};
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, codec);
+    for (Object message : messages)
+      output.writeMessage(message);
+    output.writeChunk(new byte[20], 0, 20, true);
+    output.flush();
+    byte[] stream = bytes.toByteArray();
+
+    MessageInput input =
+      new MessageInput(new ByteArrayInputStream(stream), codec);
+    input.open();
+
+    for (int i=0; i<=messages.length; i++)
+    {
+      int start = (int)input.getBytesRead();
+      checkPrefixes(input, stream, start);
+
+      Object message = input.readMessage();
+      if (i < messages.length)
+        Assert.assertEquals(describe(messages[i]), describe(message),
+          "frame " + i);
+      else
+        Assert.assertTrue(((MessageChunk)message).isLast(), "last chunk");
+    }
+  }
+
+  /**
+   * Checks that a message larger than the maximum size is reported
+   * as readable at once, so that reading it fails without waiting for
+   * the rest of it.
+   */
+  private static void testTooLarge() throws Exception
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, null);
+    output.writeMessage(new byte[10000]);
+    output.flush();
+    byte[] stream = bytes.toByteArray();
+
+    MessageInput input =
+      new MessageInput(new ByteArrayInputStream(stream), null);
+    input.setMaxMessageSize(1000);
+    input.open();
+
+    int start = (int)input.getBytesRead();
+    int available = 100;
+    int needed = input.bytesNeeded(received(stream, start, available),
+      available);
+    Assert.assertTrue(needed <= available,
+      "large array readable at once, needed " + needed);
+
+    try
+    {
+      input.readMessage();
+      throw new AssertionError("large array read");
+    }
+    catch (MessageTooLargeException ex) { }
+  }
+
+  /**
+   * Checks the bytes needed for every prefix of the next message.
+   *
+   * @param input the input.
+   * @param stream all the bytes written.
+   * @param start the position of the next message.
+   * @return the length of the next message.
+   */
+  private static int checkPrefixes(MessageInput input, byte[] stream,
+    int start) throws IOException
+  {
+    int length = stream.length - start;
+    for (int count=0; count<=stream.length - start; count++)
+    {
+      int needed = input.bytesNeeded(received(stream, start, count), count);
+      if (needed <= count)
+      {
+        length = count;
+        break;
+      }
+    }
+
+    // The same answer when more bytes follow the message
+    int needed = input.bytesNeeded(
+      received(stream, start, stream.length - start), stream.length - start);
+    Assert.assertEquals(length, needed, "length of the message at " + start);
+    return length;
+  }
+
+  /**
+   * @return a stream reading some of the bytes written.
+   */
+  private static InputStream received(byte[] stream, int start, int count)
+  {
+    return new ByteArrayInputStream(stream, start, count);
+  }
+
+  /**
+   * @return a description of a message that can be compared.
+   */
+  private static String describe(Object message)
+  {
+    if (message instanceof Object[])
+      return Arrays.deepToString((Object[])message);
+    if (message instanceof byte[])
+      return "bytes" + Arrays.toString((byte[])message);
+    if (message instanceof int[])
+      return "ints" + Arrays.toString((int[])message);
+    if (message instanceof MessageChunk)
+      return "chunk" + Arrays.toString(((MessageChunk)message).getData());
+    return String.valueOf(message);
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * An enumerated message.
+   */
+  private enum Color {RED, GREEN}
+
+  /**
+   * A message referring to another one, with custom serialization.
+   */
+  private static class Node implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final Node next;
+    private transient int visits = 0;
+
+    Node(String name, Node next)
+    {
+      this.name = name;
+      this.next = next;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+      out.defaultWriteObject();
+      out.writeInt(visits);
+      out.writeObject(new int[] {1, 2});
+    }
+
+    private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException
+    {
+      in.defaultReadObject();
+      visits = in.readInt();
+      in.readObject();
+    }
+
+    public String toString()
+    {
+      return name + (next == null ? "" : "->" + next);
+    }
+  }
+}
+// End of ObjectStreamScannerTest class
@@ -0,0 +1,181 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.codec;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> StreamResetTest </code> checks that an object stream is
+* reset after the number of messages or bytes of its policy, and that
+* an object changed then sent again is received in its new state once
+* the stream has been reset, and in its former state otherwise.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class StreamResetTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12307;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testMessageLimit();
+    testByteLimit();
+    testNoReset();
+    testConnection(false);
+    testConnection(true);
+  }
+
+  /**
+   * The stream is reset after every third message: the object sent
+   * again is received as it was when first sent after a reset.
+   */
+  private static void testMessageLimit() throws Exception
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, null);
+    output.setResetPolicy(3, 0);
+
+    ArrayList<Integer> state = new ArrayList<Integer>();
+    for (int i=1; i<=9; i++)
+    {
+      state.add(Integer.valueOf(i));
+      output.writeMessage(state);
+      Assert.assertEquals(i % 3, output.getMessagesSinceReset(),
+        "messages since reset");
+    }
+    output.flush();
+    Assert.assertEquals(3, output.getResetCount(), "resets");
+
+    MessageInput input = input(bytes);
+    int[] sizes = {1, 1, 1, 4, 4, 4, 7, 7, 7};
+    for (int i=0; i<sizes.length; i++)
+      Assert.assertEquals(sizes[i], ((List<?>)input.readMessage()).size(),
+        "state received in message " + i);
+  }
+
+  /**
+   * The stream is reset once enough bytes have been written: the
+   * message following each reset carries the new state.
+   */
+  private static void testByteLimit() throws Exception
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, null);
+    output.setResetPolicy(0, 2500);
+
+    ArrayList<Integer> state = new ArrayList<Integer>();
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    int fresh = 0;
+    long resets = 0;
+    for (int i=1; i<=20; i++)
+    {
+      state.add(Integer.valueOf(i));
+      if (output.getResetCount() > resets || i == 1)
+        fresh = i;
+      resets = output.getResetCount();
+      expected.add(Integer.valueOf(fresh));
+
+      output.writeMessage(new Object[] {state, new byte[1000]});
+      Assert.assertTrue(output.getBytesSinceReset() < 2500,
+        "bytes since reset " + output.getBytesSinceReset());
+    }
+    output.flush();
+    Assert.assertTrue(output.getResetCount() >= 5,
+      "resets " + output.getResetCount());
+
+    MessageInput input = input(bytes);
+    for (int i=0; i<expected.size(); i++)
+    {
+      Object[] message = (Object[])input.readMessage();
+      Assert.assertEquals(expected.get(i).intValue(),
+        ((List<?>)message[0]).size(), "state received in message " + i);
+    }
+  }
+
+  /**
+   * Without reset, the object sent again is received as it was first.
+   */
+  private static void testNoReset() throws Exception
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageOutput output = new MessageOutput(bytes, null);
+    output.setResetPolicy(0, 0);
+
+    ArrayList<Integer> state = new ArrayList<Integer>();
+    for (int i=1; i<=5; i++)
+    {
+      state.add(Integer.valueOf(i));
+      output.writeMessage(state);
+    }
+    output.flush();
+    Assert.assertEquals(0, output.getResetCount(), "resets");
+
+    MessageInput input = input(bytes);
+    for (int i=0; i<5; i++)
+      Assert.assertEquals(1, ((List<?>)input.readMessage()).size(),
+        "state received in message " + i);
+  }
+
+  /**
+   * A client resetting its stream after each message has each change
+   * of an object it sends again seen by the server.
+   *
+   * @param loops true to serve the client with an event loop.
+   */
+  private static void testConnection(boolean loops) throws Exception
+  {
+    TestServer server = new TestServer(PORT);
+    server.setEcho(false);
+    if (loops)
+      server.setEventLoops(1);
+    server.listen();
+
+    TestClient client = new TestClient(PORT);
+    client.setStreamResetPolicy(1, 0);
+    try
+    {
+      client.openConnection();
+      ArrayList<Integer> state = new ArrayList<Integer>();
+      for (int i=1; i<=5; i++)
+      {
+        state.add(Integer.valueOf(i));
+        client.sendToServer(state);
+      }
+      for (int i=1; i<=5; i++)
+        Assert.assertEquals(i,
+          ((List<?>)server.received.poll(5, TimeUnit.SECONDS)).size(),
+          "state received by the server");
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * @return an input reading the bytes written.
+   */
+  private static MessageInput input(ByteArrayOutputStream bytes)
+    throws IOException
+  {
+    return new MessageInput(
+      new ByteArrayInputStream(bytes.toByteArray()), null);
+  }
+}
+// End of StreamResetTest class
@@ -0,0 +1,204 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.metrics;
+
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> HistogramTest </code> checks the counts and the precision
+* of the percentiles of a histogram, the merging of histograms and the
+* recording of values by concurrent threads.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class HistogramTest
+{
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testEmpty();
+    testSmallValues();
+    testPrecision(Histogram.DEFAULT_SUB_BITS);
+    testPrecision(7);
+    testExtremes();
+    testAdd();
+    testReset();
+    testConcurrent();
+  }
+
+  /**
+   * A histogram without values reports zeros.
+   */
+  private static void testEmpty()
+  {
+    Histogram histogram = new Histogram();
+    Assert.assertEquals(0, histogram.getCount(), "count");
+    Assert.assertEquals(0, histogram.getMax(), "max");
+    Assert.assertEquals(0, histogram.getPercentile(0.99), "percentile");
+    Assert.assertTrue(histogram.getMean() == 0, "mean");
+
+    try
+    {
+      new Histogram(0);
+      throw new AssertionError("precision of 0 bits accepted");
+    }
+    catch (IllegalArgumentException ex) { }
+  }
+
+  /**
+   * The small values, which have their own bucket, are exact.
+   */
+  private static void testSmallValues()
+  {
+    Histogram histogram = new Histogram();
+    for (int value=1; value<=10; value++)
+      histogram.record(value);
+
+    Assert.assertEquals(10, histogram.getCount(), "count");
+    Assert.assertEquals(55, histogram.getSum(), "sum");
+    Assert.assertEquals(10, histogram.getMax(), "max");
+    Assert.assertTrue(histogram.getMean() == 5.5, "mean");
+    Assert.assertEquals(1, histogram.getPercentile(0), "minimum");
+    Assert.assertEquals(5, histogram.getPercentile(0.5), "median");
+    Assert.assertEquals(9, histogram.getPercentile(0.9), "90th percentile");
+    Assert.assertEquals(10, histogram.getPercentile(1), "maximum");
+
+    histogram.record(3, 90);
+    Assert.assertEquals(100, histogram.getCount(), "count with repeats");
+    Assert.assertEquals(3, histogram.getPercentile(0.5),
+      "median with repeats");
+  }
+
+  /**
+   * The percentiles of a wide range of values are known within the
+   * precision of the histogram, and never below the exact value.
+   *
+   * @param subBits the precision of the histogram.
+   */
+  private static void testPrecision(int subBits)
+  {
+    Histogram histogram = new Histogram(subBits);
+    int count = 1000000;
+    for (int value=1; value<=count; value++)
+      histogram.record(value);
+
+    double error = 1.0 / (1 << subBits);
+    double[] fractions = {0.01, 0.25, 0.5, 0.9, 0.99, 0.999};
+    for (double fraction : fractions)
+    {
+      long exact = (long)Math.ceil(fraction * count);
+      long percentile = histogram.getPercentile(fraction);
+      Assert.assertTrue(percentile >= exact
+        && percentile <= exact * (1 + error),
+        "percentile " + fraction + " is " + percentile + " for " + exact);
+    }
+    Assert.assertEquals(count, histogram.getPercentile(1), "maximum");
+  }
+
+  /**
+   * Negative values count as 0, and the largest values are kept.
+   */
+  private static void testExtremes()
+  {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+    Assert.assertEquals(0, histogram.getPercentile(1), "negative value");
+
+    histogram.record(Long.MAX_VALUE);
+    Assert.assertEquals(Long.MAX_VALUE, histogram.getMax(), "max");
+    Assert.assertEquals(Long.MAX_VALUE, histogram.getPercentile(1),
+      "largest percentile");
+    Assert.assertEquals(0, histogram.getPercentile(0.5), "median");
+  }
+
+  /**
+   * Adding a histogram, of the same precision or not, merges its
+   * values.
+   */
+  private static void testAdd()
+  {
+    Histogram low = new Histogram();
+    Histogram high = new Histogram();
+    Histogram precise = new Histogram(10);
+    for (int value=1; value<=1000; value++)
+    {
+      low.record(value);
+      high.record(value + 1000);
+      precise.record(value + 2000);
+    }
+
+    low.add(high);
+    Assert.assertEquals(2000, low.getCount(), "count after adding");
+    Assert.assertEquals(2000, low.getMax(), "max after adding");
+    Assert.assertEquals(1000 * 1001 / 2 + 1000 * 3001 / 2, low.getSum(),
+      "sum after adding");
+
+    low.add(precise);
+    Assert.assertEquals(3000, low.getCount(), "count after adding precise");
+    Assert.assertEquals(3000, low.getMax(), "max after adding precise");
+    long median = low.getPercentile(0.5);
+    Assert.assertTrue(median >= 1500 && median <= 1500 * 9 / 8,
+      "median after adding " + median);
+    long top = low.getPercentile(0.9);
+    Assert.assertTrue(top >= 2700 && top <= 2700 * 9 / 8,
+      "90th percentile after adding precise " + top);
+  }
+
+  /**
+   * A reset histogram forgets its values.
+   */
+  private static void testReset()
+  {
+    Histogram histogram = new Histogram();
+    histogram.record(100, 10);
+    histogram.reset();
+    Assert.assertEquals(0, histogram.getCount(), "count");
+    Assert.assertEquals(0, histogram.getSum(), "sum");
+    Assert.assertEquals(0, histogram.getMax(), "max");
+    Assert.assertEquals(0, histogram.getPercentile(0.5), "median");
+
+    histogram.record(7);
+    Assert.assertEquals(7, histogram.getPercentile(0.5), "median");
+  }
+
+  /**
+   * No value is lost by threads recording at the same time.
+   */
+  private static void testConcurrent() throws Exception
+  {
+    final Histogram histogram = new Histogram();
+    final int values = 100000;
+    Thread[] threads = new Thread[4];
+    for (int i=0; i<threads.length; i++)
+    {
+      final int offset = i;
+      threads[i] = new Thread()
+      {
+        public void run()
+        {
+          for (int value=0; value<values; value++)
+            histogram.record(value * threads.length + offset);
+        }
+      };
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    long total = (long)values * threads.length;
+    Assert.assertEquals(total, histogram.getCount(), "count");
+    Assert.assertEquals(total * (total - 1) / 2, histogram.getSum(), "sum");
+    Assert.assertEquals(total - 1, histogram.getMax(), "max");
+  }
+}
+// End of HistogramTest class
@@ -0,0 +1,164 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.metrics;
+
+import java.io.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> LatencyRecorderTest </code> checks the correction of
+* coordinated omission: the latencies of the requests held back by a
+* slow one are recorded, from an intended start or from the expected
+* interval between requests, and a recorded sequence is the same as
+* its values recorded one by one.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class LatencyRecorderTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final long MILLISECOND = 1000000L;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testSequence(1000000, 1000);
+    testSequence(100, 7);
+    testSequence(50, 1);
+    testSequence(5, 10);
+    testExpectedInterval();
+    testIntendedStart();
+    testPace();
+    testMetrics();
+  }
+
+  /**
+   * A sequence recorded at once is the same as its values recorded
+   * one by one.
+   *
+   * @param highest the first value of the sequence.
+   * @param step the difference between two values.
+   */
+  private static void testSequence(long highest, long step)
+  {
+    Histogram sequence = new Histogram(7);
+    sequence.recordSequence(highest, step);
+
+    Histogram values = new Histogram(7);
+    for (long value=highest; value>=step; value-=step)
+      values.record(value);
+
+    String name = "sequence " + highest + "/" + step;
+    Assert.assertEquals(values.getCount(), sequence.getCount(),
+      name + " count");
+    Assert.assertEquals(values.getSum(), sequence.getSum(), name + " sum");
+    Assert.assertEquals(values.getMax(), sequence.getMax(), name + " max");
+    for (int i=0; i<=100; i++)
+      Assert.assertEquals(values.getPercentile(i / 100.0),
+        sequence.getPercentile(i / 100.0), name + " percentile " + i);
+  }
+
+  /**
+   * A latency longer than the expected interval is recorded with the
+   * latencies of the requests that were due meanwhile.
+   */
+  private static void testExpectedInterval()
+  {
+    LatencyRecorder recorder = new LatencyRecorder("reply");
+    recorder.setExpectedInterval(MILLISECOND);
+    for (int i=0; i<100; i++)
+      recorder.record(MILLISECOND / 2);
+    recorder.record(100 * MILLISECOND);
+
+    Histogram uncorrected = recorder.getUncorrected();
+    Assert.assertEquals(101, uncorrected.getCount(), "uncorrected count");
+    Assert.assertTrue(uncorrected.getPercentile(0.9) < MILLISECOND,
+      "uncorrected 90th percentile");
+
+    Histogram corrected = recorder.getCorrected();
+    Assert.assertEquals(200, corrected.getCount(), "corrected count");
+    long percentile = corrected.getPercentile(0.9);
+    Assert.assertTrue(percentile >= 80 * MILLISECOND
+      && percentile <= 81 * MILLISECOND,
+      "corrected 90th percentile " + percentile);
+
+    recorder.setExpectedInterval(0);
+    recorder.record(100 * MILLISECOND);
+    Assert.assertEquals(201, corrected.getCount(),
+      "count without expected interval");
+  }
+
+  /**
+   * A request sent late is timed from its intended start.
+   */
+  private static void testIntendedStart()
+  {
+    LatencyRecorder recorder = new LatencyRecorder("reply");
+    recorder.record(0, 40 * MILLISECOND, 50 * MILLISECOND);
+    Assert.assertEquals(50 * MILLISECOND, recorder.getCorrected().getMax(),
+      "corrected latency");
+    Assert.assertEquals(10 * MILLISECOND,
+      recorder.getUncorrected().getMax(), "uncorrected latency");
+
+    recorder.reset();
+    recorder.record(10 * MILLISECOND, 5 * MILLISECOND, 20 * MILLISECOND);
+    Assert.assertEquals(15 * MILLISECOND, recorder.getCorrected().getMax(),
+      "latency of a request sent early");
+  }
+
+  /**
+   * The intended starts follow the expected interval, even when the
+   * caller falls behind.
+   */
+  private static void testPace() throws Exception
+  {
+    LatencyRecorder recorder = new LatencyRecorder("reply");
+    long before = System.nanoTime();
+    Assert.assertTrue(recorder.pace() >= before, "start without interval");
+
+    recorder.setExpectedInterval(10 * MILLISECOND);
+    long first = recorder.pace();
+    long second = recorder.pace();
+    Assert.assertEquals(10 * MILLISECOND, second - first, "second start");
+    Assert.assertTrue(System.nanoTime() >= second, "waited for the start");
+
+    Thread.sleep(50);
+    long late = recorder.pace();
+    Assert.assertEquals(20 * MILLISECOND, late - first, "late start");
+
+    recorder.reset();
+    Assert.assertTrue(recorder.pace() >= late + 30 * MILLISECOND,
+      "schedule restarted");
+  }
+
+  /**
+   * The metrics name both histograms.
+   */
+  private static void testMetrics() throws Exception
+  {
+    LatencyRecorder recorder = new LatencyRecorder("reply");
+    recorder.record(MILLISECOND);
+    StringWriter out = new StringWriter();
+    recorder.writeMetrics(out);
+    String text = out.toString();
+
+    Assert.assertTrue(text.contains("# TYPE ocsf_reply_seconds summary"),
+      "metric type");
+    Assert.assertTrue(text.contains(
+      "ocsf_reply_seconds_count{corrected=\"true\"} 1\n"), "corrected count");
+    Assert.assertTrue(text.contains(
+      "ocsf_reply_seconds_count{corrected=\"false\"} 1\n"),
+      "uncorrected count");
+  }
+}
+// End of LatencyRecorderTest class
@@ -0,0 +1,175 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> AcceptorsTest </code> checks that several acceptors, on a
+* shared server socket or on sockets of their own, accept a burst of
+* clients, and that no connection accepted while the server closes is
+* left open.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class AcceptorsTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12310;
+
+  private static final int CONNECTORS = 8;
+
+  private static final int CLIENTS = 25;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testBurst(false);
+    testBurst(true);
+    testCloseWhileAccepting();
+  }
+
+  /**
+   * Clients connecting all at once are all served.
+   *
+   * @param reusePort true to give each acceptor its own socket.
+   */
+  private static void testBurst(boolean reusePort) throws Exception
+  {
+    final TestServer server = new TestServer(PORT);
+    server.setAcceptors(4);
+    server.setReusePort(reusePort);
+    server.setBacklog(CONNECTORS * CLIENTS);
+    server.listen();
+
+    final List<TestClient> clients =
+      Collections.synchronizedList(new ArrayList<TestClient>());
+    try
+    {
+      ExecutorService connectors = Executors.newFixedThreadPool(CONNECTORS);
+      ArrayList<Future<?>> done = new ArrayList<Future<?>>();
+      for (int i=0; i<CONNECTORS; i++)
+      {
+        done.add(connectors.submit(new Callable<Object>()
+        {
+          public Object call() throws Exception
+          {
+            for (int j=0; j<CLIENTS; j++)
+            {
+              TestClient client = new TestClient(PORT);
+              client.openConnection();
+              clients.add(client);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> connector : done)
+        connector.get(30, TimeUnit.SECONDS);
+      connectors.shutdown();
+
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return server.getNumberOfClients() == CONNECTORS * CLIENTS;
+        }
+      }, 10000, "clients connected");
+
+      for (TestClient client : clients)
+        client.sendToServer("ping");
+      for (TestClient client : clients)
+        Assert.assertEquals("ping", client.next(5000), "reply");
+    }
+    finally
+    {
+      for (TestClient client : clients)
+        client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * The connections accepted while the server closes are closed.
+   */
+  private static void testCloseWhileAccepting() throws Exception
+  {
+    final TestServer server = new TestServer(PORT);
+    server.setAcceptors(4);
+    server.listen();
+
+    final List<TestClient> clients =
+      Collections.synchronizedList(new ArrayList<TestClient>());
+    final CountDownLatch started = new CountDownLatch(CONNECTORS);
+    ArrayList<Thread> connectors = new ArrayList<Thread>();
+    for (int i=0; i<CONNECTORS; i++)
+    {
+      Thread connector = new Thread()
+      {
+        public void run()
+        {
+          started.countDown();
+          try
+          {
+            while (true)
+            {
+              TestClient client = new TestClient(PORT);
+              client.openConnection();
+              clients.add(client);
+            }
+          }
+          catch (Exception ex) { } // Refused once closed
+        }
+      };
+      connector.start();
+      connectors.add(connector);
+    }
+
+    started.await();
+    Thread.sleep(100);
+    server.close();
+    for (Thread connector : connectors)
+      connector.join(10000);
+
+    try
+    {
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          synchronized (clients)
+          {
+            for (TestClient client : clients)
+            {
+              if (client.isConnected())
+                return false;
+            }
+          }
+          return server.getNumberOfClients() == 0;
+        }
+      }, 10000, "connections left open after close");
+      Assert.assertTrue(!clients.isEmpty(), "clients connected before close");
+    }
+    finally
+    {
+      synchronized (clients)
+      {
+        for (TestClient client : clients)
+          client.closeConnection();
+      }
+    }
+  }
+}
+// End of AcceptorsTest class
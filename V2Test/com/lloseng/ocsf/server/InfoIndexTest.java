@@ -0,0 +1,186 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> InfoIndexTest </code> checks that the indexes of the
+* information saved about the clients stay consistent when the
+* information keeps changing while clients disconnect: once the
+* updates have stopped, every index holds exactly the connected
+* clients having each value, and no client that has disconnected.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class InfoIndexTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12312;
+
+  private static final int CLIENTS = 20;
+
+  private static final int UPDATERS = 4;
+
+  private static final String ROOM_INFO = "room";
+
+  private static final int IDS = 5;
+
+  private static final int ROOMS = 3;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testUpdatesWhileDisconnecting(0);
+    testUpdatesWhileDisconnecting(1);
+  }
+
+  /**
+   * Updates the information of all the clients from several threads
+   * while half of the clients disconnect.
+   *
+   * @param loops the number of event loops of the server.
+   */
+  private static void testUpdatesWhileDisconnecting(int loops)
+    throws Exception
+  {
+    final TestServer server = new TestServer(PORT);
+    server.setEventLoops(loops);
+    server.indexInfo(ROOM_INFO);
+    server.listen();
+
+    List<TestClient> clients = new ArrayList<TestClient>();
+    ExecutorService updaters = Executors.newFixedThreadPool(UPDATERS);
+    try
+    {
+      for (int i=0; i<CLIENTS; i++)
+      {
+        TestClient client = new TestClient(PORT);
+        client.openConnection();
+        clients.add(client);
+      }
+      awaitClients(server, CLIENTS, "clients connected");
+
+      // The updaters keep going to the connections that disconnect
+      final List<ConnectionToClient> connections =
+        new ArrayList<ConnectionToClient>(server.getConnections());
+      final CountDownLatch stop = new CountDownLatch(1);
+      for (int i=0; i<UPDATERS; i++)
+      {
+        final Random random = new Random(i);
+        updaters.execute(new Runnable()
+        {
+          public void run()
+          {
+            while (stop.getCount() > 0)
+            {
+              ConnectionToClient connection =
+                connections.get(random.nextInt(connections.size()));
+              connection.setInfo(AbstractServer.ID_INFO,
+                random.nextInt(4) == 0 ? null : "user" + random.nextInt(IDS));
+              connection.setInfo(ROOM_INFO, "room" + random.nextInt(ROOMS));
+            }
+          }
+        });
+      }
+
+      for (int i=0; i<CLIENTS; i+=2)
+      {
+        clients.get(i).closeConnection();
+        Thread.sleep(5);
+      }
+      awaitClients(server, CLIENTS / 2, "clients disconnected");
+      stop.countDown();
+      updaters.shutdown();
+      Assert.assertTrue(updaters.awaitTermination(5, TimeUnit.SECONDS),
+        "updaters stopped");
+
+      // A disconnected client is removed from the indexes right after
+      // the registry, and a stale entry would stay for good
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return consistent(server, AbstractServer.ID_INFO, "user", IDS)
+            && consistent(server, ROOM_INFO, "room", ROOMS);
+        }
+      }, 5000, "indexes holding exactly the connected clients");
+
+      // The messages sent by ID only reach the connected clients
+      for (int i=0; i<IDS; i++)
+      {
+        String id = "user" + i;
+        Assert.assertEquals(!expected(server, AbstractServer.ID_INFO, id)
+          .isEmpty(), server.sendToClient(id, id), "message sent to " + id);
+      }
+    }
+    finally
+    {
+      updaters.shutdownNow();
+      for (TestClient client : clients)
+        client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * Returns true if the index of a type of information holds exactly
+   * the connected clients having each value.
+   */
+  private static boolean consistent(AbstractServer server, String infoType,
+    String prefix, int values)
+  {
+    for (int i=0; i<values; i++)
+    {
+      Object value = prefix + i;
+      Set<ConnectionToClient> indexed = new HashSet<ConnectionToClient>(
+        server.getClientConnections(infoType, value));
+      if (!indexed.equals(expected(server, infoType, value)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the connected clients having the given information.
+   */
+  private static Set<ConnectionToClient> expected(AbstractServer server,
+    String infoType, Object value)
+  {
+    Set<ConnectionToClient> expected = new HashSet<ConnectionToClient>();
+    for (ConnectionToClient connection : server.getConnections())
+    {
+      if (value.equals(connection.getInfo(infoType)))
+        expected.add(connection);
+    }
+    return expected;
+  }
+
+  /**
+   * Waits until the server has the given number of clients.
+   */
+  private static void awaitClients(final AbstractServer server,
+    final int count, String message) throws InterruptedException
+  {
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return server.getNumberOfClients() == count;
+      }
+    }, 10000, message);
+  }
+}
+// End of InfoIndexTest class
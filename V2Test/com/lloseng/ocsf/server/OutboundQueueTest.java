@@ -0,0 +1,350 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> OutboundQueueTest </code> checks the overflow policies of
+* the outbound queues, the default policy of the server, which never
+* blocks the sender, and the delivery of broadcasts by a bounded number
+* of writers.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class OutboundQueueTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12304;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    TestServer server = new TestServer(PORT);
+    server.listen();
+    TestClient client = new TestClient(PORT);
+    try
+    {
+      client.openConnection();
+      ConnectionToClient connection = connectionOf(server);
+
+      testDropOldest(connection, client);
+      testDropConnection(connection);
+      testBlock(connection, client);
+      testBlockInterrupted(connection);
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+
+    testDefaultPolicy();
+    testBoundedWriters();
+  }
+
+  /**
+   * The oldest message is dropped to make room for the new one.
+   */
+  private static void testDropOldest(ConnectionToClient connection,
+    TestClient client) throws Exception
+  {
+    ManualExecutor writers = new ManualExecutor();
+    OutboundQueue queue = new OutboundQueue(connection, writers);
+    OutboundQueue.Delivery[] deliveries = deliveries(3);
+
+    for (int i=0; i<3; i++)
+      Assert.assertTrue(queue.offer("m" + i, null, deliveries[i], 2,
+        AbstractServer.OVERFLOW_DROP_OLDEST), "offer " + i);
+
+    Assert.assertEquals(2, queue.size(), "messages queued");
+    Assert.assertEquals(1, result(deliveries[0]).getDropped(),
+      "oldest dropped");
+
+    writers.runAll();
+    Assert.assertEquals(1, result(deliveries[1]).getDelivered(),
+      "second delivered");
+    Assert.assertEquals(1, result(deliveries[2]).getDelivered(),
+      "third delivered");
+    Assert.assertEquals("m1", client.next(5000), "first message received");
+    Assert.assertEquals("m2", client.next(5000), "second message received");
+  }
+
+  /**
+   * The connection must be dropped when the queue is full.
+   */
+  private static void testDropConnection(ConnectionToClient connection)
+    throws Exception
+  {
+    OutboundQueue queue =
+      new OutboundQueue(connection, new ManualExecutor());
+    OutboundQueue.Delivery[] deliveries = deliveries(2);
+
+    Assert.assertTrue(queue.offer("m0", null, deliveries[0], 1,
+      AbstractServer.OVERFLOW_DROP_CONNECTION), "first offer");
+    Assert.assertTrue(!queue.offer("m1", null, deliveries[1], 1,
+      AbstractServer.OVERFLOW_DROP_CONNECTION), "overflowing offer");
+    Assert.assertEquals(1, result(deliveries[1]).getDropped(),
+      "overflowing message dropped");
+    Assert.assertEquals(1, queue.size(), "messages queued");
+  }
+
+  /**
+   * The sender waits until there is room in the queue.
+   */
+  private static void testBlock(ConnectionToClient connection,
+    TestClient client) throws Exception
+  {
+    ManualExecutor writers = new ManualExecutor();
+    final OutboundQueue queue = new OutboundQueue(connection, writers);
+    final OutboundQueue.Delivery[] deliveries = deliveries(2);
+
+    queue.offer("b0", null, deliveries[0], 1, AbstractServer.OVERFLOW_BLOCK);
+    Thread sender = offerLater(queue, "b1", deliveries[1]);
+    awaitWaiting(sender);
+
+    writers.runAll();
+    sender.join(5000);
+    Assert.assertTrue(!sender.isAlive(), "sender released");
+    writers.runAll();
+
+    Assert.assertEquals(1, result(deliveries[0]).getDelivered(),
+      "first delivered");
+    Assert.assertEquals(1, result(deliveries[1]).getDelivered(),
+      "blocked message delivered");
+    Assert.assertEquals("b0", client.next(5000), "first message received");
+    Assert.assertEquals("b1", client.next(5000),
+      "blocked message received");
+  }
+
+  /**
+   * A waiting sender that is interrupted gives up its message.
+   */
+  private static void testBlockInterrupted(ConnectionToClient connection)
+    throws Exception
+  {
+    OutboundQueue queue =
+      new OutboundQueue(connection, new ManualExecutor());
+    OutboundQueue.Delivery[] deliveries = deliveries(2);
+
+    queue.offer("i0", null, deliveries[0], 1, AbstractServer.OVERFLOW_BLOCK);
+    Thread sender = offerLater(queue, "i1", deliveries[1]);
+    awaitWaiting(sender);
+
+    sender.interrupt();
+    Assert.assertEquals(1, result(deliveries[1]).getFailed(),
+      "interrupted message failed");
+    Assert.assertEquals(1, queue.size(), "messages queued");
+  }
+
+  /**
+   * By default, a client that does not read is disconnected rather
+   * than blocking the thread broadcasting to it.
+   */
+  private static void testDefaultPolicy() throws Exception
+  {
+    final TestServer server = new TestServer(PORT);
+    server.listen();
+
+    // Connected but never reading
+    Socket idle = new Socket("localhost", PORT);
+    try
+    {
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return server.getNumberOfClients() == 1;
+        }
+      }, 5000, "client connected");
+
+      // Enough to fill the socket buffers then the queue
+      final byte[] payload = new byte[16 * 1024];
+      final ArrayList<CompletableFuture<BroadcastResult>> results =
+        new ArrayList<CompletableFuture<BroadcastResult>>();
+      Thread broadcaster = new Thread()
+      {
+        public void run()
+        {
+          for (int i=0; i<10000 && server.getNumberOfClients() > 0; i++)
+            results.add(server.sendToAllClientsAsync(payload));
+        }
+      };
+      broadcaster.setDaemon(true);
+      broadcaster.start();
+      broadcaster.join(10000);
+
+      Assert.assertTrue(!broadcaster.isAlive(), "broadcaster blocked");
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return server.getNumberOfClients() == 0;
+        }
+      }, 10000, "slow client disconnected");
+      BroadcastResult last =
+        results.get(results.size() - 1).get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(0, last.getDelivered(), "last broadcast delivered");
+    }
+    finally
+    {
+      idle.close();
+      server.close();
+    }
+  }
+
+  /**
+   * A single writer delivers the broadcasts to every client, in order.
+   */
+  private static void testBoundedWriters() throws Exception
+  {
+    TestServer server = new TestServer(PORT);
+    server.setOutboundWriters(1);
+    server.listen();
+
+    ArrayList<TestClient> clients = new ArrayList<TestClient>();
+    try
+    {
+      for (int i=0; i<10; i++)
+      {
+        TestClient client = new TestClient(PORT);
+        client.openConnection();
+        clients.add(client);
+      }
+      final TestServer listening = server;
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return listening.getNumberOfClients() == 10;
+        }
+      }, 5000, "clients connected");
+
+      CompletableFuture<BroadcastResult> last = null;
+      for (int i=0; i<100; i++)
+        last = server.sendToAllClientsAsync(Integer.valueOf(i));
+      Assert.assertEquals(10, last.get(10, TimeUnit.SECONDS).getDelivered(),
+        "last broadcast delivered");
+
+      for (TestClient client : clients)
+        for (int i=0; i<100; i++)
+          Assert.assertEquals(Integer.valueOf(i), client.next(5000),
+            "broadcast received");
+    }
+    finally
+    {
+      for (TestClient client : clients)
+        client.closeConnection();
+      server.close();
+    }
+  }
+
+  /**
+   * @return the only connection of a server, once it is connected.
+   */
+  private static ConnectionToClient connectionOf(final AbstractServer server)
+    throws InterruptedException
+  {
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return server.getNumberOfClients() == 1;
+      }
+    }, 5000, "client connected");
+    return server.getConnections().iterator().next();
+  }
+
+  /**
+   * @return the deliveries of messages sent to one client.
+   */
+  private static OutboundQueue.Delivery[] deliveries(int count)
+  {
+    OutboundQueue.Delivery[] deliveries = new OutboundQueue.Delivery[count];
+    for (int i=0; i<count; i++)
+      deliveries[i] = new OutboundQueue.Delivery(1);
+    return deliveries;
+  }
+
+  /**
+   * @return the result of a delivery, once completed.
+   */
+  private static BroadcastResult result(OutboundQueue.Delivery delivery)
+    throws Exception
+  {
+    return delivery.getFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Offers a message to a queue from another thread, with the
+   * blocking policy and a capacity of one message.
+   *
+   * @return the thread offering the message.
+   */
+  private static Thread offerLater(final OutboundQueue queue,
+    final Object message, final OutboundQueue.Delivery delivery)
+  {
+    Thread sender = new Thread()
+    {
+      public void run()
+      {
+        queue.offer(message, null, delivery, 1,
+          AbstractServer.OVERFLOW_BLOCK);
+      }
+    };
+    sender.start();
+    return sender;
+  }
+
+  /**
+   * Waits until a thread waits for room in a queue.
+   */
+  private static void awaitWaiting(final Thread sender)
+    throws InterruptedException
+  {
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return sender.getState() == Thread.State.WAITING;
+      }
+    }, 5000, "sender waiting");
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * An executor running its tasks only when the test asks for it.
+   */
+  private static class ManualExecutor implements Executor
+  {
+    private final LinkedBlockingQueue<Runnable> tasks =
+      new LinkedBlockingQueue<Runnable>();
+
+    public void execute(Runnable task)
+    {
+      tasks.add(task);
+    }
+
+    void runAll()
+    {
+      Runnable task;
+      while ((task = tasks.poll()) != null)
+        task.run();
+    }
+  }
+}
+// End of OutboundQueueTest class
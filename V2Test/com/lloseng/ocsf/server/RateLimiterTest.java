@@ -0,0 +1,161 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> RateLimiterTest </code> checks the token buckets limiting
+* the messages and bytes received from a client, then the pauses they
+* impose on a client sending too fast, with and without event loops.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class RateLimiterTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12315;
+
+  private static final long SECOND = 1000000000L;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testMessageRate();
+    testByteRate();
+    testRefill();
+    testUnlimited();
+    testServer(0);
+    testServer(1);
+  }
+
+  /**
+   * A new client may send one second worth of messages at once, then
+   * must wait for each new token.
+   */
+  private static void testMessageRate()
+  {
+    RateLimiter limiter = new RateLimiter();
+    long now = 5 * SECOND;
+
+    for (int i=0; i<10; i++)
+      Assert.assertEquals(0, limiter.acquire(1, 10, 0, now),
+        "burst message " + i);
+    Assert.assertEquals(SECOND / 10, limiter.acquire(1, 10, 0, now),
+      "delay of the message over the burst");
+    Assert.assertEquals(2 * SECOND / 10, limiter.acquire(1, 10, 0, now),
+      "delay of the next message");
+  }
+
+  /**
+   * The bytes are limited as the messages are, the longest of the two
+   * delays being imposed.
+   */
+  private static void testByteRate()
+  {
+    RateLimiter limiter = new RateLimiter();
+    Assert.assertEquals(0, limiter.acquire(1000, 0, 1000, 0),
+      "burst of bytes");
+    Assert.assertEquals(SECOND / 2, limiter.acquire(500, 0, 1000, 0),
+      "delay of the bytes over the burst");
+
+    limiter = new RateLimiter();
+    Assert.assertEquals(0, limiter.acquire(100, 1, 1000, 0),
+      "first message");
+    Assert.assertEquals(SECOND, limiter.acquire(100, 1, 1000, 0),
+      "longest delay");
+  }
+
+  /**
+   * The buckets refill with time, up to one second worth of tokens.
+   */
+  private static void testRefill()
+  {
+    RateLimiter limiter = new RateLimiter();
+    long now = 0;
+    for (int i=0; i<10; i++)
+      limiter.acquire(1, 10, 0, now);
+
+    now += SECOND / 2;
+    for (int i=0; i<5; i++)
+      Assert.assertEquals(0, limiter.acquire(1, 10, 0, now),
+        "refilled message " + i);
+    Assert.assertTrue(limiter.acquire(1, 10, 0, now) > 0,
+      "message over the refill");
+
+    now += 60 * SECOND;
+    for (int i=0; i<10; i++)
+      Assert.assertEquals(0, limiter.acquire(1, 10, 0, now),
+        "message after idling " + i);
+    Assert.assertTrue(limiter.acquire(1, 10, 0, now) > 0,
+      "burst capped at one second");
+  }
+
+  /**
+   * Without rates, the messages are never delayed.
+   */
+  private static void testUnlimited()
+  {
+    RateLimiter limiter = new RateLimiter();
+    for (int i=0; i<1000; i++)
+      Assert.assertEquals(0, limiter.acquire(1 << 20, 0, 0, 0),
+        "unlimited message " + i);
+  }
+
+  /**
+   * A client sending faster than allowed is slowed down, without
+   * losing any message.
+   *
+   * @param loops the number of event loops of the server.
+   */
+  private static void testServer(int loops) throws Exception
+  {
+    final TestServer server = new TestServer(PORT);
+    server.setEventLoops(loops);
+    server.setEcho(false);
+    server.setInboundRateLimit(200, 0);
+    server.listen();
+
+    TestClient client = new TestClient(PORT);
+    try
+    {
+      client.openConnection();
+      long start = System.nanoTime();
+      for (int i=0; i<300; i++)
+        client.sendToServer(Integer.valueOf(i));
+
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return server.received.size() == 300;
+        }
+      }, 10000, "messages received");
+      long elapsed = System.nanoTime() - start;
+
+      // 200 at once, then 100 at 200 per second
+      Assert.assertTrue(elapsed >= 4 * SECOND / 10,
+        "messages received in " + elapsed / 1000000 + " ms");
+      Assert.assertTrue(server.getInboundPauseCount() > 0, "reading paused");
+      for (int i=0; i<300; i++)
+        Assert.assertEquals(Integer.valueOf(i), server.received.take(),
+          "message received");
+    }
+    finally
+    {
+      client.closeConnection();
+      server.close();
+    }
+  }
+}
+// End of RateLimiterTest class
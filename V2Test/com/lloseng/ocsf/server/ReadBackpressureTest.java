@@ -0,0 +1,124 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> ReadBackpressureTest </code> checks that a client sending
+* faster than its messages are handled is held back, with and without
+* event loops, instead of having the server keep all it sends in
+* memory, and that no message is lost once the handling resumes.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class ReadBackpressureTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12301;
+
+  /**
+   * The number of messages sent by the client.
+   */
+  private static final int MESSAGES = 2000;
+
+  /**
+   * The payload of the messages, for 32MB in all.
+   */
+  private static final byte[] PAYLOAD = new byte[16 * 1024];
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    testBackpressure(0);
+    testBackpressure(1);
+  }
+
+  /**
+   * Sends messages to a server whose handler is blocked, then releases
+   * the handler.
+   *
+   * @param loops the number of event loops of the server.
+   */
+  private static void testBackpressure(int loops) throws Exception
+  {
+    final CountDownLatch release = new CountDownLatch(1);
+    final BlockingQueue<Integer> received = new LinkedBlockingQueue<Integer>();
+    AbstractServer server = new AbstractServer(PORT)
+    {
+      protected void handleMessageFromClient(Object msg,
+        ConnectionToClient client)
+      {
+        try
+        {
+          release.await();
+        }
+        catch (InterruptedException ex) { }
+        received.add((Integer)((Object[])msg)[0]);
+      }
+    };
+    server.setEventLoops(loops);
+    server.setMaxMessageSize(64 * 1024);
+    server.listen();
+
+    final TestClient client = new TestClient(PORT);
+    final AtomicInteger sent = new AtomicInteger();
+    Thread sender = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          for (int i=0; i<MESSAGES; i++)
+          {
+            client.sendToServer(new Object[] {Integer.valueOf(i), PAYLOAD});
+            sent.incrementAndGet();
+          }
+        }
+        catch (IOException ex) { }
+      }
+    };
+    sender.setDaemon(true);
+
+    try
+    {
+      client.setStreamResetPolicy(1, 0);
+      client.openConnection();
+      sender.start();
+
+      // The sender is stopped by TCP long before it has sent everything
+      Thread.sleep(1000);
+      Assert.assertTrue(sender.isAlive(),
+        "client not held back, sent " + sent.get() + " messages");
+      Assert.assertTrue(sent.get() < MESSAGES / 2,
+        "messages sent while the handler was blocked: " + sent.get());
+
+      release.countDown();
+      sender.join(30000);
+      Assert.assertEquals(MESSAGES, sent.get(), "messages sent");
+      for (int i=0; i<MESSAGES; i++)
+        Assert.assertEquals(Integer.valueOf(i),
+          received.poll(10, TimeUnit.SECONDS), "message received");
+    }
+    finally
+    {
+      release.countDown();
+      client.closeConnection();
+      server.close();
+    }
+  }
+}
+// End of ReadBackpressureTest class
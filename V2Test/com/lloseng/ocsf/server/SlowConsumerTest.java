@@ -0,0 +1,264 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> SlowConsumerTest </code> checks the slow consumer policies
+* applied to a client that stops reading, when too many messages wait
+* to be sent to it or when its writes stall, with and without event
+* loops.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class SlowConsumerTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12314;
+
+  /**
+   * The payload of the messages sent to the client.
+   */
+  private static final byte[] PAYLOAD = new byte[16 * 1024];
+
+  /**
+   * The number of bytes that may wait to be sent to the client.
+   */
+  private static final long LIMIT = 256 * 1024;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    for (int loops=0; loops<=1; loops++)
+    {
+      testDisconnect(loops);
+      testWriteStall(loops);
+      testNotify(loops);
+      testDrop(loops);
+    }
+  }
+
+  /**
+   * The client is disconnected once too many messages wait.
+   */
+  private static void testDisconnect(int loops) throws Exception
+  {
+    SlowServer server = start(loops, AbstractServer.SLOW_CONSUMER_DISCONNECT);
+    server.setOutboundLimits(LIMIT, 0, 0);
+    Socket idle = connect(server);
+    try
+    {
+      broadcast(server, 10000);
+      awaitClients(server, 0, "slow client disconnected");
+      Assert.assertEquals(1, server.detected.get(), "slow consumer detected");
+    }
+    finally
+    {
+      idle.close();
+      server.close();
+    }
+  }
+
+  /**
+   * The client is disconnected once its writes stall for too long,
+   * although nothing more is sent to it.
+   */
+  private static void testWriteStall(int loops) throws Exception
+  {
+    SlowServer server = start(loops, AbstractServer.SLOW_CONSUMER_DISCONNECT);
+    server.setOutboundLimits(0, 0, 200);
+    Socket idle = connect(server);
+    try
+    {
+      // More than the socket buffers hold, less than the queue
+      broadcast(server, 800);
+      awaitClients(server, 0, "stalled client disconnected");
+      Assert.assertEquals(1, server.detected.get(), "slow consumer detected");
+    }
+    finally
+    {
+      idle.close();
+      server.close();
+    }
+  }
+
+  /**
+   * The client is only reported, and stays connected.
+   */
+  private static void testNotify(int loops) throws Exception
+  {
+    SlowServer server = start(loops, AbstractServer.SLOW_CONSUMER_NOTIFY);
+    server.setOutboundLimits(LIMIT, 0, 0);
+    Socket idle = connect(server);
+    try
+    {
+      broadcast(server, 1000);
+      ConnectionToClient client = server.getConnections().iterator().next();
+      Assert.assertTrue(client.isSlowConsumer(), "slow consumer flagged");
+      Assert.assertTrue(server.detected.get() > 0, "slow consumer detected");
+      Assert.assertEquals(1, server.getNumberOfClients(), "client connected");
+    }
+    finally
+    {
+      idle.close();
+      server.close();
+    }
+  }
+
+  /**
+   * The messages to the client are dropped while it is over the
+   * limits, and the client stays connected.
+   */
+  private static void testDrop(int loops) throws Exception
+  {
+    SlowServer server = start(loops, AbstractServer.SLOW_CONSUMER_DROP);
+    server.setOutboundLimits(LIMIT, 0, 0);
+    Socket idle = connect(server);
+    try
+    {
+      List<CompletableFuture<BroadcastResult>> results =
+        broadcast(server, 1000);
+      int dropped = 0;
+      for (CompletableFuture<BroadcastResult> result : results)
+      {
+        if (result.isDone())
+          dropped += result.get().getDropped();
+      }
+      Assert.assertTrue(dropped > 0, "messages dropped");
+      Assert.assertTrue(server.detected.get() > 0, "slow consumer detected");
+      Assert.assertEquals(1, server.getNumberOfClients(), "client connected");
+
+      // Without limit, more is sent than the socket buffers hold, then
+      // the bytes left waiting put the client over a limit of one byte:
+      // the drop is reported to the sender, and by a queue whose writer
+      // finds the client over the limit
+      server.setOutboundLimits(0, 0, 0);
+      broadcast(server, 1000);
+      ConnectionToClient client = server.getConnections().iterator().next();
+      Assert.assertTrue(client.getQueuedBytes() > 0, "bytes waiting");
+      server.setOutboundLimits(1, 0, 0);
+      try
+      {
+        client.sendToClient(PAYLOAD);
+        throw new AssertionError("message sent to a slow consumer");
+      }
+      catch (MessageDroppedException ex) { }
+
+      OutboundQueue.Delivery delivery = new OutboundQueue.Delivery(1);
+      new OutboundQueue(client, new Executor()
+      {
+        public void execute(Runnable task)
+        {
+          task.run();
+        }
+      }).offer(PAYLOAD, null, delivery, 10, AbstractServer.OVERFLOW_BLOCK);
+      BroadcastResult result = delivery.getFuture().get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(1, result.getDropped(), "drop reported by the queue");
+      Assert.assertEquals(0, result.getDelivered(), "message delivered");
+    }
+    finally
+    {
+      idle.close();
+      server.close();
+    }
+  }
+
+  /**
+   * @return a listening server applying the given policy.
+   */
+  private static SlowServer start(int loops, int policy) throws Exception
+  {
+    SlowServer server = new SlowServer();
+    server.setEventLoops(loops);
+    server.setSlowConsumerPolicy(policy);
+    server.listen();
+    return server;
+  }
+
+  /**
+   * @return a client connected to the server, which never reads.
+   */
+  private static Socket connect(AbstractServer server) throws Exception
+  {
+    Socket idle = new Socket("localhost", PORT);
+    awaitClients(server, 1, "client connected");
+    return idle;
+  }
+
+  /**
+   * Broadcasts messages, from another thread so that the test fails
+   * rather than hangs if the broadcasts block.
+   *
+   * @return the results of the broadcasts.
+   */
+  private static List<CompletableFuture<BroadcastResult>> broadcast(
+    final AbstractServer server, final int count) throws Exception
+  {
+    final List<CompletableFuture<BroadcastResult>> results =
+      new ArrayList<CompletableFuture<BroadcastResult>>();
+    Thread broadcaster = new Thread()
+    {
+      public void run()
+      {
+        for (int i=0; i<count && server.getNumberOfClients() > 0; i++)
+          results.add(server.sendToAllClientsAsync(PAYLOAD));
+      }
+    };
+    broadcaster.setDaemon(true);
+    broadcaster.start();
+    broadcaster.join(10000);
+    Assert.assertTrue(!broadcaster.isAlive(), "broadcaster blocked");
+    return results;
+  }
+
+  /**
+   * Waits until the server has the given number of clients.
+   */
+  private static void awaitClients(final AbstractServer server,
+    final int count, String message) throws InterruptedException
+  {
+    Assert.awaitTrue(new Assert.Condition()
+    {
+      public boolean holds()
+      {
+        return server.getNumberOfClients() == count;
+      }
+    }, 10000, message);
+  }
+
+// INNER CLASSES ****************************************************
+
+  /**
+   * A server counting the slow consumers detected.
+   */
+  private static class SlowServer extends TestServer
+  {
+    final AtomicInteger detected = new AtomicInteger();
+
+    SlowServer()
+    {
+      super(PORT);
+    }
+
+    protected void slowConsumerDetected(ConnectionToClient client)
+    {
+      detected.incrementAndGet();
+    }
+  }
+}
+// End of SlowConsumerTest class
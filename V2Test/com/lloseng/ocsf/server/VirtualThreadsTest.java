@@ -0,0 +1,97 @@
+// This file contains material supporting section 3.8 of the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package com.lloseng.ocsf.server;
+
+import java.lang.reflect.*;
+import java.util.*;
+import com.lloseng.ocsf.*;
+
+/**
+* The <code> VirtualThreadsTest </code> checks that a server using
+* virtual threads serves and tracks its clients as a server using a
+* platform thread per client does. On a Java runtime without virtual
+* threads, the platform threads started instead are checked.<p>
+*
+* Project Name: OCSF (Object Client-Server Framework)<p>
+*/
+public class VirtualThreadsTest
+{
+// CLASS VARIABLES **************************************************
+
+  private static final int PORT = 12302;
+
+  private static final int CLIENTS = 100;
+
+// CLASS METHODS ****************************************************
+
+  /**
+   * Runs the test.
+   *
+   * @param args not used.
+   * @exception Exception if the test cannot run.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    final TestServer server = new TestServer(PORT);
+    server.setVirtualThreads(true);
+    server.listen();
+
+    ArrayList<TestClient> clients = new ArrayList<TestClient>();
+    try
+    {
+      for (int i=0; i<CLIENTS; i++)
+      {
+        TestClient client = new TestClient(PORT);
+        client.openConnection();
+        clients.add(client);
+      }
+
+      for (int i=0; i<CLIENTS; i++)
+        clients.get(i).sendToServer("ping " + i);
+      for (int i=0; i<CLIENTS; i++)
+        Assert.assertEquals("ping " + i, clients.get(i).next(5000),
+          "reply to client " + i);
+
+      Assert.assertEquals(CLIENTS, server.getNumberOfClients(),
+        "clients tracked");
+      Assert.assertEquals(CLIENTS, server.getConnections().size(),
+        "connections tracked");
+
+      Method isVirtual = null;
+      try
+      {
+        isVirtual = Thread.class.getMethod("isVirtual");
+      }
+      catch (NoSuchMethodException ex) { }
+
+      for (Thread handler : server.handlers)
+      {
+        Assert.assertTrue(handler.getName().startsWith("OCSF connection"),
+          "connection thread named " + handler.getName());
+        if (isVirtual != null)
+          Assert.assertEquals(Boolean.TRUE, isVirtual.invoke(handler),
+            "virtual connection thread");
+      }
+
+      for (TestClient client : clients)
+        client.closeConnection();
+      Assert.awaitTrue(new Assert.Condition()
+      {
+        public boolean holds()
+        {
+          return server.getNumberOfClients() == 0
+            && server.disconnected.get() == CLIENTS;
+        }
+      }, 5000, "clients disconnected");
+    }
+    finally
+    {
+      for (TestClient client : clients)
+        client.closeConnection();
+      server.close();
+    }
+  }
+}
+// End of VirtualThreadsTest class